@@ -17,8 +17,15 @@ package org.jbpm.designer.bpmn2.impl;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.codehaus.jackson.JsonEncoding;
@@ -170,22 +177,49 @@ public class Bpmn2JsonMarshaller {
 	public static final String defaultSequenceflowColor = "#000000";
 
     private static final List<String> defaultTypesList = Arrays.asList("Object", "Boolean", "Float", "Integer", "List", "String");
+
+    /**
+     * System property holding the minimum number of sibling shapes (top-level flow elements,
+     * lanes, subprocess children) for which they are marshalled in parallel. Disabled when not set or &lt;= 0.
+     */
+    public static final String PARALLEL_THRESHOLD = "designer.marshaller.parallel.threshold";
+    private static final int PARALLEL_GRANULARITY = 64;
+    private static ForkJoinPool _marshallingPool;
 	
-	private Map<String, DiagramElement> _diagramElements = new HashMap<String, DiagramElement>();
-	private Map<String,Association> _diagramAssociations = new HashMap<String, Association>();
+	private Map<String, DiagramElement> _diagramElements = new ConcurrentHashMap<String, DiagramElement>();
+	private Map<String,Association> _diagramAssociations = new ConcurrentHashMap<String, Association>();
 	private Scenario _simulationScenario = null;
 	private static final Logger _logger = Logger.getLogger(Bpmn2JsonMarshaller.class);
 	private IDiagramProfile profile;
+	private final JsonFactory _jsonFactory = new JsonFactory();
+	private int _parallelThreshold = Integer.getInteger(PARALLEL_THRESHOLD, 0);
 	
 	public void setProfile(IDiagramProfile profile) {
 	    this.profile = profile;
 	}
 
+    /**
+     * Enables parallel marshalling of sibling shapes once their count reaches the given threshold.
+     * A value &lt;= 0 keeps the sequential behaviour.
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this._parallelThreshold = parallelThreshold;
+    }
+
     public String marshall(Definitions def, String preProcessingData) throws IOException {
-    	DroolsPackageImpl.init();
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        JsonFactory f = new JsonFactory();
-        JsonGenerator generator = f.createJsonGenerator(baos, JsonEncoding.UTF8);
+        marshall(def, preProcessingData, baos);
+        return baos.toString("UTF-8");
+    }
+
+    /**
+     * Writes the json model of the definitions to the stream as UTF-8, without building
+     * it in memory first. The stream is left open.
+     */
+    public void marshall(Definitions def, String preProcessingData, OutputStream out) throws IOException {
+    	DroolsPackageImpl.init();
+        JsonGenerator generator = _jsonFactory.createJsonGenerator(out, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
         if(def.getRelationships() != null && def.getRelationships().size() > 0) {
         	// current support for single relationship
         	Relationship relationship = def.getRelationships().get(0);
@@ -204,8 +238,6 @@ public class Bpmn2JsonMarshaller {
         }
         marshallDefinitions(def, generator, preProcessingData);
         generator.close();
-        
-        return baos.toString("UTF-8");
     }
     
     private void linkSequenceFlows(List<FlowElement> flowElements) {
@@ -475,27 +507,212 @@ public class Bpmn2JsonMarshaller {
     		throw new IllegalArgumentException("Could not find BPMNDI information");
     	}
         generator.writeArrayFieldStart("childShapes");
+
+        int shapeCount = process.getFlowElements().size() + process.getArtifacts().size();
+        if(_parallelThreshold > 0 && shapeCount >= _parallelThreshold && isParallelSafe(plane)) {
+            marshallProcessShapesInParallel(process, plane, generator, preProcessingData, def);
+        } else {
+            List<String> laneFlowElementsIds = new ArrayList<String>();
+            for(LaneSet laneSet : process.getLaneSets()) {
+                for(Lane lane : laneSet.getLanes()) {
+                    // we only want to marshall lanes if we have the bpmndi info for them!
+                    if(findDiagramElement(plane, lane) != null) {
+                        laneFlowElementsIds.addAll( marshallLanes(lane, plane, generator, 0, 0, preProcessingData, def, false) );
+                    }
+                }
+            }
+            for (FlowElement flowElement: process.getFlowElements()) {
+                if( !laneFlowElementsIds.contains(flowElement.getId()) ) {
+                    marshallFlowElement(flowElement, plane, generator, 0, 0, preProcessingData, def);
+                }
+            }
+
+            for (Artifact artifact: process.getArtifacts()) {
+                marshallArtifact(artifact, plane, generator, 0, 0, preProcessingData, def);
+            }
+        }
         
-        List<String> laneFlowElementsIds = new ArrayList<String>();
+        generator.writeEndArray();
+    }
+
+    private void marshallProcessShapesInParallel(Process process, final BPMNPlane plane, JsonGenerator generator, final String preProcessingData, final Definitions def) throws IOException {
+        // index the plane once up front so concurrent lookups never fall back to a linear scan
+        for (DiagramElement element : plane.getPlaneElement()) {
+            BaseElement bpmnElement = null;
+            if(element instanceof BPMNShape) {
+                bpmnElement = ((BPMNShape) element).getBpmnElement();
+            } else if(element instanceof BPMNEdge) {
+                bpmnElement = ((BPMNEdge) element).getBpmnElement();
+            }
+            if(bpmnElement != null && bpmnElement.getId() != null && !_diagramElements.containsKey(bpmnElement.getId())) {
+                _diagramElements.put(bpmnElement.getId(), element);
+            }
+        }
+
+        List<ShapeWriter> writers = new ArrayList<ShapeWriter>();
+        Set<String> laneFlowElementsIds = new HashSet<String>();
         for(LaneSet laneSet : process.getLaneSets()) {
-        	for(Lane lane : laneSet.getLanes()) {
-        		// we only want to marshall lanes if we have the bpmndi info for them!
-        		if(findDiagramElement(plane, lane) != null) {
-        			laneFlowElementsIds.addAll( marshallLanes(lane, plane, generator, 0, 0, preProcessingData, def) );
-        		}
-        	}
+            for(final Lane lane : laneSet.getLanes()) {
+                // we only want to marshall lanes if we have the bpmndi info for them!
+                if(findDiagramElement(plane, lane) != null) {
+                    for (FlowElement flowElement: lane.getFlowNodeRefs()) {
+                        laneFlowElementsIds.add(flowElement.getId());
+                    }
+                    writers.add(new ShapeWriter() {
+                        public void write(JsonGenerator generator) throws IOException {
+                            marshallLanes(lane, plane, generator, 0, 0, preProcessingData, def, true);
+                        }
+                    });
+                }
+            }
         }
         for (FlowElement flowElement: process.getFlowElements()) {
-        	if( !laneFlowElementsIds.contains(flowElement.getId()) ) {
-        		marshallFlowElement(flowElement, plane, generator, 0, 0, preProcessingData, def);
-        	}
+            if( !laneFlowElementsIds.contains(flowElement.getId()) ) {
+                writers.add(flowElementWriter(flowElement, plane, preProcessingData, def, true));
+            }
         }
-        
         for (Artifact artifact: process.getArtifacts()) {
-        	marshallArtifact(artifact, plane, generator, 0, 0, preProcessingData, def);
+            writers.add(artifactWriter(artifact, plane, preProcessingData, def));
+        }
+        writeShapes(writers, generator, true);
+    }
+
+    /**
+     * Event and gateway shapes are resized while being marshalled, and connections read the bounds of
+     * the shapes they attach to. Parallel output is only identical to the sequential one if no shape
+     * needs that correction.
+     */
+    private boolean isParallelSafe(BPMNPlane plane) {
+        for (DiagramElement element : plane.getPlaneElement()) {
+            if(element instanceof BPMNShape) {
+                BaseElement bpmnElement = ((BPMNShape) element).getBpmnElement();
+                Bounds bounds = ((BPMNShape) element).getBounds();
+                if(bounds == null) {
+                    continue;
+                }
+                if(bpmnElement instanceof Event && (bounds.getWidth() != 30 || bounds.getHeight() != 30)) {
+                    return false;
+                }
+                if(bpmnElement instanceof Gateway && (bounds.getWidth() != 40 || bounds.getHeight() != 40)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private ShapeWriter flowElementWriter(final FlowElement flowElement, final BPMNPlane plane, final String preProcessingData, final Definitions def, final boolean parallel) {
+        return new ShapeWriter() {
+            public void write(JsonGenerator generator) throws IOException {
+                marshallFlowElement(flowElement, plane, generator, 0, 0, preProcessingData, def, parallel);
+            }
+        };
+    }
+
+    private ShapeWriter artifactWriter(final Artifact artifact, final BPMNPlane plane, final String preProcessingData, final Definitions def) {
+        return new ShapeWriter() {
+            public void write(JsonGenerator generator) throws IOException {
+                marshallArtifact(artifact, plane, generator, 0, 0, preProcessingData, def);
+            }
+        };
+    }
+
+    /**
+     * Writes the given sibling shapes, in order. In parallel mode each shape is rendered into its own
+     * buffer on the marshalling pool and the buffers are then spliced into the generator.
+     */
+    private void writeShapes(List<ShapeWriter> writers, JsonGenerator generator, boolean parallel) throws IOException {
+        if(!parallel || writers.size() < _parallelThreshold) {
+            for (ShapeWriter writer : writers) {
+                writer.write(generator);
+            }
+            return;
+        }
+        String[] rendered = new String[writers.size()];
+        ShapeRenderTask task = new ShapeRenderTask(writers, rendered, 0, writers.size());
+        try {
+            if(ForkJoinTask.inForkJoinPool()) {
+                task.invoke();
+            } else {
+                getMarshallingPool().invoke(task);
+            }
+        } catch (RuntimeException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+        for (String shape : rendered) {
+            generator.writeRawValue(shape);
+        }
+    }
+
+    private static synchronized ForkJoinPool getMarshallingPool() {
+        if(_marshallingPool == null) {
+            _marshallingPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                    new MarshallingThreadFactory(), null, false);
+        }
+        return _marshallingPool;
+    }
+
+    /**
+     * Stops the threads of the marshalling pool, a later parallel marshalling starts a new pool.
+     */
+    public static synchronized void shutdown() {
+        if(_marshallingPool != null) {
+            _marshallingPool.shutdown();
+            _marshallingPool = null;
+        }
+    }
+
+    private static class MarshallingThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("designer-marshaller-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private interface ShapeWriter {
+        void write(JsonGenerator generator) throws IOException;
+    }
+
+    private class ShapeRenderTask extends RecursiveAction {
+        private final List<ShapeWriter> writers;
+        private final String[] rendered;
+        private final int from;
+        private final int to;
+
+        ShapeRenderTask(List<ShapeWriter> writers, String[] rendered, int from, int to) {
+            this.writers = writers;
+            this.rendered = rendered;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= PARALLEL_GRANULARITY) {
+                try {
+                    for(int i = from; i < to; i++) {
+                        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                        JsonGenerator generator = _jsonFactory.createJsonGenerator(baos, JsonEncoding.UTF8);
+                        writers.get(i).write(generator);
+                        generator.close();
+                        rendered[i] = baos.toString("UTF-8");
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ShapeRenderTask(writers, rendered, from, middle),
+                        new ShapeRenderTask(writers, rendered, middle, to));
+            }
         }
-        
-        generator.writeEndArray();
     }
     
     private void setCatchEventProperties(CatchEvent event, Map<String, Object> properties) {
@@ -686,7 +903,7 @@ public class Bpmn2JsonMarshaller {
         }
     }
     
-    private List<String> marshallLanes(Lane lane, BPMNPlane plane, JsonGenerator generator, int xOffset, int yOffset, String preProcessingData, Definitions def) throws JsonGenerationException, IOException {
+    private List<String> marshallLanes(Lane lane, BPMNPlane plane, JsonGenerator generator, int xOffset, int yOffset, String preProcessingData, Definitions def, boolean parallel) throws JsonGenerationException, IOException {
     	Bounds bounds = ((BPMNShape) findDiagramElement(plane, lane)).getBounds();
     	List<String> nodeRefIds = new ArrayList<String>();
     	if(bounds != null) {
@@ -748,11 +965,13 @@ public class Bpmn2JsonMarshaller {
 	    	generator.writeObjectField("id", "Lane");
 		    generator.writeEndObject();
 		    generator.writeArrayFieldStart("childShapes");
+		    List<ShapeWriter> laneWriters = new ArrayList<ShapeWriter>();
 		    for (FlowElement flowElement: lane.getFlowNodeRefs()) {
 		    	nodeRefIds.add(flowElement.getId());
 		    	// we dont want an offset here!
-		    	marshallFlowElement(flowElement, plane, generator, 0, 0, preProcessingData, def);
+		    	laneWriters.add(flowElementWriter(flowElement, plane, preProcessingData, def, parallel));
 		    }
+		    writeShapes(laneWriters, generator, parallel);
 		    generator.writeEndArray();
 		    generator.writeArrayFieldStart("outgoing");
 		    generator.writeEndArray();
@@ -780,6 +999,10 @@ public class Bpmn2JsonMarshaller {
     }
     
     protected void marshallFlowElement(FlowElement flowElement, BPMNPlane plane, JsonGenerator generator, int xOffset, int yOffset, String preProcessingData, Definitions def) throws JsonGenerationException, IOException {
+        marshallFlowElement(flowElement, plane, generator, xOffset, yOffset, preProcessingData, def, false);
+    }
+
+    private void marshallFlowElement(FlowElement flowElement, BPMNPlane plane, JsonGenerator generator, int xOffset, int yOffset, String preProcessingData, Definitions def, boolean parallel) throws JsonGenerationException, IOException {
     	generator.writeStartObject();
     	generator.writeObjectField("resourceId", flowElement.getId());
     	
@@ -890,9 +1113,9 @@ public class Bpmn2JsonMarshaller {
     		marshallCallActivity((CallActivity) flowElement, plane, generator, xOffset, yOffset, flowElementProperties);
     	} else if (flowElement instanceof SubProcess) {
     	    if(flowElement instanceof AdHocSubProcess) {
-    	        marshallSubProcess((AdHocSubProcess) flowElement, plane, generator, xOffset, yOffset, preProcessingData, def, flowElementProperties);
+    	        marshallSubProcess((AdHocSubProcess) flowElement, plane, generator, xOffset, yOffset, preProcessingData, def, flowElementProperties, parallel);
     	    } else {
-    	        marshallSubProcess((SubProcess) flowElement, plane, generator, xOffset, yOffset, preProcessingData, def, flowElementProperties);
+    	        marshallSubProcess((SubProcess) flowElement, plane, generator, xOffset, yOffset, preProcessingData, def, flowElementProperties, parallel);
     	    }
     	} else if (flowElement instanceof DataObject) {
     		// only marshall if we can find DI info for it - BZ 800346
@@ -2057,6 +2280,10 @@ public class Bpmn2JsonMarshaller {
 	}
     
     protected void marshallSubProcess(SubProcess subProcess, BPMNPlane plane, JsonGenerator generator, int xOffset, int yOffset, String preProcessingData, Definitions def, Map<String, Object> flowElementProperties) throws JsonGenerationException, IOException {
+        marshallSubProcess(subProcess, plane, generator, xOffset, yOffset, preProcessingData, def, flowElementProperties, false);
+    }
+
+    private void marshallSubProcess(SubProcess subProcess, BPMNPlane plane, JsonGenerator generator, int xOffset, int yOffset, String preProcessingData, Definitions def, Map<String, Object> flowElementProperties, boolean parallel) throws JsonGenerationException, IOException {
     	Map<String, Object> properties = new LinkedHashMap<String, Object>(flowElementProperties);
 		if(subProcess.getName() != null) {
 			properties.put("name", unescapeXML(subProcess.getName()));
@@ -2333,13 +2560,15 @@ public class Bpmn2JsonMarshaller {
 	    generator.writeEndObject();
 	    generator.writeArrayFieldStart("childShapes");
 	    Bounds bounds = ((BPMNShape) findDiagramElement(plane, subProcess)).getBounds();
+	    List<ShapeWriter> subProcessWriters = new ArrayList<ShapeWriter>();
 	    for (FlowElement flowElement: subProcess.getFlowElements()) {
 	    	// dont want to set the offset
-	    	marshallFlowElement(flowElement, plane, generator, 0, 0, preProcessingData, def);
+	    	subProcessWriters.add(flowElementWriter(flowElement, plane, preProcessingData, def, parallel));
 	    }
 	    for (Artifact artifact: subProcess.getArtifacts()) {
-	    	marshallArtifact(artifact, plane, generator, 0, 0, preProcessingData, def);
+	    	subProcessWriters.add(artifactWriter(artifact, plane, preProcessingData, def));
 	    }
+	    writeShapes(subProcessWriters, generator, parallel);
 	    generator.writeEndArray();
 	    generator.writeArrayFieldStart("outgoing");
 	    for (BoundaryEvent boundaryEvent: subProcess.getBoundaryEventRefs()) {
@@ -2516,14 +2745,17 @@ public class Bpmn2JsonMarshaller {
     }
     
     private DiagramElement findDiagramElement(BPMNPlane plane, BaseElement baseElement) {
-    	DiagramElement result = _diagramElements.get(baseElement.getId());
+    	String id = baseElement.getId();
+    	DiagramElement result = id == null ? null : _diagramElements.get(id);
     	if (result != null) {
     		return result;
     	}
     	for (DiagramElement element: plane.getPlaneElement()) {
         	if ((element instanceof BPMNEdge && ((BPMNEdge) element).getBpmnElement() == baseElement) ||
     			(element instanceof BPMNShape && ((BPMNShape) element).getBpmnElement() == baseElement)) {
-        		_diagramElements.put(baseElement.getId(), element);
+        		if (id != null) {
+        			_diagramElements.put(id, element);
+        		}
         		return element;
         	}
         }
@@ -2739,7 +2971,8 @@ public class Bpmn2JsonMarshaller {
     }
     
     protected Association findOutgoingAssociation(BPMNPlane plane, BaseElement baseElement) {
-    	Association result = _diagramAssociations.get(baseElement.getId());
+    	String id = baseElement.getId();
+    	Association result = id == null ? null : _diagramAssociations.get(id);
     	if (result != null) {
     		return result;
     	}
@@ -2752,7 +2985,9 @@ public class Bpmn2JsonMarshaller {
             if (artifact instanceof Association){
                 Association association = (Association) artifact;
                 if (association.getSourceRef() == baseElement){
-                    _diagramAssociations.put(baseElement.getId(), association);
+                    if (id != null) {
+                        _diagramAssociations.put(id, association);
+                    }
                     return association;
                 }
             }
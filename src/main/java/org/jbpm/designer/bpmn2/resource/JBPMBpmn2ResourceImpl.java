@@ -1,15 +1,28 @@
 package org.jbpm.designer.bpmn2.resource;
 
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 import org.eclipse.bpmn2.Bpmn2Package;
 import org.eclipse.bpmn2.util.Bpmn2ResourceImpl;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.xmi.XMLResource;
 import org.eclipse.emf.ecore.xmi.XMLSave;
 
 public class JBPMBpmn2ResourceImpl extends Bpmn2ResourceImpl {
 
+	private static final EStructuralFeature DOCUMENTATION_TEXT = Bpmn2Package.eINSTANCE.getDocumentation_Text();
+	private static final EStructuralFeature FORMAL_EXPRESSION_BODY = Bpmn2Package.eINSTANCE.getFormalExpression_Body();
+
+	private static final Map<Object, Object> SAVE_OPTIONS = createSaveOptions(false);
+	private static final Map<Object, Object> COMPACT_SAVE_OPTIONS = createSaveOptions(true);
+
 	public JBPMBpmn2ResourceImpl(URI uri) {
 		super(uri);
 	}
@@ -20,12 +33,30 @@ public class JBPMBpmn2ResourceImpl extends Bpmn2ResourceImpl {
         return new JBPMXMLSaveImpl(createXMLHelper()) {
             @Override
             protected boolean shouldSaveFeature(EObject o, EStructuralFeature f) {
-                if (Bpmn2Package.eINSTANCE.getDocumentation_Text().equals(f))
+                if (DOCUMENTATION_TEXT == f)
                     return false;
-                if (Bpmn2Package.eINSTANCE.getFormalExpression_Body().equals(f))
+                if (FORMAL_EXPRESSION_BODY == f)
                     return false;
                 return super.shouldSaveFeature(o, f);
             }
         };
     }
-}
\ No newline at end of file
+
+	/**
+	 * Saves the resource as UTF-8 encoded XML straight to the given stream.
+	 * @param outputStream - stream to write to, it is not closed
+	 * @param compact - when true the XML is written without indentation and line breaks
+	 */
+	public void save(OutputStream outputStream, boolean compact) throws IOException {
+		save(outputStream, compact ? COMPACT_SAVE_OPTIONS : SAVE_OPTIONS);
+	}
+
+	private static Map<Object, Object> createSaveOptions(boolean compact) {
+		Map<Object, Object> options = new HashMap<Object, Object>();
+		options.put(XMLResource.OPTION_ENCODING, "UTF-8");
+		if (compact) {
+			options.put(XMLResource.OPTION_FORMATTED, Boolean.FALSE);
+		}
+		return Collections.unmodifiableMap(options);
+	}
+}
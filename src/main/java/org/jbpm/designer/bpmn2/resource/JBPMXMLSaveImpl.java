@@ -2,6 +2,8 @@ package org.jbpm.designer.bpmn2.resource;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.eclipse.bpmn2.Definitions;
 import org.eclipse.bpmn2.Process;
@@ -39,15 +41,33 @@ public class JBPMXMLSaveImpl extends XMLSaveImpl {
 						p = (Process) root;
 					}
 				}
-				if(p != null) {
-					((Definitions) e).getRootElements().remove(p);
-					((Definitions) e).getRootElements().add(p);
+				// the process has to be the last root element, only move it if it is not already
+				if(p != null && roots.get(roots.size() - 1) != p) {
+					roots.remove(p);
+					roots.add(p);
 				}
 			}
 		}
 		super.traverse(contents);
 	}
 	
+	/**
+	 * Feature tables are computed once per EClass and shared by all saves. All designer resources are
+	 * created by JBPMBpmn2ResourceFactoryImpl with the same extended metadata and element handler,
+	 * so the ordered features of a class do not change between saves.
+	 */
+	private static final ConcurrentMap<EClass, FeatureTable> featureTables = new ConcurrentHashMap<EClass, FeatureTable>();
+	
+	private static class FeatureTable {
+		private final EStructuralFeature[] features;
+		private final int[] featureKinds;
+		
+		FeatureTable(EStructuralFeature[] features, int[] featureKinds) {
+			this.features = features;
+			this.featureKinds = featureKinds;
+		}
+	}
+	
 	public static class JBPMLookup extends XMLSaveImpl.Lookup {
 		public JBPMLookup(XMLMap map, ExtendedMetaData extendedMetaData, ElementHandler elementHandler) {
 			super(map, extendedMetaData, elementHandler);
@@ -56,29 +76,40 @@ public class JBPMXMLSaveImpl extends XMLSaveImpl {
 		@Override
 		public EStructuralFeature[] getFeatures(EClass cls) {
 			int index = getIndex(cls);
-			EClass c = classes[index];
-
-			if (c == cls) {
+			if (classes[index] == cls) {
 				return features[index];
 			}
-
-			EStructuralFeature[] featureList = listFeatures(cls);
-			if (c == null) {
-				classes[index] = cls;
-				features[index] = featureList;
-				featureKinds[index] = listKinds(featureList);
+			return lookupFeatureTable(cls, index).features;
+		}
+		
+		@Override
+		public int[] getFeatureKinds(EClass cls) {
+			int index = getIndex(cls);
+			if (classes[index] == cls) {
+				return featureKinds[index];
 			}
-			
-			if(cls.getName().equalsIgnoreCase("Process")) {
-				EStructuralFeature[] modifiedFeatureList =  getModifiedProcessFeatureSet(featureList);
-				if (c == null) {
-					classes[index] = cls;
-					features[index] = modifiedFeatureList;
-					featureKinds[index] = listKinds(modifiedFeatureList);
+			return lookupFeatureTable(cls, index).featureKinds;
+		}
+		
+		private FeatureTable lookupFeatureTable(EClass cls, int index) {
+			FeatureTable table = featureTables.get(cls);
+			if (table == null) {
+				EStructuralFeature[] featureList = listFeatures(cls);
+				if(cls.getName().equalsIgnoreCase("Process")) {
+					featureList = getModifiedProcessFeatureSet(featureList);
+				}
+				table = new FeatureTable(featureList, listKinds(featureList));
+				FeatureTable existing = featureTables.putIfAbsent(cls, table);
+				if (existing != null) {
+					table = existing;
 				}
-				return modifiedFeatureList;
 			}
-			return featureList;
+			if (classes[index] == null) {
+				classes[index] = cls;
+				features[index] = table.features;
+				featureKinds[index] = table.featureKinds;
+			}
+			return table;
 		}
 	}
 	
@@ -1,23 +1,22 @@
 package org.jbpm.designer.bpmn2.validation;
 
-import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import org.apache.log4j.Logger;
 import org.eclipse.bpmn2.*;
 import org.eclipse.bpmn2.Process;
 import org.eclipse.emf.ecore.util.FeatureMap;
-import org.jboss.drools.CostParameters;
-import org.jboss.drools.DecimalParameterType;
 import org.jboss.drools.DroolsPackage;
-import org.jboss.drools.ElementParametersType;
-import org.jboss.drools.FloatingParameterType;
 import org.jboss.drools.ProcessAnalysisDataType;
-import org.jboss.drools.ResourceParameters;
 import org.jboss.drools.Scenario;
 import org.jboss.drools.impl.DroolsFactoryImpl;
 import org.jbpm.designer.repository.Repository;
@@ -25,7 +24,28 @@ import org.jbpm.designer.web.profile.IDiagramProfile;
 import org.json.JSONObject;
 
 
+/**
+ * Checks the processes of a model with the {@link ValidationRules} enabled
+ * for the profile. The flow elements of large processes are checked in
+ * partitions on all processors, the partition size is set with the system
+ * property designer.validation.partitionsize and the number of threads with
+ * designer.validation.threads.
+ */
 public class BPMN2SyntaxChecker implements SyntaxChecker {
+	private static final Logger _logger = Logger.getLogger(BPMN2SyntaxChecker.class);
+
+	public static final String PARTITION_SIZE = "designer.validation.partitionsize";
+	public static final String THREADS = "designer.validation.threads";
+
+	private static ForkJoinPool _pool;
+
+	private static synchronized ForkJoinPool getPool() {
+		if(_pool == null) {
+			_pool = new ForkJoinPool(Math.max(1, Integer.getInteger(THREADS, Runtime.getRuntime().availableProcessors())));
+		}
+		return _pool;
+	}
+
 	protected Map<String, List<String>> errors = new HashMap<String, List<String>>();
 	private String json;
 	private String preprocessingData;
@@ -33,6 +53,8 @@ public class BPMN2SyntaxChecker implements SyntaxChecker {
 	private String defaultResourceId = "";
 	private String uuid;
     private Repository repository;
+	private ValidationRules rules;
+	private long[] ruleTimings;
 	
 	public BPMN2SyntaxChecker(String json, String preprocessingData, IDiagramProfile profile, String uuid) {
 		this.json = json;
@@ -40,12 +62,24 @@ public class BPMN2SyntaxChecker implements SyntaxChecker {
 		this.profile = profile;
 		this.uuid = uuid;
         this.repository = profile.getRepository();
+        this.rules = ValidationRules.getInstance(profile);
+        this.ruleTimings = new long[rules.getRules().size()];
+	}
+	
+	/**
+	 * Creates a checker of definitions already parsed, checked with {@link #checkSyntax(Definitions)}.
+	 */
+	public BPMN2SyntaxChecker(IDiagramProfile profile) {
+		this(null, null, profile, null);
 	}
 	
 	public void checkSyntax() {
 		DroolsFactoryImpl.init();
 
-		Definitions def = profile.createMarshaller().getDefinitions(json, preprocessingData);
+		checkSyntax(profile.createMarshaller().getDefinitions(json, preprocessingData));
+	}
+
+	public void checkSyntax(Definitions def) {
 		List<RootElement> rootElements =  def.getRootElements();
 		Scenario defaultScenario = getDefaultScenario(def);
 		
@@ -103,329 +137,98 @@ public class BPMN2SyntaxChecker implements SyntaxChecker {
         			addError(defaultResourceId, "Process has no end node.");
         		}
         		
-        		checkFlowElements(process, process, defaultScenario);
+        		checkFlowElements(process, defaultScenario);
         	}
         }
+        rules.record(ruleTimings);
+        if(_logger.isDebugEnabled()) {
+        	_logger.debug("Validation rule timings (ms): " + getRuleTimings());
+        }
 	}
 	
-	private void checkFlowElements(FlowElementsContainer container, Process process, Scenario defaultScenario) {
-		
-		for(FlowElement fe : container.getFlowElements()) {
-			if(fe instanceof StartEvent) {
-				StartEvent se = (StartEvent) fe;
-				if(se.getOutgoing() == null || se.getOutgoing().size() < 1) {
-					addError(se, "Start node has no outgoing connections");
-				}
-			} else if (fe instanceof EndEvent) {
-				EndEvent ee = (EndEvent) fe;
-				if(ee.getIncoming() == null || ee.getIncoming().size() < 1) {
-					addError(ee, "End node has no incoming connections");
-				}
-			} else {
-				if(fe instanceof FlowNode) {
-					FlowNode fn = (FlowNode) fe;
-					if((fn.getOutgoing() == null || fn.getOutgoing().size() < 1) && !isAdHocProcess(process)) {
-    					addError(fn, "Node has no outgoing connections");
-    				}
-                    if(!(fn instanceof BoundaryEvent)) {
-                        if((fn.getIncoming() == null || fn.getIncoming().size() < 1) && !isAdHocProcess(process)) {
-                            addError(fn, "Node has no incoming connections");
-                        }
-                    }
-				}
-			}
-			
-			if(fe instanceof BusinessRuleTask) {
-				BusinessRuleTask bt = (BusinessRuleTask) fe;
-				Iterator<FeatureMap.Entry> biter = bt.getAnyAttribute().iterator();
-				boolean foundRuleflowGroup = false;
-	            while(biter.hasNext()) {
-	                FeatureMap.Entry entry = biter.next();
-	                if(entry.getEStructuralFeature().getName().equals("ruleFlowGroup")) {
-	                	foundRuleflowGroup = true;
-	                	String ruleflowGroup = (String) entry.getValue();
-	                	if(isEmpty(ruleflowGroup)) {
-	                		addError(bt, "Business Rule Task has no ruleflow-group.");
-	                	}
-	                }
-	            }
-	            if(!foundRuleflowGroup) {
-	            	addError(bt, "Business Rule Task has no ruleflow-group.");
-	            }
-			}
-			
-			if(fe instanceof ScriptTask) {
-				ScriptTask st = (ScriptTask) fe;
-				if(isEmpty(st.getScript())) {
-					addError(st, "Script Task has no script.");
-				}
-				if(isEmpty(st.getScriptFormat())) {
-					addError(st, "Script Task has no script format.");
-				}
-			}
-			
-			if(fe instanceof SendTask) {
-				SendTask st = (SendTask) fe;
-				if(st.getMessageRef() == null) {
-					addError(st, "Send Task has no message.");
-				}
-			}
+	private void checkFlowElements(Process process, Scenario defaultScenario) {
+		final ValidationContext context = new ValidationContext(process, defaultScenario, isAdHocProcess(process));
+		final List<FlowElement> elements = new ArrayList<FlowElement>();
+		collectFlowElements(process, elements);
+		final List<ValidationErrors> elementErrors = new ArrayList<ValidationErrors>(elements.size());
+		final long[] timings = new long[rules.getRules().size()];
 
-            if(fe instanceof ServiceTask) {
-                ServiceTask st = (ServiceTask) fe;
-                if(st.getOperationRef() == null) {
-                    addError(st, "Service Task has no operation.");
-                }
-            }
-			
-			if(fe instanceof UserTask) {
-				UserTask ut = (UserTask) fe;
-				String taskName = null;
-				Iterator<FeatureMap.Entry> utiter = ut.getAnyAttribute().iterator();
-				boolean foundTaskName = false;
-		        while(utiter.hasNext()) {
-		            FeatureMap.Entry entry = utiter.next();
-		            if(entry.getEStructuralFeature().getName().equals("taskName")) {
-		            	foundTaskName = true;
-		            	taskName = (String) entry.getValue();
-		            	if(isEmpty(taskName)) {
-		            		addError(ut, "User Task has no task name.");
-		            	}
-		            }
-		        }
-		        if(!foundTaskName) {
-		        	addError(ut, "User Task has no task name.");
-		        }
-		        
-		        // simulation validation
-		        if(defaultScenario != null && defaultScenario.getElementParameters() != null) {
-		        	for(ElementParametersType eleType : defaultScenario.getElementParameters()) {
-		        		if(eleType.getElementId().equals(ut.getId())) {
-		        			if(eleType.getResourceParameters() != null) {
-	        					ResourceParameters resourceParams = eleType.getResourceParameters();
-	        					if(resourceParams.getQuantity() != null) {
-	        						FloatingParameterType quantityVal = (FloatingParameterType) resourceParams.getQuantity().getParameterValue().get(0);
-	        						double val = quantityVal.getValue();
-	        						if(val < 0) {
-	        							addError(ut, "Staff Availability value must be positive.");
-	        						}
-	        					}
-	        				}
-		        		}
-		        	}
-		        }
-		    }
-			
-			if(fe instanceof Task) {
-				Task ta = (Task) fe;
-				
-				// simulation validation
-				if(defaultScenario != null && defaultScenario.getElementParameters() != null) {
-					for(ElementParametersType eleType : defaultScenario.getElementParameters()) {
-						if(eleType.getElementId().equals(ta.getId())) {
-	        				if(eleType.getCostParameters() != null) {
-	        					CostParameters costParams = eleType.getCostParameters();
-	        					if(costParams.getUnitCost() != null) {
-	        						DecimalParameterType unitCostVal = (DecimalParameterType) costParams.getUnitCost().getParameterValue().get(0);
-	        						BigDecimal val = unitCostVal.getValue();
-	        						if(val.doubleValue() < 0) {
-	        							addError(ta, "Cost per Time Unit value must be positive.");
-	        						}
-	        					}
-	        				}
-	        				if(eleType.getResourceParameters() != null) {
-	        					ResourceParameters resourceParams = eleType.getResourceParameters();
-	        					if(resourceParams.getWorkinghours() != null) {
-	        						FloatingParameterType workingHoursVal = (FloatingParameterType) resourceParams.getWorkinghours().getParameterValue().get(0);
-	        						if(workingHoursVal.getValue() < 0) {
-	        							addError(ta, "Working Hours value must be positive.");
-	        						}
-	        					}
-	        				}
-	        			}
-					}
-				}
-			}
-			
-			if(fe instanceof CatchEvent) {
-				CatchEvent event = (CatchEvent) fe;
-				List<EventDefinition> eventdefs = event.getEventDefinitions();
-				for(EventDefinition ed : eventdefs) {
-    				if(ed instanceof TimerEventDefinition) {
-    	                TimerEventDefinition ted = (TimerEventDefinition) ed;
-    	                boolean gotTimerDef = (ted.getTimeDate() != null || ted.getTimeDuration() != null || ted.getTimeCycle() != null);
-    	                if(!gotTimerDef) {
-    	                	addError(event, "Catch Event has no timedate.");
-	    	                addError(event, "Catch Event has no timeduration.");
-	    	                addError(event, "Catch Event has no timecycle.");
-    	                }
-    	            } else if( ed instanceof SignalEventDefinition) {
-    	                if(((SignalEventDefinition) ed).getSignalRef() == null) {
-    	                	addError(event, "Catch Event has no signalref.");
-    	                }
-    	            } else if( ed instanceof ErrorEventDefinition) {
-    	                if(((ErrorEventDefinition) ed).getErrorRef() == null || ((ErrorEventDefinition) ed).getErrorRef().getErrorCode() == null) {
-    	                	addError(event, "Catch Event has no errorref.");
-    	                }
-    	            } else if( ed instanceof ConditionalEventDefinition ) {
-    	                FormalExpression conditionalExp = (FormalExpression) ((ConditionalEventDefinition) ed).getCondition();
-    	                if(conditionalExp.getBody() == null) {
-    	                	addError(event, "Catch Event has no conditionexpression.");
-    	                }
-    	            } else if( ed instanceof EscalationEventDefinition ) {
-    	                if(((EscalationEventDefinition) ed).getEscalationRef() == null) {
-    	                	addError(event, "Catch Event has no escalationref.");
-    	                }
-    	            } else if( ed instanceof MessageEventDefinition) {
-    	                if(((MessageEventDefinition) ed).getMessageRef() == null) {
-    	                    addError(event, "Catch Event has no messageref.");
-    	                }
-    	            }  else if( ed instanceof CompensateEventDefinition) {
-    	                if(((CompensateEventDefinition) ed).getActivityRef() == null) {
-    	                	addError(event, "Catch Event has no activityref.");
-    	                }
-    	            } 
-				}
-			}
-			
-			if(fe instanceof ThrowEvent) {
-				ThrowEvent event = (ThrowEvent) fe;
-				List<EventDefinition> eventdefs = event.getEventDefinitions();
-		        for(EventDefinition ed : eventdefs) {
-		            if(ed instanceof TimerEventDefinition) {
-		                TimerEventDefinition ted = (TimerEventDefinition) ed;
-		                if(ted.getTimeDate() == null) {
-		                	addError(event, "Throw Event has no timedate.");
-		                }
-		                if(ted.getTimeDuration() == null) {
-		                	addError(event, "Throw Event has no timeduration.");
-		                }
-		                if(ted.getTimeCycle() != null) {
-		                	addError(event, "Throw Event has no timecycle.");
-		                }
-		            } else if( ed instanceof SignalEventDefinition) {
-		                if(((SignalEventDefinition) ed).getSignalRef() == null) {
-		                	addError(event, "Throw Event has no signalref.");
-		                }
-		            } else if( ed instanceof ErrorEventDefinition) {
-		                if(((ErrorEventDefinition) ed).getErrorRef() == null || ((ErrorEventDefinition) ed).getErrorRef().getErrorCode() == null) {
-		                	addError(event, "Throw Event has no errorref.");
-		                }
-		            } else if( ed instanceof ConditionalEventDefinition ) {
-		                FormalExpression conditionalExp = (FormalExpression) ((ConditionalEventDefinition) ed).getCondition();
-		                if(conditionalExp.getBody() == null) {
-		                	addError(event, "Throw Event has no conditional expression.");
-		                }
-		            } else if( ed instanceof EscalationEventDefinition ) {
-		                if(((EscalationEventDefinition) ed).getEscalationRef() == null) {
-		                	addError(event, "Throw Event has no conditional escalationref.");
-		                }
-		            } else if( ed instanceof MessageEventDefinition) {
-		                if(((MessageEventDefinition) ed).getMessageRef() == null) {
-		                	addError(event, "Throw Event has no conditional messageref.");
-		                }
-		            }  else if( ed instanceof CompensateEventDefinition) {
-		                if(((CompensateEventDefinition) ed).getActivityRef() == null) {
-		                	addError(event, "Throw Event has no conditional activityref.");
-		                }
-		            }  
-		        }
+		int partitionSize = Math.max(1, Integer.getInteger(PARTITION_SIZE, 100));
+		if(elements.size() <= partitionSize) {
+			for(FlowElement fe : elements) {
+				elementErrors.add(checkFlowElement(fe, context, timings));
 			}
-			
-			if(fe instanceof SequenceFlow) {
-				SequenceFlow sf = (SequenceFlow) fe;
-				if(sf.getSourceRef() == null) {
-					addError((SequenceFlow) fe, "An Edge must have a source node.");
-				}
-				if(sf.getTargetRef() == null) {
-					addError((SequenceFlow) fe, "An Edge must have a target node.");
-				}
-			}
-			
-			if(fe instanceof Gateway) {
-				Gateway gw = (Gateway) fe;
-				if(gw.getGatewayDirection() == null || gw.getGatewayDirection().getValue() == GatewayDirection.UNSPECIFIED.getValue()) {
-					addError((Gateway) fe, "Gateway does not specify a valid direction.");
-				}
-				if(gw instanceof ExclusiveGateway) {
-					if(gw.getGatewayDirection().getValue() != GatewayDirection.DIVERGING.getValue() && gw.getGatewayDirection().getValue() != GatewayDirection.CONVERGING.getValue()) {
-						addError((Gateway) fe, "Invalid Gateway direction for Exclusing Gateway. It should be 'Converging' or 'Diverging'.");
-					}
-				}
-				if(gw instanceof EventBasedGateway) {
-					if(gw.getGatewayDirection().getValue() != GatewayDirection.DIVERGING.getValue()) {
-						addError((Gateway) fe, "Invalid Gateway direction for EventBased Gateway. It should be 'Diverging'.");
-					}
-				}
-				if(gw instanceof ParallelGateway) {
-					if(gw.getGatewayDirection().getValue() != GatewayDirection.DIVERGING.getValue() && gw.getGatewayDirection().getValue() != GatewayDirection.CONVERGING.getValue()) {
-						addError((Gateway) fe, "Invalid Gateway direction for Parallel Gateway. It should be 'Converging' or 'Diverging'.");
-					}
-				}
-				if(gw instanceof InclusiveGateway) {
-					if(gw.getGatewayDirection().getValue() != GatewayDirection.DIVERGING.getValue()) {
-						addError((Gateway) fe, "Invalid Gateway direction for Inclusive Gateway. It should be 'Diverging'.");
-					}
-				}
-				if(gw instanceof ComplexGateway) {
-					if(gw.getGatewayDirection().getValue() != GatewayDirection.DIVERGING.getValue() && gw.getGatewayDirection().getValue() != GatewayDirection.CONVERGING.getValue()) {
-						addError((Gateway) fe, "Invalid Gateway direction for Complex Gateway. It should be 'Converging' or 'Diverging'.");
-					}
-				}
-				// simulation validation
-				if(!(gw instanceof ParallelGateway)) {
-					List<SequenceFlow> outgoingGwSequenceFlows = gw.getOutgoing();
-					if(outgoingGwSequenceFlows != null && outgoingGwSequenceFlows.size() > 0) {
-						double sum = 0;
-						for(SequenceFlow sf : outgoingGwSequenceFlows) {
-					        	if(defaultScenario.getElementParameters() != null) {
-					        		for(ElementParametersType eleType : defaultScenario.getElementParameters()) {
-					        			if(eleType.getElementId().equals(sf.getId())) {
-					        				if(eleType.getControlParameters() != null && eleType.getControlParameters().getProbability() != null) {
-					        					FloatingParameterType valType = (FloatingParameterType) eleType.getControlParameters().getProbability().getParameterValue().get(0);
-				                    			if(valType.getValue() < 0) {
-				                    				addError(sf, "Probability value must be positive.");
-				                    			} else {
-				                    				sum += valType.getValue();
-				                    			}
-					        				} else {
-					        					addError(sf, "Sequence Flow has no probability defined.");
-					        				}
-					        			}
-					        		}
-					        	}
-						}
-						if(sum != 100) {
-							addError(gw, "The sum of probability values of all outgoing Sequence Flows must be equal 100.");
+		} else {
+			// each partition keeps its own errors and timings, merged in element order
+			List<Callable<Object[]>> partitions = new ArrayList<Callable<Object[]>>();
+			for(int start = 0; start < elements.size(); start += partitionSize) {
+				final List<FlowElement> partition = elements.subList(start, Math.min(start + partitionSize, elements.size()));
+				partitions.add(new Callable<Object[]>() {
+					public Object[] call() {
+						long[] partitionTimings = new long[timings.length];
+						List<ValidationErrors> partitionErrors = new ArrayList<ValidationErrors>(partition.size());
+						for(FlowElement fe : partition) {
+							partitionErrors.add(checkFlowElement(fe, context, partitionTimings));
 						}
+						return new Object[] { partitionErrors, partitionTimings };
 					}
-				}
+				});
 			}
-			
-			if(fe instanceof CallActivity) {
-				CallActivity ca = (CallActivity) fe;
-				if(ca.getCalledElement() == null || ca.getCalledElement().length() < 1) {
-					addError((CallActivity) fe, "Reusable Subprocess has no called element specified.");
+			for(Future<Object[]> future : getPool().invokeAll(partitions)) {
+				Object[] result;
+				try {
+					result = future.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException(e);
+				} catch (ExecutionException e) {
+					throw new IllegalStateException(e.getCause());
 				}
-			}
-			
-			if(fe instanceof DataObject) {
-				DataObject dao = (DataObject) fe;
-				if(dao.getName() == null || dao.getName().length() < 1) {
-					addError((DataObject) fe, "Data Object has no name defined.");
-				} else {
-					if(containsWhiteSpace(dao.getName())) {
-						addError((DataObject) fe, "Data Object name contains white spaces.");
-					}
+				@SuppressWarnings("unchecked")
+				List<ValidationErrors> partitionErrors = (List<ValidationErrors>) result[0];
+				elementErrors.addAll(partitionErrors);
+				long[] partitionTimings = (long[]) result[1];
+				for(int i = 0; i < timings.length; i++) {
+					timings[i] += partitionTimings[i];
 				}
 			}
-			
+		}
+
+		for(ValidationErrors found : elementErrors) {
+			for(int i = 0; i < found.size(); i++) {
+				addError(found.getResourceId(i), found.getMessage(i));
+			}
+		}
+		for(int i = 0; i < timings.length; i++) {
+			ruleTimings[i] += timings[i];
+		}
+	}
+
+	private void collectFlowElements(FlowElementsContainer container, List<FlowElement> elements) {
+		for(FlowElement fe : container.getFlowElements()) {
+			elements.add(fe);
 			if(fe instanceof SubProcess) {
-				checkFlowElements((SubProcess) fe, process, defaultScenario);
+				collectFlowElements((SubProcess) fe, elements);
 			}
 		}
 	}
 
+	/**
+	 * Runs the enabled rules on the element, from any thread.
+	 */
+	protected ValidationErrors checkFlowElement(FlowElement fe, ValidationContext context, long[] timings) {
+		ValidationErrors found = new ValidationErrors();
+		rules.check(fe, context, found, timings);
+		return found;
+	}
+
+	/**
+	 * @return the milliseconds spent in each rule by the last check
+	 */
+	public Map<String, Double> getRuleTimings() {
+		return rules.toMillis(ruleTimings);
+	}
+
 	public Map<String, List<String>> getErrors() {
 		return errors;
 	}
@@ -450,11 +253,7 @@ public class BPMN2SyntaxChecker implements SyntaxChecker {
 		errors.clear();
 	}
 	
-	private void addError(BaseElement element, String error) {
-		addError(element.getId(), error);
-	}
-	
-	private void addError(String resourceId, String error) {
+	protected void addError(String resourceId, String error) {
 		if(errors.containsKey(resourceId) && errors.get(resourceId) != null) {
 			errors.get(resourceId).add(error);
 		} else {
@@ -488,17 +287,6 @@ public class BPMN2SyntaxChecker implements SyntaxChecker {
         return false;
     }
     
-    private boolean containsWhiteSpace(String testString){
-        if(testString != null){
-            for(int i = 0; i < testString.length(); i++){
-                if(Character.isWhitespace(testString.charAt(i))){
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
-    
     private Scenario getDefaultScenario(Definitions def) {
     	if(def.getRelationships() != null && def.getRelationships().size() > 0) {
         	// current support for single relationship
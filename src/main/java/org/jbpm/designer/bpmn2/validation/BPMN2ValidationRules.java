@@ -0,0 +1,466 @@
+package org.jbpm.designer.bpmn2.validation;
+
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.bpmn2.*;
+import org.eclipse.emf.ecore.util.FeatureMap;
+import org.jboss.drools.CostParameters;
+import org.jboss.drools.DecimalParameterType;
+import org.jboss.drools.ElementParametersType;
+import org.jboss.drools.FloatingParameterType;
+import org.jboss.drools.ResourceParameters;
+
+/**
+ * The validation rules of BPMN2 processes.
+ */
+public class BPMN2ValidationRules {
+
+    private static boolean isEmpty(final CharSequence str) {
+        if (str == null || str.length() == 0) {
+            return true;
+        }
+        for (int i = 0, length = str.length(); i < length; i++) {
+            if (str.charAt(i) != ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String getAnyAttribute(BaseElement element, String name, boolean[] found) {
+        Iterator<FeatureMap.Entry> iter = element.getAnyAttribute().iterator();
+        while (iter.hasNext()) {
+            FeatureMap.Entry entry = iter.next();
+            if (entry.getEStructuralFeature().getName().equals(name)) {
+                found[0] = true;
+                return (String) entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static boolean containsWhiteSpace(String testString) {
+        if (testString != null) {
+            for (int i = 0; i < testString.length(); i++) {
+                if (Character.isWhitespace(testString.charAt(i))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public static class ConnectionsRule implements ValidationRule {
+        public String getName() {
+            return "connections";
+        }
+
+        public Class<?>[] getElementTypes() {
+            return new Class<?>[] { FlowNode.class };
+        }
+
+        public void check(FlowElement element, ValidationContext context, ValidationErrors errors) {
+            if (element instanceof StartEvent) {
+                StartEvent se = (StartEvent) element;
+                if (se.getOutgoing() == null || se.getOutgoing().size() < 1) {
+                    errors.add(se, "Start node has no outgoing connections");
+                }
+            } else if (element instanceof EndEvent) {
+                EndEvent ee = (EndEvent) element;
+                if (ee.getIncoming() == null || ee.getIncoming().size() < 1) {
+                    errors.add(ee, "End node has no incoming connections");
+                }
+            } else {
+                FlowNode fn = (FlowNode) element;
+                if ((fn.getOutgoing() == null || fn.getOutgoing().size() < 1) && !context.isAdHoc()) {
+                    errors.add(fn, "Node has no outgoing connections");
+                }
+                if (!(fn instanceof BoundaryEvent)) {
+                    if ((fn.getIncoming() == null || fn.getIncoming().size() < 1) && !context.isAdHoc()) {
+                        errors.add(fn, "Node has no incoming connections");
+                    }
+                }
+            }
+        }
+    }
+
+    public static class BusinessRuleTaskRule implements ValidationRule {
+        public String getName() {
+            return "businessruletask";
+        }
+
+        public Class<?>[] getElementTypes() {
+            return new Class<?>[] { BusinessRuleTask.class };
+        }
+
+        public void check(FlowElement element, ValidationContext context, ValidationErrors errors) {
+            boolean[] found = new boolean[1];
+            String ruleflowGroup = getAnyAttribute(element, "ruleFlowGroup", found);
+            if (!found[0] || isEmpty(ruleflowGroup)) {
+                errors.add(element, "Business Rule Task has no ruleflow-group.");
+            }
+        }
+    }
+
+    public static class ScriptTaskRule implements ValidationRule {
+        public String getName() {
+            return "scripttask";
+        }
+
+        public Class<?>[] getElementTypes() {
+            return new Class<?>[] { ScriptTask.class };
+        }
+
+        public void check(FlowElement element, ValidationContext context, ValidationErrors errors) {
+            ScriptTask st = (ScriptTask) element;
+            if (isEmpty(st.getScript())) {
+                errors.add(st, "Script Task has no script.");
+            }
+            if (isEmpty(st.getScriptFormat())) {
+                errors.add(st, "Script Task has no script format.");
+            }
+        }
+    }
+
+    public static class SendTaskRule implements ValidationRule {
+        public String getName() {
+            return "sendtask";
+        }
+
+        public Class<?>[] getElementTypes() {
+            return new Class<?>[] { SendTask.class };
+        }
+
+        public void check(FlowElement element, ValidationContext context, ValidationErrors errors) {
+            if (((SendTask) element).getMessageRef() == null) {
+                errors.add(element, "Send Task has no message.");
+            }
+        }
+    }
+
+    public static class ServiceTaskRule implements ValidationRule {
+        public String getName() {
+            return "servicetask";
+        }
+
+        public Class<?>[] getElementTypes() {
+            return new Class<?>[] { ServiceTask.class };
+        }
+
+        public void check(FlowElement element, ValidationContext context, ValidationErrors errors) {
+            if (((ServiceTask) element).getOperationRef() == null) {
+                errors.add(element, "Service Task has no operation.");
+            }
+        }
+    }
+
+    public static class UserTaskRule implements ValidationRule {
+        public String getName() {
+            return "usertask";
+        }
+
+        public Class<?>[] getElementTypes() {
+            return new Class<?>[] { UserTask.class };
+        }
+
+        public void check(FlowElement element, ValidationContext context, ValidationErrors errors) {
+            boolean[] found = new boolean[1];
+            String taskName = getAnyAttribute(element, "taskName", found);
+            if (!found[0] || isEmpty(taskName)) {
+                errors.add(element, "User Task has no task name.");
+            }
+
+            // simulation validation
+            ElementParametersType eleType = context.getElementParameters(element.getId());
+            if (eleType != null && eleType.getResourceParameters() != null) {
+                ResourceParameters resourceParams = eleType.getResourceParameters();
+                if (resourceParams.getQuantity() != null) {
+                    FloatingParameterType quantityVal = (FloatingParameterType) resourceParams.getQuantity().getParameterValue().get(0);
+                    if (quantityVal.getValue() < 0) {
+                        errors.add(element, "Staff Availability value must be positive.");
+                    }
+                }
+            }
+        }
+    }
+
+    public static class TaskSimulationRule implements ValidationRule {
+        public String getName() {
+            return "tasksimulation";
+        }
+
+        public Class<?>[] getElementTypes() {
+            return new Class<?>[] { Task.class };
+        }
+
+        public void check(FlowElement element, ValidationContext context, ValidationErrors errors) {
+            ElementParametersType eleType = context.getElementParameters(element.getId());
+            if (eleType == null) {
+                return;
+            }
+            if (eleType.getCostParameters() != null) {
+                CostParameters costParams = eleType.getCostParameters();
+                if (costParams.getUnitCost() != null) {
+                    DecimalParameterType unitCostVal = (DecimalParameterType) costParams.getUnitCost().getParameterValue().get(0);
+                    BigDecimal val = unitCostVal.getValue();
+                    if (val.doubleValue() < 0) {
+                        errors.add(element, "Cost per Time Unit value must be positive.");
+                    }
+                }
+            }
+            if (eleType.getResourceParameters() != null) {
+                ResourceParameters resourceParams = eleType.getResourceParameters();
+                if (resourceParams.getWorkinghours() != null) {
+                    FloatingParameterType workingHoursVal = (FloatingParameterType) resourceParams.getWorkinghours().getParameterValue().get(0);
+                    if (workingHoursVal.getValue() < 0) {
+                        errors.add(element, "Working Hours value must be positive.");
+                    }
+                }
+            }
+        }
+    }
+
+    public static class CatchEventRule implements ValidationRule {
+        public String getName() {
+            return "catchevent";
+        }
+
+        public Class<?>[] getElementTypes() {
+            return new Class<?>[] { CatchEvent.class };
+        }
+
+        public void check(FlowElement element, ValidationContext context, ValidationErrors errors) {
+            CatchEvent event = (CatchEvent) element;
+            List<EventDefinition> eventdefs = event.getEventDefinitions();
+            for (EventDefinition ed : eventdefs) {
+                if (ed instanceof TimerEventDefinition) {
+                    TimerEventDefinition ted = (TimerEventDefinition) ed;
+                    boolean gotTimerDef = (ted.getTimeDate() != null || ted.getTimeDuration() != null || ted.getTimeCycle() != null);
+                    if (!gotTimerDef) {
+                        errors.add(event, "Catch Event has no timedate.");
+                        errors.add(event, "Catch Event has no timeduration.");
+                        errors.add(event, "Catch Event has no timecycle.");
+                    }
+                } else if (ed instanceof SignalEventDefinition) {
+                    if (((SignalEventDefinition) ed).getSignalRef() == null) {
+                        errors.add(event, "Catch Event has no signalref.");
+                    }
+                } else if (ed instanceof ErrorEventDefinition) {
+                    if (((ErrorEventDefinition) ed).getErrorRef() == null || ((ErrorEventDefinition) ed).getErrorRef().getErrorCode() == null) {
+                        errors.add(event, "Catch Event has no errorref.");
+                    }
+                } else if (ed instanceof ConditionalEventDefinition) {
+                    FormalExpression conditionalExp = (FormalExpression) ((ConditionalEventDefinition) ed).getCondition();
+                    if (conditionalExp.getBody() == null) {
+                        errors.add(event, "Catch Event has no conditionexpression.");
+                    }
+                } else if (ed instanceof EscalationEventDefinition) {
+                    if (((EscalationEventDefinition) ed).getEscalationRef() == null) {
+                        errors.add(event, "Catch Event has no escalationref.");
+                    }
+                } else if (ed instanceof MessageEventDefinition) {
+                    if (((MessageEventDefinition) ed).getMessageRef() == null) {
+                        errors.add(event, "Catch Event has no messageref.");
+                    }
+                } else if (ed instanceof CompensateEventDefinition) {
+                    if (((CompensateEventDefinition) ed).getActivityRef() == null) {
+                        errors.add(event, "Catch Event has no activityref.");
+                    }
+                }
+            }
+        }
+    }
+
+    public static class ThrowEventRule implements ValidationRule {
+        public String getName() {
+            return "throwevent";
+        }
+
+        public Class<?>[] getElementTypes() {
+            return new Class<?>[] { ThrowEvent.class };
+        }
+
+        public void check(FlowElement element, ValidationContext context, ValidationErrors errors) {
+            ThrowEvent event = (ThrowEvent) element;
+            List<EventDefinition> eventdefs = event.getEventDefinitions();
+            for (EventDefinition ed : eventdefs) {
+                if (ed instanceof TimerEventDefinition) {
+                    TimerEventDefinition ted = (TimerEventDefinition) ed;
+                    if (ted.getTimeDate() == null) {
+                        errors.add(event, "Throw Event has no timedate.");
+                    }
+                    if (ted.getTimeDuration() == null) {
+                        errors.add(event, "Throw Event has no timeduration.");
+                    }
+                    if (ted.getTimeCycle() != null) {
+                        errors.add(event, "Throw Event has no timecycle.");
+                    }
+                } else if (ed instanceof SignalEventDefinition) {
+                    if (((SignalEventDefinition) ed).getSignalRef() == null) {
+                        errors.add(event, "Throw Event has no signalref.");
+                    }
+                } else if (ed instanceof ErrorEventDefinition) {
+                    if (((ErrorEventDefinition) ed).getErrorRef() == null || ((ErrorEventDefinition) ed).getErrorRef().getErrorCode() == null) {
+                        errors.add(event, "Throw Event has no errorref.");
+                    }
+                } else if (ed instanceof ConditionalEventDefinition) {
+                    FormalExpression conditionalExp = (FormalExpression) ((ConditionalEventDefinition) ed).getCondition();
+                    if (conditionalExp.getBody() == null) {
+                        errors.add(event, "Throw Event has no conditional expression.");
+                    }
+                } else if (ed instanceof EscalationEventDefinition) {
+                    if (((EscalationEventDefinition) ed).getEscalationRef() == null) {
+                        errors.add(event, "Throw Event has no conditional escalationref.");
+                    }
+                } else if (ed instanceof MessageEventDefinition) {
+                    if (((MessageEventDefinition) ed).getMessageRef() == null) {
+                        errors.add(event, "Throw Event has no conditional messageref.");
+                    }
+                } else if (ed instanceof CompensateEventDefinition) {
+                    if (((CompensateEventDefinition) ed).getActivityRef() == null) {
+                        errors.add(event, "Throw Event has no conditional activityref.");
+                    }
+                }
+            }
+        }
+    }
+
+    public static class SequenceFlowRule implements ValidationRule {
+        public String getName() {
+            return "sequenceflow";
+        }
+
+        public Class<?>[] getElementTypes() {
+            return new Class<?>[] { SequenceFlow.class };
+        }
+
+        public void check(FlowElement element, ValidationContext context, ValidationErrors errors) {
+            SequenceFlow sf = (SequenceFlow) element;
+            if (sf.getSourceRef() == null) {
+                errors.add(sf, "An Edge must have a source node.");
+            }
+            if (sf.getTargetRef() == null) {
+                errors.add(sf, "An Edge must have a target node.");
+            }
+        }
+    }
+
+    public static class GatewayDirectionRule implements ValidationRule {
+        public String getName() {
+            return "gatewaydirection";
+        }
+
+        public Class<?>[] getElementTypes() {
+            return new Class<?>[] { Gateway.class };
+        }
+
+        public void check(FlowElement element, ValidationContext context, ValidationErrors errors) {
+            Gateway gw = (Gateway) element;
+            if (gw.getGatewayDirection() == null || gw.getGatewayDirection().getValue() == GatewayDirection.UNSPECIFIED.getValue()) {
+                errors.add(gw, "Gateway does not specify a valid direction.");
+            }
+            if (gw instanceof ExclusiveGateway) {
+                if (gw.getGatewayDirection().getValue() != GatewayDirection.DIVERGING.getValue() && gw.getGatewayDirection().getValue() != GatewayDirection.CONVERGING.getValue()) {
+                    errors.add(gw, "Invalid Gateway direction for Exclusing Gateway. It should be 'Converging' or 'Diverging'.");
+                }
+            }
+            if (gw instanceof EventBasedGateway) {
+                if (gw.getGatewayDirection().getValue() != GatewayDirection.DIVERGING.getValue()) {
+                    errors.add(gw, "Invalid Gateway direction for EventBased Gateway. It should be 'Diverging'.");
+                }
+            }
+            if (gw instanceof ParallelGateway) {
+                if (gw.getGatewayDirection().getValue() != GatewayDirection.DIVERGING.getValue() && gw.getGatewayDirection().getValue() != GatewayDirection.CONVERGING.getValue()) {
+                    errors.add(gw, "Invalid Gateway direction for Parallel Gateway. It should be 'Converging' or 'Diverging'.");
+                }
+            }
+            if (gw instanceof InclusiveGateway) {
+                if (gw.getGatewayDirection().getValue() != GatewayDirection.DIVERGING.getValue()) {
+                    errors.add(gw, "Invalid Gateway direction for Inclusive Gateway. It should be 'Diverging'.");
+                }
+            }
+            if (gw instanceof ComplexGateway) {
+                if (gw.getGatewayDirection().getValue() != GatewayDirection.DIVERGING.getValue() && gw.getGatewayDirection().getValue() != GatewayDirection.CONVERGING.getValue()) {
+                    errors.add(gw, "Invalid Gateway direction for Complex Gateway. It should be 'Converging' or 'Diverging'.");
+                }
+            }
+        }
+    }
+
+    public static class GatewayProbabilityRule implements ValidationRule {
+        public String getName() {
+            return "gatewayprobability";
+        }
+
+        public Class<?>[] getElementTypes() {
+            return new Class<?>[] { Gateway.class };
+        }
+
+        public void check(FlowElement element, ValidationContext context, ValidationErrors errors) {
+            Gateway gw = (Gateway) element;
+            if (gw instanceof ParallelGateway || context.getDefaultScenario() == null) {
+                return;
+            }
+            List<SequenceFlow> outgoingGwSequenceFlows = gw.getOutgoing();
+            if (outgoingGwSequenceFlows != null && outgoingGwSequenceFlows.size() > 0) {
+                double sum = 0;
+                for (SequenceFlow sf : outgoingGwSequenceFlows) {
+                    ElementParametersType eleType = context.getElementParameters(sf.getId());
+                    if (eleType != null) {
+                        if (eleType.getControlParameters() != null && eleType.getControlParameters().getProbability() != null) {
+                            FloatingParameterType valType = (FloatingParameterType) eleType.getControlParameters().getProbability().getParameterValue().get(0);
+                            if (valType.getValue() < 0) {
+                                errors.add(sf, "Probability value must be positive.");
+                            } else {
+                                sum += valType.getValue();
+                            }
+                        } else {
+                            errors.add(sf, "Sequence Flow has no probability defined.");
+                        }
+                    }
+                }
+                if (sum != 100) {
+                    errors.add(gw, "The sum of probability values of all outgoing Sequence Flows must be equal 100.");
+                }
+            }
+        }
+    }
+
+    public static class CallActivityRule implements ValidationRule {
+        public String getName() {
+            return "callactivity";
+        }
+
+        public Class<?>[] getElementTypes() {
+            return new Class<?>[] { CallActivity.class };
+        }
+
+        public void check(FlowElement element, ValidationContext context, ValidationErrors errors) {
+            CallActivity ca = (CallActivity) element;
+            if (ca.getCalledElement() == null || ca.getCalledElement().length() < 1) {
+                errors.add(ca, "Reusable Subprocess has no called element specified.");
+            }
+        }
+    }
+
+    public static class DataObjectRule implements ValidationRule {
+        public String getName() {
+            return "dataobject";
+        }
+
+        public Class<?>[] getElementTypes() {
+            return new Class<?>[] { DataObject.class };
+        }
+
+        public void check(FlowElement element, ValidationContext context, ValidationErrors errors) {
+            DataObject dao = (DataObject) element;
+            if (dao.getName() == null || dao.getName().length() < 1) {
+                errors.add(dao, "Data Object has no name defined.");
+            } else if (containsWhiteSpace(dao.getName())) {
+                errors.add(dao, "Data Object name contains white spaces.");
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package org.jbpm.designer.bpmn2.validation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.eclipse.bpmn2.FlowElement;
+import org.jbpm.designer.web.profile.IDiagramProfile;
+
+/**
+ * Syntax checker that remembers, per model, the errors found by the rules on each flow element, and on
+ * the next check of the same model only checks again the elements that changed and their neighbours.
+ * <p>
+ * Elements are compared by a hash of their stencil, properties, connections and parent in the posted
+ * json, so moving or resizing shapes changes nothing. When no element changed the errors of the last
+ * check are returned without unmarshalling the model. A change to the process properties or to the
+ * preprocessing data checks all elements again.
+ * <p>
+ * Models are identified by profile and uuid, the number of models remembered is set with the system
+ * property designer.syntaxchecker.maxentries.
+ */
+public class IncrementalSyntaxChecker extends BPMN2SyntaxChecker {
+
+    private static final Logger _logger = Logger.getLogger(IncrementalSyntaxChecker.class);
+
+    public static final String MAX_ENTRIES = "designer.syntaxchecker.maxentries";
+
+    private static final ObjectMapper _mapper = new ObjectMapper();
+
+    private static final Map<String, ModelState> _models = new LinkedHashMap<String, ModelState>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ModelState> eldest) {
+            return size() > Integer.getInteger(MAX_ENTRIES, 100);
+        }
+    };
+
+    private final String json;
+    private final String preprocessingData;
+    private final String key;
+    private ModelState previous;
+    private ModelState current;
+    private Set<String> dirty;
+
+    public IncrementalSyntaxChecker(String json, String preprocessingData, IDiagramProfile profile, String uuid) {
+        super(json, preprocessingData, profile, uuid);
+        this.json = json;
+        this.preprocessingData = preprocessingData;
+        this.key = uuid == null || uuid.length() == 0 ? null : profile.getName() + ":" + uuid;
+    }
+
+    @Override
+    public void checkSyntax() {
+        if (key == null) {
+            super.checkSyntax();
+            return;
+        }
+        try {
+            current = readState(json, preprocessingData);
+        } catch (IOException e) {
+            _logger.warn("Unable to read the model, checking it all: " + e.getMessage());
+            super.checkSyntax();
+            return;
+        }
+        synchronized (_models) {
+            previous = _models.get(key);
+        }
+        if (previous != null && previous.context.equals(current.context)
+                && previous.hashes.equals(current.hashes)) {
+            for (Map.Entry<String, List<String>> error : previous.errors.entrySet()) {
+                errors.put(error.getKey(), new ArrayList<String>(error.getValue()));
+            }
+            return;
+        }
+        dirty = previous == null || !previous.context.equals(current.context) ? null
+                : findDirty(previous, current);
+
+        super.checkSyntax();
+
+        for (Map.Entry<String, List<String>> error : errors.entrySet()) {
+            current.errors.put(error.getKey(), new ArrayList<String>(error.getValue()));
+        }
+        synchronized (_models) {
+            _models.put(key, current);
+        }
+    }
+
+    @Override
+    protected ValidationErrors checkFlowElement(FlowElement fe, ValidationContext context, long[] timings) {
+        String id = fe.getId();
+        if (id == null || !current.hashes.containsKey(id)) {
+            return super.checkFlowElement(fe, context, timings);
+        }
+        ValidationErrors found = dirty == null || dirty.contains(id) ? null : previous.elementErrors.get(id);
+        if (found == null) {
+            found = super.checkFlowElement(fe, context, timings);
+        }
+        current.elementErrors.put(id, found);
+        return found;
+    }
+
+    /**
+     * @return the ids of the elements that changed, were added or removed, and of their neighbours
+     *         before and after the change
+     */
+    static Set<String> findDirty(ModelState previous, ModelState current) {
+        Set<String> changed = new HashSet<String>();
+        for (Map.Entry<String, String> hash : current.hashes.entrySet()) {
+            if (!hash.getValue().equals(previous.hashes.get(hash.getKey()))) {
+                changed.add(hash.getKey());
+            }
+        }
+        for (String id : previous.hashes.keySet()) {
+            if (!current.hashes.containsKey(id)) {
+                changed.add(id);
+            }
+        }
+        Set<String> dirty = new HashSet<String>(changed);
+        for (String id : changed) {
+            addAll(dirty, previous.neighbours.get(id));
+            addAll(dirty, current.neighbours.get(id));
+        }
+        return dirty;
+    }
+
+    private static void addAll(Set<String> dirty, Set<String> ids) {
+        if (ids != null) {
+            dirty.addAll(ids);
+        }
+    }
+
+    static ModelState readState(String json, String preprocessingData) throws IOException {
+        JsonNode root = _mapper.readTree(json);
+        ModelState state = new ModelState();
+        StringBuilder context = new StringBuilder();
+        context.append(root.path("properties").toString()).append('\n');
+        context.append(preprocessingData == null ? "" : preprocessingData);
+        state.context = DigestUtils.shaHex(context.toString());
+        readShapes(root, "", state);
+        return state;
+    }
+
+    private static void readShapes(JsonNode parent, String parentId, ModelState state) {
+        for (Iterator<JsonNode> shapes = parent.path("childShapes").getElements(); shapes.hasNext();) {
+            JsonNode shape = shapes.next();
+            String id = shape.path("resourceId").getTextValue();
+            if (id == null) {
+                continue;
+            }
+            StringBuilder text = new StringBuilder();
+            text.append(shape.path("stencil").path("id").getValueAsText()).append('\n');
+            text.append(parentId).append('\n');
+            text.append(shape.path("properties").toString()).append('\n');
+            for (Iterator<JsonNode> outgoing = shape.path("outgoing").getElements(); outgoing.hasNext();) {
+                String targetId = outgoing.next().path("resourceId").getTextValue();
+                text.append(targetId).append(',');
+                addNeighbours(state, id, targetId);
+            }
+            String targetId = shape.path("target").path("resourceId").getTextValue();
+            text.append('\n').append(targetId);
+            addNeighbours(state, id, targetId);
+            state.hashes.put(id, DigestUtils.shaHex(text.toString()));
+            readShapes(shape, id, state);
+        }
+    }
+
+    private static void addNeighbours(ModelState state, String id, String otherId) {
+        if (otherId == null) {
+            return;
+        }
+        addNeighbour(state, id, otherId);
+        addNeighbour(state, otherId, id);
+    }
+
+    private static void addNeighbour(ModelState state, String id, String otherId) {
+        Set<String> neighbours = state.neighbours.get(id);
+        if (neighbours == null) {
+            neighbours = new HashSet<String>();
+            state.neighbours.put(id, neighbours);
+        }
+        neighbours.add(otherId);
+    }
+
+    /**
+     * What is remembered of the last check of a model.
+     */
+    static class ModelState {
+        String context;
+        final Map<String, String> hashes = new HashMap<String, String>();
+        final Map<String, Set<String>> neighbours = new HashMap<String, Set<String>>();
+        final Map<String, ValidationErrors> elementErrors = new ConcurrentHashMap<String, ValidationErrors>();
+        final Map<String, List<String>> errors = new HashMap<String, List<String>>();
+    }
+}
@@ -11,4 +11,5 @@ public interface SyntaxChecker {
 	public JSONObject getErrorsAsJson();
 	public boolean errorsFound();
 	public void clearErrors();
+	public Map<String,Double> getRuleTimings();
 }
@@ -0,0 +1,55 @@
+package org.jbpm.designer.bpmn2.validation;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.bpmn2.Process;
+import org.jboss.drools.ElementParametersType;
+import org.jboss.drools.Scenario;
+
+/**
+ * What rules know of the process of the element they check. Read only, shared
+ * by the rules running on the elements of the process.
+ */
+public class ValidationContext {
+    private final Process process;
+    private final Scenario defaultScenario;
+    private final boolean adHoc;
+    private final Map<String, ElementParametersType> elementParameters = new HashMap<String, ElementParametersType>();
+
+    public ValidationContext(Process process, Scenario defaultScenario, boolean adHoc) {
+        this.process = process;
+        this.defaultScenario = defaultScenario;
+        this.adHoc = adHoc;
+        if (defaultScenario != null && defaultScenario.getElementParameters() != null) {
+            for (ElementParametersType parameters : defaultScenario.getElementParameters()) {
+                // the first parameters of an element win, as when looking them up in order
+                if (!elementParameters.containsKey(parameters.getElementId())) {
+                    elementParameters.put(parameters.getElementId(), parameters);
+                }
+            }
+        }
+    }
+
+    public Process getProcess() {
+        return process;
+    }
+
+    /**
+     * @return the simulation scenario, or null when the model has none
+     */
+    public Scenario getDefaultScenario() {
+        return defaultScenario;
+    }
+
+    public boolean isAdHoc() {
+        return adHoc;
+    }
+
+    /**
+     * @return the simulation parameters of the element, or null
+     */
+    public ElementParametersType getElementParameters(String elementId) {
+        return elementParameters.get(elementId);
+    }
+}
@@ -0,0 +1,36 @@
+package org.jbpm.designer.bpmn2.validation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.bpmn2.BaseElement;
+
+/**
+ * The errors found by the rules on one flow element, in the order they were
+ * found. Errors may be reported on other elements than the checked one.
+ */
+public class ValidationErrors {
+    private final List<String> resourceIds = new ArrayList<String>();
+    private final List<String> messages = new ArrayList<String>();
+
+    public void add(BaseElement element, String error) {
+        add(element.getId(), error);
+    }
+
+    public void add(String resourceId, String error) {
+        resourceIds.add(resourceId);
+        messages.add(error);
+    }
+
+    public int size() {
+        return messages.size();
+    }
+
+    public String getResourceId(int index) {
+        return resourceIds.get(index);
+    }
+
+    public String getMessage(int index) {
+        return messages.get(index);
+    }
+}
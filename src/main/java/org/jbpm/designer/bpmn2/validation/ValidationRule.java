@@ -0,0 +1,30 @@
+package org.jbpm.designer.bpmn2.validation;
+
+import org.eclipse.bpmn2.FlowElement;
+
+/**
+ * A check of the flow elements of a process. Rules are found with
+ * {@link java.util.ServiceLoader}, listed in
+ * META-INF/services/org.jbpm.designer.bpmn2.validation.ValidationRule, and
+ * run in that order on each element of one of their types.
+ * <p>
+ * Rules are shared and run on several elements at once, they must not keep
+ * state between calls.
+ */
+public interface ValidationRule {
+
+    /**
+     * @return the name of the rule, used to disable it in a profile
+     */
+    public String getName();
+
+    /**
+     * @return the types of the flow elements the rule checks
+     */
+    public Class<?>[] getElementTypes();
+
+    /**
+     * Checks the element, adding what is wrong with it to the errors.
+     */
+    public void check(FlowElement element, ValidationContext context, ValidationErrors errors);
+}
@@ -0,0 +1,138 @@
+package org.jbpm.designer.bpmn2.validation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.eclipse.bpmn2.FlowElement;
+import org.jbpm.designer.web.profile.IDiagramProfile;
+
+/**
+ * The validation rules enabled for a profile, with the time spent in each
+ * of them since they were loaded.
+ */
+public class ValidationRules {
+
+    private static List<ValidationRule> _availableRules;
+    private static final Map<String, ValidationRules> _profileRules = new HashMap<String, ValidationRules>();
+
+    /**
+     * @return all the rules found on the class path, in their declaration order
+     */
+    public static synchronized List<ValidationRule> getAvailableRules() {
+        if (_availableRules == null) {
+            List<ValidationRule> rules = new ArrayList<ValidationRule>();
+            for (ValidationRule rule : ServiceLoader.load(ValidationRule.class, ValidationRule.class.getClassLoader())) {
+                rules.add(rule);
+            }
+            _availableRules = Collections.unmodifiableList(rules);
+        }
+        return _availableRules;
+    }
+
+    /**
+     * @return the rules enabled for the profile
+     */
+    public static synchronized ValidationRules getInstance(IDiagramProfile profile) {
+        Collection<String> disabled = profile.getDisabledValidationRules();
+        String key = profile.getName() + ":" + (disabled == null ? "" : new TreeSet<String>(disabled).toString());
+        ValidationRules rules = _profileRules.get(key);
+        if (rules == null) {
+            List<ValidationRule> enabled = new ArrayList<ValidationRule>();
+            for (ValidationRule rule : getAvailableRules()) {
+                if (disabled == null || !disabled.contains(rule.getName())) {
+                    enabled.add(rule);
+                }
+            }
+            rules = new ValidationRules(enabled);
+            _profileRules.put(key, rules);
+        }
+        return rules;
+    }
+
+    private final List<ValidationRule> rules;
+    private final ConcurrentMap<Class<?>, int[]> applicableRules = new ConcurrentHashMap<Class<?>, int[]>();
+    private final AtomicLongArray totalNanos;
+
+    ValidationRules(List<ValidationRule> rules) {
+        this.rules = Collections.unmodifiableList(new ArrayList<ValidationRule>(rules));
+        this.totalNanos = new AtomicLongArray(rules.size());
+    }
+
+    public List<ValidationRule> getRules() {
+        return rules;
+    }
+
+    /**
+     * Runs the rules of the element type on the element, adding the time spent in each rule to the
+     * timings, indexed like the rules.
+     */
+    public void check(FlowElement element, ValidationContext context, ValidationErrors errors, long[] timings) {
+        for (int index : getApplicableRules(element.getClass())) {
+            long start = System.nanoTime();
+            rules.get(index).check(element, context, errors);
+            timings[index] += System.nanoTime() - start;
+        }
+    }
+
+    int[] getApplicableRules(Class<?> type) {
+        int[] applicable = applicableRules.get(type);
+        if (applicable == null) {
+            List<Integer> indexes = new ArrayList<Integer>();
+            for (int i = 0; i < rules.size(); i++) {
+                for (Class<?> elementType : rules.get(i).getElementTypes()) {
+                    if (elementType.isAssignableFrom(type)) {
+                        indexes.add(i);
+                        break;
+                    }
+                }
+            }
+            applicable = new int[indexes.size()];
+            for (int i = 0; i < applicable.length; i++) {
+                applicable[i] = indexes.get(i);
+            }
+            applicableRules.putIfAbsent(type, applicable);
+        }
+        return applicable;
+    }
+
+    /**
+     * Adds the timings of a check to the totals.
+     */
+    void record(long[] timings) {
+        for (int i = 0; i < timings.length; i++) {
+            totalNanos.addAndGet(i, timings[i]);
+        }
+    }
+
+    /**
+     * @return the milliseconds spent in each rule by the check of the timings
+     */
+    public Map<String, Double> toMillis(long[] timings) {
+        Map<String, Double> millis = new LinkedHashMap<String, Double>();
+        for (int i = 0; i < timings.length; i++) {
+            millis.put(rules.get(i).getName(), timings[i] / 1000000d);
+        }
+        return millis;
+    }
+
+    /**
+     * @return the milliseconds spent in each rule since the rules were loaded
+     */
+    public Map<String, Double> getTotalMillis() {
+        long[] timings = new long[rules.size()];
+        for (int i = 0; i < timings.length; i++) {
+            timings[i] = totalNanos.get(i);
+        }
+        return toMillis(timings);
+    }
+}
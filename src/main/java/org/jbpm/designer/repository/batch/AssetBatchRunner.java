@@ -0,0 +1,199 @@
+package org.jbpm.designer.repository.batch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.jbpm.designer.repository.Asset;
+import org.jbpm.designer.repository.Filter;
+import org.jbpm.designer.repository.Repository;
+import org.jbpm.designer.repository.filters.FilterByExtension;
+
+/**
+ * Enumerates process assets of a repository and runs the registered <code>AssetProcessor</code>s
+ * for each of them on a fixed size pool of worker threads.
+ */
+public class AssetBatchRunner {
+
+    private static final Logger _logger = Logger.getLogger(AssetBatchRunner.class);
+
+    public static final String EXT_BPMN = ".bpmn";
+    public static final String EXT_BPMN2 = ".bpmn2";
+
+    private static List<AssetProcessor> warmers;
+
+    private final Repository repository;
+    private final int parallelism;
+    private final List<AssetProcessor> processors = new ArrayList<AssetProcessor>();
+    private Filter filter = new FilterByExtension(EXT_BPMN, EXT_BPMN2);
+
+    public AssetBatchRunner(Repository repository, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, was " + parallelism);
+        }
+        this.repository = repository;
+        this.parallelism = parallelism;
+    }
+
+    public AssetBatchRunner(Repository repository) {
+        this(repository, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Registers processor to be run for each asset, processors run in registration order
+     * and processing of an asset stops at the first processor that fails.
+     */
+    public AssetBatchRunner addProcessor(AssetProcessor processor) {
+        processors.add(processor);
+        return this;
+    }
+
+    /**
+     * Replaces the default filter that selects <code>.bpmn</code> and <code>.bpmn2</code> assets
+     */
+    public AssetBatchRunner setFilter(Filter filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     * Registers processor that pre-populates a cache for a process asset, in addition to the
+     * built-in <code>CacheWarmer</code>s. Registered warmers are added to a run with <code>addWarmers</code>.
+     */
+    public static synchronized void registerWarmer(AssetProcessor warmer) {
+        if (!getWarmers().contains(warmer)) {
+            warmers.add(warmer);
+        }
+    }
+
+    /**
+     * @return the built-in cache warmers found on the class path followed by the registered ones
+     */
+    public static synchronized List<AssetProcessor> getWarmers() {
+        if (warmers == null) {
+            warmers = new CopyOnWriteArrayList<AssetProcessor>();
+            for (CacheWarmer warmer : ServiceLoader.load(CacheWarmer.class, CacheWarmer.class.getClassLoader())) {
+                warmers.add(warmer);
+            }
+        }
+        return warmers;
+    }
+
+    /**
+     * Adds all registered cache warmers to this run
+     */
+    public AssetBatchRunner addWarmers() {
+        processors.addAll(getWarmers());
+        return this;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Processes all matching assets found under <code>startAt</code>
+     * @param startAt - location to start enumerating assets from, relative to the repository root
+     * @param listener - optional progress listener, may be null
+     * @return - report of the run once all assets are processed
+     */
+    public BatchReport run(String startAt, final BatchProgressListener listener) {
+        long start = System.currentTimeMillis();
+        Collection<Asset> assets = repository.listAssetsRecursively(startAt, filter);
+        if (assets == null) {
+            _logger.error("Unable to list assets under " + startAt);
+            assets = new ArrayList<Asset>();
+        }
+        final int total = assets.size();
+        if (listener != null) {
+            listener.started(total);
+        }
+
+        final AtomicInteger completed = new AtomicInteger();
+        List<AssetResult> results = new ArrayList<AssetResult>(total);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new BatchThreadFactory());
+        try {
+            CompletionService<AssetResult> completionService = new ExecutorCompletionService<AssetResult>(executor);
+            for (final Asset asset : assets) {
+                completionService.submit(new Callable<AssetResult>() {
+                    public AssetResult call() {
+                        AssetResult result = processAsset(asset);
+                        if (listener != null) {
+                            listener.assetCompleted(result, completed.incrementAndGet(), total);
+                        }
+                        return result;
+                    }
+                });
+            }
+            for (int i = 0; i < total; i++) {
+                try {
+                    results.add(completionService.take().get());
+                } catch (ExecutionException e) {
+                    _logger.error("Batch task failed: " + e.getCause().getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            _logger.error("Batch run interrupted after " + results.size() + " of " + total + " assets");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        BatchReport report = new BatchReport(results, System.currentTimeMillis() - start, parallelism);
+        if (listener != null) {
+            listener.finished(report);
+        }
+        return report;
+    }
+
+    @SuppressWarnings("unchecked")
+    private AssetResult processAsset(Asset asset) {
+        AssetResult result = new AssetResult(asset.getUniqueId(), getAssetPath(asset));
+        long start = System.nanoTime();
+        try {
+            long phaseStart = System.nanoTime();
+            Asset<String> loadedAsset = repository.loadAsset(asset.getUniqueId());
+            result.addTiming("load", phaseStart);
+            for (AssetProcessor processor : processors) {
+                processor.process(loadedAsset, result);
+                if (!result.isSuccessful()) {
+                    break;
+                }
+            }
+        } catch (Throwable t) {
+            _logger.error("Error processing asset " + result.getPath() + ": " + t.getMessage());
+            result.addError(t.getClass().getSimpleName() + ": " + t.getMessage());
+        }
+        result.setDuration((System.nanoTime() - start) / 1000000L);
+        return result;
+    }
+
+    private static String getAssetPath(Asset asset) {
+        String location = asset.getAssetLocation();
+        if (location == null) {
+            return asset.getFullName();
+        }
+        return location.endsWith("/") ? location + asset.getFullName() : location + "/" + asset.getFullName();
+    }
+
+    private static class BatchThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "designer-batch-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package org.jbpm.designer.repository.batch;
+
+import org.jbpm.designer.repository.Asset;
+
+/**
+ * Unit of work applied by <code>AssetBatchRunner</code> to every asset it enumerates.
+ * Implementations are called concurrently from several worker threads and must not keep per asset state.
+ */
+public interface AssetProcessor {
+
+    /**
+     * Processes single asset
+     * @param asset - asset including its content
+     * @param result - result to record errors, warnings and phase timings in
+     * @throws Exception - any exception is recorded as an error of the given asset
+     */
+    void process(Asset<String> asset, AssetResult result) throws Exception;
+}
@@ -0,0 +1,95 @@
+package org.jbpm.designer.repository.batch;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Outcome of processing single asset in a batch run.
+ */
+public class AssetResult {
+
+    private final String uniqueId;
+    private final String path;
+    private final List<String> errors = new ArrayList<String>();
+    private final List<String> warnings = new ArrayList<String>();
+    private final Map<String, Long> timings = new LinkedHashMap<String, Long>();
+    private long duration;
+
+    public AssetResult(String uniqueId, String path) {
+        this.uniqueId = uniqueId;
+        this.path = path;
+    }
+
+    public String getUniqueId() {
+        return uniqueId;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public boolean isSuccessful() {
+        return errors.isEmpty();
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public List<String> getWarnings() {
+        return warnings;
+    }
+
+    public void addError(String error) {
+        errors.add(error);
+    }
+
+    public void addWarning(String warning) {
+        warnings.add(warning);
+    }
+
+    /**
+     * Records time spent in given phase, repeated phases are summed up
+     * @param phase - name of the phase e.g. bpmn2json
+     * @param startNanos - value of <code>System.nanoTime()</code> when the phase started
+     */
+    public void addTiming(String phase, long startNanos) {
+        long millis = (System.nanoTime() - startNanos) / 1000000L;
+        Long current = timings.get(phase);
+        timings.put(phase, current == null ? millis : current + millis);
+    }
+
+    public Map<String, Long> getTimings() {
+        return timings;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public void setDuration(long duration) {
+        this.duration = duration;
+    }
+
+    public JSONObject toJSON() throws JSONException {
+        JSONObject assetObject = new JSONObject();
+        assetObject.put("uuid", uniqueId);
+        assetObject.put("path", path);
+        assetObject.put("success", isSuccessful());
+        assetObject.put("duration", duration);
+        JSONObject timingsObject = new JSONObject();
+        for (Map.Entry<String, Long> timing : timings.entrySet()) {
+            timingsObject.put(timing.getKey(), timing.getValue());
+        }
+        assetObject.put("timings", timingsObject);
+        assetObject.put("errors", new JSONArray(errors));
+        assetObject.put("warnings", new JSONArray(warnings));
+        return assetObject;
+    }
+}
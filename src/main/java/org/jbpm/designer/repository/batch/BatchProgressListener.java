@@ -0,0 +1,27 @@
+package org.jbpm.designer.repository.batch;
+
+/**
+ * Receives progress notifications of a batch run. Notifications are delivered from worker threads.
+ */
+public interface BatchProgressListener {
+
+    /**
+     * Called once all assets of the run are known
+     * @param total - number of assets that will be processed
+     */
+    void started(int total);
+
+    /**
+     * Called after each asset has been processed
+     * @param result - result of the processed asset
+     * @param completed - number of assets processed so far
+     * @param total - number of assets in the run
+     */
+    void assetCompleted(AssetResult result, int completed, int total);
+
+    /**
+     * Called when all assets have been processed
+     * @param report - final report of the run
+     */
+    void finished(BatchReport report);
+}
@@ -0,0 +1,98 @@
+package org.jbpm.designer.repository.batch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Summary of a batch run: per asset results, failures and aggregated phase timings.
+ */
+public class BatchReport {
+
+    private final List<AssetResult> results;
+    private final long duration;
+    private final int parallelism;
+
+    public BatchReport(List<AssetResult> results, long duration, int parallelism) {
+        this.results = new ArrayList<AssetResult>(results);
+        Collections.sort(this.results, new Comparator<AssetResult>() {
+            public int compare(AssetResult first, AssetResult second) {
+                return String.valueOf(first.getPath()).compareTo(String.valueOf(second.getPath()));
+            }
+        });
+        this.duration = duration;
+        this.parallelism = parallelism;
+    }
+
+    public List<AssetResult> getResults() {
+        return results;
+    }
+
+    public List<AssetResult> getFailures() {
+        List<AssetResult> failures = new ArrayList<AssetResult>();
+        for (AssetResult result : results) {
+            if (!result.isSuccessful()) {
+                failures.add(result);
+            }
+        }
+        return failures;
+    }
+
+    public int getTotal() {
+        return results.size();
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Sums up time spent in each phase over all assets
+     */
+    public Map<String, Long> getPhaseTimings() {
+        Map<String, Long> phaseTimings = new LinkedHashMap<String, Long>();
+        for (AssetResult result : results) {
+            for (Map.Entry<String, Long> timing : result.getTimings().entrySet()) {
+                Long current = phaseTimings.get(timing.getKey());
+                phaseTimings.put(timing.getKey(), current == null ? timing.getValue() : current + timing.getValue());
+            }
+        }
+        return phaseTimings;
+    }
+
+    public JSONObject toJSON() throws JSONException {
+        JSONObject reportObject = new JSONObject();
+        reportObject.put("summary", getSummaryJSON());
+
+        JSONArray assetsArray = new JSONArray();
+        for (AssetResult result : results) {
+            assetsArray.put(result.toJSON());
+        }
+        reportObject.put("assets", assetsArray);
+        return reportObject;
+    }
+
+    /**
+     * Counts, duration and phase timings of the run, without the per asset results
+     */
+    public JSONObject getSummaryJSON() throws JSONException {
+        JSONObject summaryObject = new JSONObject();
+        summaryObject.put("total", getTotal());
+        summaryObject.put("failed", getFailures().size());
+        summaryObject.put("duration", duration);
+        summaryObject.put("parallelism", parallelism);
+        JSONObject phasesObject = new JSONObject();
+        for (Map.Entry<String, Long> timing : getPhaseTimings().entrySet()) {
+            phasesObject.put(timing.getKey(), timing.getValue());
+        }
+        summaryObject.put("phases", phasesObject);
+        return summaryObject;
+    }
+}
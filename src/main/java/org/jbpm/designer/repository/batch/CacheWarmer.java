@@ -0,0 +1,9 @@
+package org.jbpm.designer.repository.batch;
+
+/**
+ * <code>AssetProcessor</code> that pre-populates a cache for a process asset. Built-in warmers are found with
+ * {@link java.util.ServiceLoader}, listed in
+ * <code>META-INF/services/org.jbpm.designer.repository.batch.CacheWarmer</code>, and need a public no-arg constructor.
+ */
+public interface CacheWarmer extends AssetProcessor {
+}
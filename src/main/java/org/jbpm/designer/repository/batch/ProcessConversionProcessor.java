@@ -0,0 +1,70 @@
+package org.jbpm.designer.repository.batch;
+
+import org.jbpm.designer.repository.Asset;
+import org.jbpm.designer.repository.AssetBuilderFactory;
+import org.jbpm.designer.repository.Repository;
+import org.jbpm.designer.repository.impl.AssetBuilder;
+import org.jbpm.designer.web.profile.IDiagramProfile;
+
+/**
+ * Converts BPMN2 process asset to JSON and back to BPMN2 the same way the editor does when a process
+ * is opened and saved. Optionally converts the result to JSON again to check that the round trip is stable
+ * and stores the regenerated BPMN2 in the repository.
+ */
+public class ProcessConversionProcessor implements AssetProcessor {
+
+    private final IDiagramProfile profile;
+    private final boolean roundTrip;
+    private final boolean update;
+
+    public ProcessConversionProcessor(IDiagramProfile profile, boolean roundTrip, boolean update) {
+        this.profile = profile;
+        this.roundTrip = roundTrip;
+        this.update = update;
+    }
+
+    public void process(Asset<String> asset, AssetResult result) throws Exception {
+        String xml = asset.getAssetContent();
+        if (xml == null || xml.trim().length() < 1) {
+            result.addWarning("Asset is empty");
+            return;
+        }
+
+        long start = System.nanoTime();
+        String json = profile.createUnmarshaller().parseModel(xml, profile, "");
+        result.addTiming("bpmn2json", start);
+        if (json == null || json.length() < 1) {
+            result.addError("Unable to convert BPMN2 to JSON");
+            return;
+        }
+
+        start = System.nanoTime();
+        String convertedXml = profile.createMarshaller().parseModel(json, "");
+        result.addTiming("json2bpmn", start);
+        if (convertedXml == null || convertedXml.length() < 1) {
+            result.addError("Unable to convert JSON to BPMN2");
+            return;
+        }
+
+        if (roundTrip) {
+            start = System.nanoTime();
+            String roundTripJson = profile.createUnmarshaller().parseModel(convertedXml, profile, "");
+            result.addTiming("roundtrip", start);
+            if (!json.equals(roundTripJson)) {
+                result.addError("JSON of the converted process differs from JSON of the stored process");
+                return;
+            }
+        }
+
+        if (update && !xml.equals(convertedXml)) {
+            start = System.nanoTime();
+            Repository repository = profile.getRepository();
+            AssetBuilder builder = AssetBuilderFactory.getAssetBuilder(asset);
+            builder.content(convertedXml);
+            if (repository.updateAsset(builder.getAsset()) == null) {
+                result.addError("Unable to store converted process");
+            }
+            result.addTiming("update", start);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.jbpm.designer.repository.batch;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.bpmn2.Definitions;
+import org.jbpm.designer.bpmn2.validation.BPMN2SyntaxChecker;
+import org.jbpm.designer.repository.Asset;
+import org.jbpm.designer.web.profile.IDiagramProfile;
+import org.jbpm.designer.web.profile.impl.JbpmProfileImpl;
+
+/**
+ * Checks the syntax of BPMN2 process asset with the validation rules of the profile, parsing the process
+ * directly from BPMN2 rather than converting it to JSON as the editor does. Each syntax error is recorded
+ * as an error of the asset, prefixed with the id of the element it was found on.
+ */
+public class ProcessValidationProcessor implements AssetProcessor {
+
+    private final IDiagramProfile profile;
+
+    public ProcessValidationProcessor(IDiagramProfile profile) {
+        this.profile = profile;
+    }
+
+    public void process(Asset<String> asset, AssetResult result) throws Exception {
+        String xml = asset.getAssetContent();
+        if (xml == null || xml.trim().length() < 1) {
+            result.addWarning("Asset is empty");
+            return;
+        }
+
+        long start = System.nanoTime();
+        Definitions def = JbpmProfileImpl.parseDefinitions(xml);
+        result.addTiming("parse", start);
+
+        start = System.nanoTime();
+        BPMN2SyntaxChecker checker = new BPMN2SyntaxChecker(profile);
+        checker.checkSyntax(def);
+        result.addTiming("validate", start);
+        // sorted by element id so that reports of unchanged processes compare equal
+        Map<String, List<String>> sortedErrors = new TreeMap<String, List<String>>();
+        for (Map.Entry<String, List<String>> errors : checker.getErrors().entrySet()) {
+            sortedErrors.put(String.valueOf(errors.getKey()), errors.getValue());
+        }
+        for (Map.Entry<String, List<String>> errors : sortedErrors.entrySet()) {
+            for (String error : errors.getValue()) {
+                result.addError(errors.getKey() + ": " + error);
+            }
+        }
+    }
+}
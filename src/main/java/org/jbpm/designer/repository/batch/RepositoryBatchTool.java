@@ -0,0 +1,79 @@
+package org.jbpm.designer.repository.batch;
+
+import java.io.File;
+
+import org.jbpm.designer.web.profile.impl.JbpmProfileImpl;
+
+/**
+ * Runs process conversion batch against a local repository directory without a servlet container.
+ * <pre>
+ * java org.jbpm.designer.repository.batch.RepositoryBatchTool &lt;repository dir&gt; [--startat /path] [--threads n] [--noroundtrip] [--update] [--warmup] [--validate]
+ * </pre>
+ * With --validate the syntax of the processes is checked instead of converting them.
+ * Prints progress to standard output followed by the JSON report, exits with status 1 when any asset failed.
+ */
+public class RepositoryBatchTool {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: RepositoryBatchTool <repository dir> [--startat /path] [--threads n] [--noroundtrip] [--update] [--warmup] [--validate]");
+            System.exit(2);
+        }
+        String repositoryDir = new File(args[0]).getAbsolutePath();
+        String startAt = "/";
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean roundTrip = true;
+        boolean update = false;
+        boolean warmUp = false;
+        boolean validate = false;
+        for (int i = 1; i < args.length; i++) {
+            if ("--startat".equals(args[i]) && i + 1 < args.length) {
+                startAt = args[++i];
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("--noroundtrip".equals(args[i])) {
+                roundTrip = false;
+            } else if ("--update".equals(args[i])) {
+                update = true;
+            } else if ("--warmup".equals(args[i])) {
+                warmUp = true;
+            } else if ("--validate".equals(args[i])) {
+                validate = true;
+            } else {
+                System.err.println("Unknown option " + args[i]);
+                System.exit(2);
+            }
+        }
+
+        JbpmProfileImpl profile = new JbpmProfileImpl();
+        profile.setRepositoryId("vfs");
+        profile.setRepositoryRoot("file://" + repositoryDir);
+
+        AssetBatchRunner runner = new AssetBatchRunner(profile.getRepository(), threads);
+        if (validate) {
+            runner.addProcessor(new ProcessValidationProcessor(profile));
+        } else {
+            runner.addProcessor(new ProcessConversionProcessor(profile, roundTrip, update));
+        }
+        if (warmUp) {
+            runner.addWarmers();
+        }
+        BatchReport report = runner.run(startAt, new BatchProgressListener() {
+            public void started(int total) {
+                System.out.println("Processing " + total + " process assets");
+            }
+
+            public void assetCompleted(AssetResult result, int completed, int total) {
+                System.out.println("[" + completed + "/" + total + "] " + result.getPath() + " "
+                        + (result.isSuccessful() ? "OK" : "FAILED " + result.getErrors()) + " (" + result.getDuration() + " ms)");
+            }
+
+            public void finished(BatchReport report) {
+                System.out.println("Processed " + report.getTotal() + " assets in " + report.getDuration()
+                        + " ms, " + report.getFailures().size() + " failed");
+            }
+        });
+        System.out.println(report.toJSON().toString(2));
+        System.exit(report.getFailures().isEmpty() ? 0 : 1);
+    }
+}
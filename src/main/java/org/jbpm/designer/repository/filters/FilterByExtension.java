@@ -5,13 +5,19 @@ import java.nio.file.Path;
 
 public class FilterByExtension implements Filter<Path> {
 
-    private String extension;
+    private String[] extensions;
 
-    public FilterByExtension(String extension) {
-        this.extension = extension;
+    public FilterByExtension(String... extensions) {
+        this.extensions = extensions;
     }
 
     public boolean accept(Path path) {
-        return path.getFileName().toString().endsWith(extension);
+        String fileName = path.getFileName().toString();
+        for (String extension : extensions) {
+            if (fileName.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
     }
 }
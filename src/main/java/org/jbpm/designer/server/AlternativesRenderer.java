@@ -4,18 +4,17 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
 
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.batik.transcoder.TranscoderException;
-import org.apache.batik.transcoder.TranscoderInput;
-import org.apache.batik.transcoder.TranscoderOutput;
-import org.apache.fop.svg.PDFTranscoder;
+import org.jbpm.designer.web.rendering.RenderingRejectedException;
+import org.jbpm.designer.web.rendering.SvgRenderingService;
 
 public class AlternativesRenderer extends HttpServlet {
 
@@ -25,6 +24,12 @@ public class AlternativesRenderer extends HttpServlet {
     private String inFile;
     private String outFile;
 
+    @Override
+    public void destroy() {
+        SvgRenderingService.shutdownInstance();
+        super.destroy();
+    }
+
     protected void doPost(HttpServletRequest req, HttpServletResponse res) {
 
 	String resource = req.getParameter("resource");
@@ -68,28 +73,19 @@ public class AlternativesRenderer extends HttpServlet {
     }
 
     protected void makePDF() throws TranscoderException, IOException {
-
-		PDFTranscoder transcoder = new PDFTranscoder();
-	
-		InputStream in = new java.io.FileInputStream(inFile);
-	
+		// the svg was written with the platform encoding by doPost
+		String svg = new String(Files.readAllBytes(new File(inFile).toPath()));
+		byte[] pdf;
 		try {
-		    TranscoderInput input = new TranscoderInput(in);
-	
-		    // Setup output
-		    OutputStream out = new java.io.FileOutputStream(outFile);
-		    out = new java.io.BufferedOutputStream(out);
-		    try {
-				TranscoderOutput output = new TranscoderOutput(out);
-		
-				// Do the transformation
-				transcoder.transcode(input, output);
-			
-		    } finally {
-		    	out.close();
-		    }
+		    pdf = SvgRenderingService.getInstance().render(svg, SvgRenderingService.Format.PDF);
+		} catch (RenderingRejectedException e) {
+		    throw new IOException(e.getMessage());
+		}
+		OutputStream out = new java.io.BufferedOutputStream(new java.io.FileOutputStream(outFile));
+		try {
+		    out.write(pdf);
 		} finally {
-		    in.close();
+		    out.close();
 		}
     }
 
@@ -29,8 +29,12 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
-import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
@@ -41,6 +45,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
 import org.jboss.drools.impl.DroolsFactoryImpl;
+import org.jbpm.designer.bpmn2.impl.Bpmn2JsonMarshaller;
 import org.jbpm.designer.web.plugin.IDiagramPlugin;
 import org.jbpm.designer.web.plugin.IDiagramPluginService;
 import org.jbpm.designer.web.plugin.impl.PluginServiceImpl;
@@ -123,6 +128,11 @@ public class EditorHandler extends HttpServlet {
      */
     public static final String SKIN = "designer.skin";
     
+    /**
+     * The directory of the compiled plugin cache.
+     */
+    public static final String JS_CACHE = "designer.jscache";
+    
     /**
      * The designer bundle version looked up from the manifest.
      */
@@ -172,11 +182,26 @@ public class EditorHandler extends HttpServlet {
     
     private List<String> _envFiles = new ArrayList<String>();
     
-    private Map<String, List<IDiagramPlugin>> _pluginfiles = 
-        new HashMap<String, List<IDiagramPlugin>>();
+    /**
+     * The bundles compiled at build time, null when the webapp
+     * was built without them.
+     */
+    private JSONObject _manifest = null;
     
-    private Map<String, List<IDiagramPlugin>> _uncompressedPlugins = 
-        new WeakHashMap<String, List<IDiagramPlugin>>();
+    /**
+     * The combined environment script served in production mode.
+     */
+    private String _envBundle = null;
+    
+    private ConcurrentMap<String, ProfileScripts> _profileScripts = 
+        new ConcurrentHashMap<String, ProfileScripts>();
+    
+    /**
+     * Compiles the plugin bundles that were not built with the webapp.
+     */
+    private PluginCompiler _pluginCompiler = null;
+    
+    private ForkJoinPool _compilerPool = null;
     
     /**
      * editor.html document.
@@ -223,11 +248,59 @@ public class EditorHandler extends HttpServlet {
         }
         
         
+        _manifest = JavaScriptBundler.readManifest(config.getServletContext());
         try {
             initEnvFiles(getServletContext(), config);
         } catch (IOException e) {
             throw new ServletException(e);
         }            
+        
+        if (!_devMode) {
+            _compilerPool = new ForkJoinPool();
+            _pluginCompiler = new PluginCompiler(getCacheDir(config), _compilerPool);
+            initPluginBundles();
+        }
+    }
+    
+    public void destroy() {
+        if (_compilerPool != null) {
+            _compilerPool.shutdownNow();
+        }
+        Bpmn2JsonMarshaller.shutdown();
+        super.destroy();
+    }
+    
+    /**
+     * Starts building the plugin bundle of every registered profile on the
+     * compiler pool, so the first editor page of a profile does not wait for
+     * the bundles of the other profiles. Skipped when plugin factories are
+     * registered, their plugins are only known once there is a request.
+     */
+    private void initPluginBundles() {
+        if (!(_pluginService instanceof PluginServiceImpl) 
+                || ((PluginServiceImpl) _pluginService).hasPluginFactories()) {
+            return;
+        }
+        for (IDiagramProfile profile : _profileService.getProfiles(null)) {
+            try {
+                _compilerPool.execute(getProfileScripts(null, profile).bundle);
+            } catch (RuntimeException e) {
+                _logger.warn("Could not prepare the plugins of the profile " + 
+                        profile.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+    
+    private static File getCacheDir(ServletConfig config) {
+        String dir = System.getProperty(JS_CACHE) == null ? config.getInitParameter(JS_CACHE) : System.getProperty(JS_CACHE);
+        if (dir != null) {
+            return new File(dir);
+        }
+        Object tempDir = config.getServletContext().getAttribute("javax.servlet.context.tempdir");
+        if (tempDir instanceof File) {
+            return new File((File) tempDir, "jscache");
+        }
+        return new File(System.getProperty("java.io.tmpdir"), "designer-jscache");
     }
 
     /**
@@ -259,6 +332,12 @@ public class EditorHandler extends HttpServlet {
                     "The diagram editor is running in production mode. " +
                     "Javascript will be served compressed");
             }
+            _envBundle = findEnvBundle();
+            if (_envBundle != null) {
+                return;
+            }
+            _logger.warn("No precompiled environment bundle for locale " + _locale + 
+                    ", compiling it at runtime");
             StringWriter sw = new StringWriter();
             List<InputStream> codes = new ArrayList<InputStream>();
             for (String file : _envFiles) {
@@ -290,6 +369,7 @@ public class EditorHandler extends HttpServlet {
             } catch (IOException e) {
                 _logger.error(e.getMessage(), e);
             }
+            _envBundle = "jsc/env_combined.js";
         } else {
             if (_logger.isInfoEnabled()) {
                 _logger.info(
@@ -302,7 +382,6 @@ public class EditorHandler extends HttpServlet {
     protected void doGet(HttpServletRequest request, 
             HttpServletResponse response) 
             throws ServletException, IOException {
-        Document doc = (Document) _doc.clone();
         String profileName = request.getParameter("profile");
         if(profileName == null || profileName.length() < 1) {
         	// default to jbpm
@@ -328,188 +407,254 @@ public class EditorHandler extends HttpServlet {
             preprocessingUnit.preprocess(request, response, profile, getServletContext());
         }
 
+        EditorPageTemplate template = getPageTemplate(request, profile);
+        
+        // send the updated editor.html to client 
+        if(!isIE(request)){
+            response.setContentType("application/xhtml+xml");
+        }
+        IDiagramPreference pref = PREFERENCE_FACTORY.createPreference(request);
+        response.setCharacterEncoding("UTF-8");
+        template.write(response.getOutputStream(), 
+                preprocessingUnit == null ? "" : String.valueOf(preprocessingUnit.getOutData()), 
+                pref.getAutosaveInterval(), pref.isAutoSaveEnabled());
+    }
+    
+    /**
+     * Returns the editor page of the profile, compiled the first time it is requested.
+     * The locale and skin are set for the whole servlet, so one template per profile
+     * covers them.
+     */
+    private EditorPageTemplate getPageTemplate(HttpServletRequest request, 
+            IDiagramProfile profile) throws ServletException {
+        ProfileScripts scripts = getProfileScripts(request, profile);
+        EditorPageTemplate template = scripts.template;
+        if (template == null) {
+            // concurrent first requests may both compile it, the results are equal
+            template = EditorPageTemplate.compile(renderPage(profile, scripts), 
+                    getPageValues(profile));
+            scripts.template = template;
+        }
+        return template;
+    }
+    
+    /**
+     * Renders editor.html with the script tags of the profile.
+     */
+    private String renderPage(IDiagramProfile profile, ProfileScripts scripts) 
+            throws ServletException {
+        Document doc = (Document) _doc.clone();
+        
         //output env javascript files
         if (_devMode) {
             for (String jsFile : _envFiles) {
                 addScript(doc, oryx_path + jsFile, true);
             }
         } else {
-            addScript(doc, oryx_path + "jsc/env_combined.js", true);
+            addScript(doc, oryx_path + _envBundle, true);
         }
         
         // generate script tags for plugins.
         // they are located after the initialization script.
-        
-        if (_pluginfiles.get(profileName) == null) {
-            List<IDiagramPlugin> compressed = new ArrayList<IDiagramPlugin>();
-            List<IDiagramPlugin> uncompressed = new ArrayList<IDiagramPlugin>();
-            _pluginfiles.put(profileName, compressed);
-            _uncompressedPlugins.put(profileName, uncompressed);
-            for (String pluginName : profile.getPlugins()) {
-                IDiagramPlugin plugin = _pluginService.findPlugin(request, 
-                        pluginName);
-                if (plugin == null) {
-                    _logger.warn("Could not find the plugin " + pluginName + 
-                            " requested by the profile " + profile.getName());
-                    continue;
-                }
-                if (plugin.isCompressable()) {
-                    compressed.add(plugin);
-                } else {
-                    uncompressed.add(plugin);
-                }
-            }
-            
-            if (!_devMode) {
-                // let's call the compression routine
-                String rs = compressJS(_pluginfiles.get(profileName), 
-                        getServletContext());
-                try {
-                    FileWriter w = new FileWriter(getServletContext().
-                            getRealPath("jsc/plugins_" + profileName 
-                                    + ".js"));
-                    w.write(rs.toString());
-                    w.close();
-                } catch (Exception e) {
-                    _logger.error(e.getMessage(), e);
-                }
-            }
-        }
-        
         if (_devMode) {
-            for (IDiagramPlugin jsFile : _pluginfiles.get(profileName)) {
+            for (IDiagramPlugin jsFile : scripts.compressed) {
                 addScript(doc, oryx_path + "plugin/" + jsFile.getName() 
                         + ".js", true);
             }
         } else {
-            addScript(doc, 
-                    oryx_path + "jsc/plugins_" + profileName + ".js", 
-                    false);
+            addScript(doc, oryx_path + getBundle(profile, scripts), false);
         }
         
-        for (IDiagramPlugin uncompressed : 
-                _uncompressedPlugins.get(profileName)) {
+        for (IDiagramPlugin uncompressed : scripts.uncompressed) {
             addScript(doc, oryx_path + "plugin/" + uncompressed.getName() 
                     + ".js", false);
         }
         
-        // send the updated editor.html to client 
-        if(!isIE(request)){
-            response.setContentType("application/xhtml+xml");
-        }
         XMLOutputter outputter = new XMLOutputter();
         Format format = Format.getPrettyFormat();
         format.setExpandEmptyElements(true);
         outputter.setFormat(format);
-        String html = outputter.outputString(doc);
-        StringTokenizer tokenizer = new StringTokenizer(
-                html, "@", true);
-        StringBuilder resultHtml = new StringBuilder();
-        boolean tokenFound = false;
-        boolean replacementMade = false;
-      
-        IDiagramPreference pref = PREFERENCE_FACTORY.createPreference(request);
-        int autoSaveInt = pref.getAutosaveInterval();
-        boolean autoSaveOn = pref.isAutoSaveEnabled();
-
-        while(tokenizer.hasMoreTokens()) {
-            String elt = tokenizer.nextToken();
-            if ("title".equals(elt)) {
-                resultHtml.append(profile.getTitle());
-                replacementMade = true;
-            } else if ("stencilset".equals(elt)) {
-                resultHtml.append(profile.getStencilSet());
-                replacementMade = true;
-            } else if ("debug".equals(elt)) {
-                resultHtml.append(_devMode);
-                replacementMade = true;
-            } else if ("autosaveinterval".equals(elt)) {
-                resultHtml.append(autoSaveInt);
-                replacementMade = true;
-            } else if ("autosavedefault".equals(elt)) {
-                resultHtml.append(autoSaveOn);
-                replacementMade = true;    
-            } else if ("preprocessing".equals(elt)) {
-                resultHtml.append(preprocessingUnit == null ? "" : preprocessingUnit.getOutData());
-                replacementMade = true;    
-            } else if ("externalprotocol".equals(elt)) {
-                resultHtml.append(RepositoryInfo.getRepositoryProtocol(profile) == null ? "" : RepositoryInfo.getRepositoryProtocol(profile));
-                replacementMade = true;    
-            } else if ("externalhost".equals(elt)) {
-                resultHtml.append(RepositoryInfo.getRepositoryHost(profile));
-                replacementMade = true;    
-            } else if ("externalsubdomain".equals(elt)) {
-                resultHtml.append(RepositoryInfo.getRepositorySubdomain(profile) != null ? RepositoryInfo.getRepositorySubdomain(profile).substring(0,
-                    RepositoryInfo.getRepositorySubdomain(profile).indexOf("/")) : "");
-                replacementMade = true;
-            } else if ("localhistoryenabled".equals(elt)) {
-                resultHtml.append(profile.getLocalHistoryEnabled());
-                replacementMade = true;
-            } else if ("localhistorytimeout".equals(elt)) {
-                resultHtml.append(profile.getLocalHistoryTimeout());
-                replacementMade = true;
-            } else if ("repositoryid".equals(elt)) {
-                resultHtml.append(profile.getRepositoryId());
-                replacementMade = true;
-            } else if ("designerversion".equals(elt)) {
-                resultHtml.append(_designerVersion);
-                replacementMade = true;
-            } else if("designerlocale".equals(elt)) {
-            	resultHtml.append(_locale);
-                replacementMade = true;
-            } else if ("defaultSkin".equals(elt)) { 
-                resultHtml.append("<link rel=\"Stylesheet\" media=\"screen\" href=\"/designer/css/theme-default.css\" type=\"text/css\"/>");
-                replacementMade = true;
-            } else if("overlaySkin".equals(elt)) {
-            	if(_skin != null && !_skin.equals("default")) {
-            		resultHtml.append("<link rel=\"Stylesheet\" media=\"screen\" href=\"/designer/css/theme-" + _skin + ".css\" type=\"text/css\"/>");
-            	} else {
-            		resultHtml.append("");
-            	}
-                replacementMade = true;
-            } else if ("profileplugins".equals(elt)) {
-                StringBuilder plugins = new StringBuilder();
-                boolean commaNeeded = false;
-                for (String ext : profile.getPlugins()) {
-                    if (commaNeeded) {
-                        plugins.append(",");
-                    } else {
-                        commaNeeded = true;
-                    }
-                    plugins.append("\"").append(ext).append("\"");
-                }
-                resultHtml.append(plugins.toString());
-                replacementMade = true;
-            } else if ("ssextensions".equals(elt)) {
-                StringBuilder ssexts = new StringBuilder();
-                boolean commaNeeded = false;
-                for (String ext : profile.getStencilSetExtensions()) {
-                    if (commaNeeded) {
-                        ssexts.append(",");
-                    } else {
-                        commaNeeded = true;
-                    }
-                    ssexts.append("\"").append(ext).append("\"");
-                }
-                resultHtml.append(ssexts.toString());
-                replacementMade = true;
-            } else if ("@".equals(elt)) {
-                if (replacementMade) {
-                    tokenFound = false;
-                    replacementMade = false;
-                } else {
-                    tokenFound = true;
-                }
+        return outputter.outputString(doc);
+    }
+    
+    /**
+     * @return the replacements of the placeholders of editor.html that
+     * do not change between requests for the profile
+     */
+    private Map<String, String> getPageValues(IDiagramProfile profile) {
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("title", profile.getTitle());
+        values.put("stencilset", profile.getStencilSet());
+        values.put("debug", String.valueOf(_devMode));
+        values.put("externalprotocol", RepositoryInfo.getRepositoryProtocol(profile) == null ? "" : RepositoryInfo.getRepositoryProtocol(profile));
+        values.put("externalhost", String.valueOf(RepositoryInfo.getRepositoryHost(profile)));
+        values.put("externalsubdomain", RepositoryInfo.getRepositorySubdomain(profile) != null ? RepositoryInfo.getRepositorySubdomain(profile).substring(0,
+                RepositoryInfo.getRepositorySubdomain(profile).indexOf("/")) : "");
+        values.put("localhistoryenabled", String.valueOf(profile.getLocalHistoryEnabled()));
+        values.put("localhistorytimeout", String.valueOf(profile.getLocalHistoryTimeout()));
+        values.put("repositoryid", String.valueOf(profile.getRepositoryId()));
+        values.put("designerversion", _designerVersion);
+        values.put("designerlocale", String.valueOf(_locale));
+        values.put("defaultSkin", "<link rel=\"Stylesheet\" media=\"screen\" href=\"/designer/css/theme-default.css\" type=\"text/css\"/>");
+        if(_skin != null && !_skin.equals("default")) {
+            values.put("overlaySkin", "<link rel=\"Stylesheet\" media=\"screen\" href=\"/designer/css/theme-" + _skin + ".css\" type=\"text/css\"/>");
+        } else {
+            values.put("overlaySkin", "");
+        }
+        values.put("profileplugins", quoteAll(profile.getPlugins()));
+        values.put("ssextensions", quoteAll(profile.getStencilSetExtensions()));
+        return values;
+    }
+    
+    private static String quoteAll(Collection<String> values) {
+        StringBuilder sb = new StringBuilder();
+        boolean commaNeeded = false;
+        for (String value : values) {
+            if (commaNeeded) {
+                sb.append(",");
+            } else {
+                commaNeeded = true;
+            }
+            sb.append("\"").append(value).append("\"");
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Resolves the plugin scripts of a profile for the request. Plugin factories
+     * may contribute different plugins depending on the request, so the scripts
+     * are shared by the requests resolving the same plugins of the profile.
+     * The bundle is not compiled here, see {@link #getBundle(IDiagramProfile, ProfileScripts)}.
+     */
+    private ProfileScripts getProfileScripts(HttpServletRequest request, 
+            IDiagramProfile profile) {
+        Map<String, IDiagramPlugin> registered = new HashMap<String, IDiagramPlugin>();
+        for (IDiagramPlugin plugin : _pluginService.getRegisteredPlugins(request)) {
+            registered.put(plugin.getName(), plugin);
+        }
+        ProfileScripts resolved = new ProfileScripts();
+        List<String> missing = new ArrayList<String>();
+        StringBuilder key = new StringBuilder(profile.getName());
+        for (String pluginName : profile.getPlugins()) {
+            IDiagramPlugin plugin = registered.get(pluginName);
+            if (plugin == null) {
+                missing.add(pluginName);
+                continue;
+            }
+            if (plugin.isCompressable()) {
+                resolved.compressed.add(plugin);
+                key.append("\n+");
             } else {
-                if (tokenFound) {
-                    tokenFound = false;
-                    resultHtml.append("@");
+                resolved.uncompressed.add(plugin);
+                key.append("\n-");
+            }
+            key.append(pluginName);
+        }
+        resolved.key = key.toString();
+        
+        ProfileScripts scripts = _profileScripts.get(resolved.key);
+        if (scripts == null) {
+            for (String pluginName : missing) {
+                _logger.warn("Could not find the plugin " + pluginName + 
+                        " requested by the profile " + profile.getName());
+            }
+            resolved.bundle = createBundleTask(profile, resolved);
+            scripts = _profileScripts.putIfAbsent(resolved.key, resolved);
+            if (scripts == null) {
+                scripts = resolved;
+            }
+        }
+        return scripts;
+    }
+    
+    private FutureTask<String> createBundleTask(final IDiagramProfile profile, 
+            final ProfileScripts scripts) {
+        return new FutureTask<String>(new Callable<String>() {
+            public String call() throws Exception {
+                String bundle = findPluginBundle(profile.getName(), scripts.compressed);
+                if (bundle != null) {
+                    return bundle;
+                }
+                if (_logger.isInfoEnabled()) {
+                    _logger.info("No precompiled plugin bundle for profile " + 
+                            profile.getName() + ", compiling it at runtime");
                 }
-                resultHtml.append(elt);
+                return "jsc/" + _pluginCompiler.bundle("plugins_" + profile.getName(), 
+                        scripts.compressed, new File(getServletContext().getRealPath("jsc")));
+            }
+        });
+    }
+    
+    /**
+     * Waits for the plugin bundle of the profile. Compiles it on the calling
+     * thread when the compiler pool did not get to it yet.
+     * @return the path of the bundle relative to the webapp root
+     */
+    private String getBundle(IDiagramProfile profile, ProfileScripts scripts) 
+            throws ServletException {
+        scripts.bundle.run();
+        try {
+            return scripts.bundle.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServletException(e);
+        } catch (ExecutionException e) {
+            // let the next request try again
+            _profileScripts.remove(scripts.key, scripts);
+            _logger.error("Could not compile the plugins of the profile " + 
+                    profile.getName(), e.getCause());
+            throw new ServletException(e.getCause());
+        }
+    }
+    
+    /**
+     * @return the precompiled environment bundle for the configured locale or null
+     */
+    private String findEnvBundle() {
+        if (_manifest == null) {
+            return null;
+        }
+        JSONObject env = _manifest.optJSONObject(JavaScriptBundler.ENV);
+        return env == null ? null : env.optString(String.valueOf(_locale), null);
+    }
+    
+    /**
+     * @return the precompiled bundle of the profile or null when there is none 
+     * or it was built for a different set of plugins
+     */
+    private String findPluginBundle(String profileName, List<IDiagramPlugin> plugins) {
+        if (_manifest == null) {
+            return null;
+        }
+        JSONObject bundles = _manifest.optJSONObject(JavaScriptBundler.PLUGINS);
+        JSONObject bundle = bundles == null ? null : bundles.optJSONObject(profileName);
+        if (bundle == null) {
+            return null;
+        }
+        JSONArray bundled = bundle.optJSONArray(JavaScriptBundler.PLUGINS);
+        if (bundled == null || bundled.length() != plugins.size()) {
+            return null;
+        }
+        for (int i = 0; i < plugins.size(); i++) {
+            if (!plugins.get(i).getName().equals(bundled.optString(i))) {
+                return null;
             }
         }
-        response.setCharacterEncoding("UTF-8");
-        response.getWriter().write(resultHtml.toString());
+        return bundle.optString(JavaScriptBundler.FILE, null);
+    }
+    
+    /**
+     * The scripts of a profile, in the order they are added to the page.
+     */
+    private static class ProfileScripts {
+        /**
+         * The profile name and the names of the resolved plugins.
+         */
+        String key;
+        final List<IDiagramPlugin> compressed = new ArrayList<IDiagramPlugin>();
+        final List<IDiagramPlugin> uncompressed = new ArrayList<IDiagramPlugin>();
+        FutureTask<String> bundle;
+        volatile EditorPageTemplate template;
     }
     
     /**
@@ -586,35 +731,6 @@ public class EditorHandler extends HttpServlet {
         }
     }
     
-    /**
-     * Compress a list of js files into one combined string
-     * @param plugins list of js files
-     * @return a string that contains all the compressed data
-     * @throws EvaluatorException
-     * @throws IOException
-     */
-    private static String compressJS(Collection<IDiagramPlugin> plugins, 
-            ServletContext context) {
-        StringWriter sw = new StringWriter();
-        for (IDiagramPlugin plugin : plugins) {
-            sw.append("/* ").append(plugin.getName()).append(" */\n");
-            InputStream input = plugin.getContents();
-            try {
-                sw.append(compileJS(plugin.getName(), input));
-            } catch (EvaluatorException e) {
-                _logger.error(e.getMessage(), e);
-            } catch (IOException e) {
-                _logger.error(e.getMessage(), e);
-            } finally {
-                try { input.close(); } catch (IOException e) {}
-            }
-
-            sw.append("\n");
-        }
-        return sw.toString();
-    }
-    
-    
     /**
      * Determine whether the browser is IE
      * @param request
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2010 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.designer.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+/**
+ * The editor page of a profile, compiled once into UTF-8 encoded segments
+ * separated by the few slots that vary per request.
+ * <p>
+ * Placeholders are written as <code>@name@</code> in editor.html. The ones found
+ * in the static values are replaced at compile time, the ones of {@link Slot} are
+ * filled in by {@link #write(OutputStream, String, int, boolean)}, any other
+ * text between <code>@</code> is kept as is.
+ */
+public class EditorPageTemplate {
+
+    /**
+     * The placeholders that vary per request.
+     */
+    public enum Slot {
+        PREPROCESSING("preprocessing"),
+        AUTOSAVE_INTERVAL("autosaveinterval"),
+        AUTOSAVE_DEFAULT("autosavedefault");
+
+        private final String _placeholder;
+
+        private Slot(String placeholder) {
+            this._placeholder = placeholder;
+        }
+
+        public String getPlaceholder() {
+            return _placeholder;
+        }
+
+        static Slot forPlaceholder(String placeholder) {
+            for (Slot slot : values()) {
+                if (slot._placeholder.equals(placeholder)) {
+                    return slot;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final String ENCODING = "UTF-8";
+
+    private final byte[][] _segments;
+    private final Slot[] _slots;
+
+    private EditorPageTemplate(byte[][] segments, Slot[] slots) {
+        this._segments = segments;
+        this._slots = slots;
+    }
+
+    /**
+     * @param html the rendered editor page
+     * @param values the replacements of the static placeholders
+     * @return the compiled template
+     */
+    public static EditorPageTemplate compile(String html, Map<String, String> values) {
+        List<String> segments = new ArrayList<String>();
+        List<Slot> slots = new ArrayList<Slot>();
+        StringBuilder segment = new StringBuilder();
+        StringTokenizer tokenizer = new StringTokenizer(html, "@", true);
+        boolean tokenFound = false;
+        boolean replacementMade = false;
+        while (tokenizer.hasMoreTokens()) {
+            String elt = tokenizer.nextToken();
+            Slot slot = Slot.forPlaceholder(elt);
+            if (slot != null) {
+                segments.add(segment.toString());
+                segment.setLength(0);
+                slots.add(slot);
+                replacementMade = true;
+            } else if (values.containsKey(elt)) {
+                segment.append(values.get(elt));
+                replacementMade = true;
+            } else if ("@".equals(elt)) {
+                if (replacementMade) {
+                    tokenFound = false;
+                    replacementMade = false;
+                } else {
+                    tokenFound = true;
+                }
+            } else {
+                if (tokenFound) {
+                    tokenFound = false;
+                    segment.append("@");
+                }
+                segment.append(elt);
+            }
+        }
+        segments.add(segment.toString());
+
+        byte[][] encoded = new byte[segments.size()][];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = encode(segments.get(i));
+        }
+        return new EditorPageTemplate(encoded, slots.toArray(new Slot[slots.size()]));
+    }
+
+    /**
+     * Writes the page with the per request values.
+     */
+    public void write(OutputStream out, String preprocessing, int autoSaveInterval,
+            boolean autoSaveDefault) throws IOException {
+        for (int i = 0; i < _slots.length; i++) {
+            out.write(_segments[i]);
+            switch (_slots[i]) {
+                case PREPROCESSING:
+                    out.write(encode(preprocessing));
+                    break;
+                case AUTOSAVE_INTERVAL:
+                    out.write(encode(String.valueOf(autoSaveInterval)));
+                    break;
+                case AUTOSAVE_DEFAULT:
+                    out.write(encode(String.valueOf(autoSaveDefault)));
+                    break;
+            }
+        }
+        out.write(_segments[_slots.length]);
+    }
+
+    private static byte[] encode(String value) {
+        try {
+            return value.getBytes(ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
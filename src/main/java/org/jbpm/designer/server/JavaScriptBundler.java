@@ -0,0 +1,301 @@
+/*
+ * Copyright 2010 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.designer.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletContext;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Compiles the editor javascript at build time so that {@link EditorHandler} does not
+ * need to run the Closure Compiler on the first request.
+ * <p>
+ * Reads <code>js/js_files.json</code>, the translations under <code>i18n</code>, the
+ * plugin registry <code>js/Plugins/plugins.xml</code> and the profiles under <code>profiles</code>
+ * of an exploded webapp and writes content-hashed bundles plus <code>jsc/manifest.json</code>.
+ * <pre>
+ * java org.jbpm.designer.server.JavaScriptBundler &lt;webapp dir&gt; &lt;output dir&gt;
+ * </pre>
+ */
+public class JavaScriptBundler {
+
+    private static final Logger _logger = Logger.getLogger(JavaScriptBundler.class);
+
+    /**
+     * Location of the bundle manifest, relative to the webapp root.
+     */
+    public static final String MANIFEST = "jsc/manifest.json";
+
+    public static final String ENV = "env";
+    public static final String PLUGINS = "plugins";
+    public static final String FILE = "file";
+
+    private static final String TRANSLATION_PREFIX = "translation_";
+
+    private final File _webappDir;
+    private final File _outputDir;
+
+    public JavaScriptBundler(File webappDir, File outputDir) {
+        this._webappDir = webappDir;
+        this._outputDir = outputDir;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: JavaScriptBundler <webapp dir> <output dir>");
+            System.exit(2);
+        }
+        JSONObject manifest = new JavaScriptBundler(new File(args[0]), new File(args[1])).bundle();
+        System.out.println(manifest.toString(2));
+    }
+
+    /**
+     * Compiles all bundles and writes the manifest.
+     * @return the manifest that was written
+     */
+    public JSONObject bundle() throws IOException, JSONException, XMLStreamException {
+        File jscDir = new File(_outputDir, "jsc");
+        if (!jscDir.isDirectory() && !jscDir.mkdirs()) {
+            throw new IOException("Could not create " + jscDir);
+        }
+
+        JSONObject manifest = new JSONObject();
+        JSONObject env = new JSONObject();
+        List<String> envFiles = readEnvFiles(new File(_webappDir, "js/js_files.json"));
+        for (String locale : findLocales()) {
+            List<String> files = new ArrayList<String>(envFiles);
+            files.add("i18n/" + TRANSLATION_PREFIX + locale + ".js");
+            List<InputStream> codes = new ArrayList<InputStream>();
+            try {
+                for (String file : files) {
+                    codes.add(new FileInputStream(new File(_webappDir, file)));
+                }
+                String compiled = EditorHandler.compileJS(files, codes) + "\n";
+                env.put(locale, writeBundle("env_combined_" + locale, compiled));
+            } finally {
+                closeQuietly(codes);
+            }
+        }
+        manifest.put(ENV, env);
+
+        Map<String, String> sources = readPluginSources(new File(_webappDir, "js/Plugins/plugins.xml"));
+        JSONObject plugins = new JSONObject();
+        File[] profileFiles = new File(_webappDir, "profiles").listFiles();
+        if (profileFiles != null) {
+            for (File profileFile : profileFiles) {
+                if (!profileFile.getName().endsWith(".xml")) {
+                    continue;
+                }
+                for (Map.Entry<String, List<String>> profile : readProfiles(profileFile).entrySet()) {
+                    plugins.put(profile.getKey(), bundleProfile(profile.getKey(), profile.getValue(), sources));
+                }
+            }
+        }
+        manifest.put(PLUGINS, plugins);
+
+        writeFile(new File(_outputDir, MANIFEST), manifest.toString(2).getBytes("UTF-8"));
+        return manifest;
+    }
+
+    private JSONObject bundleProfile(String profileName, List<String> pluginNames,
+            Map<String, String> sources) throws IOException, JSONException {
+        StringBuilder sb = new StringBuilder();
+        JSONArray bundled = new JSONArray();
+        for (String pluginName : pluginNames) {
+            String source = sources.get(pluginName);
+            if (source == null) {
+                // contributed at runtime, will be served on its own
+                continue;
+            }
+            InputStream input = new FileInputStream(new File(_webappDir, "js/Plugins/" + source));
+            try {
+                sb.append("/* ").append(pluginName).append(" */\n");
+                sb.append(EditorHandler.compileJS(pluginName, input));
+                sb.append("\n");
+            } finally {
+                input.close();
+            }
+            bundled.put(pluginName);
+        }
+        JSONObject entry = new JSONObject();
+        entry.put(FILE, writeBundle("plugins_" + profileName, sb.toString()));
+        entry.put(PLUGINS, bundled);
+        return entry;
+    }
+
+    /**
+     * Writes the bundle under a name derived from its content.
+     * @return the path of the bundle relative to the webapp root
+     */
+    private String writeBundle(String name, String content) throws IOException {
+        byte[] bytes = content.getBytes("UTF-8");
+        String path = "jsc/" + name + "." + DigestUtils.shaHex(bytes).substring(0, 12) + ".js";
+        writeFile(new File(_outputDir, path), bytes);
+        if (_logger.isInfoEnabled()) {
+            _logger.info("Wrote " + path + " (" + bytes.length + " bytes)");
+        }
+        return path;
+    }
+
+    private List<String> findLocales() {
+        List<String> locales = new ArrayList<String>();
+        File[] translations = new File(_webappDir, "i18n").listFiles();
+        if (translations != null) {
+            for (File translation : translations) {
+                String name = translation.getName();
+                if (name.startsWith(TRANSLATION_PREFIX) && name.endsWith(".js")) {
+                    locales.add(name.substring(TRANSLATION_PREFIX.length(), name.length() - 3));
+                }
+            }
+        }
+        return locales;
+    }
+
+    private static List<String> readEnvFiles(File file) throws IOException, JSONException {
+        JSONArray array = new JSONObject(new String(readFile(file), "UTF-8")).getJSONArray("files");
+        List<String> files = new ArrayList<String>();
+        for (int i = 0; i < array.length(); i++) {
+            files.add(array.getString(i));
+        }
+        return files;
+    }
+
+    /**
+     * @return the plugin sources of plugins.xml, by plugin name
+     */
+    private static Map<String, String> readPluginSources(File file) throws IOException, XMLStreamException {
+        Map<String, String> sources = new LinkedHashMap<String, String>();
+        InputStream input = new FileInputStream(file);
+        try {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(input, "UTF-8");
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamReader.START_ELEMENT && "plugin".equals(reader.getLocalName())) {
+                    String name = reader.getAttributeValue(null, "name");
+                    String source = reader.getAttributeValue(null, "source");
+                    if (name != null && source != null) {
+                        sources.put(name, source);
+                    }
+                }
+            }
+        } finally {
+            input.close();
+        }
+        return sources;
+    }
+
+    /**
+     * @return the plugin names of every profile declared in the file, by profile name
+     */
+    private static Map<String, List<String>> readProfiles(File file) throws IOException, XMLStreamException {
+        Map<String, List<String>> profiles = new LinkedHashMap<String, List<String>>();
+        InputStream input = new FileInputStream(file);
+        try {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(input, "UTF-8");
+            List<String> current = null;
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamReader.START_ELEMENT) {
+                    if ("profile".equals(reader.getLocalName())) {
+                        current = new ArrayList<String>();
+                        profiles.put(reader.getAttributeValue(null, "name"), current);
+                    } else if ("plugin".equals(reader.getLocalName()) && current != null) {
+                        current.add(reader.getAttributeValue(null, "name"));
+                    }
+                }
+            }
+        } finally {
+            input.close();
+        }
+        return profiles;
+    }
+
+    /**
+     * Reads the manifest produced at build time.
+     * @return the manifest or null if the webapp was built without bundles
+     */
+    public static JSONObject readManifest(ServletContext context) {
+        InputStream input = context.getResourceAsStream("/" + MANIFEST);
+        if (input == null) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                stream.write(buffer, 0, read);
+            }
+            return new JSONObject(stream.toString("UTF-8"));
+        } catch (Exception e) {
+            _logger.error("Invalid " + MANIFEST + ", bundles will be compiled at runtime", e);
+            return null;
+        } finally {
+            try { input.close(); } catch (IOException e) {}
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                stream.write(buffer, 0, read);
+            }
+            return stream.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void writeFile(File file, byte[] bytes) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(bytes);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static void closeQuietly(List<InputStream> streams) {
+        for (InputStream stream : streams) {
+            try { stream.close(); } catch (IOException e) {}
+        }
+    }
+}
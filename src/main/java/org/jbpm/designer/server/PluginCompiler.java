@@ -0,0 +1,199 @@
+/*
+ * Copyright 2010 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.designer.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.log4j.Logger;
+import org.jbpm.designer.web.plugin.IDiagramPlugin;
+
+/**
+ * Compiles plugins with the Closure Compiler on a fork/join pool, one task per plugin,
+ * and assembles them into a bundle.
+ * <p>
+ * The compiled output of every plugin is kept in a disk cache keyed by the SHA of the
+ * compiler options and the plugin source, so a restart only compiles plugins that changed.
+ * Cache entries and bundles are written to a temporary file first and renamed into place.
+ */
+public class PluginCompiler {
+
+    private static final Logger _logger = Logger.getLogger(PluginCompiler.class);
+
+    /**
+     * Describes the options used by {@link EditorHandler#compileJS(List, List)},
+     * part of the cache key so entries are invalidated when the options change.
+     */
+    private static final String OPTIONS_KEY = "SIMPLE_OPTIMIZATIONS;externs=function alert(x) {}\n";
+
+    private final File _cacheDir;
+    private final ForkJoinPool _pool;
+
+    public PluginCompiler(File cacheDir, ForkJoinPool pool) {
+        this._cacheDir = cacheDir;
+        this._pool = pool;
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            _logger.warn("Could not create the javascript cache " + cacheDir +
+                    ", plugins will be compiled on every start");
+        }
+    }
+
+    /**
+     * Compiles the plugins in parallel and writes them as one bundle into the directory.
+     * @param name the name of the bundle, completed with the hash of its content
+     * @param plugins the plugins in the order they are to be loaded
+     * @param dir the directory of the bundle
+     * @return the file name of the bundle
+     */
+    public String bundle(String name, List<IDiagramPlugin> plugins, File dir) throws IOException {
+        BundleTask task = new BundleTask(plugins);
+        String content = ForkJoinTask.inForkJoinPool() ? task.invoke() : _pool.invoke(task);
+        byte[] bytes = content.getBytes("UTF-8");
+        String fileName = name + "." + DigestUtils.shaHex(bytes).substring(0, 12) + ".js";
+        File target = new File(dir, fileName);
+        if (!target.exists()) {
+            writeAtomically(target, bytes);
+        }
+        return fileName;
+    }
+
+    /**
+     * @return the compiled plugin, from the cache when its source was compiled before
+     */
+    String compile(IDiagramPlugin plugin) {
+        InputStream input = plugin.getContents();
+        byte[] source;
+        String key;
+        try {
+            source = read(input);
+            key = cacheKey(plugin.getName(), source);
+        } catch (IOException e) {
+            _logger.error(e.getMessage(), e);
+            return "";
+        } finally {
+            try { input.close(); } catch (IOException e) {}
+        }
+
+        File cached = new File(_cacheDir, key + ".js");
+        if (cached.isFile()) {
+            try {
+                return new String(Files.readAllBytes(cached.toPath()), "UTF-8");
+            } catch (IOException e) {
+                _logger.warn("Could not read cached " + cached + ", recompiling " + plugin.getName());
+            }
+        }
+
+        String compiled;
+        try {
+            compiled = EditorHandler.compileJS(plugin.getName(), new ByteArrayInputStream(source));
+        } catch (Exception e) {
+            _logger.error(e.getMessage(), e);
+            return "";
+        }
+        try {
+            writeAtomically(cached, compiled.getBytes("UTF-8"));
+        } catch (IOException e) {
+            _logger.warn("Could not cache " + plugin.getName() + ": " + e.getMessage());
+        }
+        return compiled;
+    }
+
+    private static String cacheKey(String name, byte[] source) throws IOException {
+        ByteArrayOutputStream key = new ByteArrayOutputStream(source.length + 128);
+        key.write((OPTIONS_KEY + name + "\n").getBytes("UTF-8"));
+        key.write(source);
+        return DigestUtils.shaHex(key.toByteArray());
+    }
+
+    private static void writeAtomically(File target, byte[] bytes) throws IOException {
+        File temp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+        try {
+            OutputStream output = Files.newOutputStream(temp.toPath());
+            try {
+                output.write(bytes);
+            } finally {
+                output.close();
+            }
+            try {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    private static byte[] read(InputStream input) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            stream.write(buffer, 0, read);
+        }
+        return stream.toByteArray();
+    }
+
+    /**
+     * Forks one compilation per plugin and joins them in load order.
+     */
+    private class BundleTask extends RecursiveTask<String> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<IDiagramPlugin> _plugins;
+
+        BundleTask(List<IDiagramPlugin> plugins) {
+            this._plugins = plugins;
+        }
+
+        @Override
+        protected String compute() {
+            List<ForkJoinTask<String>> tasks = new ArrayList<ForkJoinTask<String>>();
+            for (final IDiagramPlugin plugin : _plugins) {
+                tasks.add(new RecursiveTask<String>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected String compute() {
+                        return compile(plugin);
+                    }
+                });
+            }
+            invokeAll(tasks);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < _plugins.size(); i++) {
+                sb.append("/* ").append(_plugins.get(i).getName()).append(" */\n");
+                sb.append(tasks.get(i).join());
+                sb.append("\n");
+            }
+            return sb.toString();
+        }
+    }
+}
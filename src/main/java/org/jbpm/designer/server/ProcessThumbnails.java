@@ -0,0 +1,380 @@
+package org.jbpm.designer.server;
+
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.log4j.Logger;
+import org.jbpm.designer.repository.Asset;
+import org.jbpm.designer.repository.Repository;
+import org.jbpm.designer.repository.batch.AssetBatchRunner;
+import org.jbpm.designer.repository.batch.AssetProcessor;
+import org.jbpm.designer.repository.batch.AssetResult;
+import org.jbpm.designer.repository.batch.BatchProgressListener;
+import org.jbpm.designer.repository.batch.BatchReport;
+import org.jbpm.designer.repository.batch.CacheWarmer;
+
+/**
+ * Small svg thumbnails of processes, drawn from the BPMN DI bounds and waypoints of
+ * the process xml. Unlike the svg exported by the editor they exist for every process
+ * that has diagram information and have a bounded size.
+ * <p>
+ * Thumbnails are cached by the hash of the process xml, so a new version of a process
+ * gets a new thumbnail. At most designer.thumbnails.maxentries (default 1000) thumbnails
+ * are kept, the least recently used ones are dropped first.
+ */
+public class ProcessThumbnails {
+
+    private static final Logger _logger = Logger.getLogger(ProcessThumbnails.class);
+
+    public static final String MAX_ENTRIES = "designer.thumbnails.maxentries";
+
+    private static final String BPMNDI_NS = "http://www.omg.org/spec/BPMN/20100524/DI";
+    private static final String DC_NS = "http://www.omg.org/spec/DD/20100524/DC";
+    private static final String DI_NS = "http://www.omg.org/spec/DD/20100524/DI";
+
+    static final int MAX_WIDTH = 240;
+    static final int MAX_HEIGHT = 160;
+    /**
+     * Shapes and edges beyond this count are left out to bound the thumbnail size.
+     */
+    static final int MAX_ELEMENTS = 500;
+
+    private static final String NONE = "";
+
+    private static final ProcessThumbnails INSTANCE = new ProcessThumbnails(Integer.getInteger(MAX_ENTRIES, 1000));
+
+    public static ProcessThumbnails getInstance() {
+        return INSTANCE;
+    }
+
+    private final Map<String, String> _thumbnails;
+    private final AssetProcessor _warmer = new AssetProcessor() {
+        public void process(Asset<String> asset, AssetResult result) throws Exception {
+            long start = System.nanoTime();
+            getThumbnail(asset.getAssetContent());
+            result.addTiming("thumbnail", start);
+        }
+    };
+    private final Set<Repository> _warmedRepositories =
+        Collections.newSetFromMap(new ConcurrentHashMap<Repository, Boolean>());
+
+    ProcessThumbnails(final int maxEntries) {
+        _thumbnails = new LinkedHashMap<String, String>(64, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param processXml the bpmn2 xml of a process
+     * @return the svg thumbnail of the process or null if the process has no diagram information
+     */
+    public String getThumbnail(String processXml) {
+        if (processXml == null || processXml.length() == 0) {
+            return null;
+        }
+        String key;
+        try {
+            key = DigestUtils.shaHex(processXml.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        String thumbnail;
+        synchronized (_thumbnails) {
+            thumbnail = _thumbnails.get(key);
+        }
+        if (thumbnail == null) {
+            try {
+                thumbnail = render(processXml);
+            } catch (XMLStreamException e) {
+                _logger.warn("Unable to draw process thumbnail: " + e.getMessage());
+            }
+            if (thumbnail == null) {
+                thumbnail = NONE;
+            }
+            synchronized (_thumbnails) {
+                _thumbnails.put(key, thumbnail);
+            }
+        }
+        return thumbnail.length() == 0 ? null : thumbnail;
+    }
+
+    /**
+     * @return the base64 encoded svg thumbnail of the process, as returned for exported
+     * process images, or an empty string if the process has no diagram information
+     */
+    public String getThumbnailBase64(String processXml) {
+        String thumbnail = getThumbnail(processXml);
+        if (thumbnail == null) {
+            return "";
+        }
+        try {
+            return Base64.encodeBase64String(thumbnail.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return batch processor drawing the thumbnail of each asset it is given
+     */
+    public AssetProcessor getWarmer() {
+        return _warmer;
+    }
+
+    /**
+     * @return true if the thumbnail of the process was drawn and is still cached
+     */
+    public boolean isCached(String processXml) {
+        try {
+            String key = DigestUtils.shaHex(processXml.getBytes("UTF-8"));
+            synchronized (_thumbnails) {
+                return _thumbnails.containsKey(key);
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Draws the thumbnails of all processes of the repository in the background,
+     * once per repository.
+     */
+    public void warmUp(Repository repository) {
+        if (repository == null || !_warmedRepositories.add(repository)) {
+            return;
+        }
+        final AssetBatchRunner runner = new AssetBatchRunner(repository,
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2)).addProcessor(_warmer);
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                runner.run("/", new BatchProgressListener() {
+                    public void started(int total) {
+                    }
+
+                    public void assetCompleted(AssetResult result, int completed, int total) {
+                    }
+
+                    public void finished(BatchReport report) {
+                        if (_logger.isInfoEnabled()) {
+                            _logger.info("Drew " + report.getTotal() + " process thumbnails in "
+                                    + report.getDuration() + " ms");
+                        }
+                    }
+                });
+            }
+        }, "designer-thumbnails");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Draws the thumbnail of the process.
+     * @param processXml the bpmn2 xml of a process
+     * @return the svg thumbnail or null if the process has no diagram information
+     */
+    static String render(String processXml) throws XMLStreamException {
+        Map<String, String> types = new HashMap<String, String>();
+        List<Shape> shapes = new ArrayList<Shape>();
+        List<int[]> edges = new ArrayList<int[]>();
+
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        XMLStreamReader reader = factory.createXMLStreamReader(new StringReader(processXml));
+        try {
+            Shape shape = null;
+            String edgeElement = null;
+            List<Integer> waypoints = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String ns = reader.getNamespaceURI();
+                    String name = reader.getLocalName();
+                    if (BPMNDI_NS.equals(ns) && "BPMNShape".equals(name)) {
+                        shape = new Shape(reader.getAttributeValue(null, "bpmnElement"));
+                    } else if (BPMNDI_NS.equals(ns) && "BPMNEdge".equals(name)) {
+                        edgeElement = reader.getAttributeValue(null, "bpmnElement");
+                        waypoints = new ArrayList<Integer>();
+                    } else if (DC_NS.equals(ns) && "Bounds".equals(name) && shape != null) {
+                        shape.x = coordinate(reader, "x");
+                        shape.y = coordinate(reader, "y");
+                        shape.width = coordinate(reader, "width");
+                        shape.height = coordinate(reader, "height");
+                    } else if (DI_NS.equals(ns) && "waypoint".equals(name) && waypoints != null) {
+                        waypoints.add(coordinate(reader, "x"));
+                        waypoints.add(coordinate(reader, "y"));
+                    } else if (!BPMNDI_NS.equals(ns) && !DC_NS.equals(ns) && !DI_NS.equals(ns)) {
+                        String id = reader.getAttributeValue(null, "id");
+                        if (id != null) {
+                            types.put(id, name);
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String ns = reader.getNamespaceURI();
+                    String name = reader.getLocalName();
+                    if (BPMNDI_NS.equals(ns) && "BPMNShape".equals(name)) {
+                        if (shape != null && shape.width > 0 && shape.height > 0
+                                && shapes.size() + edges.size() < MAX_ELEMENTS) {
+                            shapes.add(shape);
+                        }
+                        shape = null;
+                    } else if (BPMNDI_NS.equals(ns) && "BPMNEdge".equals(name)) {
+                        if (waypoints != null && waypoints.size() >= 4
+                                && shapes.size() + edges.size() < MAX_ELEMENTS
+                                && !"association".equals(types.get(edgeElement))) {
+                            int[] points = new int[waypoints.size()];
+                            for (int i = 0; i < points.length; i++) {
+                                points[i] = waypoints.get(i);
+                            }
+                            edges.add(points);
+                        }
+                        edgeElement = null;
+                        waypoints = null;
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        if (shapes.isEmpty()) {
+            return null;
+        }
+
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (Shape s : shapes) {
+            minX = Math.min(minX, s.x);
+            minY = Math.min(minY, s.y);
+            maxX = Math.max(maxX, s.x + s.width);
+            maxY = Math.max(maxY, s.y + s.height);
+        }
+        for (int[] points : edges) {
+            for (int i = 0; i < points.length; i += 2) {
+                minX = Math.min(minX, points[i]);
+                minY = Math.min(minY, points[i + 1]);
+                maxX = Math.max(maxX, points[i]);
+                maxY = Math.max(maxY, points[i + 1]);
+            }
+        }
+        int viewWidth = maxX - minX + 10;
+        int viewHeight = maxY - minY + 10;
+        double scale = Math.min(1.0, Math.min((double) MAX_WIDTH / viewWidth, (double) MAX_HEIGHT / viewHeight));
+
+        StringBuilder svg = new StringBuilder(128 + (shapes.size() + edges.size()) * 64);
+        svg.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"")
+            .append(Math.max(1, (int) Math.round(viewWidth * scale)))
+            .append("\" height=\"").append(Math.max(1, (int) Math.round(viewHeight * scale)))
+            .append("\" viewBox=\"").append(minX - 5).append(' ').append(minY - 5).append(' ')
+            .append(viewWidth).append(' ').append(viewHeight).append("\">");
+        // containers first, so nodes and edges are drawn over them
+        svg.append("<g fill=\"none\" stroke=\"#999999\" stroke-width=\"1\">");
+        for (Shape s : shapes) {
+            if (isContainer(types.get(s.element))) {
+                rect(svg, s, 0);
+            }
+        }
+        svg.append("</g><g fill=\"none\" stroke=\"#555555\" stroke-width=\"1.5\">");
+        for (int[] points : edges) {
+            svg.append("<polyline points=\"");
+            for (int i = 0; i < points.length; i += 2) {
+                if (i > 0) {
+                    svg.append(' ');
+                }
+                svg.append(points[i]).append(',').append(points[i + 1]);
+            }
+            svg.append("\"/>");
+        }
+        svg.append("</g><g fill=\"#fafad2\" stroke=\"#333333\" stroke-width=\"1.5\">");
+        for (Shape s : shapes) {
+            String type = types.get(s.element);
+            if (isContainer(type)) {
+                continue;
+            }
+            if (type != null && type.endsWith("Event")) {
+                int r = Math.min(s.width, s.height) / 2;
+                svg.append("<circle cx=\"").append(s.x + s.width / 2).append("\" cy=\"").append(s.y + s.height / 2)
+                    .append("\" r=\"").append(r).append('"');
+                if ("endEvent".equals(type)) {
+                    svg.append(" stroke-width=\"3\"");
+                }
+                svg.append("/>");
+            } else if (type != null && type.endsWith("Gateway")) {
+                int cx = s.x + s.width / 2;
+                int cy = s.y + s.height / 2;
+                svg.append("<polygon points=\"").append(cx).append(',').append(s.y).append(' ')
+                    .append(s.x + s.width).append(',').append(cy).append(' ')
+                    .append(cx).append(',').append(s.y + s.height).append(' ')
+                    .append(s.x).append(',').append(cy).append("\"/>");
+            } else {
+                rect(svg, s, 5);
+            }
+        }
+        svg.append("</g></svg>");
+        return svg.toString();
+    }
+
+    private static boolean isContainer(String type) {
+        return "lane".equals(type) || "participant".equals(type) || "subProcess".equals(type)
+                || "adHocSubProcess".equals(type) || "transaction".equals(type) || "group".equals(type);
+    }
+
+    private static void rect(StringBuilder svg, Shape s, int radius) {
+        svg.append("<rect x=\"").append(s.x).append("\" y=\"").append(s.y)
+            .append("\" width=\"").append(s.width).append("\" height=\"").append(s.height).append('"');
+        if (radius > 0) {
+            svg.append(" rx=\"").append(radius).append('"');
+        }
+        svg.append("/>");
+    }
+
+    private static int coordinate(XMLStreamReader reader, String name) {
+        String value = reader.getAttributeValue(null, name);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return (int) Math.round(Double.parseDouble(value));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Draws the thumbnails of the shared instance in batch runs with cache warm up.
+     */
+    public static class Warmer implements CacheWarmer {
+        public void process(Asset<String> asset, AssetResult result) throws Exception {
+            INSTANCE.getWarmer().process(asset, result);
+        }
+    }
+
+    private static class Shape {
+        final String element;
+        int x;
+        int y;
+        int width;
+        int height;
+
+        Shape(String element) {
+            this.element = element;
+        }
+    }
+}
@@ -311,6 +311,7 @@ public class StencilSetExtensionGenerator {
 				BufferedWriter configFileWriter = new BufferedWriter(new FileWriter(configFile));
 				configFileWriter.write(currentConfig.toString());
 				configFileWriter.close();
+				StencilSetExtensionIndex.invalidate();
 			} catch (FileNotFoundException e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
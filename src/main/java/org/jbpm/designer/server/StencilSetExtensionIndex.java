@@ -0,0 +1,97 @@
+package org.jbpm.designer.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The stencil set extensions declared in extensions.json, indexed by namespace.
+ * <p>
+ * The index is parsed once and reloaded when an extension gets registered
+ * through {@link StencilSetExtensionGenerator#registerStencilSetExtension}
+ * or when extensions.json changes on disk.
+ */
+public class StencilSetExtensionIndex {
+
+    private static final Logger _logger = Logger.getLogger(StencilSetExtensionIndex.class);
+
+    /**
+     * Bumped whenever an extension is registered, every index reloads on its next lookup.
+     */
+    private static final AtomicLong _generation = new AtomicLong();
+
+    private final File _extensionsDir;
+    private volatile Snapshot _snapshot;
+
+    public StencilSetExtensionIndex(File extensionsDir) {
+        this._extensionsDir = extensionsDir;
+    }
+
+    /**
+     * Makes all indexes reload extensions.json.
+     */
+    public static void invalidate() {
+        _generation.incrementAndGet();
+    }
+
+    /**
+     * @param namespace the namespace of the extension
+     * @return the definition file of the extension or null if none is declared with that namespace
+     */
+    public File getDefinition(String namespace) throws IOException, JSONException {
+        Snapshot snapshot = _snapshot;
+        File config = new File(_extensionsDir, "extensions.json");
+        if (snapshot == null || snapshot.generation != _generation.get()
+                || snapshot.lastModified != config.lastModified()) {
+            snapshot = load(config);
+        }
+        return snapshot.definitions.get(namespace);
+    }
+
+    private synchronized Snapshot load(File config) throws IOException, JSONException {
+        long generation = _generation.get();
+        long lastModified = config.lastModified();
+        Snapshot snapshot = _snapshot;
+        if (snapshot != null && snapshot.generation == generation && snapshot.lastModified == lastModified) {
+            return snapshot;
+        }
+        JSONArray extensions = new JSONObject(new String(Files.readAllBytes(config.toPath()), "UTF-8"))
+                .getJSONArray("extensions");
+        Map<String, File> definitions = new HashMap<String, File>();
+        for (int i = 0; i < extensions.length(); i++) {
+            JSONObject extension = extensions.getJSONObject(i);
+            String namespace = extension.getString("namespace");
+            // the first declaration wins, as with the former linear scan
+            if (!definitions.containsKey(namespace)) {
+                definitions.put(namespace, new File(_extensionsDir, extension.getString("definition")));
+            }
+        }
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("Indexed " + definitions.size() + " stencil set extensions");
+        }
+        snapshot = new Snapshot(Collections.unmodifiableMap(definitions), generation, lastModified);
+        _snapshot = snapshot;
+        return snapshot;
+    }
+
+    private static class Snapshot {
+        final Map<String, File> definitions;
+        final long generation;
+        final long lastModified;
+
+        Snapshot(Map<String, File> definitions, long generation, long lastModified) {
+            this.definitions = definitions;
+            this.generation = generation;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -1,18 +1,18 @@
 package org.jbpm.designer.server;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
+import org.jbpm.designer.web.plugin.impl.ResourceCache;
 
 
 /**
@@ -24,9 +24,23 @@ public class StencilSetJSONPServlet extends HttpServlet {
 	
 	private static final long serialVersionUID = 6084194342174761093L;
 
+	private StencilSetExtensionIndex extensionIndex;
+	
+	/**
+	 * The files found for requested stencil set resources, by resource and svg embedding.
+	 */
+	private ConcurrentMap<String, File> resolvedResources = new ConcurrentHashMap<String, File>();
+
+	public void init(ServletConfig config) throws ServletException {
+		super.init(config);
+		extensionIndex = new StencilSetExtensionIndex(
+				new File(config.getServletContext().getRealPath("/stencilsets/extensions")));
+	}
+
 	protected void doGet(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
 
 		res.setContentType("application/json");
+		res.setCharacterEncoding("UTF-8");
 		
 		String resource = req.getParameter("resource");
 		String type = req.getParameter("type");
@@ -34,72 +48,27 @@ public class StencilSetJSONPServlet extends HttpServlet {
 		String embedSvg = req.getParameter("embedsvg");
 
 		try {
-			PrintWriter out = res.getWriter();
-			
+			OutputStream out = res.getOutputStream();
 			
 			// also allow to request stencil set extensions (specified by namespace)
 			if(type!=null && type.equals("ssextension")) {
 				
-				File extensionsFile = new File(getServletContext().getRealPath("/stencilsets/extensions/extensions.json"));
-				BufferedReader reader = new BufferedReader(new FileReader(extensionsFile));
-				String line = null; String jsonString = "";
-				while (( line = reader.readLine()) != null){
-			          jsonString += line;
-			    }
-				JSONObject jsonObj = new JSONObject(jsonString);
-				JSONArray extArr = jsonObj.getJSONArray("extensions");
-				for(int i=0; i<extArr.length(); i++) {
-					if(extArr.getJSONObject(i).getString("namespace").equals(resource)) {
-						String definition = extArr.getJSONObject(i).getString("definition");
-						File jsonFile = new File(getServletContext().getRealPath("/stencilsets/extensions/"+definition));
-						if(jsonp!=null) out.append(jsonp + "(");
-						BufferedReader reader2 = new BufferedReader(new FileReader(jsonFile));
-						String line2 = null;
-						while (( line2 = reader2.readLine()) != null){
-					          out.append(line2);
-					          out.append(System.getProperty("line.separator"));
-					    }
-						if(jsonp!=null) out.append(");");
-					}
+				File jsonFile = extensionIndex.getDefinition(resource);
+				if(jsonFile != null) {
+					write(out, jsonp, ResourceCache.INSTANCE.get(jsonFile));
 				}
 				
 			} else { // standard stencil set requested (specified by path)
 				
-				resource.replace("..", ""); // don't allow to leave stencilset dir
-				
-				if(resource.startsWith("/"))
-					resource = resource.substring(1);
+				File jsonFile = resolveResource(resource, embedSvg!=null && embedSvg.equals("true"));
 				
-				if(resource.startsWith("stencilsets/")) // ignore stencilset/ at beginning of path reference
-					resource = resource.substring(12);
-
-				File jsonFile;
-				if(embedSvg!=null && embedSvg.equals("true")) { // SVG embedding
-					jsonFile = new File(getServletContext().getRealPath("/stencilsets/" + resource));
-				} else { // no SVG embedding (default)
-					// try to find stencilset nosvg representation
-					int pIdx = resource.lastIndexOf('.');
-					jsonFile = new File(getServletContext().getRealPath("/stencilsets/" + 
-							resource.substring(0, pIdx) + "-nosvg" + resource.substring(pIdx)));
-					if(!jsonFile.exists())
-						jsonFile = new File(getServletContext().getRealPath("/stencilsets/" + resource));
-				}
-				
-				if(!jsonFile.exists()) {
-					if(jsonp!=null) out.write(jsonp + "({ \"error\":\"resource not found\" })");
-					else out.write("{ \"error\":\"resource not found\" }");
+				if(jsonFile == null) {
+					if(jsonp!=null) out.write((jsonp + "({ \"error\":\"resource not found\" })").getBytes("UTF-8"));
+					else out.write("{ \"error\":\"resource not found\" }".getBytes("UTF-8"));
+					return;
 				}
-					
-				if(jsonp!=null) out.append(jsonp + "(");
-				
-				BufferedReader reader = new BufferedReader(new FileReader(jsonFile));
-				String line = null;
-				while (( line = reader.readLine()) != null){
-			          out.append(line);
-			          out.append(System.getProperty("line.separator"));
-			    }
-				if(jsonp!=null) out.append(");");
 				
+				write(out, jsonp, ResourceCache.INSTANCE.get(jsonFile));
 			}
 			
 		} catch (Exception e) {
@@ -107,4 +76,50 @@ public class StencilSetJSONPServlet extends HttpServlet {
 		}
 		
 	}
+	
+	/**
+	 * Writes the cached stencil set, wrapped in the jsonp callback if there is one.
+	 */
+	private static void write(OutputStream out, String jsonp, ResourceCache.CachedResource contents) throws IOException {
+		if(jsonp!=null) out.write((jsonp + "(").getBytes("UTF-8"));
+		contents.writeTo(out);
+		if(jsonp!=null) out.write(");".getBytes("UTF-8"));
+	}
+	
+	/**
+	 * @return the file of the stencil set, preferring its nosvg representation
+	 * unless svg embedding was requested, or null when it does not exist
+	 */
+	private File resolveResource(String resource, boolean embedSvg) {
+		resource = resource.replace("..", ""); // don't allow to leave stencilset dir
+		
+		if(resource.startsWith("/"))
+			resource = resource.substring(1);
+		
+		if(resource.startsWith("stencilsets/")) // ignore stencilset/ at beginning of path reference
+			resource = resource.substring(12);
+		
+		String key = embedSvg + ":" + resource;
+		File jsonFile = resolvedResources.get(key);
+		if(jsonFile != null && jsonFile.exists()) {
+			return jsonFile;
+		}
+
+		if(embedSvg) { // SVG embedding
+			jsonFile = new File(getServletContext().getRealPath("/stencilsets/" + resource));
+		} else { // no SVG embedding (default)
+			// try to find stencilset nosvg representation
+			int pIdx = resource.lastIndexOf('.');
+			jsonFile = pIdx < 0 ? null : new File(getServletContext().getRealPath("/stencilsets/" + 
+					resource.substring(0, pIdx) + "-nosvg" + resource.substring(pIdx)));
+			if(jsonFile == null || !jsonFile.exists())
+				jsonFile = new File(getServletContext().getRealPath("/stencilsets/" + resource));
+		}
+		
+		if(!jsonFile.exists()) {
+			return null;
+		}
+		resolvedResources.put(key, jsonFile);
+		return jsonFile;
+	}
 }
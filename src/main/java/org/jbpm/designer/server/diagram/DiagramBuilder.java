@@ -1,11 +1,17 @@
 package org.jbpm.designer.server.diagram;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -13,10 +19,17 @@ import org.json.JSONObject;
 /**
  * @author Philipp Helper class to build an abstract diagram structure out of
  *         json
+ *         <p>
+ *         The json is read as a stream and shapes are looked up by resource id
+ *         in an index, so building a diagram is linear in the number of shapes
+ *         and the json tree is never held in memory.
  */
 public class DiagramBuilder {
 
-    private final static String jsonPattern = "glossary://(.*?)/([\\w\\W]*?)(;;)";
+    private final static Pattern jsonPattern = Pattern.compile("glossary://(.*?)/([\\w\\W]*?)(;;)");
+
+    private static final ObjectMapper _mapper = new ObjectMapper();
+    private static final JsonFactory _jsonFactory = _mapper.getJsonFactory();
 
     public static Diagram parseJson(String json) throws JSONException {
         return parseJson(json, false);
@@ -25,14 +38,22 @@ public class DiagramBuilder {
     /**
      * Parse the json string to the diagram model, assumes that the json is
      * hierarchical ordered
-     * 
+     *
      * @param json
      * @return Model with all shapes defined in JSON
      * @throws JSONException
      */
     public static Diagram parseJson(String json, Boolean keepGlossaryLink) throws JSONException {
-        JSONObject modelJSON = new JSONObject(json);
-        return parseJson(modelJSON, keepGlossaryLink);
+        try {
+            JsonParser parser = _jsonFactory.createJsonParser(json);
+            try {
+                return parseJson(parser, keepGlossaryLink);
+            } finally {
+                parser.close();
+            }
+        } catch (IOException e) {
+            throw new JSONException(e.getMessage());
+        }
     }
 
     public static Diagram parseJson(JSONObject json) throws JSONException {
@@ -42,284 +63,321 @@ public class DiagramBuilder {
     /**
      * do the parsing on an JSONObject, assumes that the json is hierarchical
      * ordered, so all shapes are reachable over child relations
-     * 
+     *
      * @param json
      *            hierarchical JSON object
      * @return Model with all shapes defined in JSON
      * @throws JSONException
      */
     public static Diagram parseJson(JSONObject json, Boolean keepGlossaryLink) throws JSONException {
-        ArrayList<Shape> shapes = new ArrayList<Shape>();
-        HashMap<String, JSONObject> flatJSON = flatRessources(json);
-        for (String resourceId : flatJSON.keySet()) {
-            parseRessource(shapes, flatJSON, resourceId, keepGlossaryLink);
+        return parseJson(json.toString(), keepGlossaryLink);
+    }
 
+    /**
+     * Parse the json read from the parser, positioned before the object of the
+     * diagram
+     *
+     * @param parser
+     * @return Model with all shapes defined in JSON
+     */
+    public static Diagram parseJson(JsonParser parser, Boolean keepGlossaryLink) throws IOException, JSONException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JSONException("A JSONObject text must begin with '{'");
         }
-        String id = "canvas";
-
-        if (json.has("resourceId")) {
-            id = json.getString("resourceId");
-            shapes.remove(new Shape(id));
-
+        Map<String, Shape> index = new LinkedHashMap<String, Shape>();
+        Diagram diagram = new Diagram("canvas");
+        ShapeData data = parseShapeData(parser, index, keepGlossaryLink);
+        if (data.resourceId != null) {
+            diagram.setResourceId(data.resourceId);
         }
-        ;
-        Diagram diagram = new Diagram(id);
+        if (data.stencilset != null) {
+            diagram.setStencilset(data.stencilset);
+        }
+        if (data.ssextensions != null) {
+            diagram.setSsextensions(data.ssextensions);
+        }
+        data.applyTo(diagram, index, false);
 
         // remove Diagram
-        // (Diagram)getShapeWithId(json.getString("resourceId"), shapes);
-        parseStencilSet(json, diagram);
-        parseSsextensions(json, diagram);
-        parseStencil(json, diagram);
-        parseProperties(json, diagram, keepGlossaryLink);
-        parseChildShapes(shapes, json, diagram);
-        parseBounds(json, diagram);
-        diagram.setShapes(shapes);
+        index.remove(diagram.getResourceId());
+        diagram.setShapes(new ArrayList<Shape>(index.values()));
         return diagram;
     }
 
     /**
-     * Parse one resource to a shape object and add it to the shapes array
-     * 
-     * @param shapes
-     * @param flatJSON
-     * @param resourceId
-     * @throws JSONException
+     * Reads the fields of one shape object, the shape itself is resolved once
+     * its resource id is known
+     *
+     * @param parser
+     *            positioned on the start of the object
+     * @param index
+     *            the shapes by resource id
+     * @return the data of the shape
      */
-    private static void parseRessource(ArrayList<Shape> shapes, HashMap<String, JSONObject> flatJSON, String resourceId, Boolean keepGlossaryLink)
-            throws JSONException {
-        JSONObject modelJSON = flatJSON.get(resourceId);
-        Shape current = getShapeWithId(modelJSON.getString("resourceId"), shapes);
-
-        parseStencil(modelJSON, current);
-
-        parseProperties(modelJSON, current, keepGlossaryLink);
-        parseOutgoings(shapes, modelJSON, current);
-        parseChildShapes(shapes, modelJSON, current);
-        parseDockers(modelJSON, current);
-        parseBounds(modelJSON, current);
-        parseTarget(shapes, modelJSON, current);
+    private static ShapeData parseShapeData(JsonParser parser, Map<String, Shape> index, Boolean keepGlossaryLink)
+            throws IOException, JSONException {
+        ShapeData data = new ShapeData();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            if ("resourceId".equals(field)) {
+                data.resourceId = parser.getText();
+            } else if ("properties".equals(field)) {
+                parseProperties(parser, data, keepGlossaryLink);
+            } else if ("stencil".equals(field)) {
+                data.stencil = parseStencil(parser);
+            } else if ("childShapes".equals(field)) {
+                parseChildShapes(parser, data, index, keepGlossaryLink);
+            } else if ("outgoing".equals(field)) {
+                data.outgoings = parseReferences(parser);
+            } else if ("target".equals(field)) {
+                ArrayList<String> target = new ArrayList<String>(1);
+                parseReference(parser, target);
+                data.target = target.isEmpty() ? null : target.get(0);
+            } else if ("dockers".equals(field)) {
+                data.dockers = parseDockers(parser);
+            } else if ("bounds".equals(field)) {
+                data.bounds = parseBounds(parser);
+            } else if ("stencilset".equals(field)) {
+                data.stencilset = parseStencilSet(parser);
+            } else if ("ssextensions".equals(field)) {
+                data.ssextensions = parseSsextensions(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return data;
     }
 
     /**
-     * parse the stencil out of a JSONObject and set it to the current shape
-     * 
-     * @param modelJSON
-     * @param current
-     * @throws JSONException
+     * parse the stencil id out of the stencil object
+     *
+     * @param parser
+     * @return the stencil, empty if it has no id
      */
-    private static void parseStencil(JSONObject modelJSON, Shape current) throws JSONException {
-        // get stencil type
-        if (modelJSON.has("stencil")) {
-            JSONObject stencil = modelJSON.getJSONObject("stencil");
-            // TODO other attributes of stencil
-            String stencilString = "";
-            if (stencil.has("id")) {
-                stencilString = stencil.getString("id");
+    private static StencilType parseStencil(JsonParser parser) throws IOException {
+        // TODO other attributes of stencil
+        String stencilString = "";
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("id".equals(field)) {
+                stencilString = parser.getText();
+            } else {
+                parser.skipChildren();
             }
-            current.setStencil(new StencilType(stencilString));
         }
+        return new StencilType(stencilString);
     }
 
     /**
-     * crates a StencilSet object and add it to the current diagram
-     * 
-     * @param modelJSON
-     * @param current
-     * @throws JSONException
+     * crates a StencilSet object out of the stencilset object
+     *
+     * @param parser
+     * @return the stencil set
      */
-    private static void parseStencilSet(JSONObject modelJSON, Diagram current) throws JSONException {
-        // get stencil type
-        if (modelJSON.has("stencilset")) {
-            JSONObject object = modelJSON.getJSONObject("stencilset");
-            String url = null;
-            String namespace = null;
-
-            if (object.has("url"))
-                url = object.getString("url");
-
-            if (object.has("namespace"))
-                namespace = object.getString("namespace");
-
-            current.setStencilset(new StencilSet(url, namespace));
-
+    private static StencilSet parseStencilSet(JsonParser parser) throws IOException {
+        String url = null;
+        String namespace = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("url".equals(field)) {
+                url = parser.getText();
+            } else if ("namespace".equals(field)) {
+                namespace = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
         }
+        return new StencilSet(url, namespace);
     }
 
     /**
-     * create a HashMap form the json properties and add it to the shape
-     * 
-     * @param modelJSON
-     * @param current
-     * @throws JSONException
+     * create a HashMap form the json properties, nested objects and arrays are
+     * kept as json text
+     *
+     * @param parser
+     * @param data
      */
-    @SuppressWarnings("unchecked")
-    private static void parseProperties(JSONObject modelJSON, Shape current, Boolean keepGlossaryLink) throws JSONException {
-        if (modelJSON.has("properties")) {
-            JSONObject propsObject = modelJSON.getJSONObject("properties");
-            Iterator<String> keys = propsObject.keys();
-            Pattern pattern = Pattern.compile(jsonPattern);
-
-            while (keys.hasNext()) {
+    private static void parseProperties(JsonParser parser, ShapeData data, Boolean keepGlossaryLink) throws IOException {
+        data.properties = new HashMap<String, String>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            String value;
+            if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                value = _mapper.readTree(parser).toString();
+            } else {
+                value = parser.getText();
+            }
+
+            if (!keepGlossaryLink) {
                 StringBuilder result = new StringBuilder();
                 int lastIndex = 0;
-                String key = keys.next();
-                String value = propsObject.getString(key);
-
-                if (!keepGlossaryLink) {
-                    Matcher matcher = pattern.matcher(value);
-                    while (matcher.find()) {
-                        String id = matcher.group(1);
-                        current.addGlossaryIds(id);
-                        String text = matcher.group(2);
-                        result.append(text);
-                        lastIndex = matcher.end();
+                Matcher matcher = jsonPattern.matcher(value);
+                while (matcher.find()) {
+                    String id = matcher.group(1);
+                    if (data.glossaryIds == null) {
+                        data.glossaryIds = new ArrayList<String>();
                     }
+                    data.glossaryIds.add(id);
+                    String text = matcher.group(2);
+                    result.append(text);
+                    lastIndex = matcher.end();
+                }
+                if (lastIndex > 0) {
                     result.append(value.substring(lastIndex));
                     value = result.toString();
                 }
-
-                current.putProperty(key, value);
             }
+
+            data.properties.put(key, value);
         }
     }
 
     /**
-     * adds all json extension to an diagram
-     * 
-     * @param modelJSON
-     * @param current
-     * @throws JSONException
+     * adds all json extensions to a list
+     *
+     * @param parser
+     * @return the extensions
      */
-    private static void parseSsextensions(JSONObject modelJSON, Diagram current) throws JSONException {
-        if (modelJSON.has("ssextensions")) {
-            JSONArray array = modelJSON.getJSONArray("ssextensions");
-            for (int i = 0; i < array.length(); i++) {
-                current.addSsextension(array.getString(i));
-            }
+    private static ArrayList<String> parseSsextensions(JsonParser parser) throws IOException {
+        ArrayList<String> extensions = new ArrayList<String>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            extensions.add(parser.getText());
         }
+        return extensions;
     }
 
     /**
-     * parse the outgoings form an json object and add all shape references to
-     * the current shapes, add new shapes to the shape array
-     * 
-     * @param shapes
-     * @param modelJSON
-     * @param current
-     * @throws JSONException
+     * parse the child shapes, each child is resolved as soon as it is complete
+     *
+     * @param parser
+     * @param data
+     * @param index
      */
-    private static void parseOutgoings(ArrayList<Shape> shapes, JSONObject modelJSON, Shape current) throws JSONException {
-        if (modelJSON.has("outgoing")) {
-            ArrayList<Shape> outgoings = new ArrayList<Shape>();
-            JSONArray outgoingObject = modelJSON.getJSONArray("outgoing");
-            for (int i = 0; i < outgoingObject.length(); i++) {
-                Shape out = getShapeWithId(outgoingObject.getJSONObject(i).getString("resourceId"), shapes);
-                outgoings.add(out);
-                out.addIncoming(current);
+    private static void parseChildShapes(JsonParser parser, ShapeData data, Map<String, Shape> index,
+            Boolean keepGlossaryLink) throws IOException, JSONException {
+        data.childShapes = new ArrayList<Shape>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            ShapeData childData = parseShapeData(parser, index, keepGlossaryLink);
+            if (childData.resourceId == null) {
+                throw new JSONException("JSONObject[\"resourceId\"] not found.");
             }
-            if (outgoings.size() > 0)
-                current.setOutgoings(outgoings);
+            Shape child = getShapeWithId(childData.resourceId, index);
+            childData.applyTo(child, index, true);
+            data.childShapes.add(child);
         }
     }
 
     /**
-     * creates a shape list containing all child shapes and set it to the
-     * current shape new shape get added to the shape array
-     * 
-     * @param shapes
-     * @param modelJSON
-     * @param current
-     * @throws JSONException
+     * parse an array of objects referencing shapes by resource id
+     *
+     * @param parser
+     * @return the referenced resource ids
      */
-    private static void parseChildShapes(ArrayList<Shape> shapes, JSONObject modelJSON, Shape current) throws JSONException {
-        if (modelJSON.has("childShapes")) {
-            ArrayList<Shape> childShapes = new ArrayList<Shape>();
+    private static ArrayList<String> parseReferences(JsonParser parser) throws IOException {
+        ArrayList<String> references = new ArrayList<String>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            parseReference(parser, references);
+        }
+        return references;
+    }
 
-            JSONArray childShapeObject = modelJSON.getJSONArray("childShapes");
-            for (int i = 0; i < childShapeObject.length(); i++) {
-                childShapes.add(getShapeWithId(childShapeObject.getJSONObject(i).getString("resourceId"), shapes));
-            }
-            if (childShapes.size() > 0) {
-                for (Shape each : childShapes)
-                    each.setParent(current);
-                current.setChildShapes(childShapes);
+    private static void parseReference(JsonParser parser, ArrayList<String> references) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("resourceId".equals(field)) {
+                references.add(parser.getText());
+            } else {
+                parser.skipChildren();
             }
-            ;
-
         }
     }
 
     /**
-     * creates a point array of all dockers and add it to the current shape
-     * 
-     * @param modelJSON
-     * @param current
-     * @throws JSONException
+     * creates a point array of all dockers
+     *
+     * @param parser
+     * @return the dockers
      */
-    private static void parseDockers(JSONObject modelJSON, Shape current) throws JSONException {
-        if (modelJSON.has("dockers")) {
-            ArrayList<Point> dockers = new ArrayList<Point>();
-
-            JSONArray dockersObject = modelJSON.getJSONArray("dockers");
-            for (int i = 0; i < dockersObject.length(); i++) {
-                Double x = dockersObject.getJSONObject(i).getDouble("x");
-                Double y = dockersObject.getJSONObject(i).getDouble("y");
-                dockers.add(new Point(x, y));
-
-            }
-            if (dockers.size() > 0)
-                current.setDockers(dockers);
-
+    private static ArrayList<Point> parseDockers(JsonParser parser) throws IOException {
+        ArrayList<Point> dockers = new ArrayList<Point>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            dockers.add(parsePoint(parser));
         }
+        return dockers;
     }
 
     /**
-     * creates a bounds object with both point parsed from the json and set it
-     * to the current shape
-     * 
-     * @param modelJSON
-     * @param current
-     * @throws JSONException
+     * creates a bounds object with both points
+     *
+     * @param parser
+     * @return the bounds
      */
-    private static void parseBounds(JSONObject modelJSON, Shape current) throws JSONException {
-        if (modelJSON.has("bounds")) {
-            JSONObject boundsObject = modelJSON.getJSONObject("bounds");
-            current.setBounds(new Bounds(new Point(boundsObject.getJSONObject("lowerRight").getDouble("x"), boundsObject.getJSONObject("lowerRight").getDouble(
-                    "y")), new Point(boundsObject.getJSONObject("upperLeft").getDouble("x"), boundsObject.getJSONObject("upperLeft").getDouble("y"))));
+    private static Bounds parseBounds(JsonParser parser) throws IOException, JSONException {
+        Point lowerRight = null;
+        Point upperLeft = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("lowerRight".equals(field)) {
+                lowerRight = parsePoint(parser);
+            } else if ("upperLeft".equals(field)) {
+                upperLeft = parsePoint(parser);
+            } else {
+                parser.skipChildren();
+            }
         }
+        if (lowerRight == null || upperLeft == null) {
+            throw new JSONException("JSONObject[\"" + (lowerRight == null ? "lowerRight" : "upperLeft") + "\"] not found.");
+        }
+        return new Bounds(lowerRight, upperLeft);
     }
 
-    /**
-     * parse the target resource and add it to the current shape
-     * 
-     * @param shapes
-     * @param modelJSON
-     * @param current
-     * @throws JSONException
-     */
-    private static void parseTarget(ArrayList<Shape> shapes, JSONObject modelJSON, Shape current) throws JSONException {
-        if (modelJSON.has("target")) {
-            JSONObject targetObject = modelJSON.getJSONObject("target");
-            if (targetObject.has("resourceId")) {
-                current.setTarget(getShapeWithId(targetObject.getString("resourceId"), shapes));
+    private static Point parsePoint(JsonParser parser) throws IOException {
+        Double x = null;
+        Double y = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("x".equals(field)) {
+                x = parseNumber(parser);
+            } else if ("y".equals(field)) {
+                y = parseNumber(parser);
+            } else {
+                parser.skipChildren();
             }
         }
+        return new Point(x, y);
+    }
+
+    private static Double parseNumber(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() == JsonToken.VALUE_NUMBER_INT
+                || parser.getCurrentToken() == JsonToken.VALUE_NUMBER_FLOAT) {
+            return parser.getDoubleValue();
+        }
+        return Double.valueOf(parser.getText());
     }
 
     /**
-     * Gives a new or already instantiated Shape (out of the shapes Array)
-     * 
+     * Gives a new or already instantiated Shape out of the index
+     *
      * @param id
-     * @param shapes
+     * @param index
      * @return
      */
-    private static Shape getShapeWithId(String id, ArrayList<Shape> shapes) {
-        Shape result = new Shape(id);
-        if (shapes.contains(result)) {
-            return shapes.get(shapes.indexOf(result));
+    private static Shape getShapeWithId(String id, Map<String, Shape> index) {
+        Shape result = index.get(id);
+        if (result == null) {
+            result = new Shape(id);
+            index.put(id, result);
         }
-
-        shapes.add(result);
         return result;
     }
 
@@ -327,7 +385,7 @@ public class DiagramBuilder {
      * Prepare a model JSON for analyze, resolves the hierarchical structure
      * creates a HashMap which contains all resourceIds as keys and for each key
      * the JSONObject, all id are keys of this map
-     * 
+     *
      * @param object
      * @return a HashMap keys: all ressourceIds values: all child JSONObjects
      * @throws JSONException
@@ -348,4 +406,61 @@ public class DiagramBuilder {
 
         return result;
     }
+
+    /**
+     * The fields of a shape object, kept until the object is complete since
+     * the resource id may come after the other fields
+     */
+    private static class ShapeData {
+        String resourceId;
+        HashMap<String, String> properties;
+        ArrayList<String> glossaryIds;
+        StencilType stencil;
+        ArrayList<Shape> childShapes;
+        ArrayList<String> outgoings;
+        String target;
+        ArrayList<Point> dockers;
+        Bounds bounds;
+        StencilSet stencilset;
+        ArrayList<String> ssextensions;
+
+        void applyTo(Shape current, Map<String, Shape> index, boolean edges) {
+            if (stencil != null) {
+                current.setStencil(stencil);
+            }
+            if (properties != null) {
+                for (Map.Entry<String, String> property : properties.entrySet()) {
+                    current.putProperty(property.getKey(), property.getValue());
+                }
+            }
+            if (glossaryIds != null) {
+                for (String id : glossaryIds) {
+                    current.addGlossaryIds(id);
+                }
+            }
+            if (edges && outgoings != null && outgoings.size() > 0) {
+                ArrayList<Shape> outgoingShapes = new ArrayList<Shape>(outgoings.size());
+                for (String id : outgoings) {
+                    Shape out = getShapeWithId(id, index);
+                    outgoingShapes.add(out);
+                    out.addIncoming(current);
+                }
+                current.setOutgoings(outgoingShapes);
+            }
+            if (childShapes != null && childShapes.size() > 0) {
+                for (Shape each : childShapes)
+                    each.setParent(current);
+                current.setChildShapes(childShapes);
+            }
+            if (edges && dockers != null && dockers.size() > 0) {
+                current.setDockers(dockers);
+            }
+            if (bounds != null) {
+                current.setBounds(bounds);
+            }
+            if (edges && target != null) {
+                current.setTarget(getShapeWithId(target, index));
+            }
+        }
+    }
 }
@@ -23,9 +23,16 @@ package org.jbpm.designer.server.diagram;
  * SOFTWARE.
  */
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
 
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -38,8 +45,56 @@ import org.json.JSONObject;
 
 public class JSONBuilder {
 
+    private static final ObjectMapper _mapper = new ObjectMapper();
+
     public static String parseModeltoString(Diagram diagram) throws JSONException {
-        return parseModel(diagram).toString();
+        StringWriter writer = new StringWriter();
+        try {
+            writeModel(diagram, writer);
+        } catch (IOException e) {
+            throw new JSONException(e.getMessage());
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Streams the json of the diagram to the writer, without building the json
+     * tree in memory
+     * 
+     * @param diagram
+     * @param writer
+     * @throws IOException
+     */
+    public static void writeModel(Diagram diagram, Writer writer) throws IOException {
+        JsonGenerator generator = _mapper.getJsonFactory().createJsonGenerator(writer);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        writeModel(diagram, generator);
+        generator.close();
+    }
+
+    public static void writeModel(Diagram diagram, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("resourceId", diagram.getResourceId());
+        writeProperties(diagram.getProperties(), generator);
+        writeStencil(diagram.getStencilId(), generator);
+        writeChildShapesRecursive(diagram.getChildShapes(), generator);
+        writeBounds(diagram.getBounds(), generator);
+
+        generator.writeObjectFieldStart("stencilset");
+        StencilSet stencilSet = diagram.getStencilset();
+        if (stencilSet != null) {
+            generator.writeStringField("url", stencilSet.getUrl());
+            generator.writeStringField("namespace", stencilSet.getNamespace());
+        }
+        generator.writeEndObject();
+
+        generator.writeArrayFieldStart("ssextensions");
+        if (diagram.getSsextensions() != null) {
+            for (String extension : diagram.getSsextensions())
+                generator.writeString(extension);
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
     }
 
     public static JSONObject parseModel(Diagram diagram) throws JSONException {
@@ -277,4 +332,99 @@ public class JSONBuilder {
 
         return new JSONObject();
     }
-}
\ No newline at end of file
+
+    private static void writeStencil(String stencilId, JsonGenerator generator) throws IOException {
+        generator.writeObjectFieldStart("stencil");
+        generator.writeStringField("id", stencilId);
+        generator.writeEndObject();
+    }
+
+    private static void writeChildShapesRecursive(ArrayList<Shape> childShapes, JsonGenerator generator)
+            throws IOException {
+        generator.writeArrayFieldStart("childShapes");
+        if (childShapes != null) {
+            for (Shape childShape : childShapes) {
+                generator.writeStartObject();
+                generator.writeStringField("resourceId", childShape.getResourceId());
+                writeProperties(childShape.getProperties(), generator);
+                writeStencil(childShape.getStencilId(), generator);
+                writeChildShapesRecursive(childShape.getChildShapes(), generator);
+
+                generator.writeArrayFieldStart("outgoing");
+                if (childShape.getOutgoings() != null) {
+                    for (Shape outgoing : childShape.getOutgoings()) {
+                        generator.writeStartObject();
+                        generator.writeStringField("resourceId", outgoing.getResourceId());
+                        generator.writeEndObject();
+                    }
+                }
+                generator.writeEndArray();
+
+                writeBounds(childShape.getBounds(), generator);
+
+                generator.writeArrayFieldStart("dockers");
+                if (childShape.getDockers() != null) {
+                    for (Point docker : childShape.getDockers())
+                        writePoint(docker, generator);
+                }
+                generator.writeEndArray();
+
+                if (childShape.getTarget() != null) {
+                    generator.writeObjectFieldStart("target");
+                    generator.writeStringField("resourceId", childShape.getTarget().getResourceId());
+                    generator.writeEndObject();
+                }
+                generator.writeEndObject();
+            }
+        }
+        generator.writeEndArray();
+    }
+
+    /**
+     * Writes the properties, values wrapped in braces are written as nested
+     * objects like {@link #parseProperties(HashMap)} does
+     * 
+     * @param properties
+     * @param generator
+     * @throws IOException
+     */
+    private static void writeProperties(HashMap<String, String> properties, JsonGenerator generator)
+            throws IOException {
+        generator.writeObjectFieldStart("properties");
+        if (properties != null) {
+            for (Map.Entry<String, String> property : properties.entrySet()) {
+                String propertyValue = property.getValue();
+                generator.writeFieldName(property.getKey());
+                if (propertyValue.startsWith("{") && propertyValue.endsWith("}")) {
+                    JsonParser parser = _mapper.getJsonFactory().createJsonParser(propertyValue);
+                    try {
+                        generator.writeTree(_mapper.readTree(parser));
+                    } finally {
+                        parser.close();
+                    }
+                } else {
+                    generator.writeString(propertyValue);
+                }
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeBounds(Bounds bounds, JsonGenerator generator) throws IOException {
+        generator.writeObjectFieldStart("bounds");
+        if (bounds != null) {
+            generator.writeFieldName("lowerRight");
+            writePoint(bounds.getLowerRight(), generator);
+            generator.writeFieldName("upperLeft");
+            writePoint(bounds.getUpperLeft(), generator);
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writePoint(Point point, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("x", point.getX().doubleValue());
+        generator.writeNumberField("y", point.getY().doubleValue());
+        generator.writeEndObject();
+    }
+}
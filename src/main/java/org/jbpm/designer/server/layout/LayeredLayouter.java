@@ -0,0 +1,612 @@
+package org.jbpm.designer.server.layout;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jbpm.designer.server.diagram.Bounds;
+import org.jbpm.designer.server.diagram.Diagram;
+import org.jbpm.designer.server.diagram.Point;
+import org.jbpm.designer.server.diagram.Shape;
+
+/**
+ * Layered (Sugiyama style) automatic layout of a diagram, flowing from left to right.
+ * <p>
+ * The children of every container are laid out separately, innermost containers first so
+ * their size is known when their parent is laid out. Lanes sharing a parent are laid out
+ * together: their nodes share the same columns and each lane gets its own horizontal band.
+ * For each container the flow graph is made acyclic by reversing back edges, nodes are
+ * assigned to columns by longest path, long edges are split with dummy nodes, crossings are
+ * reduced with barycenter sweeps and nodes are aligned with their predecessors.
+ * <p>
+ * The new bounds are set on the shapes of the diagram, relative to their parent as in the
+ * editor json. Edges get orthogonal bend points in absolute coordinates between their first
+ * and last docker.
+ */
+public class LayeredLayouter {
+
+    static final double H_GAP = 50;
+    static final double V_GAP = 30;
+    static final double PADDING = 30;
+    static final double LANE_HEADER = 30;
+    static final double MIN_LANE_HEIGHT = 100;
+    private static final int SWEEPS = 4;
+
+    private final Map<Shape, Shape> _sources = new HashMap<Shape, Shape>();
+    private final Map<Shape, Shape> _hosts = new HashMap<Shape, Shape>();
+    private final List<Shape> _edges = new ArrayList<Shape>();
+    private final Map<Shape, Route> _routes = new HashMap<Shape, Route>();
+
+    /**
+     * Lays out the diagram in place.
+     */
+    public void layout(Diagram diagram) {
+        index(diagram);
+        Map<Shape, Point> hostPositions = new HashMap<Shape, Point>();
+        for (Shape host : _hosts.values()) {
+            if (host.getBounds() != null) {
+                hostPositions.put(host, copy(host.getUpperLeft()));
+            }
+        }
+
+        layoutContainer(diagram);
+
+        // attached shapes, such as boundary events, move along with their host
+        for (Map.Entry<Shape, Shape> entry : _hosts.entrySet()) {
+            Shape attached = entry.getKey();
+            Point before = hostPositions.get(entry.getValue());
+            if (before != null && attached.getBounds() != null) {
+                Point after = entry.getValue().getUpperLeft();
+                moveTo(attached, attached.getUpperLeft().getX() + after.getX() - before.getX(),
+                        attached.getUpperLeft().getY() + after.getY() - before.getY());
+            }
+        }
+
+        for (Shape edge : _edges) {
+            route(edge);
+        }
+    }
+
+    /**
+     * @return true if the shape connects two other shapes
+     */
+    public static boolean isEdge(Shape shape) {
+        return shape.getTarget() != null || shape.getDockers().size() >= 2;
+    }
+
+    /**
+     * @return true if the shape is docked to another node, such as a boundary event
+     */
+    static boolean isAttached(Shape shape) {
+        return !isEdge(shape) && shape.getDockers().size() == 1;
+    }
+
+    static boolean isLane(Shape shape) {
+        String stencil = shape.getStencilId();
+        return "Lane".equals(stencil) || "Pool".equals(stencil);
+    }
+
+    private void index(Diagram diagram) {
+        List<Shape> all = new ArrayList<Shape>(diagram.getShapes());
+        all.add(diagram);
+        for (Shape shape : all) {
+            if (isEdge(shape)) {
+                _edges.add(shape);
+            }
+            for (Shape outgoing : shape.getOutgoings()) {
+                if (isEdge(outgoing)) {
+                    _sources.put(outgoing, shape);
+                } else if (isAttached(outgoing) && !isEdge(shape)) {
+                    _hosts.put(outgoing, shape);
+                }
+            }
+        }
+    }
+
+    private Shape getEdgeTarget(Shape edge) {
+        if (edge.getTarget() != null) {
+            return edge.getTarget();
+        }
+        return edge.getOutgoings().isEmpty() ? null : edge.getOutgoings().get(0);
+    }
+
+    /**
+     * Lays out the children of the container and sizes the container to fit them.
+     */
+    private void layoutContainer(Shape container) {
+        List<Shape> nodes = new ArrayList<Shape>();
+        List<Shape> lanes = new ArrayList<Shape>();
+        for (Shape child : container.getChildShapes()) {
+            if (isEdge(child) || isAttached(child)) {
+                continue;
+            }
+            if (isLane(child)) {
+                lanes.add(child);
+                for (Shape laneChild : child.getChildShapes()) {
+                    if (!isEdge(laneChild) && !isAttached(laneChild)) {
+                        layoutNested(laneChild);
+                    }
+                }
+            } else {
+                layoutNested(child);
+                nodes.add(child);
+            }
+        }
+        if (nodes.isEmpty() && lanes.isEmpty()) {
+            return;
+        }
+
+        // the nodes outside of lanes form the first band, each lane forms another one
+        List<Band> bands = new ArrayList<Band>();
+        Map<Shape, Node> members = new LinkedHashMap<Shape, Node>();
+        double contentX = PADDING + (lanes.isEmpty() ? 0 : LANE_HEADER);
+        if (!nodes.isEmpty()) {
+            Band band = new Band(null, container, bands.size());
+            bands.add(band);
+            for (Shape shape : nodes) {
+                members.put(shape, new Node(shape, band));
+            }
+        }
+        for (Shape lane : lanes) {
+            Band band = new Band(lane, container, bands.size());
+            bands.add(band);
+            for (Shape laneChild : lane.getChildShapes()) {
+                if (!isEdge(laneChild) && !isAttached(laneChild)) {
+                    members.put(laneChild, new Node(laneChild, band));
+                }
+            }
+        }
+
+        List<Link> links = new ArrayList<Link>();
+        for (Shape edge : _edges) {
+            Node source = member(members, _sources.get(edge));
+            Node target = member(members, getEdgeTarget(edge));
+            if (source != null && target != null && source != target) {
+                boolean direct = source.shape == resolveAttached(_sources.get(edge))
+                        && target.shape == resolveAttached(getEdgeTarget(edge));
+                links.add(new Link(direct ? edge : null, source, target));
+            }
+        }
+
+        List<Node> order = removeCycles(members.values(), links);
+        List<List<Node>> layers = assignLayers(order, links);
+        List<Node> all = new ArrayList<Node>(members.values());
+        splitLongLinks(links, layers, all);
+        reduceCrossings(layers);
+        double width = placeColumns(layers, contentX);
+        placeRows(layers, bands);
+
+        // bands are stacked from top to bottom
+        double y = 0;
+        for (Band band : bands) {
+            double height = Math.max(band.bottom + PADDING, band.lane != null ? MIN_LANE_HEIGHT : 0);
+            // the band outside of lanes comes first, its nodes need no offset
+            if (band.lane != null) {
+                setBounds(band.lane, 0, y, width + PADDING, height);
+            }
+            y += height;
+        }
+        for (Node node : all) {
+            if (node.shape != null) {
+                setBounds(node.shape, node.x, node.y, node.width, node.height);
+            }
+        }
+        for (Link link : links) {
+            if (link.edge != null) {
+                _routes.put(link.edge, new Route(link));
+            }
+        }
+
+        if (container instanceof Diagram) {
+            Bounds bounds = container.getBounds();
+            if (bounds != null) {
+                bounds.getLowerRight().setX(Math.max(bounds.getLowerRight().getX(), width + PADDING));
+                bounds.getLowerRight().setY(Math.max(bounds.getLowerRight().getY(), y));
+            }
+        } else {
+            Point upperLeft = container.getUpperLeft() != null ? container.getUpperLeft() : new Point(0d, 0d);
+            setBounds(container, upperLeft.getX(), upperLeft.getY(), width + PADDING, y);
+        }
+    }
+
+    private void layoutNested(Shape shape) {
+        if (!shape.getChildShapes().isEmpty()) {
+            layoutContainer(shape);
+        }
+    }
+
+    private Shape resolveAttached(Shape shape) {
+        Shape host = shape == null ? null : _hosts.get(shape);
+        return host != null ? host : shape;
+    }
+
+    /**
+     * @return the member the shape belongs to, the shape itself or one of its containers
+     */
+    private Node member(Map<Shape, Node> members, Shape shape) {
+        Shape current = resolveAttached(shape);
+        while (current != null) {
+            Node node = members.get(current);
+            if (node != null) {
+                return node;
+            }
+            current = current.getParent();
+        }
+        return null;
+    }
+
+    /**
+     * Reverses the links closing a cycle, found with an iterative depth first search.
+     * @return the nodes in topological order of the resulting acyclic graph
+     */
+    static List<Node> removeCycles(Iterable<Node> nodes, List<Link> links) {
+        for (Link link : links) {
+            link.source.out.add(link);
+        }
+        final int unvisited = 0, visiting = 1, done = 2;
+        List<Node> postOrder = new ArrayList<Node>();
+        Deque<Node> stack = new ArrayDeque<Node>();
+        Deque<Integer> positions = new ArrayDeque<Integer>();
+        for (Node root : nodes) {
+            if (root.state != unvisited) {
+                continue;
+            }
+            root.state = visiting;
+            stack.push(root);
+            positions.push(0);
+            while (!stack.isEmpty()) {
+                Node node = stack.peek();
+                int position = positions.pop();
+                if (position < node.out.size()) {
+                    positions.push(position + 1);
+                    Link link = node.out.get(position);
+                    Node next = link.target;
+                    if (next.state == visiting) {
+                        link.reversed = true;
+                    } else if (next.state == unvisited) {
+                        next.state = visiting;
+                        stack.push(next);
+                        positions.push(0);
+                    }
+                } else {
+                    node.state = done;
+                    postOrder.add(stack.pop());
+                }
+            }
+        }
+        Collections.reverse(postOrder);
+        for (Link link : links) {
+            link.from().succs.add(link);
+            link.to().preds.add(link);
+        }
+        return postOrder;
+    }
+
+    /**
+     * Puts every node in the column after the one of its furthest predecessor.
+     */
+    static List<List<Node>> assignLayers(List<Node> topologicalOrder, List<Link> links) {
+        List<List<Node>> layers = new ArrayList<List<Node>>();
+        for (Node node : topologicalOrder) {
+            int layer = 0;
+            for (Link link : node.preds) {
+                layer = Math.max(layer, link.from().layer + 1);
+            }
+            node.layer = layer;
+            while (layers.size() <= layer) {
+                layers.add(new ArrayList<Node>());
+            }
+            node.position = layers.get(layer).size();
+            layers.get(layer).add(node);
+        }
+        return layers;
+    }
+
+    /**
+     * Replaces links spanning several columns by chains of dummy nodes, one per column.
+     */
+    static void splitLongLinks(List<Link> links, List<List<Node>> layers, List<Node> all) {
+        for (Link link : links) {
+            Node from = link.from();
+            Node to = link.to();
+            if (to.layer - from.layer <= 1) {
+                continue;
+            }
+            from.succs.remove(link);
+            to.preds.remove(link);
+            Node previous = from;
+            for (int layer = from.layer + 1; layer < to.layer; layer++) {
+                // dummies stay in the band of the link source
+                Node dummy = new Node(null, from.band);
+                dummy.layer = layer;
+                dummy.position = layers.get(layer).size();
+                layers.get(layer).add(dummy);
+                all.add(dummy);
+                link.dummies.add(dummy);
+                Link segment = new Link(null, previous, dummy);
+                previous.succs.add(segment);
+                dummy.preds.add(segment);
+                previous = dummy;
+            }
+            Link segment = new Link(null, previous, to);
+            previous.succs.add(segment);
+            to.preds.add(segment);
+            if (link.reversed) {
+                Collections.reverse(link.dummies);
+            }
+        }
+    }
+
+    /**
+     * Orders every column by the barycenter of the neighbours in the previous column,
+     * then of the following column, keeping the nodes of a band together.
+     */
+    static void reduceCrossings(List<List<Node>> layers) {
+        for (int sweep = 0; sweep < SWEEPS; sweep++) {
+            for (int i = 1; i < layers.size(); i++) {
+                sortLayer(layers.get(i), true);
+            }
+            for (int i = layers.size() - 2; i >= 0; i--) {
+                sortLayer(layers.get(i), false);
+            }
+        }
+    }
+
+    private static void sortLayer(List<Node> layer, boolean downwards) {
+        for (Node node : layer) {
+            List<Link> neighbours = downwards ? node.preds : node.succs;
+            if (neighbours.isEmpty()) {
+                node.barycenter = node.position;
+            } else {
+                double sum = 0;
+                for (Link link : neighbours) {
+                    sum += downwards ? link.from().position : link.to().position;
+                }
+                node.barycenter = sum / neighbours.size();
+            }
+        }
+        Collections.sort(layer, BAND_THEN_BARYCENTER);
+        for (int i = 0; i < layer.size(); i++) {
+            layer.get(i).position = i;
+        }
+    }
+
+    private static final Comparator<Node> BAND_THEN_BARYCENTER = new Comparator<Node>() {
+        public int compare(Node a, Node b) {
+            if (a.band.index != b.band.index) {
+                return a.band.index < b.band.index ? -1 : 1;
+            }
+            return Double.compare(a.barycenter, b.barycenter);
+        }
+    };
+
+    /**
+     * @return the width of all columns
+     */
+    private static double placeColumns(List<List<Node>> layers, double contentX) {
+        double x = contentX;
+        for (List<Node> layer : layers) {
+            double width = 0;
+            for (Node node : layer) {
+                width = Math.max(width, node.width);
+            }
+            for (Node node : layer) {
+                node.x = x + (width - node.width) / 2;
+            }
+            x += width + H_GAP;
+        }
+        return x - H_GAP;
+    }
+
+    /**
+     * Aligns every node with its predecessors in the same band without overlapping the
+     * node above it, then moves nodes down towards their successors where there is room,
+     * so small nodes such as start events line up with what follows them.
+     */
+    private static void placeRows(List<List<Node>> layers, List<Band> bands) {
+        for (List<Node> layer : layers) {
+            Node above = null;
+            for (Node node : layer) {
+                double min = above == null || above.band != node.band ? PADDING : above.y + above.height + V_GAP;
+                double center = alignment(node, true);
+                node.y = Double.isNaN(center) ? min : Math.max(min, center - node.height / 2);
+                above = node;
+            }
+        }
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            List<Node> layer = layers.get(i);
+            for (int j = layer.size() - 1; j >= 0; j--) {
+                Node node = layer.get(j);
+                Node below = j + 1 < layer.size() ? layer.get(j + 1) : null;
+                double center = alignment(node, false);
+                if (!Double.isNaN(center) && center - node.height / 2 > node.y) {
+                    double max = below == null || below.band != node.band
+                            ? Double.MAX_VALUE : below.y - V_GAP - node.height;
+                    node.y = Math.max(node.y, Math.min(max, center - node.height / 2));
+                }
+            }
+        }
+        for (List<Node> layer : layers) {
+            for (Node node : layer) {
+                node.band.bottom = Math.max(node.band.bottom, node.y + node.height);
+            }
+        }
+    }
+
+    /**
+     * @return the mean center of the predecessors or successors of the node in
+     * its band, or NaN if it has none
+     */
+    private static double alignment(Node node, boolean predecessors) {
+        double sum = 0;
+        int count = 0;
+        for (Link link : predecessors ? node.preds : node.succs) {
+            Node other = predecessors ? link.from() : link.to();
+            if (other.band == node.band) {
+                sum += other.y + other.height / 2;
+                count++;
+            }
+        }
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    /**
+     * Sets the bend points of the edge, keeping its first and last docker.
+     */
+    private void route(Shape edge) {
+        List<Point> dockers = edge.getDockers();
+        Route route = _routes.get(edge);
+        if (dockers.size() < 2) {
+            return;
+        }
+        ArrayList<Point> routed = new ArrayList<Point>();
+        routed.add(dockers.get(0));
+        if (route != null) {
+            List<double[]> chain = new ArrayList<double[]>();
+            chain.add(route.link.source.center());
+            for (Node dummy : route.link.dummies) {
+                chain.add(dummy.center());
+            }
+            chain.add(route.link.target.center());
+            for (int i = 1; i < chain.size(); i++) {
+                double[] a = chain.get(i - 1);
+                double[] b = chain.get(i);
+                if (Math.abs(a[1] - b[1]) > 0.5) {
+                    double middle = (a[0] + b[0]) / 2;
+                    routed.add(new Point(middle, a[1]));
+                    routed.add(new Point(middle, b[1]));
+                }
+            }
+        }
+        routed.add(dockers.get(dockers.size() - 1));
+        edge.setDockers(routed);
+    }
+
+    static double[] absoluteOrigin(Shape container) {
+        double x = 0, y = 0;
+        Shape current = container;
+        while (current != null && !(current instanceof Diagram)) {
+            if (current.getUpperLeft() != null) {
+                x += current.getUpperLeft().getX();
+                y += current.getUpperLeft().getY();
+            }
+            current = current.getParent();
+        }
+        return new double[] { x, y };
+    }
+
+    private static void setBounds(Shape shape, double x, double y, double width, double height) {
+        Bounds bounds = shape.getBounds();
+        if (bounds == null) {
+            shape.setBounds(new Bounds(new Point(x + width, y + height), new Point(x, y)));
+        } else {
+            bounds.setUpperLeft(new Point(x, y));
+            bounds.setLowerRight(new Point(x + width, y + height));
+        }
+    }
+
+    private static void moveTo(Shape shape, double x, double y) {
+        setBounds(shape, x, y, shape.getWidth(), shape.getHeight());
+    }
+
+    private static Point copy(Point point) {
+        return new Point(point.getX(), point.getY());
+    }
+
+    /**
+     * A horizontal band of a container, either a lane or the area outside of lanes.
+     */
+    static class Band {
+        final Shape lane;
+        /**
+         * The shape the positions of the nodes of the band are relative to.
+         */
+        final Shape origin;
+        final int index;
+        double bottom;
+
+        Band(Shape lane, Shape container, int index) {
+            this.lane = lane;
+            this.origin = lane != null ? lane : container;
+            this.index = index;
+        }
+    }
+
+    /**
+     * A node of the layered graph, dummy nodes have no shape.
+     */
+    static class Node {
+        final Shape shape;
+        final Band band;
+        final double width;
+        final double height;
+        final List<Link> out = new ArrayList<Link>(2);
+        final List<Link> preds = new ArrayList<Link>(2);
+        final List<Link> succs = new ArrayList<Link>(2);
+        int state;
+        int layer;
+        int position;
+        double barycenter;
+        double x;
+        double y;
+
+        Node(Shape shape, Band band) {
+            this.shape = shape;
+            this.band = band;
+            this.width = shape != null && shape.getBounds() != null ? shape.getWidth() : 0;
+            this.height = shape != null && shape.getBounds() != null ? shape.getHeight() : 0;
+        }
+
+        /**
+         * @return the absolute position of the center of the node
+         */
+        double[] center() {
+            double[] origin = absoluteOrigin(band.origin);
+            return new double[] { origin[0] + x + width / 2, origin[1] + y + height / 2 };
+        }
+    }
+
+    /**
+     * A link between two members of a container, for an edge or for an edge between
+     * shapes nested in those members.
+     */
+    static class Link {
+        final Shape edge;
+        final Node source;
+        final Node target;
+        final List<Node> dummies = new ArrayList<Node>();
+        boolean reversed;
+
+        Link(Shape edge, Node source, Node target) {
+            this.edge = edge;
+            this.source = source;
+            this.target = target;
+        }
+
+        Node from() {
+            return reversed ? target : source;
+        }
+
+        Node to() {
+            return reversed ? source : target;
+        }
+    }
+
+    /**
+     * The link of an edge, kept until the whole diagram is laid out and
+     * absolute positions are known.
+     */
+    private static class Route {
+        final Link link;
+
+        Route(Link link) {
+            this.link = link;
+        }
+    }
+}
@@ -5,8 +5,17 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.antlr.stringtemplate.StringTemplate;
 import org.antlr.stringtemplate.StringTemplateGroup;
@@ -34,6 +43,9 @@ import org.jbpm.designer.web.profile.IDiagramProfile;
 
 /** 
  * Manager for task form templates.
+ * <p>
+ * The template groups are kept until a template of the directory changes, and the forms are
+ * generated in parallel by as many threads as set with the system property designer.taskforms.threads.
  * 
  * @author Tihomir Surdilovic
  */
@@ -41,6 +53,10 @@ public class TaskFormTemplateManager {
     private static final Logger _logger = Logger.getLogger(TaskFormTemplateManager.class);
     private static final String[] validStructureRefs = new String[] {"Float", "Integer", "String", "Object", "Boolean", "Undefined"};
     public final static String TASKFORMS_PATH = "stencilsets";
+    public static final String THREADS = "designer.taskforms.threads";
+
+    private static final Map<String, CachedTemplateGroup> _templateGroups = new HashMap<String, CachedTemplateGroup>();
+    private static ExecutorService _pool;
     
     private IDiagramProfile profile;
     private String packageName;
@@ -89,6 +105,10 @@ public class TaskFormTemplateManager {
                             tfi.getTaskInputs().add(input);
                         }
                     }
+                    Map<String, Property> propertiesById = new HashMap<String, Property>();
+                    for(Property prop : processProperties) {
+                        propertiesById.put(prop.getId(), prop);
+                    }
                     tfi.setProcessForm(true);
                     tfi.setUserTaskForm(false);
                     taskFormInformationList.add(tfi);
@@ -109,92 +129,40 @@ public class TaskFormTemplateManager {
                             List<DataOutput> dataOutputs = Collections.emptyList();
                             List<DataInputAssociation> dataInputAssociations = Collections.emptyList();
                             List<DataOutputAssociation> dataOutputAssociations = Collections.emptyList();
+                            Map<String, List<InputMapping>> inputMappings = new HashMap<String, List<InputMapping>>();
                             if (utask.getIoSpecification() != null) {
                                 dataInputs = utask.getIoSpecification().getDataInputs();
                                 dataOutputs = utask.getIoSpecification().getDataOutputs();
                                 dataInputAssociations = utask.getDataInputAssociations();
                                 dataOutputAssociations = utask.getDataOutputAssociations();
+                                inputMappings = indexInputMappings(dataInputAssociations);
                                 for(DataInput din : dataInputs) {
-                                    if(din.getName().equals("TaskName")) {
-                                        // make sure we have a data input association to the task name value
-                                        for(DataInputAssociation inputAssociation : dataInputAssociations) {
-                                            List<Assignment> assignments = inputAssociation.getAssignment();
-                                            for(Assignment assignment : assignments) {
-                                                if( ((FormalExpression)assignment.getTo()).getBody().equals(din.getId())) {
-                                                    String taskName = ((FormalExpression)assignment.getFrom()).getBody();
-                                                    if(taskName != null && taskName.length() > 0) {
-                                                        usertfi.setId(taskName + "-taskform");
-                                                        usertfi.setTaskName(taskName);
-                                                        validTaskName = true;
-                                                    }
-                                                }
-                                            }
-                                        }
-                                    }
-                                    if(din.getName().equals("ActorId")) {
-                                        for(DataInputAssociation inputAssociation : dataInputAssociations) {
-                                            List<Assignment> assignments = inputAssociation.getAssignment();
-                                            for(Assignment assignment : assignments) {
-                                                if( ((FormalExpression)assignment.getTo()).getBody().equals(din.getId())) {
-                                                    String actorid = ((FormalExpression)assignment.getFrom()).getBody();
-                                                    if(actorid != null && actorid.length() > 0) {
-                                                        usertfi.setActorId(replaceInterpolations(actorid));
-                                                    }
-                                                }
+                                    String value = null;
+                                    for(InputMapping mapping : getInputMappings(inputMappings, din.getId())) {
+                                        if(mapping.assignment != null) {
+                                            String from = ((FormalExpression)mapping.assignment.getFrom()).getBody();
+                                            if(from != null && from.length() > 0) {
+                                                value = from;
                                             }
                                         }
                                     }
-                                    if(din.getName().equals("GroupId")) {
-                                        for(DataInputAssociation inputAssociation : dataInputAssociations) {
-                                            List<Assignment> assignments = inputAssociation.getAssignment();
-                                            for(Assignment assignment : assignments) {
-                                                if( ((FormalExpression)assignment.getTo()).getBody().equals(din.getId())) {
-                                                    String groupid = ((FormalExpression)assignment.getFrom()).getBody();
-                                                    if(groupid != null && groupid.length() > 0) {
-                                                        usertfi.setGroupId(replaceInterpolations(groupid));
-                                                    }
-                                                }
-                                            }
-                                        }
+                                    if(value == null) {
+                                        continue;
                                     }
-                                    if(din.getName().equals("Skippable")) {
-                                        for(DataInputAssociation inputAssociation : dataInputAssociations) {
-                                            List<Assignment> assignments = inputAssociation.getAssignment();
-                                            for(Assignment assignment : assignments) {
-                                                if( ((FormalExpression)assignment.getTo()).getBody().equals(din.getId())) {
-                                                    String skippable = ((FormalExpression)assignment.getFrom()).getBody();
-                                                    if(skippable != null && skippable.length() > 0) {
-                                                        usertfi.setSkippable(replaceInterpolations(skippable));
-                                                    }
-                                                }
-                                            }
-                                        }
-                                    }
-                                    if(din.getName().equals("Priority")) {
-                                        for(DataInputAssociation inputAssociation : dataInputAssociations) {
-                                            List<Assignment> assignments = inputAssociation.getAssignment();
-                                            for(Assignment assignment : assignments) {
-                                                if( ((FormalExpression)assignment.getTo()).getBody().equals(din.getId())) {
-                                                    String priority = ((FormalExpression)assignment.getFrom()).getBody();
-                                                    if(priority != null && priority.length() > 0) {
-                                                        usertfi.setPriority(replaceInterpolations(priority));
-                                                    }
-                                                }
-                                            }
-                                        }
-                                    }
-                                    if(din.getName().equals("Comment")) {
-                                        for(DataInputAssociation inputAssociation : dataInputAssociations) {
-                                            List<Assignment> assignments = inputAssociation.getAssignment();
-                                            for(Assignment assignment : assignments) {
-                                                if( ((FormalExpression)assignment.getTo()).getBody().equals(din.getId())) {
-                                                    String comment = ((FormalExpression)assignment.getFrom()).getBody();
-                                                    if(comment != null && comment.length() > 0) {
-                                                        usertfi.setComment(replaceInterpolations(comment));
-                                                    }
-                                                }
-                                            }
-                                        }
+                                    if(din.getName().equals("TaskName")) {
+                                        usertfi.setId(value + "-taskform");
+                                        usertfi.setTaskName(value);
+                                        validTaskName = true;
+                                    } else if(din.getName().equals("ActorId")) {
+                                        usertfi.setActorId(replaceInterpolations(value));
+                                    } else if(din.getName().equals("GroupId")) {
+                                        usertfi.setGroupId(replaceInterpolations(value));
+                                    } else if(din.getName().equals("Skippable")) {
+                                        usertfi.setSkippable(replaceInterpolations(value));
+                                    } else if(din.getName().equals("Priority")) {
+                                        usertfi.setPriority(replaceInterpolations(value));
+                                    } else if(din.getName().equals("Comment")) {
+                                        usertfi.setComment(replaceInterpolations(value));
                                     }
                                 }
                             }
@@ -218,30 +186,23 @@ public class TaskFormTemplateManager {
                                         input.setName(dinput.getName());
                                         // we need to see if the value of the input references a process var
                                         // or we have an assignment defined
-                                        for(DataInputAssociation inputAssociation : dataInputAssociations) {
-                                            List<Assignment> assignments = inputAssociation.getAssignment();
-                                            if(assignments != null && assignments.size() > 0) {
+                                        for(InputMapping mapping : getInputMappings(inputMappings, dinput.getId())) {
+                                            if(mapping.assignment != null) {
                                                 // get the assignment value
-                                                for(Assignment assignment : assignments) {
-                                                    if( ((FormalExpression)assignment.getTo()).getBody().equals(dinput.getId())) {
-                                                        input.setValue( ((FormalExpression)assignment.getFrom()).getBody() );
-                                                    }
-                                                }
+                                                input.setValue( ((FormalExpression)mapping.assignment.getFrom()).getBody() );
                                             } else {
                                                 // mapping to process var
-                                                if(inputAssociation.getTargetRef().getId().equals(dinput.getId())) {
-                                                    for(Property prop : processProperties) {
-                                                        if(prop.getId().equals(inputAssociation.getSourceRef().get(0).getId())) {
-                                                            input.setRefType( prop.getItemSubjectRef().getStructureRef() ); 
-                                                        }
-                                                    }
-                                                    if(input.getRefType() != null && input.getRefType().equals("Date")) {
-                                                        //input.setValue("${"+ inputAssociation.getSourceRef().get(0).getId() + "?date} ${"+ inputAssociation.getSourceRef().get(0).getId() + "?time}");
-                                                        input.setValue("${"+ ((DataInput)inputAssociation.getTargetRef()).getName() + "?date} ${"+ ((DataInput)inputAssociation.getTargetRef()).getName() + "?time}");
-                                                    } else {
-                                                        //input.setValue("${"+ inputAssociation.getSourceRef().get(0).getId() + "}");
-                                                        input.setValue("${"+ ((DataInput)inputAssociation.getTargetRef()).getName() + "}");
-                                                    }
+                                                DataInputAssociation inputAssociation = mapping.association;
+                                                Property prop = propertiesById.get(inputAssociation.getSourceRef().get(0).getId());
+                                                if(prop != null) {
+                                                    input.setRefType( prop.getItemSubjectRef().getStructureRef() );
+                                                }
+                                                if(input.getRefType() != null && input.getRefType().equals("Date")) {
+                                                    //input.setValue("${"+ inputAssociation.getSourceRef().get(0).getId() + "?date} ${"+ inputAssociation.getSourceRef().get(0).getId() + "?time}");
+                                                    input.setValue("${"+ ((DataInput)inputAssociation.getTargetRef()).getName() + "?date} ${"+ ((DataInput)inputAssociation.getTargetRef()).getName() + "?time}");
+                                                } else {
+                                                    //input.setValue("${"+ inputAssociation.getSourceRef().get(0).getId() + "}");
+                                                    input.setValue("${"+ ((DataInput)inputAssociation.getTargetRef()).getName() + "}");
                                                 }
                                             }
                                         }
@@ -249,18 +210,26 @@ public class TaskFormTemplateManager {
                                         usertfi.getTaskInputs().add(input);
                                     }
                                 }
+                                Map<String, List<DataOutputAssociation>> outputAssociationsBySource = new HashMap<String, List<DataOutputAssociation>>();
+                                for(DataOutputAssociation outputAssociation : dataOutputAssociations) {
+                                    for(ItemAwareElement iae : outputAssociation.getSourceRef()) {
+                                        List<DataOutputAssociation> outputAssociations = outputAssociationsBySource.get(iae.getId());
+                                        if(outputAssociations == null) {
+                                            outputAssociations = new ArrayList<DataOutputAssociation>();
+                                            outputAssociationsBySource.put(iae.getId(), outputAssociations);
+                                        }
+                                        outputAssociations.add(outputAssociation);
+                                    }
+                                }
                                 for(DataOutput dout : dataOutputs) {
                                     TaskFormOutput out = new TaskFormOutput();
                                     out.setName(dout.getName());
-                                    for(DataOutputAssociation outputAssociation : dataOutputAssociations) {
-                                        List<ItemAwareElement> sources = outputAssociation.getSourceRef();
-                                        for(ItemAwareElement iae : sources) {
-                                            if(iae.getId().equals(dout.getId())) {
-                                                for(Property prop : processProperties) {
-                                                    if(prop.getId().equals(outputAssociation.getTargetRef().getId())) {
-                                                        out.setRefType( prop.getItemSubjectRef().getStructureRef() ); 
-                                                    }
-                                                }
+                                    List<DataOutputAssociation> outputAssociations = outputAssociationsBySource.get(dout.getId());
+                                    if(outputAssociations != null) {
+                                        for(DataOutputAssociation outputAssociation : outputAssociations) {
+                                            Property prop = propertiesById.get(outputAssociation.getTargetRef().getId());
+                                            if(prop != null) {
+                                                out.setRefType( prop.getItemSubjectRef().getStructureRef() );
                                             }
                                         }
                                     }
@@ -348,28 +317,132 @@ public class TaskFormTemplateManager {
     }
     
     public void generateTemplates() {
-        for(TaskFormInfo tfi : taskFormInformationList) {
-            if(tfi.isProcessForm()) {
-                generateProcessTemplate(tfi);
-            } else {
-                generateUserTaskTemplate(tfi);
+        final StringTemplateGroup processTemplates = getTemplateGroup("processtaskgroup", templatesPath);
+        final StringTemplateGroup userTaskTemplates = getTemplateGroup("usertaskgroup", templatesPath);
+        if(taskFormInformationList.size() < 2) {
+            for(TaskFormInfo tfi : taskFormInformationList) {
+                generateTemplate(tfi, processTemplates, userTaskTemplates);
+            }
+            return;
+        }
+        // the forms do not depend on each other, they are generated in parallel
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for(final TaskFormInfo tfi : taskFormInformationList) {
+            tasks.add(new Callable<Object>() {
+                public Object call() throws Exception {
+                    generateTemplate(tfi, processTemplates, userTaskTemplates);
+                    return null;
+                }
+            });
+        }
+        try {
+            for(Future<Object> future : getPool().invokeAll(tasks)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    _logger.error("Unable to generate task form: " + e.getCause().getMessage());
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void generateTemplate(TaskFormInfo tfi, StringTemplateGroup processTemplates, StringTemplateGroup userTaskTemplates) {
+        if(tfi.isProcessForm()) {
+            generateProcessTemplate(tfi, processTemplates);
+        } else {
+            generateUserTaskTemplate(tfi, userTaskTemplates);
         }
     }
     
-    private void generateProcessTemplate(TaskFormInfo tfi) {
-        StringTemplateGroup templates = new StringTemplateGroup("processtaskgroup", templatesPath);
+    private void generateProcessTemplate(TaskFormInfo tfi, StringTemplateGroup templates) {
         StringTemplate processFormTemplate = templates.getInstanceOf("processtaskform");
         processFormTemplate.setAttribute("tfi", tfi);
         tfi.setOutput(processFormTemplate.toString());
     }
     
-    private void generateUserTaskTemplate(TaskFormInfo tfi) {
-        StringTemplateGroup templates = new StringTemplateGroup("usertaskgroup", templatesPath);
+    private void generateUserTaskTemplate(TaskFormInfo tfi, StringTemplateGroup templates) {
         StringTemplate usertaskFormTemplate = templates.getInstanceOf("usertaskform");
         usertaskFormTemplate.setAttribute("tfi", tfi);
         tfi.setOutput(usertaskFormTemplate.toString());
     }
+
+    /**
+     * @return the template group of the templates directory, created again only when one of its
+     *         templates was added, removed or modified
+     */
+    private static StringTemplateGroup getTemplateGroup(String name, String templatesPath) {
+        StringBuilder signature = new StringBuilder();
+        File[] templateFiles = templatesPath == null ? null : new File(templatesPath).listFiles();
+        if(templateFiles != null) {
+            for(File templateFile : templateFiles) {
+                if(templateFile.getName().endsWith(".st")) {
+                    signature.append(templateFile.getName()).append(':').append(templateFile.lastModified())
+                            .append('/').append(templateFile.length()).append('\n');
+                }
+            }
+        }
+        String key = name + "\n" + templatesPath;
+        synchronized (_templateGroups) {
+            CachedTemplateGroup cached = _templateGroups.get(key);
+            if(cached == null || !cached.signature.equals(signature.toString())) {
+                cached = new CachedTemplateGroup(signature.toString(), new StringTemplateGroup(name, templatesPath));
+                _templateGroups.put(key, cached);
+            }
+            return cached.group;
+        }
+    }
+
+    private static synchronized ExecutorService getPool() {
+        if(_pool == null) {
+            _pool = Executors.newFixedThreadPool(Math.max(1, Integer.getInteger(THREADS, Runtime.getRuntime().availableProcessors())),
+                    new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "designer-taskforms-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return _pool;
+    }
+
+    /**
+     * Indexes the assignments of the associations by the id of the data input they assign, and the
+     * associations without assignments by their target.
+     */
+    private static Map<String, List<InputMapping>> indexInputMappings(List<DataInputAssociation> dataInputAssociations) {
+        Map<String, List<InputMapping>> inputMappings = new HashMap<String, List<InputMapping>>();
+        for(DataInputAssociation inputAssociation : dataInputAssociations) {
+            List<Assignment> assignments = inputAssociation.getAssignment();
+            if(assignments != null && assignments.size() > 0) {
+                for(Assignment assignment : assignments) {
+                    addInputMapping(inputMappings, ((FormalExpression)assignment.getTo()).getBody(),
+                            new InputMapping(inputAssociation, assignment));
+                }
+            } else if(inputAssociation.getTargetRef() != null) {
+                addInputMapping(inputMappings, inputAssociation.getTargetRef().getId(), new InputMapping(inputAssociation, null));
+            }
+        }
+        return inputMappings;
+    }
+
+    private static void addInputMapping(Map<String, List<InputMapping>> inputMappings, String id, InputMapping mapping) {
+        List<InputMapping> mappings = inputMappings.get(id);
+        if(mappings == null) {
+            mappings = new ArrayList<InputMapping>();
+            inputMappings.put(id, mappings);
+        }
+        mappings.add(mapping);
+    }
+
+    private static List<InputMapping> getInputMappings(Map<String, List<InputMapping>> inputMappings, String id) {
+        List<InputMapping> mappings = inputMappings.get(id);
+        return mappings == null ? Collections.<InputMapping>emptyList() : mappings;
+    }
     
     public String readFile(String pathname) throws IOException {
         StringBuilder fileContents = new StringBuilder();
@@ -421,5 +494,25 @@ public class TaskFormTemplateManager {
     public void setPackageName(String packageName) {
         this.packageName = packageName;
     }
+
+    private static class InputMapping {
+        final DataInputAssociation association;
+        final Assignment assignment;
+
+        InputMapping(DataInputAssociation association, Assignment assignment) {
+            this.association = association;
+            this.assignment = assignment;
+        }
+    }
+
+    private static class CachedTemplateGroup {
+        final String signature;
+        final StringTemplateGroup group;
+
+        CachedTemplateGroup(String signature, StringTemplateGroup group) {
+            this.signature = signature;
+            this.group = group;
+        }
+    }
     
 }
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2010 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.designer.web.filter.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * A response wrapper keeping the body in memory, so a filter can inspect
+ * it before it is sent.
+ * Errors and redirects go straight to the wrapped response.
+ */
+public class BufferedResponseWrapper extends HttpServletResponseWrapper {
+
+    private final ByteArrayOutputStream _buffer = new ByteArrayOutputStream(8192);
+    private ServletOutputStream _outputStream;
+    private PrintWriter _writer;
+    private int _status = SC_OK;
+    private boolean _bypassed;
+    private boolean _encoded;
+    private long _lastModified = -1;
+
+    public BufferedResponseWrapper(HttpServletResponse response) {
+        super(response);
+    }
+
+    /**
+     * @return the body written so far
+     */
+    public byte[] getBody() {
+        if (_writer != null) {
+            _writer.flush();
+        }
+        return _buffer.toByteArray();
+    }
+
+    public int getStatus() {
+        return _status;
+    }
+
+    /**
+     * @return true when the response was already sent through an error or a redirect
+     */
+    public boolean isBypassed() {
+        return _bypassed;
+    }
+
+    /**
+     * @return true when the servlet set the encoding of the response itself
+     */
+    public boolean isEncoded() {
+        return _encoded;
+    }
+
+    /**
+     * @return the Last-Modified date set by the servlet, -1 when it did not set one
+     */
+    public long getLastModified() {
+        return _lastModified;
+    }
+
+    @Override
+    public void setDateHeader(String name, long date) {
+        markLastModified(name, date);
+        super.setDateHeader(name, date);
+    }
+
+    @Override
+    public void addDateHeader(String name, long date) {
+        markLastModified(name, date);
+        super.addDateHeader(name, date);
+    }
+
+    private void markLastModified(String name, long date) {
+        if ("Last-Modified".equalsIgnoreCase(name)) {
+            _lastModified = date;
+        }
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        markEncoded(name);
+        super.setHeader(name, value);
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        markEncoded(name);
+        super.addHeader(name, value);
+    }
+
+    private void markEncoded(String name) {
+        if ("Content-Encoding".equalsIgnoreCase(name)) {
+            _encoded = true;
+        }
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (_writer != null) {
+            throw new IllegalStateException("getWriter() has already been called");
+        }
+        if (_outputStream == null) {
+            _outputStream = new ServletOutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    _buffer.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    _buffer.write(b, off, len);
+                }
+            };
+        }
+        return _outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (_outputStream != null) {
+            throw new IllegalStateException("getOutputStream() has already been called");
+        }
+        if (_writer == null) {
+            _writer = new PrintWriter(new OutputStreamWriter(_buffer, getCharacterEncoding()));
+        }
+        return _writer;
+    }
+
+    @Override
+    public void setStatus(int sc) {
+        _status = sc;
+        super.setStatus(sc);
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public void setStatus(int sc, String sm) {
+        _status = sc;
+        super.setStatus(sc, sm);
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException {
+        _status = sc;
+        _bypassed = true;
+        super.sendError(sc);
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+        _status = sc;
+        _bypassed = true;
+        super.sendError(sc, msg);
+    }
+
+    @Override
+    public void sendRedirect(String location) throws IOException {
+        _status = SC_MOVED_TEMPORARILY;
+        _bypassed = true;
+        super.sendRedirect(location);
+    }
+
+    @Override
+    public void setContentLength(int len) {
+        // computed from the buffered body
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (_writer != null) {
+            _writer.flush();
+        }
+    }
+
+    @Override
+    public void resetBuffer() {
+        _buffer.reset();
+        super.resetBuffer();
+    }
+
+    @Override
+    public void reset() {
+        _buffer.reset();
+        _status = SC_OK;
+        super.reset();
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return _bypassed || super.isCommitted();
+    }
+}
@@ -35,6 +35,7 @@ public class FilterChainImpl implements FilterChain {
     
     private LinkedList<Filter> _filters = new LinkedList<Filter>();
     private FilterChain _chain;
+    private boolean _chainInvoked;
     
     public FilterChainImpl(Collection<Filter> filters, FilterChain chain) {
         _filters.addAll(filters);
@@ -46,9 +47,20 @@ public class FilterChainImpl implements FilterChain {
             // remove the first element from the chain and pass itself to the filter.
             Filter filter = _filters.pop();
             FilterChain chain = this;
-            //when reaching the last filter, pass the original chain.
             filter.doFilter(request, response, chain);
+        } else if (!_chainInvoked) {
+            //when reaching the last filter, pass the original chain, 
+            //with the request and response the filters may have wrapped.
+            _chainInvoked = true;
+            _chain.doFilter(request, response);
         }
     }
 
+    /**
+     * @return true when the last filter passed the request on to the original chain
+     */
+    public boolean isChainInvoked() {
+        return _chainInvoked;
+    }
+
 }
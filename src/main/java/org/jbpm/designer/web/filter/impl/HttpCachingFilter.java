@@ -0,0 +1,306 @@
+/*
+ * Copyright 2010 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.designer.web.filter.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Adds content-hash ETags, conditional GET and gzip compression to the GET
+ * responses of the configured URL patterns. Requests are validated with
+ * If-None-Match, or with If-Modified-Since when the response has a Last-Modified
+ * date: the time it was cached for immutable URLs, the one set by the servlet otherwise.
+ * <p>
+ * The rules are read from the {@link #RULES} parameter as a comma separated list of
+ * <code>pattern=policy</code>, where the pattern is matched against the request path
+ * inside the webapp (<code>*</code> matches any characters) and the policy is one of
+ * <ul>
+ * <li><code>immutable</code>: the content of the URL never changes, it is kept in memory
+ * together with its gzip form and served without going down the chain again,</li>
+ * <li><code>revalidate</code>: clients must revalidate with the ETag on every use,</li>
+ * <li><code>max-age=n</code>: clients may reuse the response for n seconds.</li>
+ * </ul>
+ * The first matching rule applies.
+ */
+public class HttpCachingFilter implements Filter {
+
+    private static final Logger _logger = Logger.getLogger(HttpCachingFilter.class);
+
+    public static final String RULES = "designer.cache.rules";
+    public static final String MAX_ENTRIES = "designer.cache.maxentries";
+
+    public static final String IMMUTABLE = "immutable";
+    public static final String REVALIDATE = "revalidate";
+    public static final String MAX_AGE = "max-age=";
+
+    private static final int MIN_GZIP_SIZE = 1024;
+    private static final int DEFAULT_MAX_ENTRIES = 256;
+
+    private List<CacheRule> _rules = new ArrayList<CacheRule>();
+    private int _maxEntries = DEFAULT_MAX_ENTRIES;
+    private final ConcurrentMap<String, CachedResponse> _immutables =
+        new ConcurrentHashMap<String, CachedResponse>();
+
+    public void init(FilterConfig config) throws ServletException {
+        String rules = config.getInitParameter(RULES);
+        if (rules != null) {
+            for (String rule : rules.split(",")) {
+                rule = rule.trim();
+                if (rule.length() == 0) {
+                    continue;
+                }
+                int index = rule.indexOf('=');
+                if (index < 1) {
+                    throw new ServletException("Invalid cache rule " + rule);
+                }
+                _rules.add(new CacheRule(rule.substring(0, index).trim(), rule.substring(index + 1).trim()));
+            }
+        }
+        if (config.getInitParameter(MAX_ENTRIES) != null) {
+            _maxEntries = Integer.parseInt(config.getInitParameter(MAX_ENTRIES));
+        }
+        if (_logger.isInfoEnabled()) {
+            _logger.info("HTTP caching enabled for " + _rules.size() + " URL patterns");
+        }
+    }
+
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (!(request instanceof HttpServletRequest) || !"GET".equals(((HttpServletRequest) request).getMethod())) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest req = (HttpServletRequest) request;
+        HttpServletResponse resp = (HttpServletResponse) response;
+        CacheRule rule = findRule(req.getRequestURI().substring(req.getContextPath().length()));
+        if (rule == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        String key = req.getQueryString() == null ? req.getRequestURI() : req.getRequestURI() + "?" + req.getQueryString();
+        CachedResponse cached = rule.isImmutable() ? _immutables.get(key) : null;
+        if (cached == null) {
+            BufferedResponseWrapper wrapper = new BufferedResponseWrapper(resp);
+            chain.doFilter(request, wrapper);
+            if (wrapper.isBypassed()) {
+                return;
+            }
+            byte[] body = wrapper.getBody();
+            if (wrapper.getStatus() != HttpServletResponse.SC_OK || wrapper.isEncoded()) {
+                resp.setContentLength(body.length);
+                resp.getOutputStream().write(body);
+                return;
+            }
+            long lastModified = rule.isImmutable() ? System.currentTimeMillis() : wrapper.getLastModified();
+            cached = new CachedResponse(body, wrapper.getContentType(), lastModified, rule.isImmutable());
+            if (rule.isImmutable() && _immutables.size() < _maxEntries) {
+                _immutables.putIfAbsent(key, cached);
+            }
+        }
+        cached.write(req, resp, rule.getCacheControl());
+    }
+
+    public void destroy() {
+        _immutables.clear();
+    }
+
+    private CacheRule findRule(String path) {
+        for (CacheRule rule : _rules) {
+            if (rule.matches(path)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase();
+        return type.startsWith("text/") || type.contains("json") || type.contains("javascript")
+                || type.contains("xml");
+    }
+
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        String accept = request.getHeader("Accept-Encoding");
+        return accept != null && accept.toLowerCase().contains("gzip");
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(body);
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * A URL pattern and the caching policy of the URLs it matches.
+     */
+    static class CacheRule {
+
+        private final Pattern _pattern;
+        private final boolean _immutable;
+        private final String _cacheControl;
+
+        CacheRule(String pattern, String policy) throws ServletException {
+            StringBuilder regex = new StringBuilder();
+            String[] parts = pattern.split("\\*", -1);
+            for (int i = 0; i < parts.length; i++) {
+                if (i > 0) {
+                    regex.append(".*");
+                }
+                regex.append(Pattern.quote(parts[i]));
+            }
+            this._pattern = Pattern.compile(regex.toString());
+            if (IMMUTABLE.equals(policy)) {
+                _immutable = true;
+                _cacheControl = "public, max-age=31536000";
+            } else if (REVALIDATE.equals(policy)) {
+                _immutable = false;
+                _cacheControl = "no-cache";
+            } else if (policy.startsWith(MAX_AGE)) {
+                _immutable = false;
+                try {
+                    _cacheControl = "private, max-age=" + Integer.parseInt(policy.substring(MAX_AGE.length()));
+                } catch (NumberFormatException e) {
+                    throw new ServletException("Invalid cache policy " + policy);
+                }
+            } else {
+                throw new ServletException("Invalid cache policy " + policy);
+            }
+        }
+
+        boolean matches(String path) {
+            return _pattern.matcher(path).matches();
+        }
+
+        boolean isImmutable() {
+            return _immutable;
+        }
+
+        String getCacheControl() {
+            return _cacheControl;
+        }
+    }
+
+    /**
+     * A response body with its ETag, its Last-Modified date and, when worth it, its gzip form.
+     */
+    static class CachedResponse {
+
+        private final byte[] _body;
+        private final String _contentType;
+        private final String _etag;
+        private final long _lastModified;
+        private byte[] _gzipped;
+
+        /**
+         * @param lastModified the Last-Modified date of the body, -1 when it has none
+         */
+        CachedResponse(byte[] body, String contentType, long lastModified, boolean precompress) throws IOException {
+            this._body = body;
+            this._contentType = contentType;
+            this._etag = DigestUtils.shaHex(body);
+            // dates are sent with a precision of seconds
+            this._lastModified = lastModified < 0 ? -1 : lastModified / 1000 * 1000;
+            if (precompress && body.length >= MIN_GZIP_SIZE && isCompressible(contentType)) {
+                _gzipped = gzip(body);
+            }
+        }
+
+        void write(HttpServletRequest request, HttpServletResponse response, String cacheControl)
+                throws IOException {
+            boolean gzip = acceptsGzip(request) && _body.length >= MIN_GZIP_SIZE && isCompressible(_contentType);
+            String etag = gzip ? "\"" + _etag + "-gz\"" : "\"" + _etag + "\"";
+            response.setHeader("ETag", etag);
+            response.setHeader("Cache-Control", cacheControl);
+            if (isCompressible(_contentType)) {
+                response.setHeader("Vary", "Accept-Encoding");
+            }
+            if (_lastModified >= 0) {
+                response.setDateHeader("Last-Modified", _lastModified);
+            }
+            String ifNoneMatch = request.getHeader("If-None-Match");
+            if (ifNoneMatch != null ? matches(ifNoneMatch) : notModifiedSince(request)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            if (_contentType != null) {
+                response.setContentType(_contentType);
+            }
+            byte[] content = _body;
+            if (gzip) {
+                content = _gzipped != null ? _gzipped : gzip(content);
+                response.setHeader("Content-Encoding", "gzip");
+            }
+            response.setContentLength(content.length);
+            response.getOutputStream().write(content);
+        }
+
+        /**
+         * Both variants carry the same content, so either ETag validates it.
+         */
+        private boolean matches(String ifNoneMatch) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if ("*".equals(tag) || tag.equals("\"" + _etag + "\"") || tag.equals("\"" + _etag + "-gz\"")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * If-Modified-Since is only used when the request has no If-None-Match, which takes precedence.
+         */
+        private boolean notModifiedSince(HttpServletRequest request) {
+            if (_lastModified < 0) {
+                return false;
+            }
+            long since;
+            try {
+                since = request.getDateHeader("If-Modified-Since");
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+            return since >= _lastModified;
+        }
+    }
+}
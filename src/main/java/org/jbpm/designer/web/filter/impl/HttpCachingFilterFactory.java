@@ -0,0 +1,54 @@
+/*
+ * Copyright 2010 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.designer.web.filter.impl;
+
+import javax.servlet.Filter;
+import javax.servlet.ServletException;
+
+import org.jbpm.designer.web.filter.ConfigurableFilterConfig;
+import org.jbpm.designer.web.filter.IFilterFactory;
+
+/**
+ * Provides the {@link HttpCachingFilter} to the {@link PluggableFilter}.
+ * The rules can be overridden with the designer.cache.rules parameter of the
+ * pluggable filter in web.xml, an empty value disables the filter.
+ */
+public class HttpCachingFilterFactory implements IFilterFactory {
+
+    /**
+     * Bundles under jsc carry the hash of their content in their name,
+     * the other resources change with the deployment or the repository.
+     * Stencil sets and single plugins set their own ETag, see ResourceCache.
+     */
+    public static final String DEFAULT_RULES =
+        "/jsc/*.*.js=immutable," +
+        "/plugins=revalidate," +
+        "/themes=revalidate," +
+        "/customeditors=revalidate," +
+        "/formwidget=revalidate," +
+        "/uuidRepository=revalidate";
+
+    public Filter createFilter() {
+        return new HttpCachingFilter();
+    }
+
+    public void configureFilterConfig(ConfigurableFilterConfig config) throws ServletException {
+        config.setFilterName("HTTP Caching Filter");
+        if (config.getInitParameter(HttpCachingFilter.RULES) == null) {
+            config.setParameter(HttpCachingFilter.RULES, DEFAULT_RULES);
+        }
+    }
+}
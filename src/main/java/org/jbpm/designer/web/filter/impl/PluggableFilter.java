@@ -17,7 +17,9 @@ package org.jbpm.designer.web.filter.impl;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -38,8 +40,17 @@ import org.jbpm.designer.web.filter.IFilterFactory;
  */
 public class PluggableFilter implements Filter {
     
-    private static List<IFilterFactory> _registeredFilters = new ArrayList<IFilterFactory>();
-    private List<Filter> _filters = new ArrayList<Filter>();
+    private static List<IFilterFactory> _registeredFilters = new CopyOnWriteArrayList<IFilterFactory>();
+    
+    static {
+        registerFilter(new HttpCachingFilterFactory());
+    }
+    
+    /**
+     * The filters created so far, in registration order. Replaced as a whole
+     * when factories get registered after the first request.
+     */
+    private volatile List<Filter> _filters = Collections.emptyList();
     private FilterConfig _filterConfig;
     
     
@@ -52,30 +63,40 @@ public class PluggableFilter implements Filter {
     }
 
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
-        if (_filters.size() != _registeredFilters.size()) {
-            for (Filter f : _filters) {
-                f.destroy();
-            }
-            _filters.clear();
-            for (IFilterFactory f : _registeredFilters) {
-                Filter filter = f.createFilter();
-                ConfigurableFilterConfig config = new ConfigurableFilterConfig(_filterConfig);
-                f.configureFilterConfig(config);
-                filter.init(config);
-                _filters.add(filter);
-            }
+        List<Filter> filters = _filters;
+        if (filters.size() != _registeredFilters.size()) {
+            filters = initFilters();
         }
-        new FilterChainImpl(_filters, chain).doFilter(request, response);
-        if (!response.isCommitted()) {
+        FilterChainImpl filterChain = new FilterChainImpl(filters, chain);
+        filterChain.doFilter(request, response);
+        if (!filterChain.isChainInvoked() && !response.isCommitted()) {
             chain.doFilter(request, response);
         }
     }
 
-    public void destroy() {
+    /**
+     * Creates the filters of the factories registered since the last call.
+     * The factories are only ever added, so existing filters are kept.
+     */
+    private synchronized List<Filter> initFilters() throws ServletException {
+        List<Filter> filters = new ArrayList<Filter>(_filters);
+        List<IFilterFactory> factories = new ArrayList<IFilterFactory>(_registeredFilters);
+        for (IFilterFactory f : factories.subList(filters.size(), factories.size())) {
+            Filter filter = f.createFilter();
+            ConfigurableFilterConfig config = new ConfigurableFilterConfig(_filterConfig);
+            f.configureFilterConfig(config);
+            filter.init(config);
+            filters.add(filter);
+        }
+        _filters = Collections.unmodifiableList(filters);
+        return _filters;
+    }
+
+    public synchronized void destroy() {
         for (Filter filter : _filters) {
             filter.destroy();
         }
-        _filters.clear();
+        _filters = Collections.emptyList();
     }
 
 }
@@ -15,8 +15,8 @@
  */
 package org.jbpm.designer.web.plugin.impl;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 
 import javax.servlet.ServletContext;
@@ -47,9 +47,20 @@ public class LocalResource {
     }
 
     public InputStream getContents() {
+        return getCachedContents().getInputStream();
+    }
+    
+    /**
+     * @return the contents of the resource, read from disk only when the file changed
+     */
+    public ResourceCache.CachedResource getCachedContents() {
+        return getCachedContents(new File(_path));
+    }
+    
+    protected static ResourceCache.CachedResource getCachedContents(File file) {
         try {
-            return new FileInputStream(_path);
-        } catch (FileNotFoundException e) {
+            return ResourceCache.INSTANCE.get(file);
+        } catch (IOException e) {
             throw new IllegalArgumentException(e);
         }
     }
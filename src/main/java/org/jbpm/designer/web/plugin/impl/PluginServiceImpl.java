@@ -19,11 +19,12 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
@@ -57,7 +58,7 @@ public class PluginServiceImpl implements IDiagramPluginService {
      * @param context the context needed for initialization
      * @return the singleton of PluginServiceImpl
      */
-    public static IDiagramPluginService getInstance(
+    public static synchronized IDiagramPluginService getInstance(
                                     ServletContext context) {
         if (_instance == null) {
             _instance = new PluginServiceImpl(context);
@@ -79,10 +80,10 @@ public class PluginServiceImpl implements IDiagramPluginService {
      * the files inside the servlet.
      * @return the set of local plugins organized by name
      */
-    public static Map<String, IDiagramPlugin> 
+    public static synchronized Map<String, IDiagramPlugin> 
         getLocalPluginsRegistry(ServletContext context) {
         if (LOCAL == null) {
-            LOCAL = initializeLocalPlugins(context);
+            LOCAL = Collections.unmodifiableMap(initializeLocalPlugins(context));
         }
         return LOCAL;
     }
@@ -152,8 +153,8 @@ public class PluginServiceImpl implements IDiagramPluginService {
         return local;
     }
     
-    private Map<String, IDiagramPlugin> _registry = new HashMap<String, IDiagramPlugin>();
-    private Set<IDiagramPluginFactory> _factories = new HashSet<IDiagramPluginFactory>();
+    private Map<String, IDiagramPlugin> _registry;
+    private Set<IDiagramPluginFactory> _factories = new CopyOnWriteArraySet<IDiagramPluginFactory>();
 
     /**
      * Private constructor to make sure we respect the singleton
@@ -161,7 +162,8 @@ public class PluginServiceImpl implements IDiagramPluginService {
      * @param context the servlet context
      */
     private PluginServiceImpl(ServletContext context) {
-        _registry.putAll(getLocalPluginsRegistry(context));
+        // an immutable snapshot, shared by all lookups without copying
+        _registry = getLocalPluginsRegistry(context);
         // if we are in the OSGi world:
         if (getClass().getClassLoader() instanceof BundleReference) {
             final BundleContext bundleContext = ((BundleReference) getClass().getClassLoader()).getBundle().getBundleContext();
@@ -200,6 +202,9 @@ public class PluginServiceImpl implements IDiagramPluginService {
     }
     
     private Map<String, IDiagramPlugin> assemblePlugins(HttpServletRequest request) {
+        if (_factories.isEmpty()) {
+            return _registry;
+        }
         Map<String, IDiagramPlugin> plugins = new HashMap<String, IDiagramPlugin>(_registry);
         for (IDiagramPluginFactory factory : _factories) {
             for (IDiagramPlugin  p : factory.getPlugins(request)) {
@@ -209,6 +214,12 @@ public class PluginServiceImpl implements IDiagramPluginService {
         return plugins;
     }
 
+    /**
+     * @return true when plugin factories are registered, the plugins may then depend on the request
+     */
+    public boolean hasPluginFactories() {
+        return !_factories.isEmpty();
+    }
     
     public Collection<IDiagramPlugin> getRegisteredPlugins(HttpServletRequest request) {
         return assemblePlugins(request).values();
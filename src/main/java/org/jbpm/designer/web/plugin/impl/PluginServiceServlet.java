@@ -93,6 +93,15 @@ public class PluginServiceServlet extends HttpServlet {
             throw new IllegalArgumentException(
                     "No plugin by the name of " + name);
         }
+        if (plugin instanceof LocalResource) {
+            resp.setContentType("application/x-javascript");
+            try {
+                ((LocalResource) plugin).getCachedContents().write(req, resp);
+            } catch (IOException e) {
+                _logger.error(e.getMessage(), e);
+            }
+            return;
+        }
         InputStream input = plugin.getContents();
         if (input == null) {
             throw new IllegalArgumentException(
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2010 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.designer.web.plugin.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Keeps the contents of the local plugin and stencil set files in memory,
+ * together with their hash and gzip form, so they are read from disk once.
+ * An entry is reloaded when the timestamp or the length of its file changes.
+ */
+public class ResourceCache {
+
+    public static final ResourceCache INSTANCE = new ResourceCache();
+
+    /**
+     * Resources smaller than this are not worth compressing.
+     */
+    private static final int MIN_GZIP_SIZE = 1024;
+
+    private final ConcurrentMap<String, CachedResource> _resources =
+        new ConcurrentHashMap<String, CachedResource>();
+
+    /**
+     * @param file the file of the resource
+     * @return the current contents of the file
+     * @throws FileNotFoundException when the file does not exist
+     */
+    public CachedResource get(File file) throws IOException {
+        String key = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+        CachedResource cached = _resources.get(key);
+        if (cached != null && cached.getLastModified() == lastModified && cached.getLength() == length) {
+            return cached;
+        }
+        if (!file.isFile()) {
+            _resources.remove(key);
+            throw new FileNotFoundException(key);
+        }
+        // concurrent reloads of the same file produce equal entries
+        cached = new CachedResource(Files.readAllBytes(file.toPath()), lastModified,
+                isCompressible(file.getName()));
+        _resources.put(key, cached);
+        return cached;
+    }
+
+    public void clear() {
+        _resources.clear();
+    }
+
+    private static boolean isCompressible(String name) {
+        return name.endsWith(".js") || name.endsWith(".json") || name.endsWith(".svg")
+                || name.endsWith(".xml") || name.endsWith(".css") || name.endsWith(".html");
+    }
+
+    /**
+     * The contents of a file at the time it was read.
+     */
+    public static class CachedResource {
+
+        private final byte[] _bytes;
+        private final byte[] _gzipped;
+        private final String _etag;
+        private final long _lastModified;
+
+        CachedResource(byte[] bytes, long lastModified, boolean compressible) throws IOException {
+            this._bytes = bytes;
+            this._lastModified = lastModified;
+            this._etag = "\"" + DigestUtils.shaHex(bytes) + "\"";
+            this._gzipped = compressible && bytes.length >= MIN_GZIP_SIZE ? gzip(bytes) : null;
+        }
+
+        public long getLength() {
+            return _bytes.length;
+        }
+
+        public long getLastModified() {
+            return _lastModified;
+        }
+
+        public String getETag() {
+            return _etag;
+        }
+
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(_bytes);
+        }
+
+        /**
+         * Writes the uncompressed contents in a single write.
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(_bytes);
+        }
+
+        /**
+         * Writes the resource in a single write, compressed when the client accepts it,
+         * or answers 304 when the client already has it.
+         * The content type is left to the caller.
+         */
+        public void write(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            response.setHeader("ETag", _etag);
+            response.setDateHeader("Last-Modified", _lastModified);
+            if (_gzipped != null) {
+                response.setHeader("Vary", "Accept-Encoding");
+            }
+            if (_etag.equals(request.getHeader("If-None-Match"))) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            byte[] content = _bytes;
+            String acceptEncoding = request.getHeader("Accept-Encoding");
+            if (_gzipped != null && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                content = _gzipped;
+                response.setHeader("Content-Encoding", "gzip");
+            }
+            response.setContentLength(content.length);
+            response.getOutputStream().write(content);
+        }
+
+        private static byte[] gzip(byte[] bytes) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            gzip.write(bytes);
+            gzip.close();
+            return out.toByteArray();
+        }
+    }
+}
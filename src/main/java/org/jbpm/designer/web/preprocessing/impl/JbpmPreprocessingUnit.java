@@ -3,12 +3,8 @@ package org.jbpm.designer.web.preprocessing.impl;
 import org.antlr.stringtemplate.StringTemplate;
 import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
-import org.drools.process.core.ParameterDefinition;
-import org.drools.process.core.datatype.DataType;
-import org.drools.process.core.impl.ParameterDefinitionImpl;
 import org.jbpm.designer.repository.Asset;
 import org.jbpm.designer.repository.AssetBuilderFactory;
-import org.jbpm.designer.repository.AssetNotFoundException;
 import org.jbpm.designer.repository.Repository;
 import org.jbpm.designer.repository.filters.FilterByExtension;
 import org.jbpm.designer.repository.impl.AssetBuilder;
@@ -17,15 +13,12 @@ import org.jbpm.designer.web.profile.IDiagramProfile;
 import org.jbpm.process.workitem.WorkDefinitionImpl;
 import org.json.JSONArray;
 import org.json.JSONObject;
-import org.mvel2.MVEL;
-import sun.misc.BASE64Encoder;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
-import java.net.URLEncoder;
 import java.util.*;
 
 /**
@@ -121,22 +114,9 @@ public class JbpmPreprocessingUnit implements IDiagramPreprocessingUnit {
 
             }
 
-            // get the contents of each of the configs
-            Collection<Asset> workItemsContent = getWorkitemConfigContent(workitemConfigInfo, repository);
-
-            // evaluate all configs
-            Map<String, WorkDefinitionImpl> workDefinitions = new HashMap<String, WorkDefinitionImpl>();
-            for(Asset entry : workItemsContent) {
-
-                try {
-                    evaluateWorkDefinitions(workDefinitions, entry, repository, profile);
-                } catch(Exception e) {
-                    e.printStackTrace();
-                    // log and continue
-                    _logger.error("Unable to parse a workitem definition: " + e.getMessage());
-                }
-
-            }
+            // evaluate all configs, only the ones that changed since the last time are evaluated again
+            Map<String, WorkDefinitionImpl> workDefinitions = WorkDefinitionRegistry.getInstance()
+                    .getWorkDefinitions(workitemConfigInfo, profile);
             // set the out parameter
             for(Map.Entry<String, WorkDefinitionImpl> definition : workDefinitions.entrySet()) {
                 outData += definition.getValue().getName() + ",";
@@ -176,14 +156,14 @@ public class JbpmPreprocessingUnit implements IDiagramPreprocessingUnit {
             // copy our results as the stencil json data
             createAndWriteToFile(stencilFilePath, workItemTemplate.toString());
             // create and parse the view svg to include config data
-            createAndParseViewSVG(workDefinitions, repository);
+            createAndParseViewSVG(workDefinitions, profile);
         } catch( Exception e ) {
             _logger.error("Failed to setup workitems : " + e.getMessage());
         }
     }
 
     @SuppressWarnings("unchecked")
-    private void createAndParseViewSVG(Map<String, WorkDefinitionImpl> workDefinitions, Repository repository) {
+    private void createAndParseViewSVG(Map<String, WorkDefinitionImpl> workDefinitions, IDiagramProfile profile) {
         // first delete all existing workitem svgs
         Collection<File> workitemsvgs = FileUtils.listFiles(new File(workitemSVGFilePath), new String[] { "svg" }, true);
         if(workitemsvgs != null) {
@@ -197,10 +177,7 @@ public class JbpmPreprocessingUnit implements IDiagramPreprocessingUnit {
                 workItemTemplate.setAttribute("workitemDef", definition.getValue());
                 String widIcon = definition.getValue().getIcon();
 
-                Asset<byte[]> iconAsset = repository.loadAssetFromPath(widIcon);
-
-                BASE64Encoder enc = new BASE64Encoder();
-                String iconEncoded = "data:image/png;base64," + enc.encode(iconAsset.getAssetContent());
+                String iconEncoded = WorkDefinitionRegistry.getInstance().getIconData(widIcon, profile);
                 workItemTemplate.setAttribute("nodeicon", iconEncoded);
                 String fileToWrite = workitemSVGFilePath + definition.getValue().getName() + ".svg";
                 createAndWriteToFile(fileToWrite, workItemTemplate.toString());
@@ -210,89 +187,6 @@ public class JbpmPreprocessingUnit implements IDiagramPreprocessingUnit {
         }
     }
 
-    @SuppressWarnings({ "unchecked", "rawtypes" })
-    private void evaluateWorkDefinitions(Map<String, WorkDefinitionImpl> workDefinitions, Asset<String> widAsset, Repository repository, IDiagramProfile profile) throws Exception {
-        List<Map<String, Object>> workDefinitionsMaps;
-
-        try {
-            workDefinitionsMaps = (List<Map<String, Object>>) MVEL.eval(widAsset.getAssetContent(), new HashMap());
-        } catch(Exception e) {
-            throw new Exception(e.getMessage());
-        }
-
-        for (Map<String, Object> workDefinitionMap : workDefinitionsMaps) {
-            if (workDefinitionMap != null) {
-                WorkDefinitionImpl workDefinition = new WorkDefinitionImpl();
-                workDefinition.setName(((String) workDefinitionMap.get("name")).replaceAll("\\s",""));
-                workDefinition.setDisplayName((String) workDefinitionMap.get("displayName"));
-                String category = (String) workDefinitionMap.get("category");
-                if(category == null || category.length() < 1) {
-                    category = DEFAULT_CATEGORY_NAME;
-                }
-                workDefinition.setCategory(category);
-
-                String icon = (String) workDefinitionMap.get("icon");
-
-                Asset<byte[]> iconAsset = null;
-
-                if (!repository.assetExists(icon)) {
-                    icon = profile.getRepositoryGlobalDir() + "/defaultservicenodeicon.png";
-                }
-
-                iconAsset = repository.loadAssetFromPath(icon);
-
-                workDefinition.setIcon(icon);
-
-                BASE64Encoder enc = new BASE64Encoder();
-                String iconEncoded = "data:image/png;base64," + enc.encode(iconAsset.getAssetContent());
-                workDefinition.setIconEncoded(URLEncoder.encode(iconEncoded, "UTF-8"));
-                workDefinition.setCustomEditor((String) workDefinitionMap.get("customEditor"));
-                Set<ParameterDefinition> parameters = new HashSet<ParameterDefinition>();
-                if(workDefinitionMap.get("parameters") != null) {
-                    Map<String, DataType> parameterMap = (Map<String, DataType>) workDefinitionMap.get("parameters");
-                    if (parameterMap != null) {
-                        for (Map.Entry<String, DataType> entry : parameterMap.entrySet()) {
-                            parameters.add(new ParameterDefinitionImpl(entry.getKey(), entry.getValue()));
-                        }
-                    }
-                    workDefinition.setParameters(parameters);
-                }
-
-                if(workDefinitionMap.get("results") != null) {
-                    Set<ParameterDefinition> results = new HashSet<ParameterDefinition>();
-                    Map<String, DataType> resultMap = (Map<String, DataType>) workDefinitionMap.get("results");
-                    if (resultMap != null) {
-                        for (Map.Entry<String, DataType> entry : resultMap.entrySet()) {
-                            results.add(new ParameterDefinitionImpl(entry.getKey(), entry.getValue()));
-                        }
-                    }
-                    workDefinition.setResults(results);
-                }
-                if(workDefinitionMap.get("defaultHandler") != null) {
-                    workDefinition.setDefaultHandler((String) workDefinitionMap.get("defaultHandler"));
-                }
-                if(workDefinitionMap.get("dependencies") != null) {
-                    workDefinition.setDependencies(((List<String>) workDefinitionMap.get("dependencies")).toArray(new String[0]));
-                }
-                workDefinitions.put(workDefinition.getName(), workDefinition);
-            }
-        }
-    }
-
-    private Collection<Asset> getWorkitemConfigContent(Collection<Asset> widAssets, Repository repository) {
-        List<Asset> loadedAssets = new ArrayList<Asset>();
-        for (Asset widAsset : widAssets) {
-            try {
-                Asset assetWithContent = repository.loadAsset(widAsset.getUniqueId());
-                loadedAssets.add(assetWithContent);
-            } catch (AssetNotFoundException e) {
-                _logger.error("Asset " + widAsset.getName() + " not found");
-            }
-        }
-
-        return loadedAssets;
-    }
-
     private void setupFormWidgets(Repository repository, IDiagramProfile profile) {
 
         File[] allFormWidgets = new File(formWidgetsDir).listFiles();
@@ -0,0 +1,347 @@
+package org.jbpm.designer.web.preprocessing.impl;
+
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.log4j.Logger;
+import org.drools.process.core.ParameterDefinition;
+import org.drools.process.core.datatype.DataType;
+import org.drools.process.core.impl.ParameterDefinitionImpl;
+import org.jbpm.designer.repository.Asset;
+import org.jbpm.designer.repository.AssetNotFoundException;
+import org.jbpm.designer.web.profile.IDiagramProfile;
+import org.jbpm.process.workitem.WorkDefinitionImpl;
+import org.mvel2.MVEL;
+import sun.misc.BASE64Encoder;
+
+/**
+ * Registry of the work item definitions evaluated from the wid assets of the repositories, with the
+ * encoded icons they use.
+ * <p>
+ * Each wid asset is evaluated with MVEL once, and again only when its content changes. Assets and icons
+ * are stamped with their last modification date as listed by the repository, when it is the same as on
+ * the last lookup the content is not loaded at all. Otherwise the content is loaded and compared by hash,
+ * so an asset that is only touched is not evaluated or encoded again.
+ * <p>
+ * The number of assets and icons remembered is set with the system property designer.workitems.maxentries.
+ */
+public class WorkDefinitionRegistry {
+
+    private static final Logger _logger = Logger.getLogger(WorkDefinitionRegistry.class);
+
+    public static final String MAX_ENTRIES = "designer.workitems.maxentries";
+
+    private static WorkDefinitionRegistry _instance;
+
+    public static synchronized WorkDefinitionRegistry getInstance() {
+        if (_instance == null) {
+            _instance = new WorkDefinitionRegistry();
+        }
+        return _instance;
+    }
+
+    private final Map<String, WidEntry> wids = new LruMap<WidEntry>();
+    private final Map<String, IconEntry> icons = new LruMap<IconEntry>();
+
+    WorkDefinitionRegistry() {
+    }
+
+    /**
+     * @param widAssets the wid assets, as listed by the repository
+     * @return the work item definitions of all the assets by name, definitions of later assets replacing
+     *         the ones of earlier assets with the same name
+     */
+    public Map<String, WorkDefinitionImpl> getWorkDefinitions(Collection<Asset> widAssets, IDiagramProfile profile) {
+        Map<String, Map<String, String>> listings = new HashMap<String, Map<String, String>>();
+        Map<String, WorkDefinitionImpl> workDefinitions = new LinkedHashMap<String, WorkDefinitionImpl>();
+        for (Asset widAsset : widAssets) {
+            try {
+                for (WorkDefinitionImpl workDefinition : getWidEntry(widAsset, profile, listings).definitions) {
+                    workDefinitions.put(workDefinition.getName(), workDefinition);
+                }
+            } catch (Exception e) {
+                // log and continue
+                _logger.error("Unable to parse a workitem definition: " + e.getMessage());
+            }
+        }
+        return workDefinitions;
+    }
+
+    /**
+     * @return the icon as a data uri
+     */
+    public String getIconData(String path, IDiagramProfile profile) throws AssetNotFoundException {
+        return getIconEntry(path, profile, new HashMap<String, Map<String, String>>()).data;
+    }
+
+    /**
+     * Forgets all the assets and icons of the repository of the profile, for when they were changed
+     * faster than the repository can tell by their modification date.
+     */
+    public void invalidate(IDiagramProfile profile) {
+        String prefix = getKey(profile, "");
+        synchronized (this) {
+            for (Iterator<String> keys = wids.keySet().iterator(); keys.hasNext();) {
+                if (keys.next().startsWith(prefix)) {
+                    keys.remove();
+                }
+            }
+            for (Iterator<String> keys = icons.keySet().iterator(); keys.hasNext();) {
+                if (keys.next().startsWith(prefix)) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    private WidEntry getWidEntry(Asset widAsset, IDiagramProfile profile,
+            Map<String, Map<String, String>> listings) throws Exception {
+        String key = getKey(profile, widAsset.getUniqueId());
+        String stamp = toStamp(widAsset.getLastModificationDate());
+        WidEntry entry;
+        synchronized (this) {
+            entry = wids.get(key);
+        }
+
+        List<Map<String, Object>> maps;
+        String hash;
+        if (entry != null && stamp.length() > 0 && stamp.equals(entry.stamp)) {
+            maps = entry.maps;
+            hash = entry.hash;
+        } else {
+            String content = (String) profile.getRepository().loadAsset(widAsset.getUniqueId()).getAssetContent();
+            hash = DigestUtils.shaHex(content == null ? "" : content);
+            if (entry != null && hash.equals(entry.hash)) {
+                maps = entry.maps;
+            } else {
+                try {
+                    maps = evaluate(content);
+                } catch (Exception e) {
+                    // remembered as empty so that it is not evaluated again until it changes
+                    _logger.error("Unable to parse workitem definition " + widAsset.getName() + ": " + e.getMessage());
+                    maps = Collections.emptyList();
+                }
+            }
+        }
+
+        List<String> iconPaths = new ArrayList<String>();
+        List<IconEntry> iconEntries = new ArrayList<IconEntry>();
+        for (Map<String, Object> map : maps) {
+            String icon = (String) map.get("icon");
+            if (icon == null || getStamp(icon, profile, listings) == null) {
+                icon = profile.getRepositoryGlobalDir() + "/defaultservicenodeicon.png";
+            }
+            iconPaths.add(icon);
+            iconEntries.add(getIconEntry(icon, profile, listings));
+        }
+        if (entry != null && entry.maps == maps && entry.iconPaths.equals(iconPaths)
+                && sameEntries(entry.iconEntries, iconEntries)) {
+            if (!stamp.equals(entry.stamp)) {
+                entry = new WidEntry(stamp, hash, maps, iconPaths, iconEntries, entry.definitions);
+                synchronized (this) {
+                    wids.put(key, entry);
+                }
+            }
+            return entry;
+        }
+
+        List<WorkDefinitionImpl> definitions = new ArrayList<WorkDefinitionImpl>();
+        for (int i = 0; i < maps.size(); i++) {
+            definitions.add(createWorkDefinition(maps.get(i), iconPaths.get(i), iconEntries.get(i)));
+        }
+        entry = new WidEntry(stamp, hash, maps, iconPaths, iconEntries, Collections.unmodifiableList(definitions));
+        synchronized (this) {
+            wids.put(key, entry);
+        }
+        return entry;
+    }
+
+    private IconEntry getIconEntry(String path, IDiagramProfile profile,
+            Map<String, Map<String, String>> listings) throws AssetNotFoundException {
+        String key = getKey(profile, path);
+        String stamp = getStamp(path, profile, listings);
+        IconEntry entry;
+        synchronized (this) {
+            entry = icons.get(key);
+        }
+        if (entry != null && stamp != null && stamp.length() > 0 && stamp.equals(entry.stamp)) {
+            return entry;
+        }
+
+        Asset<byte[]> iconAsset = profile.getRepository().loadAssetFromPath(path);
+        String hash = DigestUtils.shaHex(iconAsset.getAssetContent());
+        if (entry == null || !hash.equals(entry.hash)) {
+            entry = new IconEntry(stamp, hash, "data:image/png;base64," + new BASE64Encoder().encode(iconAsset.getAssetContent()));
+        } else {
+            entry = new IconEntry(stamp, hash, entry.data);
+        }
+        synchronized (this) {
+            icons.put(key, entry);
+        }
+        return entry;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static List<Map<String, Object>> evaluate(String content) throws Exception {
+        List<Map<String, Object>> workDefinitionsMaps;
+        try {
+            workDefinitionsMaps = (List<Map<String, Object>>) MVEL.eval(content, new HashMap());
+        } catch (Exception e) {
+            throw new Exception(e.getMessage());
+        }
+        List<Map<String, Object>> maps = new ArrayList<Map<String, Object>>();
+        if (workDefinitionsMaps != null) {
+            for (Map<String, Object> workDefinitionMap : workDefinitionsMaps) {
+                if (workDefinitionMap != null) {
+                    maps.add(workDefinitionMap);
+                }
+            }
+        }
+        return Collections.unmodifiableList(maps);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static WorkDefinitionImpl createWorkDefinition(Map<String, Object> workDefinitionMap, String icon,
+            IconEntry iconEntry) throws Exception {
+        WorkDefinitionImpl workDefinition = new WorkDefinitionImpl();
+        workDefinition.setName(((String) workDefinitionMap.get("name")).replaceAll("\\s", ""));
+        workDefinition.setDisplayName((String) workDefinitionMap.get("displayName"));
+        String category = (String) workDefinitionMap.get("category");
+        if (category == null || category.length() < 1) {
+            category = JbpmPreprocessingUnit.DEFAULT_CATEGORY_NAME;
+        }
+        workDefinition.setCategory(category);
+        workDefinition.setIcon(icon);
+        workDefinition.setIconEncoded(URLEncoder.encode(iconEntry.data, "UTF-8"));
+        workDefinition.setCustomEditor((String) workDefinitionMap.get("customEditor"));
+        Set<ParameterDefinition> parameters = new HashSet<ParameterDefinition>();
+        if (workDefinitionMap.get("parameters") != null) {
+            Map<String, DataType> parameterMap = (Map<String, DataType>) workDefinitionMap.get("parameters");
+            if (parameterMap != null) {
+                for (Map.Entry<String, DataType> entry : parameterMap.entrySet()) {
+                    parameters.add(new ParameterDefinitionImpl(entry.getKey(), entry.getValue()));
+                }
+            }
+            workDefinition.setParameters(parameters);
+        }
+
+        if (workDefinitionMap.get("results") != null) {
+            Set<ParameterDefinition> results = new HashSet<ParameterDefinition>();
+            Map<String, DataType> resultMap = (Map<String, DataType>) workDefinitionMap.get("results");
+            if (resultMap != null) {
+                for (Map.Entry<String, DataType> entry : resultMap.entrySet()) {
+                    results.add(new ParameterDefinitionImpl(entry.getKey(), entry.getValue()));
+                }
+            }
+            workDefinition.setResults(results);
+        }
+        if (workDefinitionMap.get("defaultHandler") != null) {
+            workDefinition.setDefaultHandler((String) workDefinitionMap.get("defaultHandler"));
+        }
+        if (workDefinitionMap.get("dependencies") != null) {
+            workDefinition.setDependencies(((List<String>) workDefinitionMap.get("dependencies")).toArray(new String[0]));
+        }
+        return workDefinition;
+    }
+
+    /**
+     * @return the modification date of the asset at the path, an empty string when the repository does
+     *         not tell it, or null when there is no such asset
+     */
+    private static String getStamp(String path, IDiagramProfile profile, Map<String, Map<String, String>> listings) {
+        int index = path.lastIndexOf('/');
+        String location = index > 0 ? path.substring(0, index) : "/";
+        Map<String, String> listing = listings.get(location);
+        if (listing == null) {
+            listing = new HashMap<String, String>();
+            Collection<Asset> assets = profile.getRepository().listAssets(location);
+            if (assets != null) {
+                for (Asset asset : assets) {
+                    if (asset != null) {
+                        listing.put(asset.getFullName(), toStamp(asset.getLastModificationDate()));
+                    }
+                }
+            }
+            listings.put(location, listing);
+        }
+        String stamp = listing.get(path.substring(index + 1));
+        if (stamp == null && profile.getRepository().assetExists(path)) {
+            stamp = "";
+        }
+        return stamp;
+    }
+
+    private static String toStamp(String modificationDate) {
+        return modificationDate == null ? "" : modificationDate;
+    }
+
+    private static String getKey(IDiagramProfile profile, String id) {
+        return profile.getRepositoryRoot() + "\n" + id;
+    }
+
+    private static boolean sameEntries(List<IconEntry> first, List<IconEntry> second) {
+        if (first.size() != second.size()) {
+            return false;
+        }
+        for (int i = 0; i < first.size(); i++) {
+            if (first.get(i).data != second.get(i).data) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class WidEntry {
+        final String stamp;
+        final String hash;
+        final List<Map<String, Object>> maps;
+        final List<String> iconPaths;
+        final List<IconEntry> iconEntries;
+        final List<WorkDefinitionImpl> definitions;
+
+        WidEntry(String stamp, String hash, List<Map<String, Object>> maps, List<String> iconPaths,
+                List<IconEntry> iconEntries, List<WorkDefinitionImpl> definitions) {
+            this.stamp = stamp;
+            this.hash = hash;
+            this.maps = maps;
+            this.iconPaths = iconPaths;
+            this.iconEntries = iconEntries;
+            this.definitions = definitions;
+        }
+    }
+
+    private static class IconEntry {
+        final String stamp;
+        final String hash;
+        final String data;
+
+        IconEntry(String stamp, String hash, String data) {
+            this.stamp = stamp;
+            this.hash = hash;
+            this.data = data;
+        }
+    }
+
+    private static class LruMap<V> extends LinkedHashMap<String, V> {
+        private static final long serialVersionUID = 1L;
+
+        LruMap() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            return size() > Integer.getInteger(MAX_ENTRIES, 1000);
+        }
+    }
+}
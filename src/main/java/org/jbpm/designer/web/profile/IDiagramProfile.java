@@ -112,6 +112,11 @@ public interface IDiagramProfile {
      */
     public String getLocalHistoryTimeout();
 
+    /**
+     * @return the names of the validation rules not run for the profile.
+     */
+    public Collection<String> getDisabledValidationRules();
+
     /**
      * @return the repository.
      */
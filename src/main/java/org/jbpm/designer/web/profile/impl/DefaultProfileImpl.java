@@ -37,7 +37,6 @@ import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.ResourceSet;
 import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
-import org.eclipse.emf.ecore.xmi.XMLResource;
 import org.jboss.drools.impl.DroolsFactoryImpl;
 import org.jbpm.designer.repository.Repository;
 import org.slf4j.Logger;
@@ -197,6 +196,10 @@ public class DefaultProfileImpl implements IDiagramProfile {
         return _localHistoryTimeout;
     }
 
+    public Collection<String> getDisabledValidationRules() {
+        return Collections.emptyList();
+    }
+
     public Repository getRepository() {
         return null;
     }
@@ -209,9 +212,9 @@ public class DefaultProfileImpl implements IDiagramProfile {
                 Resource res;
                 try {
                     res = unmarshaller.unmarshall(jsonModel, preProcessingData);
-                    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                    res.save(outputStream, Collections.singletonMap(XMLResource.OPTION_ENCODING, "UTF-8"));
-                    return outputStream.toString();
+                    ByteArrayOutputStream outputStream = new ByteArrayOutputStream(jsonModel.length());
+                    ((JBPMBpmn2ResourceImpl) res).save(outputStream, false);
+                    return outputStream.toString("UTF-8");
                 } catch (JsonParseException e) {
                     _logger.error(e.getMessage(), e);
                 } catch (IOException e) {
@@ -320,6 +320,10 @@ public class EpnProfileImpl implements IDiagramProfile {
         return _localHistoryTimeout;
     }
 
+    public Collection<String> getDisabledValidationRules() {
+        return Collections.emptyList();
+    }
+
     public Repository getRepository() {
         return null;
     }
@@ -6,6 +6,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -60,6 +61,7 @@ public class JbpmProfileImpl implements IDiagramProfile {
     private String _stencilSet;
     private String _localHistoryEnabled;
     private String _localHistoryTimeout;
+    private Collection<String> _disabledValidationRules = Collections.emptyList();
 
     private Map<String, String> profileParameters = new LinkedHashMap<String, String>();
 
@@ -190,6 +192,20 @@ public class JbpmProfileImpl implements IDiagramProfile {
                                 }
                             }
                         }
+                    } else if ("validation".equals(reader.getLocalName())) {
+                        for (int i = 0 ; i < reader.getAttributeCount() ; i++) {
+                            if ("disabled".equals(reader.getAttributeLocalName(i))) {
+                                String disabled = reader.getAttributeValue(i);
+                                if(!isEmpty(disabled)) {
+                                    _disabledValidationRules = new ArrayList<String>();
+                                    for(String rule : disabled.split(",")) {
+                                        if(!isEmpty(rule.trim())) {
+                                            _disabledValidationRules.add(rule.trim());
+                                        }
+                                    }
+                                }
+                            }
+                        }
                     } else if ("parameter".equals(reader.getLocalName())) {
                         String name = null;
                         String value = null;
@@ -284,6 +300,10 @@ public class JbpmProfileImpl implements IDiagramProfile {
         return _localHistoryTimeout;
     }
 
+    public Collection<String> getDisabledValidationRules() {
+        return _disabledValidationRules;
+    }
+
     public String getRepositoryGlobalDir() {
         return profileParameters.get("globaldir");
     }
@@ -320,8 +340,8 @@ public class JbpmProfileImpl implements IDiagramProfile {
                 JBPMBpmn2ResourceImpl res;
                 try {
                     res = (JBPMBpmn2ResourceImpl) unmarshaller.unmarshall(jsonModel, preProcessingData);
-                    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                    res.save(outputStream, new HashMap<Object, Object>());
+                    ByteArrayOutputStream outputStream = new ByteArrayOutputStream(jsonModel.length());
+                    res.save(outputStream, false);
                     return StringEscapeUtils.unescapeHtml(outputStream.toString("UTF-8"));
                 } catch (JsonParseException e) {
                     _logger.error(e.getMessage(), e);
@@ -377,38 +397,7 @@ public class JbpmProfileImpl implements IDiagramProfile {
 
     public Definitions getDefinitions(String xml) {
         try {
-            DroolsFactoryImpl.init();
-            ResourceSet resourceSet = new ResourceSetImpl();
-            resourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap()
-                    .put(Resource.Factory.Registry.DEFAULT_EXTENSION, new JBPMBpmn2ResourceFactoryImpl());
-            resourceSet.getPackageRegistry().put("http://www.omg.org/spec/BPMN/20100524/MODEL", Bpmn2Package.eINSTANCE);
-            resourceSet.getPackageRegistry().put("http://www.jboss.org/drools", DroolsPackage.eINSTANCE);
-
-            JBPMBpmn2ResourceImpl resource = (JBPMBpmn2ResourceImpl) resourceSet.createResource(URI.createURI("inputStream://dummyUriWithValidSuffix.xml"));
-            resource.getDefaultLoadOptions().put(JBPMBpmn2ResourceImpl.OPTION_ENCODING, "UTF-8");
-            resource.setEncoding("UTF-8");
-            Map<String, Object> options = new HashMap<String, Object>();
-            options.put( JBPMBpmn2ResourceImpl.OPTION_ENCODING, "UTF-8" );
-            InputStream is = new ByteArrayInputStream(xml.getBytes("UTF-8"));
-            resource.load(is, options);
-
-            EList<Diagnostic> warnings = resource.getWarnings();
-
-            if (warnings != null && !warnings.isEmpty()){
-                for (Diagnostic diagnostic : warnings) {
-                    System.out.println("Warning: "+diagnostic.getMessage());
-                }
-            }
-
-            EList<Diagnostic> errors = resource.getErrors();
-            if (errors != null && !errors.isEmpty()){
-                for (Diagnostic diagnostic : errors) {
-                    System.out.println("Error: "+diagnostic.getMessage());
-                }
-                throw new IllegalStateException("Error parsing process definition");
-            }
-
-            return ((DocumentRoot) resource.getContents().get(0)).getDefinitions();
+            return parseDefinitions(xml);
         } catch(IOException e) {
             e.printStackTrace();
             return null;
@@ -418,6 +407,45 @@ public class JbpmProfileImpl implements IDiagramProfile {
         }
     }
 
+    /**
+     * Parses BPMN2 xml.
+     * @throws IllegalStateException when the xml is not a valid process definition, with the first error
+     */
+    public static Definitions parseDefinitions(String xml) throws IOException {
+        DroolsFactoryImpl.init();
+        ResourceSet resourceSet = new ResourceSetImpl();
+        resourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap()
+                .put(Resource.Factory.Registry.DEFAULT_EXTENSION, new JBPMBpmn2ResourceFactoryImpl());
+        resourceSet.getPackageRegistry().put("http://www.omg.org/spec/BPMN/20100524/MODEL", Bpmn2Package.eINSTANCE);
+        resourceSet.getPackageRegistry().put("http://www.jboss.org/drools", DroolsPackage.eINSTANCE);
+
+        JBPMBpmn2ResourceImpl resource = (JBPMBpmn2ResourceImpl) resourceSet.createResource(URI.createURI("inputStream://dummyUriWithValidSuffix.xml"));
+        resource.getDefaultLoadOptions().put(JBPMBpmn2ResourceImpl.OPTION_ENCODING, "UTF-8");
+        resource.setEncoding("UTF-8");
+        Map<String, Object> options = new HashMap<String, Object>();
+        options.put( JBPMBpmn2ResourceImpl.OPTION_ENCODING, "UTF-8" );
+        InputStream is = new ByteArrayInputStream(xml.getBytes("UTF-8"));
+        resource.load(is, options);
+
+        EList<Diagnostic> warnings = resource.getWarnings();
+
+        if (warnings != null && !warnings.isEmpty()){
+            for (Diagnostic diagnostic : warnings) {
+                _logger.warn("Warning: " + diagnostic.getMessage());
+            }
+        }
+
+        EList<Diagnostic> errors = resource.getErrors();
+        if (errors != null && !errors.isEmpty()){
+            for (Diagnostic diagnostic : errors) {
+                _logger.error("Error: " + diagnostic.getMessage());
+            }
+            throw new IllegalStateException("Error parsing process definition: " + errors.get(0).getMessage());
+        }
+
+        return ((DocumentRoot) resource.getContents().get(0)).getDefinitions();
+    }
+
     public String getStencilSetURL() {
         return "/designer/stencilsets/bpmn2.0jbpm/bpmn2.0jbpm.json";
     }
@@ -0,0 +1,14 @@
+package org.jbpm.designer.web.rendering;
+
+/**
+ * Thrown when a render could not be run, either because the render queue is
+ * full or because it did not complete in time. Clients should retry later.
+ */
+public class RenderingRejectedException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public RenderingRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,267 @@
+package org.jbpm.designer.web.rendering;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.batik.transcoder.Transcoder;
+import org.apache.batik.transcoder.TranscoderException;
+import org.apache.batik.transcoder.TranscoderInput;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.image.ImageTranscoder;
+import org.apache.batik.transcoder.image.PNGTranscoder;
+import org.apache.fop.svg.PDFTranscoder;
+import org.apache.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Renders svg documents with Batik on a fixed number of worker threads.
+ * <p>
+ * Renders wait in a bounded queue. When the queue is full, or a render takes longer
+ * than the timeout, the caller gets a {@link RenderingRejectedException} instead of
+ * piling more work on the server. A render that timed out is cancelled, its worker is
+ * interrupted. The workers are started with the service, each keeps its own transcoders
+ * and renders a small document when it starts, so class loading, the user agent stylesheet
+ * and the font setup are paid once per worker rather than on the first export.
+ * <p>
+ * Configured with the system properties designer.render.threads, designer.render.queue
+ * and designer.render.timeout (milliseconds).
+ */
+public class SvgRenderingService {
+
+    private static final Logger _logger = Logger.getLogger(SvgRenderingService.class);
+
+    public static final String THREADS = "designer.render.threads";
+    public static final String QUEUE = "designer.render.queue";
+    public static final String TIMEOUT = "designer.render.timeout";
+
+    public enum Format {
+        PDF, PNG
+    }
+
+    private static final String WARMUP_SVG =
+        "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"10\" height=\"10\">" +
+        "<rect width=\"10\" height=\"10\" fill=\"#ffffff\"/><text x=\"1\" y=\"8\" font-size=\"8\">a</text></svg>";
+
+    private static SvgRenderingService _instance;
+
+    /**
+     * @return the rendering service shared by the servlets of the webapp
+     */
+    public static synchronized SvgRenderingService getInstance() {
+        if (_instance == null) {
+            _instance = new SvgRenderingService(
+                    Integer.getInteger(THREADS, Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()))),
+                    Integer.getInteger(QUEUE, 16),
+                    Long.getLong(TIMEOUT, 60000L));
+        }
+        return _instance;
+    }
+
+    /**
+     * Stops the workers of the shared service, the next {@link #getInstance()} starts a new one.
+     */
+    public static synchronized void shutdownInstance() {
+        if (_instance != null) {
+            _instance.shutdown();
+            _instance = null;
+        }
+    }
+
+    private final ThreadPoolExecutor _executor;
+    private final long _timeout;
+    private final AtomicLong _rejected = new AtomicLong();
+    private final AtomicLong _timedOut = new AtomicLong();
+    private final Map<Format, FormatMetrics> _metrics = new EnumMap<Format, FormatMetrics>(Format.class);
+
+    /**
+     * The transcoders of the current worker, they are reused by its renders.
+     */
+    private final ThreadLocal<Map<Format, Transcoder>> _transcoders = new ThreadLocal<Map<Format, Transcoder>>() {
+        @Override
+        protected Map<Format, Transcoder> initialValue() {
+            Map<Format, Transcoder> transcoders = new EnumMap<Format, Transcoder>(Format.class);
+            transcoders.put(Format.PDF, new PDFTranscoder());
+            PNGTranscoder png = new PNGTranscoder();
+            png.addTranscodingHint(ImageTranscoder.KEY_MEDIA, "screen");
+            transcoders.put(Format.PNG, png);
+            return transcoders;
+        }
+    };
+
+    public SvgRenderingService(int threads, int queueCapacity, long timeoutMillis) {
+        this._timeout = timeoutMillis;
+        for (Format format : Format.values()) {
+            _metrics.put(format, new FormatMetrics());
+        }
+        _executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new RenderThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        // the workers warm up their transcoders as they start
+        _executor.prestartAllCoreThreads();
+        if (_logger.isInfoEnabled()) {
+            _logger.info("Rendering with " + threads + " threads, " + queueCapacity + " queued renders at most");
+        }
+    }
+
+    /**
+     * Renders the svg, waiting at most for the configured timeout.
+     * @return the rendered document
+     * @throws TranscoderException when the svg could not be rendered
+     * @throws RenderingRejectedException when the service is saturated or the render timed out
+     */
+    public byte[] render(final String svg, final Format format)
+            throws TranscoderException, RenderingRejectedException {
+        final long queuedAt = System.nanoTime();
+        final FormatMetrics metrics = _metrics.get(format);
+        Future<byte[]> future;
+        try {
+            future = _executor.submit(new Callable<byte[]>() {
+                public byte[] call() throws Exception {
+                    long startedAt = System.nanoTime();
+                    metrics.queued.addAndGet(startedAt - queuedAt);
+                    boolean success = false;
+                    try {
+                        byte[] result = transcode(svg, format);
+                        success = true;
+                        return result;
+                    } finally {
+                        metrics.record(System.nanoTime() - startedAt, success);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            _rejected.incrementAndGet();
+            throw new RenderingRejectedException("Too many renders in progress, try again later");
+        }
+        try {
+            return future.get(_timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            // frees the queue slot when the render did not start yet
+            _executor.purge();
+            _timedOut.incrementAndGet();
+            throw new RenderingRejectedException("Rendering did not complete within " + _timeout + " ms");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            _executor.purge();
+            Thread.currentThread().interrupt();
+            throw new RenderingRejectedException("Interrupted while rendering");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TranscoderException) {
+                throw (TranscoderException) e.getCause();
+            }
+            throw new TranscoderException(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+        }
+    }
+
+    byte[] transcode(String svg, Format format) throws TranscoderException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(svg.length());
+        Map<Format, Transcoder> transcoders = _transcoders.get();
+        try {
+            transcoders.get(format).transcode(new TranscoderInput(new StringReader(svg)),
+                    new TranscoderOutput(outputStream));
+        } catch (TranscoderException e) {
+            // do not reuse a transcoder left in an unknown state
+            _transcoders.remove();
+            throw e;
+        } catch (RuntimeException e) {
+            _transcoders.remove();
+            throw e;
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * @return render counts and latencies per format, the current queue depth
+     * and the number of rejected and timed out renders
+     */
+    public JSONObject getMetrics() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("threads", _executor.getMaximumPoolSize());
+        json.put("active", _executor.getActiveCount());
+        json.put("queued", _executor.getQueue().size());
+        json.put("queueCapacity", _executor.getQueue().size() + _executor.getQueue().remainingCapacity());
+        json.put("rejected", _rejected.get());
+        json.put("timedOut", _timedOut.get());
+        JSONObject formats = new JSONObject();
+        for (Map.Entry<Format, FormatMetrics> entry : _metrics.entrySet()) {
+            formats.put(entry.getKey().name().toLowerCase(), entry.getValue().toJSON());
+        }
+        json.put("formats", formats);
+        return json;
+    }
+
+    public void shutdown() {
+        _executor.shutdownNow();
+    }
+
+    private static class FormatMetrics {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong rendering = new AtomicLong();
+        final AtomicLong maxRendering = new AtomicLong();
+        final AtomicLong queued = new AtomicLong();
+
+        void record(long nanos, boolean success) {
+            count.incrementAndGet();
+            if (!success) {
+                failures.incrementAndGet();
+            }
+            rendering.addAndGet(nanos);
+            long max;
+            while ((max = maxRendering.get()) < nanos && !maxRendering.compareAndSet(max, nanos)) {
+                // retry
+            }
+        }
+
+        JSONObject toJSON() throws JSONException {
+            long renders = count.get();
+            JSONObject json = new JSONObject();
+            json.put("count", renders);
+            json.put("failures", failures.get());
+            json.put("avgRenderMs", renders == 0 ? 0 : rendering.get() / renders / 1000000L);
+            json.put("maxRenderMs", maxRendering.get() / 1000000L);
+            json.put("avgQueueMs", renders == 0 ? 0 : queued.get() / renders / 1000000L);
+            return json;
+        }
+    }
+
+    private class RenderThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    warmUp();
+                    runnable.run();
+                }
+            }, "designer-render-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private void warmUp() {
+        for (Format format : Format.values()) {
+            try {
+                transcode(WARMUP_SVG, format);
+            } catch (Exception e) {
+                _logger.debug("Could not warm up the " + format + " transcoder: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -15,6 +15,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.jbpm.designer.repository.Asset;
+import org.jbpm.designer.server.ProcessThumbnails;
 import org.jbpm.designer.web.profile.IDiagramProfile;
 import org.json.JSONObject;
 
@@ -25,6 +26,7 @@ import org.json.JSONObject;
  */
 public class CalledElementServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L;
+	private static final Pattern PROCESS_ID_PATTERN = Pattern.compile("<\\S*process[^\"]+id=\"([^_\"]+)\"", Pattern.MULTILINE);
 	private ServletConfig config;
 	
 	@Override
@@ -43,6 +45,7 @@ public class CalledElementServlet extends HttpServlet {
         String action = req.getParameter("action");
         
         IDiagramProfile profile = ServletUtil.getProfile(req, profileName, getServletContext());
+        ProcessThumbnails.getInstance().warmUp(profile.getRepository());
         if(action != null && action.equals("imageview")) {
         	String retValue = "";
         	List<String> allPackageNames = ServletUtil.getPackageNamesFromRepository(profile);
@@ -52,13 +55,16 @@ public class CalledElementServlet extends HttpServlet {
         			if(allProcessesInPackage != null && allProcessesInPackage.size() > 0) {
         				for(String p : allProcessesInPackage) {
                 			Asset<String> processContent = ServletUtil.getProcessSourceContent(p, profile);
-                			Pattern idPattern = Pattern.compile("<\\S*process[^\"]+id=\"([^_\"]+)\"", Pattern.MULTILINE);
-        		            Matcher idMatcher = idPattern.matcher(processContent.getAssetContent());
+        		            Matcher idMatcher = PROCESS_ID_PATTERN.matcher(processContent.getAssetContent());
         		            if(idMatcher.find()) {
         		            	String pid = idMatcher.group(1);
-        		            	String pidcontent = ServletUtil.getProcessImageContent(packageName, pid, profile);
         		            	if(pid != null && pid.equals(processId)) {
-        		            		retValue = pidcontent != null ? pidcontent : "";
+        		            		// prefer the svg exported by the editor, it has labels and styling
+        		            		String pidcontent = ServletUtil.getProcessImageContent(packageName, pid, profile);
+        		            		if(pidcontent == null || pidcontent.length() == 0) {
+        		            			pidcontent = ProcessThumbnails.getInstance().getThumbnailBase64(processContent.getAssetContent());
+        		            		}
+        		            		retValue = pidcontent;
         		            		break;
         		            	}
         		            }
@@ -79,13 +85,13 @@ public class CalledElementServlet extends HttpServlet {
 	        		if(allProcessesInPackage != null && allProcessesInPackage.size() > 0) {
 	    				for(String p : allProcessesInPackage) {
 	    					Asset<String> processContent = ServletUtil.getProcessSourceContent(p, profile);
-	    					Pattern idPattern = Pattern.compile("<\\S*process[^\"]+id=\"([^_\"]+)\"", Pattern.MULTILINE);
-	    		            Matcher idMatcher = idPattern.matcher(processContent.getAssetContent());
+	    		            Matcher idMatcher = PROCESS_ID_PATTERN.matcher(processContent.getAssetContent());
 	    		            if(idMatcher.find()) {
 	    		            	String pid = idMatcher.group(1);
-	    		            	String pidcontent = ServletUtil.getProcessImageContent(processContent.getAssetLocation(), pid, profile);
 	    		            	if(pid != null && !(packageName.equals(processPackage) && pid.equals(processId))) {
-	    		            		processInfo.put(pid+"|"+processContent.getAssetLocation(), pidcontent != null ? pidcontent : "");
+	    		            		// listings get the bounded size thumbnail rather than the full export
+	    		            		String pidcontent = ProcessThumbnails.getInstance().getThumbnailBase64(processContent.getAssetContent());
+	    		            		processInfo.put(pid+"|"+processContent.getAssetLocation(), pidcontent);
 	    		            	}
 	    		            }
 	    				}
@@ -1,15 +1,13 @@
 package org.jbpm.designer.web.server;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
-import org.drools.core.util.ConfFileUtils;
 import org.jbpm.designer.repository.Asset;
 import org.jbpm.designer.repository.AssetBuilderFactory;
 import org.jbpm.designer.repository.Repository;
 import org.jbpm.designer.repository.impl.AssetBuilder;
+import org.jbpm.designer.web.preprocessing.impl.WorkDefinitionRegistry;
 import org.jbpm.designer.web.profile.IDiagramProfile;
 import org.jbpm.process.workitem.WorkDefinitionImpl;
-import org.jbpm.process.workitem.WorkItemRepository;
 import org.json.JSONObject;
 
 import javax.servlet.ServletConfig;
@@ -18,10 +16,8 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -67,28 +63,17 @@ public class JbpmServiceRepositoryServlet extends HttpServlet {
 			return;
 		}
 		
-		try {
-		    URL url = new URL(repoURL);
-		    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-		    conn.setReadTimeout(5 * 1000);
-		    conn.setConnectTimeout(5 * 1000);
-		    conn.connect();
-		    if(conn.getResponseCode() != 200) {
-		    	resp.setCharacterEncoding("UTF-8");
-				resp.setContentType("application/json");
-				resp.getWriter().write("false");
-				return;
-		    }
-		} catch (Exception e) {
+		if(repoURL.endsWith("/")) {
+			repoURL = repoURL.substring(0, repoURL.length() - 1);
+		}
+
+		if(!ServiceRepositoryMirror.isSupported(repoURL)) {
+			_logger.error("Not a supported service repository: " + repoURL);
 			resp.setCharacterEncoding("UTF-8");
 			resp.setContentType("application/json");
 			resp.getWriter().write("false");
 			return;
 		}
-		
-		if(repoURL.endsWith("/")) {
-			repoURL = repoURL.substring(0, repoURL.length() - 1);
-		}
 
 
         if (profile == null) {
@@ -96,7 +81,7 @@ public class JbpmServiceRepositoryServlet extends HttpServlet {
         }
         Repository repository = profile.getRepository();
 
-		Map<String, WorkDefinitionImpl> workitemsFromRepo = WorkItemRepository.getWorkDefinitions(repoURL);
+		Map<String, WorkDefinitionImpl> workitemsFromRepo = ServiceRepositoryMirror.getInstance().getWorkDefinitions(repoURL);
 		if(action != null && action.equalsIgnoreCase(displayRepoContent)) {
 			if(workitemsFromRepo != null && workitemsFromRepo.size() > 0) {
 				Map<String, List<String>> retMap = new HashMap<String, List<String>>();
@@ -150,44 +135,62 @@ public class JbpmServiceRepositoryServlet extends HttpServlet {
 			resp.setCharacterEncoding("UTF-8");
 			resp.setContentType("application/json");
 			if(workitemsFromRepo != null && workitemsFromRepo.size() > 0) {
-				boolean gotPackage = false;
-				String pkg = "";
+				// several assets can be installed at once, as a comma separated list
+				List<WorkDefinitionImpl> toInstall = new ArrayList<WorkDefinitionImpl>();
+				List<String> paths = new ArrayList<String>();
+				List<String> assetNames = assetsToInstall == null ? new ArrayList<String>() : Arrays.asList(assetsToInstall.split(","));
 				for(String key : workitemsFromRepo.keySet()) {
-					if(key.equals(assetsToInstall) && categoryToInstall.equals(workitemsFromRepo.get(key).getCategory())) {
-						String workitemDefinitionURL = repoURL + "/" + workitemsFromRepo.get(key).getName() + "/" + workitemsFromRepo.get(key).getName() + ".wid";
-						String iconFileURL = repoURL + "/" + workitemsFromRepo.get(key).getName() + "/" + workitemsFromRepo.get(key).getIcon();
-						String workItemDefinitionContent = ConfFileUtils.URLContentsToString(new URL(workitemDefinitionURL));
-						String iconName = workitemsFromRepo.get(key).getIcon();
-						String widName = workitemsFromRepo.get(key).getName();
-						byte[] iconContent = null;
-						try {
-							iconContent = getImageBytes(new URL(iconFileURL)
-							.openStream());
-						} catch (Exception e1) {
-							_logger.error("Could not read icon image: " + e1.getMessage());
+					WorkDefinitionImpl wd = workitemsFromRepo.get(key);
+					if(assetNames.contains(key) && categoryToInstall.equals(wd.getCategory())) {
+						if(!ServiceRepositoryMirror.isSafePath(wd.getName()) || !ServiceRepositoryMirror.isSafePath(wd.getIcon())) {
+							_logger.error("Invalid name or icon of workitem definition " + key);
+							continue;
 						}
-						// install wid and icon to guvnor
+						toInstall.add(wd);
+						paths.add(wd.getName() + "/" + wd.getName() + ".wid");
+						paths.add(wd.getName() + "/" + wd.getIcon());
+					}
+				}
+				// download all wids and icons in parallel before installing any of them
+				Map<String, byte[]> contents = ServiceRepositoryMirror.getInstance().getContents(repoURL, paths);
+				for(WorkDefinitionImpl wd : toInstall) {
+					byte[] widContent = contents.get(wd.getName() + "/" + wd.getName() + ".wid");
+					if(widContent == null) {
+						_logger.error("Could not read workitem definition of " + wd.getName());
+						continue;
+					}
+					String workItemDefinitionContent = new String(widContent, "UTF-8");
+					String iconName = wd.getIcon();
+					String widName = wd.getName();
+					byte[] iconContent = contents.get(widName + "/" + iconName);
+					if(iconContent == null) {
+						_logger.error("Could not read icon image: " + iconName);
+					}
+					// install wid and icon to guvnor
 
-                        repository.deleteAsset(profile.getRepositoryGlobalDir() + "/" +  widName + ".wid");
+                    repository.deleteAsset(profile.getRepositoryGlobalDir() + "/" +  widName + ".wid");
 
-                        AssetBuilder widAssetBuilder = AssetBuilderFactory.getAssetBuilder(Asset.AssetType.Text);
-                        widAssetBuilder.name(widName)
-                                       .location(profile.getRepositoryGlobalDir() + "/")
-                                       .type("wid")
-                                       .content(workItemDefinitionContent);
+                    AssetBuilder widAssetBuilder = AssetBuilderFactory.getAssetBuilder(Asset.AssetType.Text);
+                    widAssetBuilder.name(widName)
+                                   .location(profile.getRepositoryGlobalDir() + "/")
+                                   .type("wid")
+                                   .content(workItemDefinitionContent);
 
-                        repository.createAsset(widAssetBuilder.getAsset());
+                    repository.createAsset(widAssetBuilder.getAsset());
 
-                        AssetBuilder iconAssetBuilder = AssetBuilderFactory.getAssetBuilder(Asset.AssetType.Byte);
-                        String iconExtension = iconName.substring(iconName.lastIndexOf(".") + 1);
-                        String iconFileName = iconName.substring(0, iconName.lastIndexOf("."));
-                        iconAssetBuilder.name(iconFileName)
-                                .location(profile.getRepositoryGlobalDir() + "/")
-                                .type(iconExtension)
-                                .content(iconContent);
+                    AssetBuilder iconAssetBuilder = AssetBuilderFactory.getAssetBuilder(Asset.AssetType.Byte);
+                    String iconExtension = iconName.substring(iconName.lastIndexOf(".") + 1);
+                    String iconFileName = iconName.substring(0, iconName.lastIndexOf("."));
+                    iconAssetBuilder.name(iconFileName)
+                            .location(profile.getRepositoryGlobalDir() + "/")
+                            .type(iconExtension)
+                            .content(iconContent);
 
-                        repository.createAsset(iconAssetBuilder.getAsset());
-					}
+                    repository.createAsset(iconAssetBuilder.getAsset());
+				}
+				if(toInstall.size() > 0) {
+					// the new assets may have the same modification date as the replaced ones
+					WorkDefinitionRegistry.getInstance().invalidate(profile);
 				}
 			} else {
 				_logger.error("Invalid or empty service repository.");
@@ -199,16 +202,4 @@ public class JbpmServiceRepositoryServlet extends HttpServlet {
 		} 
 	}
 
-	private byte[] getImageBytes(InputStream is) throws Exception {
-		try {
-			return IOUtils.toByteArray(is);
-		}
-		catch (IOException e) {
-			throw new Exception("Error creating image byte array.");
-		}
-		finally {
-			if (is != null) { is.close(); }
-		}
-	}
-
 }
@@ -0,0 +1,41 @@
+package org.jbpm.designer.web.server;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.jbpm.designer.web.rendering.SvgRenderingService;
+import org.json.JSONException;
+
+/**
+ * Admin endpoint returning the metrics of the svg rendering pool as json.
+ */
+public class RenderingStatsServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+    private static final Logger _logger = Logger.getLogger(RenderingStatsServlet.class);
+
+    @Override
+    public void destroy() {
+        SvgRenderingService.shutdownInstance();
+        super.destroy();
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+        try {
+            String metrics = SvgRenderingService.getInstance().getMetrics().toString();
+            resp.setCharacterEncoding("UTF-8");
+            resp.setContentType("application/json");
+            resp.setHeader("Cache-Control", "no-cache");
+            resp.getWriter().write(metrics);
+        } catch (JSONException e) {
+            _logger.error("Unable to write the rendering metrics: " + e.getMessage());
+            resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.jbpm.designer.web.server;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.jbpm.designer.repository.batch.AssetBatchRunner;
+import org.jbpm.designer.repository.batch.AssetResult;
+import org.jbpm.designer.repository.batch.BatchProgressListener;
+import org.jbpm.designer.repository.batch.BatchReport;
+import org.jbpm.designer.repository.batch.ProcessConversionProcessor;
+import org.jbpm.designer.web.profile.IDiagramProfile;
+import org.json.JSONException;
+
+/**
+ * Admin endpoint that converts and round-trip checks all process assets of the repository
+ * and optionally stores the converted processes and warms up caches.
+ * Only POST requests start a run, as it may rewrite every process.
+ * Parameters: profile, startat, threads (at most the number of processors), roundtrip, update, warmup.
+ */
+public class RepositoryBatchServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+    private static final Logger _logger = Logger.getLogger(RepositoryBatchServlet.class);
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+        String profileName = req.getParameter("profile");
+        String startAt = req.getParameter("startat");
+        String threads = req.getParameter("threads");
+        boolean roundTrip = !"false".equals(req.getParameter("roundtrip"));
+        boolean update = "true".equals(req.getParameter("update"));
+        boolean warmUp = "true".equals(req.getParameter("warmup"));
+
+        IDiagramProfile profile = ServletUtil.getProfile(req, profileName, getServletContext());
+        AssetBatchRunner runner;
+        try {
+            runner = threads == null ? new AssetBatchRunner(profile.getRepository())
+                    : new AssetBatchRunner(profile.getRepository(),
+                            Math.min(Integer.parseInt(threads), Runtime.getRuntime().availableProcessors()));
+        } catch (IllegalArgumentException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid threads parameter: " + threads);
+            return;
+        }
+        runner.addProcessor(new ProcessConversionProcessor(profile, roundTrip, update));
+        if (warmUp) {
+            runner.addWarmers();
+        }
+
+        BatchReport report = runner.run(startAt == null ? "/" : startAt, new BatchProgressListener() {
+            public void started(int total) {
+                _logger.info("Batch conversion of " + total + " process assets started");
+            }
+
+            public void assetCompleted(AssetResult result, int completed, int total) {
+                if (!result.isSuccessful()) {
+                    _logger.warn("Batch conversion of " + result.getPath() + " failed: " + result.getErrors());
+                }
+                if (completed % 100 == 0) {
+                    _logger.info("Batch conversion processed " + completed + " of " + total + " assets");
+                }
+            }
+
+            public void finished(BatchReport report) {
+                _logger.info("Batch conversion finished in " + report.getDuration() + " ms, "
+                        + report.getFailures().size() + " of " + report.getTotal() + " assets failed");
+            }
+        });
+
+        resp.setCharacterEncoding("UTF-8");
+        resp.setContentType("application/json");
+        try {
+            resp.getWriter().write(report.toJSON().toString());
+        } catch (JSONException e) {
+            throw new ServletException(e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.jbpm.designer.web.server;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.jbpm.designer.repository.batch.AssetBatchRunner;
+import org.jbpm.designer.repository.batch.AssetResult;
+import org.jbpm.designer.repository.batch.BatchProgressListener;
+import org.jbpm.designer.repository.batch.BatchReport;
+import org.jbpm.designer.repository.batch.ProcessValidationProcessor;
+import org.jbpm.designer.web.profile.IDiagramProfile;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Admin endpoint that checks the syntax of all process assets of the repository.
+ * Only POST requests start a run, as it reads every process.
+ * Parameters: profile, startat, threads (at most the number of processors).
+ * <p>
+ * The result of each asset is written and flushed as soon as it is checked, in completion order,
+ * followed by the summary of the run: <code>{"assets":[...],"summary":{...}}</code>. An asset whose
+ * result can not be written gets an entry with the error instead, and a run that fails gets a summary
+ * with the error, so that the json is always complete.
+ */
+public class RepositoryValidationServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+    private static final Logger _logger = Logger.getLogger(RepositoryValidationServlet.class);
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+        String profileName = req.getParameter("profile");
+        String startAt = req.getParameter("startat");
+        String threads = req.getParameter("threads");
+
+        IDiagramProfile profile = ServletUtil.getProfile(req, profileName, getServletContext());
+        AssetBatchRunner runner;
+        try {
+            runner = threads == null ? new AssetBatchRunner(profile.getRepository())
+                    : new AssetBatchRunner(profile.getRepository(),
+                            Math.min(Integer.parseInt(threads), Runtime.getRuntime().availableProcessors()));
+        } catch (IllegalArgumentException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid threads parameter: " + threads);
+            return;
+        }
+        runner.addProcessor(new ProcessValidationProcessor(profile));
+
+        resp.setCharacterEncoding("UTF-8");
+        resp.setContentType("application/json");
+        final PrintWriter writer = resp.getWriter();
+        writer.write("{\"assets\":[");
+        writer.flush();
+
+        BatchReport report = null;
+        String error = null;
+        try {
+            report = runner.run(startAt == null ? "/" : startAt, new BatchProgressListener() {
+                private boolean first = true;
+
+                public void started(int total) {
+                    _logger.info("Batch validation of " + total + " process assets started");
+                }
+
+                public void assetCompleted(AssetResult result, int completed, int total) {
+                    String entry;
+                    try {
+                        entry = result.toJSON().toString();
+                    } catch (JSONException e) {
+                        entry = errorEntry(result, e);
+                    } catch (RuntimeException e) {
+                        entry = errorEntry(result, e);
+                    }
+                    synchronized (writer) {
+                        if (!first) {
+                            writer.write(",");
+                        }
+                        first = false;
+                        writer.write(entry);
+                        writer.flush();
+                    }
+                }
+
+                public void finished(BatchReport report) {
+                    _logger.info("Batch validation finished in " + report.getDuration() + " ms, "
+                            + report.getFailures().size() + " of " + report.getTotal() + " assets have errors");
+                }
+            });
+        } catch (RuntimeException e) {
+            _logger.error("Batch validation failed: " + e.getMessage(), e);
+            error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+
+        String summary = null;
+        if (report != null) {
+            try {
+                summary = report.getSummaryJSON().toString();
+            } catch (JSONException e) {
+                _logger.error("Unable to write summary: " + e.getMessage());
+                error = e.getMessage();
+            }
+        }
+        synchronized (writer) {
+            writer.write("],\"summary\":");
+            writer.write(summary != null ? summary : "{\"error\":" + JSONObject.quote(error) + "}");
+            writer.write("}");
+        }
+    }
+
+    private static String errorEntry(AssetResult result, Exception e) {
+        _logger.error("Unable to write result of " + result.getPath() + ": " + e.getMessage());
+        return "{\"uuid\":" + JSONObject.quote(result.getUniqueId()) + ",\"path\":" + JSONObject.quote(result.getPath())
+                + ",\"success\":false,\"errors\":[" + JSONObject.quote(e.getClass().getSimpleName() + ": "
+                + e.getMessage()) + "]}";
+    }
+}
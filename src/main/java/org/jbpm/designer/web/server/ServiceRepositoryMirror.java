@@ -0,0 +1,453 @@
+package org.jbpm.designer.web.server;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.jbpm.process.workitem.WorkDefinitionImpl;
+import org.jbpm.process.workitem.WorkItemRepository;
+
+/**
+ * Local mirror of jbpm service repositories.
+ * <p>
+ * The index and the work item definitions of a repository are copied to a directory of the mirror and
+ * the definitions are read from there, they are parsed again only when one of the copied files changed.
+ * A copied file is used without asking the service repository for the number of seconds set with the
+ * system property designer.servicerepository.ttl, then it is revalidated with a conditional request.
+ * When the service repository can not be reached the copies are used as they are.
+ * <p>
+ * Only http and https repositories are read. Repositories with a file url are read, in place, only when
+ * the system property designer.servicerepository.allowfile is true. Paths that could leave the repository,
+ * with "..", a leading slash or a backslash, are not read, and a repository with such an index is not used.
+ * <p>
+ * The mirror directory is set with the system property designer.servicerepository.mirror and the number
+ * of parallel downloads with designer.servicerepository.threads. The number of files and repositories
+ * remembered is set with designer.servicerepository.maxentries. The directory of a repository is touched
+ * each time its definitions are read, directories left untouched for the number of days set with
+ * designer.servicerepository.maxage are removed, at most once a day.
+ */
+public class ServiceRepositoryMirror {
+
+    private static final Logger _logger = Logger.getLogger(ServiceRepositoryMirror.class);
+
+    public static final String TTL = "designer.servicerepository.ttl";
+    public static final String MIRROR_DIR = "designer.servicerepository.mirror";
+    public static final String THREADS = "designer.servicerepository.threads";
+    public static final String ALLOW_FILE = "designer.servicerepository.allowfile";
+    public static final String MAX_ENTRIES = "designer.servicerepository.maxentries";
+    public static final String MAX_AGE = "designer.servicerepository.maxage";
+
+    private static final String INDEX = "index.conf";
+    private static final int TIMEOUT = 5 * 1000;
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private static ServiceRepositoryMirror _instance;
+    private static ExecutorService _pool;
+
+    public static synchronized ServiceRepositoryMirror getInstance() {
+        if (_instance == null) {
+            _instance = new ServiceRepositoryMirror(new File(System.getProperty(MIRROR_DIR,
+                    new File(System.getProperty("java.io.tmpdir"), "designer-service-repository").getPath())));
+        }
+        return _instance;
+    }
+
+    private static synchronized ExecutorService getPool() {
+        if (_pool == null) {
+            _pool = Executors.newFixedThreadPool(Math.max(1, Integer.getInteger(THREADS, 4)), new MirrorThreadFactory());
+        }
+        return _pool;
+    }
+
+    /**
+     * @return whether the url is one of a service repository that may be read
+     */
+    public static boolean isSupported(String repoURL) {
+        try {
+            String protocol = new URL(repoURL).getProtocol();
+            return "http".equals(protocol) || "https".equals(protocol)
+                    || ("file".equals(protocol) && Boolean.getBoolean(ALLOW_FILE));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return whether the path, relative to the service repository, stays in it
+     */
+    public static boolean isSafePath(String path) {
+        return path != null && path.length() > 0 && !path.contains("..") && !path.startsWith("/")
+                && !path.contains("\\");
+    }
+
+    private final File root;
+    private final Map<String, Artifact> artifacts = new LruMap<Artifact>();
+    private final Map<String, Index> indexes = new LruMap<Index>();
+    private long cleaned;
+
+    ServiceRepositoryMirror(File root) {
+        this.root = root;
+    }
+
+    /**
+     * @param repoURL the url of the service repository, without trailing slash
+     * @return the work item definitions of the service repository by name, empty when it can not be read
+     */
+    public Map<String, WorkDefinitionImpl> getWorkDefinitions(String repoURL) {
+        if (!isSupported(repoURL)) {
+            _logger.warn("Not a supported service repository: " + repoURL);
+            return Collections.emptyMap();
+        }
+        removeStaleDirectories();
+        Index index;
+        synchronized (indexes) {
+            index = indexes.get(repoURL);
+            if (index == null) {
+                index = new Index();
+                indexes.put(repoURL, index);
+            }
+        }
+        synchronized (index) {
+            try {
+                String signature = mirror(repoURL);
+                if (!signature.equals(index.signature)) {
+                    String location = getDirectory(repoURL).toURI().toString();
+                    Map<String, WorkDefinitionImpl> definitions = WorkItemRepository.getWorkDefinitions(
+                            location.endsWith("/") ? location.substring(0, location.length() - 1) : location);
+                    index.definitions = definitions == null ? Collections.<String, WorkDefinitionImpl>emptyMap()
+                            : Collections.unmodifiableMap(definitions);
+                    index.signature = signature;
+                }
+                return index.definitions;
+            } catch (IOException e) {
+                _logger.error("Unable to read service repository " + repoURL + ": " + e.getMessage());
+                return Collections.emptyMap();
+            }
+        }
+    }
+
+    /**
+     * Reads files of the service repository, in parallel.
+     *
+     * @param paths paths of the files relative to the service repository
+     * @return the content of each file by path, null for the files the service repository does not have
+     */
+    public Map<String, byte[]> getContents(final String repoURL, Collection<String> paths) throws IOException {
+        if (!isSupported(repoURL)) {
+            throw new IOException("Not a supported service repository: " + repoURL);
+        }
+        List<Callable<byte[]>> tasks = new ArrayList<Callable<byte[]>>();
+        for (final String path : paths) {
+            tasks.add(new Callable<byte[]>() {
+                public byte[] call() throws Exception {
+                    if (!isSafePath(path)) {
+                        _logger.warn("Ignoring path outside of service repository " + repoURL + ": " + path);
+                        return null;
+                    }
+                    return read(repoURL, path);
+                }
+            });
+        }
+        Map<String, byte[]> contents = new LinkedHashMap<String, byte[]>();
+        try {
+            List<Future<byte[]>> futures = getPool().invokeAll(tasks);
+            int i = 0;
+            for (String path : paths) {
+                contents.put(path, futures.get(i++).get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading service repository " + repoURL);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                    : new IOException(e.getCause().getMessage());
+        }
+        return contents;
+    }
+
+    /**
+     * Brings the index and the definitions of the service repository up to date, the definitions of the
+     * entries of the index in parallel.
+     *
+     * @return the hashes of the files
+     */
+    private String mirror(String repoURL) throws IOException {
+        File index = fetch(repoURL, INDEX);
+        if (index == null) {
+            throw new FileNotFoundException(repoURL + "/" + INDEX);
+        }
+        File directory = getDirectory(repoURL);
+        if (!isFileURL(repoURL) && directory.isDirectory()) {
+            // marks the copies as in use
+            directory.setLastModified(System.currentTimeMillis());
+        }
+        byte[] content = FileUtils.readFileToByteArray(index);
+        List<String> paths = new ArrayList<String>();
+        for (String name : readIndex(content)) {
+            paths.add(name + "/" + name + ".wid");
+            paths.add(name + "/" + INDEX);
+        }
+        StringBuilder signature = new StringBuilder();
+        sign(signature, INDEX, content);
+        for (Map.Entry<String, byte[]> file : getContents(repoURL, paths).entrySet()) {
+            sign(signature, file.getKey(), file.getValue());
+            if (file.getValue() != null && file.getKey().endsWith(INDEX)) {
+                // nested entries are rare, they are not worth another round of tasks
+                String directory = file.getKey().substring(0, file.getKey().length() - INDEX.length());
+                mirrorNested(repoURL, directory, file.getValue(), signature);
+            }
+        }
+        return signature.toString();
+    }
+
+    private void mirrorNested(String repoURL, String directory, byte[] index, StringBuilder signature)
+            throws IOException {
+        for (String name : readIndex(index)) {
+            String wid = directory + name + "/" + name + ".wid";
+            sign(signature, wid, read(repoURL, wid));
+            String nestedIndex = directory + name + "/" + INDEX;
+            byte[] nested = read(repoURL, nestedIndex);
+            sign(signature, nestedIndex, nested);
+            if (nested != null) {
+                mirrorNested(repoURL, directory + name + "/", nested, signature);
+            }
+        }
+    }
+
+    private byte[] read(String repoURL, String path) throws IOException {
+        File file = fetch(repoURL, path);
+        return file == null ? null : FileUtils.readFileToByteArray(file);
+    }
+
+    private static List<String> readIndex(byte[] index) throws IOException {
+        List<String> names = new ArrayList<String>();
+        for (String line : new String(index, "UTF-8").split("\n")) {
+            String name = line.trim();
+            if (name.length() == 0) {
+                continue;
+            }
+            if (!isSafePath(name)) {
+                // the definitions are read from the copies by path, such an index could make them read other files
+                throw new IOException("Invalid service repository index entry: " + name);
+            }
+            names.add(name);
+        }
+        return names;
+    }
+
+    private static void sign(StringBuilder signature, String path, byte[] content) {
+        signature.append(path).append(':').append(content == null ? "-" : DigestUtils.shaHex(content)).append('\n');
+    }
+
+    /**
+     * @return the up to date copy of the file of the service repository, null when it does not have it
+     *         or it can not be read and there is no copy
+     */
+    private File fetch(String repoURL, String path) throws IOException {
+        URL url = new URL(repoURL + "/" + path);
+        File directory = getDirectory(repoURL);
+        File file = "file".equals(url.getProtocol()) ? FileUtils.toFile(url) : new File(directory, path);
+        if (file == null || directory == null
+                || !file.getCanonicalPath().startsWith(directory.getCanonicalPath() + File.separator)) {
+            throw new IOException("Path outside of service repository " + repoURL + ": " + path);
+        }
+        if ("file".equals(url.getProtocol())) {
+            return file.isFile() ? file : null;
+        }
+
+        Artifact artifact;
+        synchronized (artifacts) {
+            artifact = artifacts.get(file.getPath());
+        }
+        long now = System.currentTimeMillis();
+        if (artifact != null && now - artifact.checked < Integer.getInteger(TTL, 300) * 1000L) {
+            return artifact.exists ? file : null;
+        }
+
+        try {
+            URLConnection conn = url.openConnection();
+            conn.setConnectTimeout(TIMEOUT);
+            conn.setReadTimeout(TIMEOUT);
+            if (file.isFile()) {
+                // copies left by an earlier run have no etag, their modification date is the one of the original
+                conn.setIfModifiedSince(file.lastModified());
+                if (artifact != null && artifact.etag != null) {
+                    conn.setRequestProperty("If-None-Match", artifact.etag);
+                }
+            }
+            if (conn instanceof HttpURLConnection) {
+                int code = ((HttpURLConnection) conn).getResponseCode();
+                if (code == HttpURLConnection.HTTP_NOT_MODIFIED && file.isFile()) {
+                    return record(file, true, now, artifact == null ? null : artifact.etag);
+                } else if (code == HttpURLConnection.HTTP_NOT_FOUND || code == HttpURLConnection.HTTP_GONE) {
+                    return record(file, false, now, null);
+                } else if (code != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("Service repository responded " + code + " for " + url);
+                }
+            }
+            write(conn, file);
+            return record(file, true, now, conn.getHeaderField("ETag"));
+        } catch (FileNotFoundException e) {
+            return record(file, false, now, null);
+        } catch (IOException e) {
+            if (!file.isFile()) {
+                // not remembered, so that it is tried again the next time
+                _logger.warn("Unable to read " + url + ": " + e.getMessage());
+                return null;
+            }
+            _logger.warn("Unable to revalidate " + url + ", using the mirrored copy: " + e.getMessage());
+            return record(file, true, now, artifact == null ? null : artifact.etag);
+        }
+    }
+
+    /**
+     * Remembers when the copy was checked.
+     *
+     * @return the copy, null when the service repository does not have the file
+     */
+    private File record(File file, boolean exists, long checked, String etag) {
+        if (!exists) {
+            FileUtils.deleteQuietly(file);
+        }
+        synchronized (artifacts) {
+            artifacts.put(file.getPath(), new Artifact(checked, exists, etag));
+        }
+        return exists ? file : null;
+    }
+
+    private static void write(URLConnection conn, File file) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create mirror directory " + parent);
+        }
+        File tmp = File.createTempFile(file.getName(), ".tmp", parent);
+        InputStream in = null;
+        try {
+            in = conn.getInputStream();
+            FileUtils.writeByteArrayToFile(tmp, IOUtils.toByteArray(in));
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(tmp);
+            throw e;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        if (conn.getLastModified() > 0) {
+            tmp.setLastModified(conn.getLastModified());
+        }
+        if (!tmp.renameTo(file)) {
+            FileUtils.deleteQuietly(file);
+            if (!tmp.renameTo(file)) {
+                FileUtils.deleteQuietly(tmp);
+                throw new IOException("Unable to write mirror file " + file);
+            }
+        }
+    }
+
+    private File getDirectory(String repoURL) throws IOException {
+        URL url = new URL(repoURL);
+        if ("file".equals(url.getProtocol())) {
+            return FileUtils.toFile(url);
+        }
+        return new File(root, DigestUtils.shaHex(repoURL));
+    }
+
+    private static boolean isFileURL(String repoURL) throws IOException {
+        return "file".equals(new URL(repoURL).getProtocol());
+    }
+
+    /**
+     * Removes the directories of the repositories that were not read for the maximum age, at most once a day.
+     */
+    void removeStaleDirectories() {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (now - cleaned < DAY) {
+                return;
+            }
+            cleaned = now;
+        }
+        File[] directories = root.listFiles();
+        if (directories == null) {
+            return;
+        }
+        long maxAge = Integer.getInteger(MAX_AGE, 30) * DAY;
+        for (File directory : directories) {
+            if (directory.isDirectory() && now - directory.lastModified() > maxAge) {
+                _logger.info("Removing service repository copies not used since " + new Date(directory.lastModified())
+                        + ": " + directory);
+                FileUtils.deleteQuietly(directory);
+                String prefix = directory.getPath() + File.separator;
+                synchronized (artifacts) {
+                    for (Iterator<String> paths = artifacts.keySet().iterator(); paths.hasNext();) {
+                        if (paths.next().startsWith(prefix)) {
+                            paths.remove();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Index {
+        String signature;
+        Map<String, WorkDefinitionImpl> definitions;
+    }
+
+    private static class Artifact {
+        final long checked;
+        final boolean exists;
+        final String etag;
+
+        Artifact(long checked, boolean exists, String etag) {
+            this.checked = checked;
+            this.exists = exists;
+            this.etag = etag;
+        }
+    }
+
+    private static class LruMap<V> extends LinkedHashMap<String, V> {
+        private static final long serialVersionUID = 1L;
+
+        LruMap() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            return size() > Integer.getInteger(MAX_ENTRIES, 1000);
+        }
+    }
+
+    private static class MirrorThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "designer-servicerepository-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -8,7 +8,7 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.jbpm.designer.bpmn2.validation.BPMN2SyntaxChecker;
+import org.jbpm.designer.bpmn2.validation.IncrementalSyntaxChecker;
 import org.jbpm.designer.web.profile.IDiagramProfile;
 
 
@@ -35,7 +35,7 @@ public class SyntaxCheckerServlet extends HttpServlet {
         String uuid = req.getParameter("uuid");
         IDiagramProfile profile = ServletUtil.getProfile(req, profileName, getServletContext());
 
-        BPMN2SyntaxChecker checker = new BPMN2SyntaxChecker(json, preprocessingData, profile, uuid);
+        IncrementalSyntaxChecker checker = new IncrementalSyntaxChecker(json, preprocessingData, profile, uuid);
 		checker.checkSyntax();
 		resp.setCharacterEncoding("UTF-8");
         resp.setContentType("application/json");
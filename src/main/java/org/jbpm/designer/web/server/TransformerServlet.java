@@ -16,12 +16,7 @@
 package org.jbpm.designer.web.server;
 
 import org.apache.batik.transcoder.TranscoderException;
-import org.apache.batik.transcoder.TranscoderInput;
-import org.apache.batik.transcoder.TranscoderOutput;
-import org.apache.batik.transcoder.image.ImageTranscoder;
-import org.apache.batik.transcoder.image.PNGTranscoder;
 import org.apache.commons.codec.binary.Base64;
-import org.apache.fop.svg.PDFTranscoder;
 import org.apache.log4j.Logger;
 import org.eclipse.bpmn2.*;
 import org.eclipse.bpmn2.Process;
@@ -29,16 +24,12 @@ import org.eclipse.bpmn2.di.*;
 import org.eclipse.dd.dc.Bounds;
 import org.eclipse.dd.dc.DcFactory;
 import org.eclipse.dd.dc.Point;
-import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.impl.EAttributeImpl;
 import org.eclipse.emf.ecore.impl.EStructuralFeatureImpl;
-import org.eclipse.emf.ecore.resource.ResourceSet;
-import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
 import org.eclipse.emf.ecore.util.ExtendedMetaData;
 import org.eclipse.emf.ecore.util.FeatureMap;
 import org.jboss.drools.impl.DroolsFactoryImpl;
-import org.jbpm.designer.bpmn2.resource.JBPMBpmn2ResourceFactoryImpl;
-import org.jbpm.designer.bpmn2.resource.JBPMBpmn2ResourceImpl;
+import org.jbpm.designer.bpmn2.impl.Bpmn2JsonMarshaller;
 import org.jbpm.designer.repository.Asset;
 import org.jbpm.designer.repository.AssetBuilderFactory;
 import org.jbpm.designer.repository.AssetNotFoundException;
@@ -47,6 +38,8 @@ import org.jbpm.designer.repository.impl.AssetBuilder;
 import org.jbpm.designer.web.profile.IDiagramProfile;
 import org.jbpm.designer.web.profile.impl.JbpmProfileImpl;
 import org.jbpm.designer.web.profile.impl.RepositoryInfo;
+import org.jbpm.designer.web.rendering.RenderingRejectedException;
+import org.jbpm.designer.web.rendering.SvgRenderingService;
 import sun.misc.BASE64Encoder;
 
 import javax.servlet.ServletConfig;
@@ -62,6 +55,11 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -81,9 +79,36 @@ public class TransformerServlet extends HttpServlet {
     private static final String RESPACTION_SHOWURL = "showurl";
     private static final String RESPACTION_SHOWEMBEDDABLE = "showembeddable";
 
+    /**
+     * Persists exports to the repository after the response was sent.
+     */
+    private ExecutorService _storeExecutor;
+
     @Override
     public void init(ServletConfig config) throws ServletException {
         super.init(config);
+        _storeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "designer-export-store");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // starts the render workers, they warm up while the webapp is deployed
+        SvgRenderingService.getInstance();
+    }
+
+    @Override
+    public void destroy() {
+        _storeExecutor.shutdown();
+        try {
+            // let pending exports reach the repository
+            _storeExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        SvgRenderingService.shutdownInstance();
+        super.destroy();
     }
 
     @Override
@@ -107,72 +132,46 @@ public class TransformerServlet extends HttpServlet {
 
         Repository repository = profile.getRepository();
 
-        if (transformto != null && transformto.equals(TO_PDF)) {
+        if (transformto != null && (transformto.equals(TO_PDF) || transformto.equals(TO_PNG))) {
+            byte[] rendered;
             try {
-                if(respaction != null && respaction.equals(RESPACTION_SHOWURL)) {
-                    ByteArrayOutputStream bout = new ByteArrayOutputStream();
-                    PDFTranscoder t = new PDFTranscoder();
-                    TranscoderInput input = new TranscoderInput(new StringReader(formattedSvg));
-                    TranscoderOutput output = new TranscoderOutput(bout);
-                    t.transcode(input, output);
-                    resp.setCharacterEncoding("UTF-8");
-                    resp.setContentType("text/plain");
-                    resp.getWriter().write("<object data=\"data:application/pdf;base64," + Base64.encodeBase64(bout.toByteArray()) +  "\" type=\"application/pdf\"></object>");
-                } else {
-                    storeInRepository(uuid, rawSvg, transformto, processid, repository);
-
-                    resp.setContentType("application/pdf");
-                    if (processid != null) {
-                        resp.setHeader("Content-Disposition",
-                                "attachment; filename=\"" + processid + ".pdf\"");
-                    } else {
-                        resp.setHeader("Content-Disposition",
-                                "attachment; filename=\"" + uuid + ".pdf\"");
-                    }
-
-                    PDFTranscoder t = new PDFTranscoder();
-                    TranscoderInput input = new TranscoderInput(new StringReader(formattedSvg));
-                    TranscoderOutput output = new TranscoderOutput(resp.getOutputStream());
-                    t.transcode(input, output);
-                }
+                rendered = transcode(formattedSvg != null ? formattedSvg : rawSvg, transformto);
+            } catch (RenderingRejectedException e) {
+                _logger.warn("Rendering rejected: " + e.getMessage());
+                resp.setHeader("Retry-After", "5");
+                resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+                return;
             } catch (TranscoderException e) {
                 resp.sendError(500, e.getMessage());
+                return;
             }
-        } else if (transformto != null && transformto.equals(TO_PNG)) {
-            try {
-                if(respaction != null && respaction.equals(RESPACTION_SHOWURL)) {
-                    ByteArrayOutputStream bout = new ByteArrayOutputStream();
-                    PNGTranscoder t = new PNGTranscoder();
-                    t.addTranscodingHint(ImageTranscoder.KEY_MEDIA, "screen");
-                    TranscoderInput input = new TranscoderInput(new StringReader(formattedSvg));
-                    TranscoderOutput output = new TranscoderOutput(bout);
-                    t.transcode(input, output);
-                    resp.setCharacterEncoding("UTF-8");
-                    resp.setContentType("text/plain");
-                    BASE64Encoder enc = new BASE64Encoder();
-                    resp.getWriter().write("<img src=\"data:image/png;base64," + enc.encode(bout.toByteArray()) + "\">");
+            if(respaction != null && respaction.equals(RESPACTION_SHOWURL)) {
+                resp.setCharacterEncoding("UTF-8");
+                resp.setContentType("text/plain");
+                if (transformto.equals(TO_PDF)) {
+                    resp.getWriter().write("<object data=\"data:application/pdf;base64," + Base64.encodeBase64(rendered) +  "\" type=\"application/pdf\"></object>");
                 } else {
-                    storeInRepository(uuid, rawSvg, transformto, processid, repository);
-                    resp.setContentType("image/png");
-                    if (processid != null) {
-                        resp.setHeader("Content-Disposition", "attachment; filename=\"" + processid + ".png\"");
-                    } else {
-                        resp.setHeader("Content-Disposition", "attachment; filename=\"" + uuid + ".png\"");
-                    }
+                    BASE64Encoder enc = new BASE64Encoder();
+                    resp.getWriter().write("<img src=\"data:image/png;base64," + enc.encode(rendered) + "\">");
+                }
+            } else {
+                // the export is stored with the same rendering the user downloads
+                storeInRepositoryAsync(uuid, rendered, transformto, processid, repository);
 
-                    PNGTranscoder t = new PNGTranscoder();
-                    t.addTranscodingHint(ImageTranscoder.KEY_MEDIA, "screen");
-                    TranscoderInput input = new TranscoderInput(new StringReader(
-                            formattedSvg));
-                    TranscoderOutput output = new TranscoderOutput(
-                            resp.getOutputStream());
-                    t.transcode(input, output);
+                String extension = transformto.equals(TO_PDF) ? ".pdf" : ".png";
+                resp.setContentType(transformto.equals(TO_PDF) ? "application/pdf" : "image/png");
+                if (processid != null) {
+                    resp.setHeader("Content-Disposition",
+                            "attachment; filename=\"" + processid + extension + "\"");
+                } else {
+                    resp.setHeader("Content-Disposition",
+                            "attachment; filename=\"" + uuid + extension + "\"");
                 }
-            } catch (TranscoderException e) {
-                resp.sendError(500, e.getMessage());
+                resp.setContentLength(rendered.length);
+                resp.getOutputStream().write(rendered);
             }
         } else if (transformto != null && transformto.equals(TO_SVG)) {
-            storeInRepository(uuid, rawSvg, transformto, processid, repository);
+            storeInRepository(uuid, rawSvg == null ? null : rawSvg.getBytes("UTF-8"), transformto, processid, repository);
         } else if (transformto != null && transformto.equals(BPMN2_TO_JSON)) {
             // fix package name if needed
             String packageName = null;
@@ -211,18 +210,19 @@ public class TransformerServlet extends HttpServlet {
                     }
                 }
             }
-            // get the xml from Definitions
-            ResourceSet rSet = new ResourceSetImpl();
-            rSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("bpmn2", new JBPMBpmn2ResourceFactoryImpl());
-            JBPMBpmn2ResourceImpl bpmn2resource = (JBPMBpmn2ResourceImpl) rSet.createResource(URI.createURI("virtual.bpmn2"));
-            rSet.getResources().add(bpmn2resource);
-            bpmn2resource.getContents().add(def);
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            bpmn2resource.save(outputStream, new HashMap<Object, Object>());
-            String revisedXmlModel =  outputStream.toString();
-            String json = profile.createUnmarshaller().parseModel(revisedXmlModel, profile, pp);
+            // marshall the patched Definitions straight to json, no need to save and parse them again
+            Bpmn2JsonMarshaller marshaller = new Bpmn2JsonMarshaller();
+            marshaller.setProfile(profile);
+            resp.setCharacterEncoding("UTF-8");
             resp.setContentType("application/json");
-            resp.getWriter().print(json);
+            try {
+                marshaller.marshall(def, pp, resp.getOutputStream());
+            } catch (Exception e) {
+                _logger.error(e.getMessage(), e);
+                if (!resp.isCommitted()) {
+                    resp.resetBuffer();
+                }
+            }
         } else if(transformto == null && respaction != null && respaction.equals(RESPACTION_SHOWEMBEDDABLE)) {
             resp.setCharacterEncoding("UTF-8");
             resp.setContentType("text/plain");
@@ -422,7 +422,39 @@ public class TransformerServlet extends HttpServlet {
         }
     }
 
-    private void storeInRepository(String uuid, String rawSvg, String transformto, String processid, Repository repository) {
+    /**
+     * Renders the svg in the given format on the shared rendering pool.
+     * @param svg the svg document
+     * @param transformto either pdf or png
+     * @return the rendered document
+     */
+    private static byte[] transcode(String svg, String transformto)
+            throws TranscoderException, RenderingRejectedException {
+        return SvgRenderingService.getInstance().render(svg,
+                transformto.equals(TO_PDF) ? SvgRenderingService.Format.PDF : SvgRenderingService.Format.PNG);
+    }
+
+    /**
+     * Stores the export off the request thread, in submission order.
+     */
+    private void storeInRepositoryAsync(final String uuid, final byte[] content, final String transformto,
+                                        final String processid, final Repository repository) {
+        if (processid == null) {
+            return;
+        }
+        try {
+            _storeExecutor.execute(new Runnable() {
+                public void run() {
+                    storeInRepository(uuid, content, transformto, processid, repository);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            storeInRepository(uuid, content, transformto, processid, repository);
+        }
+    }
+
+    private void storeInRepository(String uuid, byte[] content, String transformto, String processid, Repository repository) {
         try {
             if(processid != null) {
                 Asset<byte[]> processAsset = repository.loadAsset(uuid);
@@ -445,39 +477,13 @@ public class TransformerServlet extends HttpServlet {
                 String assetFullName = processid + assetExt + assetFileExt;
                 repository.deleteAssetFromPath(processAsset.getAssetLocation() + assetFullName);
 
-
-                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-
-                if (transformto.equals(TO_PDF)) {
-                    PDFTranscoder t = new PDFTranscoder();
-                    TranscoderInput input = new TranscoderInput(new StringReader(
-                            rawSvg));
-                    TranscoderOutput output = new TranscoderOutput(outputStream);
-                    t.transcode(input, output);
-                } else if (transformto.equals(TO_PNG)) {
-                    PNGTranscoder t = new PNGTranscoder();
-                    t.addTranscodingHint(ImageTranscoder.KEY_MEDIA, "screen");
-                    TranscoderInput input = new TranscoderInput(new StringReader(
-                            rawSvg));
-                    TranscoderOutput output = new TranscoderOutput(outputStream);
-                    try {
-                        t.transcode(input, output);
-                    } catch (Exception e) {
-                        // issue with batik here..do not make a big deal
-                        _logger.debug(e.getMessage());
-                    }
-                } else if(transformto.equals(TO_SVG)) {
-                    OutputStreamWriter outStreamWriter = new OutputStreamWriter(outputStream);
-                    outStreamWriter.write(rawSvg);
-                    outStreamWriter.close();
-                }
                 AssetBuilder builder = AssetBuilderFactory.getAssetBuilder(Asset.AssetType.Byte);
 
                 builder.name(processid + assetExt)
                         .type(assetFileExt.substring(1))
                         .location(processAsset.getAssetLocation())
                         .version(processAsset.getVersion())
-                        .content(outputStream.toByteArray());
+                        .content(content);
 
                 Asset<byte[]> resourceAsset = builder.getAsset();
 
@@ -0,0 +1,268 @@
+package org.jbpm.designer.web.server.simulation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.log4j.Logger;
+import org.eclipse.bpmn2.BoundaryEvent;
+import org.eclipse.bpmn2.Definitions;
+import org.eclipse.bpmn2.FlowElement;
+import org.eclipse.bpmn2.FlowElementsContainer;
+import org.eclipse.bpmn2.Process;
+import org.eclipse.bpmn2.RootElement;
+import org.eclipse.bpmn2.SequenceFlow;
+import org.eclipse.bpmn2.SubProcess;
+import org.jbpm.simulation.PathContext;
+import org.jbpm.simulation.PathFinderFactory;
+import org.jbpm.simulation.PathFormatConverter;
+import org.jbpm.simulation.converter.JSONPathFormatConverter;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Caches the paths of processes and embedded subprocesses, by a hash of the
+ * structure of their flow: re-opening the paths of a model whose shapes only
+ * moved, or whose properties changed, does not enumerate them again.
+ * <p>
+ * Path enumeration can explode with nested gateways, so it runs on a few
+ * worker threads with a bounded queue and callers wait for it up to a timeout.
+ * Concurrent calls for the same model wait on the same enumeration. A caller
+ * that times out, or finds the queue full, gets no paths and the partial flag.
+ * On timeout the enumeration is cancelled and forgotten: a queued one never
+ * starts, a running one is interrupted and its paths are not converted.
+ * The path finder of jbpm-simulation does not check for interruption though,
+ * so the worker is only free once the finder returns. Models with more paths
+ * than the maximum get the first ones and the partial flag, only those are
+ * converted to json.
+ * <p>
+ * Configured with the system properties designer.simulation.paths.maxentries,
+ * designer.simulation.paths.threads, designer.simulation.paths.queue,
+ * designer.simulation.paths.timeout (milliseconds) and
+ * designer.simulation.paths.max.
+ */
+public class PathInfoCache {
+
+    private static final Logger _logger = Logger.getLogger(PathInfoCache.class);
+
+    public static final String MAX_ENTRIES = "designer.simulation.paths.maxentries";
+    public static final String THREADS = "designer.simulation.paths.threads";
+    public static final String QUEUE = "designer.simulation.paths.queue";
+    public static final String TIMEOUT = "designer.simulation.paths.timeout";
+    public static final String MAX_PATHS = "designer.simulation.paths.max";
+
+    private static PathInfoCache _instance;
+
+    public static synchronized PathInfoCache getInstance() {
+        if (_instance == null) {
+            _instance = new PathInfoCache(Integer.getInteger(MAX_ENTRIES, 64), Integer.getInteger(THREADS, 2),
+                    Integer.getInteger(QUEUE, 16), Long.getLong(TIMEOUT, 10000L), Integer.getInteger(MAX_PATHS, 500));
+        }
+        return _instance;
+    }
+
+    private final Map<String, FutureTask<JSONObject>> _paths;
+    private final ThreadPoolExecutor _executor;
+    private final long _timeout;
+    private final int _maxPaths;
+
+    PathInfoCache(final int maxEntries, int threads, int queue, long timeout, int maxPaths) {
+        _paths = new LinkedHashMap<String, FutureTask<JSONObject>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FutureTask<JSONObject>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        _executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queue)), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "designer-paths-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        _timeout = timeout;
+        _maxPaths = maxPaths;
+    }
+
+    /**
+     * @return the paths of the processes of the definitions
+     */
+    public JSONObject getPaths(final Definitions def) {
+        List<String> structure = new ArrayList<String>();
+        for (RootElement root : def.getRootElements()) {
+            if (root instanceof Process) {
+                structure.add("process:" + root.getId());
+                addStructure((Process) root, root.getId(), structure);
+            }
+        }
+        return getPaths(structure, new Callable<JSONObject>() {
+            public JSONObject call() throws Exception {
+                return PathFinderFactory.getInstance(def).findPaths(new LimitedConverter());
+            }
+        });
+    }
+
+    /**
+     * @return the paths of the embedded subprocess
+     */
+    public JSONObject getPaths(final SubProcess subProcess) {
+        List<String> structure = new ArrayList<String>();
+        structure.add("subprocess:" + subProcess.getId());
+        addStructure(subProcess, subProcess.getId(), structure);
+        return getPaths(structure, new Callable<JSONObject>() {
+            public JSONObject call() throws Exception {
+                return PathFinderFactory.getInstance(subProcess).findPaths(new LimitedConverter());
+            }
+        });
+    }
+
+    JSONObject getPaths(List<String> structure, Callable<JSONObject> finder) {
+        String key = hash(structure);
+        FutureTask<JSONObject> future;
+        boolean submit = false;
+        synchronized (_paths) {
+            future = _paths.get(key);
+            if (future == null) {
+                future = new FutureTask<JSONObject>(finder);
+                _paths.put(key, future);
+                submit = true;
+            }
+        }
+        try {
+            if (submit) {
+                try {
+                    _executor.execute(future);
+                } catch (RejectedExecutionException e) {
+                    forget(key, future);
+                    _logger.warn("Too many path enumerations waiting, not enumerating the paths");
+                    return partial(new JSONObject());
+                }
+            }
+            try {
+                return limit(future.get(_timeout, TimeUnit.MILLISECONDS));
+            } catch (TimeoutException e) {
+                // interrupts the enumeration, the next call starts a new one
+                future.cancel(true);
+                _executor.purge();
+                forget(key, future);
+                _logger.warn("Path enumeration did not finish in " + _timeout + " ms");
+                return partial(new JSONObject());
+            } catch (CancellationException e) {
+                // cancelled by the timeout of a concurrent call
+                return partial(new JSONObject());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return partial(new JSONObject());
+            } catch (ExecutionException e) {
+                // do not keep failures, the next call tries again
+                forget(key, future);
+                _logger.error("Unable to find paths: " + e.getCause().getMessage());
+                return new JSONObject().put("paths", new JSONObject());
+            }
+        } catch (JSONException e) {
+            _logger.error("Unable to find paths: " + e.getMessage());
+            return new JSONObject();
+        }
+    }
+
+    private void forget(String key, FutureTask<JSONObject> future) {
+        synchronized (_paths) {
+            if (_paths.get(key) == future) {
+                _paths.remove(key);
+            }
+        }
+    }
+
+    /**
+     * @return the json of the paths, with at most the maximum number of paths
+     */
+    @SuppressWarnings("unchecked")
+    JSONObject limit(JSONObject result) throws JSONException {
+        JSONObject paths = result.optJSONObject("paths");
+        if (paths == null || paths.length() <= _maxPaths) {
+            return result;
+        }
+        JSONObject limited = new JSONObject();
+        Iterator<String> keys = paths.keys();
+        for (int i = 0; i < _maxPaths && keys.hasNext(); i++) {
+            String key = keys.next();
+            limited.put(key, paths.get(key));
+        }
+        return partial(limited);
+    }
+
+    private static JSONObject partial(JSONObject paths) throws JSONException {
+        return new JSONObject().put("paths", paths).put("partial", true);
+    }
+
+    /**
+     * Converts the first paths, one more than the maximum so that
+     * {@link #limit(JSONObject)} flags the result as partial, and none when the
+     * enumeration was cancelled while it ran.
+     */
+    class LimitedConverter implements PathFormatConverter<JSONObject> {
+
+        public JSONObject convert(List<PathContext> paths) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Path enumeration cancelled");
+            }
+            if (paths.size() > _maxPaths) {
+                paths = paths.subList(0, _maxPaths + 1);
+            }
+            return new JSONPathFormatConverter().convert(paths);
+        }
+    }
+
+    /**
+     * Adds a line per flow element to the structure, with its container, the
+     * ends of sequence flows and the activity of boundary events, and recurses
+     * in subprocesses.
+     */
+    static void addStructure(FlowElementsContainer container, String containerId, List<String> structure) {
+        for (FlowElement fe : container.getFlowElements()) {
+            StringBuilder line = new StringBuilder(containerId);
+            line.append('/').append(fe.eClass().getName()).append(':').append(fe.getId());
+            if (fe instanceof SequenceFlow) {
+                SequenceFlow flow = (SequenceFlow) fe;
+                line.append(':').append(flow.getSourceRef() == null ? "" : flow.getSourceRef().getId());
+                line.append("->").append(flow.getTargetRef() == null ? "" : flow.getTargetRef().getId());
+            } else if (fe instanceof BoundaryEvent && ((BoundaryEvent) fe).getAttachedToRef() != null) {
+                line.append('@').append(((BoundaryEvent) fe).getAttachedToRef().getId());
+            }
+            structure.add(line.toString());
+            if (fe instanceof FlowElementsContainer) {
+                addStructure((FlowElementsContainer) fe, fe.getId(), structure);
+            }
+        }
+    }
+
+    static String hash(List<String> structure) {
+        List<String> sorted = new ArrayList<String>(structure);
+        Collections.sort(sorted);
+        StringBuilder text = new StringBuilder();
+        for (String line : sorted) {
+            text.append(line).append('\n');
+        }
+        return DigestUtils.shaHex(text.toString());
+    }
+}
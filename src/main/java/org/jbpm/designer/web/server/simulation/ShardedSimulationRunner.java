@@ -0,0 +1,250 @@
+package org.jbpm.designer.web.server.simulation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.drools.command.runtime.rule.InsertElementsCommand;
+import org.jbpm.simulation.AggregatedSimulationEvent;
+import org.jbpm.simulation.SimulationEvent;
+import org.jbpm.simulation.SimulationInfo;
+import org.jbpm.simulation.SimulationRepository;
+import org.jbpm.simulation.SimulationRunner;
+import org.jbpm.simulation.impl.WorkingMemorySimulationRepository;
+
+/**
+ * Runs a simulation split in shards, each shard simulating its share of the
+ * instances in its own session, and merges the statistics of the shards.
+ * Counts merge exactly, the measures depending on resource contention do not,
+ * see {@link SimulationAggregate}.
+ * <p>
+ * The instances are always split the same way for a given instance and shard
+ * count and the shards are merged in their order, whatever order they finish
+ * in. The number of shards is capped with the system property
+ * designer.simulation.shards, which defaults to the number of processors.
+ */
+public class ShardedSimulationRunner {
+
+    private static final Logger _logger = Logger.getLogger(ShardedSimulationRunner.class);
+
+    public static final String MAX_SHARDS = "designer.simulation.shards";
+    public static final String RULES = "onevent.simulation.rules.drl";
+
+    private static ForkJoinPool _pool;
+
+    private static synchronized ForkJoinPool getPool() {
+        if (_pool == null) {
+            _pool = new ForkJoinPool(getMaxShards(), new ShardThreadFactory(), null, false);
+        }
+        return _pool;
+    }
+
+    /**
+     * Stops the threads running the shards, a later sharded simulation starts new ones.
+     */
+    public static synchronized void shutdown() {
+        if (_pool != null) {
+            _pool.shutdown();
+            _pool = null;
+        }
+    }
+
+    public static int getMaxShards() {
+        return Math.max(1, Integer.getInteger(MAX_SHARDS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @return the number of instances of each shard, the first shards take one
+     *         more instance when they do not divide evenly
+     */
+    static int[] split(int numInstances, int shards) {
+        shards = Math.max(1, Math.min(shards, numInstances));
+        int[] sizes = new int[shards];
+        for (int i = 0; i < shards; i++) {
+            sizes[i] = numInstances / shards + (i < numInstances % shards ? 1 : 0);
+        }
+        return sizes;
+    }
+
+    /**
+     * Simulates the process.
+     *
+     * @param processId
+     * @param processXML
+     * @param numInstances
+     *            the number of instances over all shards
+     * @param interval
+     *            the interval between instances, in milliseconds
+     * @param shards
+     *            the requested number of shards, capped to the instances and
+     *            to {@link #getMaxShards()}
+     * @return the merged results
+     */
+    public Result run(final String processId, final String processXML, int numInstances, final long interval,
+            int shards) throws Exception {
+        int[] sizes = split(numInstances, Math.min(shards, getMaxShards()));
+        long start = System.currentTimeMillis();
+        List<ShardResult> results = new ArrayList<ShardResult>(sizes.length);
+        if (sizes.length == 1) {
+            results.add(runShard(processId, processXML, sizes[0], interval));
+        } else {
+            List<Callable<ShardResult>> tasks = new ArrayList<Callable<ShardResult>>(sizes.length);
+            for (final int size : sizes) {
+                tasks.add(new Callable<ShardResult>() {
+                    public ShardResult call() throws Exception {
+                        return runShard(processId, processXML, size, interval);
+                    }
+                });
+            }
+            for (Future<ShardResult> future : getPool().invokeAll(tasks)) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : e;
+                }
+            }
+        }
+        Result result = merge(results);
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("Simulated " + numInstances + " instances of " + processId + " in " + sizes.length
+                    + " shards in " + (System.currentTimeMillis() - start) + " ms");
+        }
+        return result;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static ShardResult runShard(String processId, String processXML, int numInstances, long interval) {
+        SimulationRepository repo = SimulationRunner.runSimulation(processId, processXML, numInstances, interval,
+                true, RULES);
+        WorkingMemorySimulationRepository wmRepo = (WorkingMemorySimulationRepository) repo;
+        try {
+            ShardResult result = new ShardResult();
+            result.numInstances = numInstances;
+            result.events = new ArrayList<SimulationEvent>(wmRepo.getEvents());
+            // start evaluating all the simulation events generated
+            wmRepo.getSession().execute(new InsertElementsCommand((Collection) wmRepo.getAggregatedEvents()));
+            wmRepo.fireAllRules();
+            result.aggregatedEvents = (List<AggregatedSimulationEvent>) wmRepo.getGlobal("summary");
+            result.info = wmRepo.getSimulationInfo();
+            return result;
+        } finally {
+            wmRepo.close();
+        }
+    }
+
+    static Result merge(List<ShardResult> shards) {
+        Result result = new Result();
+        Map<String, SimulationAggregate> aggregates = new LinkedHashMap<String, SimulationAggregate>();
+        for (ShardResult shard : shards) {
+            result.events.addAll(shard.events);
+            if (shard.aggregatedEvents != null) {
+                for (AggregatedSimulationEvent event : shard.aggregatedEvents) {
+                    SimulationAggregate.Type type = SimulationAggregate.getType(event);
+                    if (type == null) {
+                        continue;
+                    }
+                    String key = type + ":" + SimulationAggregate.getId(event);
+                    SimulationAggregate aggregate = aggregates.get(key);
+                    if (aggregate == null) {
+                        aggregate = new SimulationAggregate(type, SimulationAggregate.getId(event),
+                                SimulationAggregate.getName(event));
+                        aggregates.put(key, aggregate);
+                    }
+                    aggregate.merge(event, shard.numInstances);
+                }
+            }
+            SimulationInfo info = shard.info;
+            if (info != null) {
+                if (result.info == null) {
+                    result.info = info;
+                    result.startTime = info.getStartTime();
+                    result.endTime = info.getEndTime();
+                } else {
+                    result.startTime = Math.min(result.startTime, info.getStartTime());
+                    result.endTime = Math.max(result.endTime, info.getEndTime());
+                }
+                result.numberOfExecutions += info.getNumberOfExecutions();
+            }
+            result.shards++;
+        }
+        result.aggregates = new ArrayList<SimulationAggregate>(aggregates.values());
+        return result;
+    }
+
+    private static class ShardThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("designer-simulation-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    static class ShardResult {
+        int numInstances;
+        List<SimulationEvent> events;
+        List<AggregatedSimulationEvent> aggregatedEvents;
+        SimulationInfo info;
+    }
+
+    /**
+     * The merged results of the shards of a simulation.
+     */
+    public static class Result {
+
+        private int shards;
+        private final List<SimulationEvent> events = new ArrayList<SimulationEvent>();
+        private List<SimulationAggregate> aggregates;
+        private SimulationInfo info;
+        private long startTime;
+        private long endTime;
+        private long numberOfExecutions;
+
+        public int getShards() {
+            return shards;
+        }
+
+        /**
+         * @return the events of all shards, in shard order
+         */
+        public List<SimulationEvent> getEvents() {
+            return events;
+        }
+
+        public List<SimulationAggregate> getAggregates() {
+            return aggregates;
+        }
+
+        /**
+         * @return the simulation info of the first shard, the start and end
+         *         times and the executions over all shards are on the result
+         */
+        public SimulationInfo getInfo() {
+            return info;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getEndTime() {
+            return endTime;
+        }
+
+        public long getNumberOfExecutions() {
+            return numberOfExecutions;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package org.jbpm.designer.web.server.simulation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jbpm.simulation.AggregatedSimulationEvent;
+import org.jbpm.simulation.impl.events.AggregatedActivitySimulationEvent;
+import org.jbpm.simulation.impl.events.AggregatedProcessSimulationEvent;
+import org.jbpm.simulation.impl.events.HTAggregatedSimulationEvent;
+
+/**
+ * The statistics of one process, task or human task over all the shards of a
+ * simulation.
+ * <p>
+ * Instance and path counts are summed, they are the counts a single run over
+ * all instances would have produced. The measures are merged from the shard
+ * values, minimums and maximums as such and averages weighted by the number of
+ * instances each shard measured them on. They are not those of a single run:
+ * every shard simulates its instances with all the resources of the process, so
+ * the instances compete less for them, with shorter wait and execution times
+ * and a lower resource utilization the more shards there are.
+ */
+public class SimulationAggregate {
+
+    public enum Type {
+        PROCESS, HUMAN_TASK, ACTIVITY
+    }
+
+    private final Type type;
+    private final String id;
+    private final String name;
+
+    private long numberOfInstances;
+    private final Statistic executionTime = new Statistic();
+    private final Statistic waitTime = new Statistic();
+    private final Statistic resourceUtilization = new Statistic();
+    private final Statistic resourceCost = new Statistic();
+    private final Map<String, Integer> pathNumberOfInstances = new LinkedHashMap<String, Integer>();
+
+    public SimulationAggregate(Type type, String id, String name) {
+        this.type = type;
+        this.id = id;
+        this.name = name;
+    }
+
+    /**
+     * @return the type of the event, null for events the simulation results do
+     *         not show
+     */
+    public static Type getType(AggregatedSimulationEvent event) {
+        if (event instanceof AggregatedProcessSimulationEvent) {
+            return Type.PROCESS;
+        } else if (event instanceof HTAggregatedSimulationEvent) {
+            return Type.HUMAN_TASK;
+        } else if (event instanceof AggregatedActivitySimulationEvent) {
+            return Type.ACTIVITY;
+        }
+        return null;
+    }
+
+    public static String getId(AggregatedSimulationEvent event) {
+        if (event instanceof AggregatedProcessSimulationEvent) {
+            return ((AggregatedProcessSimulationEvent) event).getProcessId();
+        } else if (event instanceof HTAggregatedSimulationEvent) {
+            return ((HTAggregatedSimulationEvent) event).getActivityId();
+        } else if (event instanceof AggregatedActivitySimulationEvent) {
+            return ((AggregatedActivitySimulationEvent) event).getActivityId();
+        }
+        return "";
+    }
+
+    public static String getName(AggregatedSimulationEvent event) {
+        if (event instanceof AggregatedProcessSimulationEvent) {
+            return ((AggregatedProcessSimulationEvent) event).getProcessName();
+        } else if (event instanceof HTAggregatedSimulationEvent) {
+            return ((HTAggregatedSimulationEvent) event).getActivityName();
+        } else if (event instanceof AggregatedActivitySimulationEvent) {
+            return ((AggregatedActivitySimulationEvent) event).getActivityName();
+        }
+        return "";
+    }
+
+    /**
+     * Adds the statistics of one shard.
+     *
+     * @param event
+     *            the aggregated event of the shard
+     * @param processInstances
+     *            the number of process instances the shard ran, the weight of
+     *            the process averages
+     */
+    public void merge(AggregatedSimulationEvent event, long processInstances) {
+        if (event instanceof AggregatedProcessSimulationEvent) {
+            AggregatedProcessSimulationEvent process = (AggregatedProcessSimulationEvent) event;
+            numberOfInstances += processInstances;
+            executionTime.merge(processInstances, process.getMinExecutionTime(), process.getAvgExecutionTime(),
+                    process.getMaxExecutionTime());
+            mergePaths(process.getPathNumberOfInstances());
+        } else if (event instanceof HTAggregatedSimulationEvent) {
+            HTAggregatedSimulationEvent task = (HTAggregatedSimulationEvent) event;
+            long instances = task.getNumberOfInstances();
+            numberOfInstances += instances;
+            executionTime.merge(instances, task.getMinExecutionTime(), task.getAvgExecutionTime(),
+                    task.getMaxExecutionTime());
+            waitTime.merge(instances, task.getMinWaitTime(), task.getAvgWaitTime(), task.getMaxWaitTime());
+            resourceUtilization.merge(instances, task.getMinResourceUtilization(),
+                    task.getAvgResourceUtilization(), task.getMaxResourceUtilization());
+            resourceCost.merge(instances, task.getMinResourceCost(), task.getAvgResourceCost(),
+                    task.getMaxResourceCost());
+        } else if (event instanceof AggregatedActivitySimulationEvent) {
+            AggregatedActivitySimulationEvent activity = (AggregatedActivitySimulationEvent) event;
+            long instances = activity.getNumberOfInstances();
+            numberOfInstances += instances;
+            executionTime.merge(instances, activity.getMinExecutionTime(), activity.getAvgExecutionTime(),
+                    activity.getMaxExecutionTime());
+        }
+    }
+
+    void mergePaths(Map<String, Integer> paths) {
+        if (paths == null) {
+            return;
+        }
+        for (Map.Entry<String, Integer> path : paths.entrySet()) {
+            Integer count = pathNumberOfInstances.get(path.getKey());
+            int value = path.getValue() == null ? 0 : path.getValue();
+            pathNumberOfInstances.put(path.getKey(), count == null ? value : count + value);
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getNumberOfInstances() {
+        return numberOfInstances;
+    }
+
+    public Statistic getExecutionTime() {
+        return executionTime;
+    }
+
+    public Statistic getWaitTime() {
+        return waitTime;
+    }
+
+    public Statistic getResourceUtilization() {
+        return resourceUtilization;
+    }
+
+    public Statistic getResourceCost() {
+        return resourceCost;
+    }
+
+    public Map<String, Integer> getPathNumberOfInstances() {
+        return pathNumberOfInstances;
+    }
+
+    /**
+     * Minimum, maximum and instance weighted average of a measure.
+     */
+    public static class Statistic {
+
+        private long count;
+        private double min;
+        private double max;
+        private double sum;
+
+        void merge(long instances, double min, double avg, double max) {
+            if (instances <= 0) {
+                return;
+            }
+            if (count == 0) {
+                this.min = min;
+                this.max = max;
+            } else {
+                this.min = Math.min(this.min, min);
+                this.max = Math.max(this.max, max);
+            }
+            count += instances;
+            sum += avg * instances;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getAvg() {
+            return count == 0 ? 0 : sum / count;
+        }
+    }
+}
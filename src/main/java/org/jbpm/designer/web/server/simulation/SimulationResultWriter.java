@@ -0,0 +1,457 @@
+package org.jbpm.designer.web.server.simulation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.jbpm.simulation.SimulationEvent;
+import org.jbpm.simulation.SimulationInfo;
+import org.jbpm.simulation.impl.events.ActivitySimulationEvent;
+import org.jbpm.simulation.impl.events.AggregatedProcessSimulationEvent;
+import org.jbpm.simulation.impl.events.EndSimulationEvent;
+import org.jbpm.simulation.impl.events.GatewaySimulationEvent;
+import org.jbpm.simulation.impl.events.GenericSimulationEvent;
+import org.jbpm.simulation.impl.events.HumanTaskActivitySimulationEvent;
+import org.jbpm.simulation.impl.events.StartSimulationEvent;
+import org.joda.time.DateTime;
+
+/**
+ * Writes the results of a simulation as json, section by section, straight to
+ * the response.
+ * <p>
+ * The timeline and the event aggregations, which have an entry per simulation
+ * event, are limited to a maximum number of points: above it the events are
+ * bucketed by end time and the last event of each bucket stands for the
+ * bucket, with the number of events it stands for in its count. The default
+ * maximum is set with the system property designer.simulation.maxpoints.
+ */
+public class SimulationResultWriter {
+
+    public static final String MAX_POINTS = "designer.simulation.maxpoints";
+
+    private static final JsonFactory _jsonFactory = new JsonFactory();
+
+    public static int getDefaultMaxPoints() {
+        return Integer.getInteger(MAX_POINTS, 1000);
+    }
+
+    private final ShardedSimulationRunner.Result result;
+    private final DateTime simTime;
+    private final String intervalUnit;
+    private final int numInstances;
+    private final int maxPoints;
+    private final DecimalFormat twoDForm = new DecimalFormat("#.##");
+
+    /**
+     * @param result
+     *            the simulation results
+     * @param simTime
+     *            the time the simulation was started at
+     * @param intervalUnit
+     *            the unit of the interval between instances, also the unit
+     *            of the times since start
+     * @param numInstances
+     *            the number of instances simulated
+     * @param maxPoints
+     *            the maximum number of timeline entries
+     */
+    public SimulationResultWriter(ShardedSimulationRunner.Result result, DateTime simTime, String intervalUnit,
+            int numInstances, int maxPoints) {
+        this.result = result;
+        this.simTime = simTime;
+        this.intervalUnit = intervalUnit;
+        this.numInstances = numInstances;
+        this.maxPoints = Math.max(1, maxPoints);
+    }
+
+    public void write(Writer writer) throws IOException {
+        JsonGenerator generator = _jsonFactory.createJsonGenerator(writer);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.writeStartObject();
+        writeSimInfo(generator);
+
+        Map<String, Long> numInstanceData = new LinkedHashMap<String, Long>();
+        Map<String, Integer> pathInfoMap = null;
+        generator.writeArrayFieldStart("processsim");
+        for (SimulationAggregate event : result.getAggregates()) {
+            if (event.getType() == SimulationAggregate.Type.PROCESS) {
+                generator.writeStartObject();
+                generator.writeStringField("key", "Process Avarages");
+                generator.writeStringField("id", event.getId());
+                generator.writeStringField("name", event.getName());
+                writeMinutes(generator, "values", event.getExecutionTime(), "Max Execution Time",
+                        "Min Execution Time", "Avg. Execution Time");
+                generator.writeEndObject();
+                // process paths
+                pathInfoMap = event.getPathNumberOfInstances();
+            } else {
+                numInstanceData.put(event.getName(), event.getNumberOfInstances());
+            }
+        }
+        generator.writeEndArray();
+
+        generator.writeArrayFieldStart("activityinstances");
+        generator.writeStartObject();
+        generator.writeStringField("key", "Activity Instances");
+        generator.writeStringField("id", "Activity Instances");
+        generator.writeStringField("name", "Activity Instances");
+        generator.writeArrayFieldStart("values");
+        for (Map.Entry<String, Long> entry : numInstanceData.entrySet()) {
+            generator.writeStartObject();
+            generator.writeStringField("label", entry.getKey());
+            generator.writeNumberField("value", entry.getValue().doubleValue());
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.writeEndArray();
+
+        generator.writeArrayFieldStart("htsim");
+        for (SimulationAggregate event : result.getAggregates()) {
+            if (event.getType() == SimulationAggregate.Type.HUMAN_TASK) {
+                writeHumanTask(generator, event);
+            }
+        }
+        generator.writeEndArray();
+
+        generator.writeArrayFieldStart("tasksim");
+        for (SimulationAggregate event : result.getAggregates()) {
+            if (event.getType() == SimulationAggregate.Type.ACTIVITY) {
+                generator.writeStartObject();
+                generator.writeStringField("key", "Task Avarages");
+                generator.writeStringField("id", event.getId());
+                generator.writeStringField("name", event.getName());
+                writeMinutes(generator, "values", event.getExecutionTime(), "Max. Execution Time",
+                        "Min. Execution Time", "Avg. Execution Time");
+                generator.writeEndObject();
+            }
+        }
+        generator.writeEndArray();
+
+        writeTimeline(generator, sample(result.getEvents(), maxPoints));
+
+        // process paths
+        if (pathInfoMap != null) {
+            generator.writeArrayFieldStart("pathsim");
+            for (Map.Entry<String, Integer> path : pathInfoMap.entrySet()) {
+                generator.writeStartObject();
+                generator.writeStringField("id", path.getKey());
+                generator.writeNumberField("numinstances", path.getValue());
+                generator.writeNumberField("totalinstances", numInstances);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+        generator.close();
+    }
+
+    private void writeSimInfo(JsonGenerator generator) throws IOException {
+        SimulationInfo simInfo = result.getInfo();
+        generator.writeArrayFieldStart("siminfo");
+        if (simInfo != null) {
+            SimpleDateFormat infoDateFormat = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss");
+            generator.writeStartObject();
+            generator.writeStringField("id", simInfo.getProcessId() == null ? "" : simInfo.getProcessId());
+            generator.writeStringField("name", simInfo.getProcessName() == null ? "" : simInfo.getProcessName());
+            generator.writeNumberField("executions", result.getNumberOfExecutions());
+            generator.writeStringField("starttime", infoDateFormat.format(new Date(result.getStartTime())));
+            generator.writeStringField("endtime", infoDateFormat.format(new Date(result.getEndTime())));
+            generator.writeStringField("version",
+                    simInfo.getProcessVersion() == null ? "" : simInfo.getProcessVersion());
+            generator.writeStringField("interval", presentInterval((int) simInfo.getInterval(), intervalUnit));
+            generator.writeNumberField("shards", result.getShards());
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+    }
+
+    private void writeHumanTask(JsonGenerator generator, SimulationAggregate event) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("key", "Human Task Avarages");
+        generator.writeStringField("id", event.getId());
+        generator.writeStringField("name", event.getName());
+
+        generator.writeArrayFieldStart("timevalues");
+        generator.writeStartObject();
+        generator.writeStringField("key", "Execution Times");
+        generator.writeStringField("color", "#1f77b4");
+        writeMinutes(generator, "values", event.getExecutionTime(), "Max", "Min", "Average");
+        generator.writeEndObject();
+        generator.writeStartObject();
+        generator.writeStringField("key", "Wait Times");
+        generator.writeStringField("color", "#d62728");
+        writeMinutes(generator, "values", event.getWaitTime(), "Max", "Min", "Average");
+        generator.writeEndObject();
+        generator.writeEndArray();
+
+        generator.writeObjectFieldStart("resourcevalues");
+        generator.writeStringField("key", "Resource Allocations");
+        generator.writeStringField("id", event.getId());
+        generator.writeStringField("name", event.getName());
+        writeValues(generator, event.getResourceUtilization());
+        generator.writeEndObject();
+
+        generator.writeObjectFieldStart("costvalues");
+        generator.writeStringField("key", "Resource Cost");
+        generator.writeStringField("id", event.getId());
+        generator.writeStringField("name", event.getName());
+        writeValues(generator, event.getResourceCost());
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
+    private void writeMinutes(JsonGenerator generator, String field, SimulationAggregate.Statistic statistic,
+            String maxLabel, String minLabel, String avgLabel) throws IOException {
+        generator.writeArrayFieldStart(field);
+        writeValue(generator, maxLabel, adjustToMins(statistic.getMax()));
+        writeValue(generator, minLabel, adjustToMins(statistic.getMin()));
+        writeValue(generator, avgLabel, adjustToMins(statistic.getAvg()));
+        generator.writeEndArray();
+    }
+
+    private void writeValues(JsonGenerator generator, SimulationAggregate.Statistic statistic)
+            throws IOException {
+        generator.writeArrayFieldStart("values");
+        writeValue(generator, "Max", adjustDouble(statistic.getMax()));
+        writeValue(generator, "Min", adjustDouble(statistic.getMin()));
+        writeValue(generator, "Average", adjustDouble(statistic.getAvg()));
+        generator.writeEndArray();
+    }
+
+    private static void writeValue(JsonGenerator generator, String label, double value) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("label", label);
+        generator.writeNumberField("value", value);
+        generator.writeEndObject();
+    }
+
+    /**
+     * Writes the timeline and, entry for entry, the process aggregations at the
+     * end of its events
+     */
+    private void writeTimeline(JsonGenerator generator, List<Sample> samples) throws IOException {
+        List<Long> eventAggregationsTimes = new ArrayList<Long>(samples.size());
+        generator.writeObjectFieldStart("timeline");
+        generator.writeStringField("headline", "Simulation Events");
+        generator.writeStringField("type", "default");
+        generator.writeStringField("text", "Simulation Events");
+        generator.writeArrayFieldStart("date");
+        for (Sample sample : samples) {
+            writeTimelineEvent(generator, sample);
+            eventAggregationsTimes.add(timeSinceStart(sample.event));
+        }
+        generator.writeEndArray();
+        generator.writeNumberField("total", countTimelineEvents(result.getEvents()));
+        generator.writeEndObject();
+
+        // sort the time values
+        Collections.sort(eventAggregationsTimes);
+        generator.writeArrayFieldStart("eventaggregations");
+        int c = 0;
+        for (Sample sample : samples) {
+            AggregatedProcessSimulationEvent aggProcessEve = (AggregatedProcessSimulationEvent) ((GenericSimulationEvent) sample.event)
+                    .getAggregatedEvent();
+            if (aggProcessEve != null) {
+                generator.writeStartObject();
+                generator.writeStringField("key", "Process Avarages");
+                generator.writeStringField("id", aggProcessEve.getProcessId());
+                generator.writeStringField("name", aggProcessEve.getProcessName());
+                generator.writeNumberField("timesincestart", eventAggregationsTimes.get(c));
+                generator.writeStringField("timeunit", intervalUnit);
+                generator.writeArrayFieldStart("values");
+                writeValue(generator, "Max Execution Time", adjustToMins(aggProcessEve.getMaxExecutionTime()));
+                writeValue(generator, "Min Execution Time", adjustToMins(aggProcessEve.getMinExecutionTime()));
+                writeValue(generator, "Avg. Execution Time", adjustToMins(aggProcessEve.getAvgExecutionTime()));
+                generator.writeEndArray();
+                generator.writeEndObject();
+                c++;
+            }
+        }
+        generator.writeEndArray();
+    }
+
+    private void writeTimelineEvent(JsonGenerator generator, Sample sample) throws IOException {
+        SimulationEvent se = sample.event;
+        generator.writeStartObject();
+        generator.writeStringField("id", se.getUUID().toString());
+        generator.writeStringField("startDate", getDateString(se.getStartTime()));
+        generator.writeStringField("endDate", getDateString(se.getEndTime()));
+        if (se instanceof EndSimulationEvent) {
+            generator.writeStringField("headline", ((EndSimulationEvent) se).getActivityName());
+            generator.writeStringField("activityid", ((EndSimulationEvent) se).getActivityId());
+        } else if (se instanceof ActivitySimulationEvent) {
+            generator.writeStringField("headline", ((ActivitySimulationEvent) se).getActivityName());
+            generator.writeStringField("activityid", ((ActivitySimulationEvent) se).getActivityId());
+        } else if (se instanceof HumanTaskActivitySimulationEvent) {
+            generator.writeStringField("headline", ((HumanTaskActivitySimulationEvent) se).getActivityName());
+            generator.writeStringField("activityid", ((HumanTaskActivitySimulationEvent) se).getActivityId());
+        }
+        generator.writeStringField("text", sample.count > 1 ? sample.count + " events" : "");
+        generator.writeStringField("tag", "");
+        generator.writeNumberField("count", sample.count);
+        generator.writeObjectFieldStart("asset");
+        generator.writeStringField("media", "");
+        generator.writeStringField("thumbnail", getIcon(se));
+        generator.writeStringField("credit", "");
+        generator.writeStringField("caption", "");
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
+    /**
+     * An event of the timeline and the number of events it stands for.
+     */
+    static class Sample {
+        final SimulationEvent event;
+        final int count;
+
+        Sample(SimulationEvent event, int count) {
+            this.event = event;
+            this.count = count;
+        }
+    }
+
+    static boolean isTimelineEvent(SimulationEvent se) {
+        // for now only include end and activity events
+        return (se instanceof EndSimulationEvent) || (se instanceof ActivitySimulationEvent)
+                || (se instanceof HumanTaskActivitySimulationEvent);
+    }
+
+    private static int countTimelineEvents(List<SimulationEvent> events) {
+        int count = 0;
+        for (SimulationEvent se : events) {
+            if (isTimelineEvent(se)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Picks the timeline events, at most maxPoints of them. Above that the
+     * events are put in maxPoints buckets of equal duration by end time and
+     * the last event to end in each bucket is kept.
+     */
+    static List<Sample> sample(List<SimulationEvent> events, int maxPoints) {
+        List<SimulationEvent> timelineEvents = new ArrayList<SimulationEvent>();
+        long minEnd = Long.MAX_VALUE;
+        long maxEnd = Long.MIN_VALUE;
+        for (SimulationEvent se : events) {
+            if (isTimelineEvent(se)) {
+                timelineEvents.add(se);
+                minEnd = Math.min(minEnd, se.getEndTime());
+                maxEnd = Math.max(maxEnd, se.getEndTime());
+            }
+        }
+        List<Sample> samples = new ArrayList<Sample>(Math.min(timelineEvents.size(), maxPoints));
+        if (timelineEvents.size() <= maxPoints) {
+            for (SimulationEvent se : timelineEvents) {
+                samples.add(new Sample(se, 1));
+            }
+            return samples;
+        }
+
+        SimulationEvent[] last = new SimulationEvent[maxPoints];
+        int[] counts = new int[maxPoints];
+        double span = (double) (maxEnd - minEnd) + 1;
+        for (SimulationEvent se : timelineEvents) {
+            int bucket = (int) ((se.getEndTime() - minEnd) / span * maxPoints);
+            counts[bucket]++;
+            if (last[bucket] == null || se.getEndTime() >= last[bucket].getEndTime()) {
+                last[bucket] = se;
+            }
+        }
+        for (int i = 0; i < maxPoints; i++) {
+            if (last[i] != null) {
+                samples.add(new Sample(last[i], counts[i]));
+            }
+        }
+        return samples;
+    }
+
+    private long timeSinceStart(SimulationEvent se) {
+        long durationvalue = se.getEndTime() - simTime.getMillis();
+        if (intervalUnit.equals("seconds")) {
+            durationvalue = durationvalue / 1000;
+        } else if (intervalUnit.equals("minutes")) {
+            durationvalue = durationvalue / (1000 * 60);
+        } else if (intervalUnit.equals("hours")) {
+            durationvalue = durationvalue / (1000 * 60 * 60);
+        } else if (intervalUnit.equals("days")) {
+            durationvalue = durationvalue / (1000 * 60 * 60 * 24);
+        } else {
+            // default to milliseconds
+        }
+        return durationvalue;
+    }
+
+    private double adjustToMins(double in) {
+        if (in > 0) {
+            in = in / (1000 * 60);
+        }
+        return Double.valueOf(twoDForm.format(in));
+    }
+
+    private double adjustDouble(double in) {
+        return Double.valueOf(twoDForm.format(in));
+    }
+
+    private static String getDateString(long seDate) {
+        DateTime dt = new DateTime(seDate);
+        StringBuilder retBuf = new StringBuilder();
+        retBuf.append(dt.getYear()).append(",");
+        retBuf.append(dt.getMonthOfYear()).append(",");
+        retBuf.append(dt.getDayOfMonth()).append(",");
+        retBuf.append(dt.getHourOfDay()).append(",");
+        retBuf.append(dt.getMinuteOfHour()).append(",");
+        retBuf.append(dt.getSecondOfMinute()).append(",");
+        retBuf.append(dt.getMillisOfSecond());
+        return retBuf.toString();
+    }
+
+    private static String getIcon(SimulationEvent se) {
+        if (se instanceof ActivitySimulationEvent) {
+            return "/designer/images/simulation/timeline/activity.png";
+        } else if (se instanceof EndSimulationEvent) {
+            return "/designer/images/simulation/timeline/endevent.png";
+        } else if (se instanceof GatewaySimulationEvent) {
+            return "/designer/images/simulation/timeline/gateway.png";
+        } else if (se instanceof HumanTaskActivitySimulationEvent) {
+            return "/designer/images/simulation/timeline/humantask.png";
+        } else if (se instanceof StartSimulationEvent) {
+            return "/designer/images/simulation/timeline/startevent.png";
+        } else {
+            return "";
+        }
+    }
+
+    private static String presentInterval(int interval, String intervalUnit) {
+        String retVal;
+        if (intervalUnit.equals("seconds")) {
+            interval = interval / 1000;
+            retVal = interval + " seconds";
+        } else if (intervalUnit.equals("minutes")) {
+            interval = interval / (1000 * 60);
+            retVal = interval + " minutess";
+        } else if (intervalUnit.equals("hours")) {
+            interval = interval / (1000 * 60 * 60);
+            retVal = interval + " hours";
+        } else if (intervalUnit.equals("days")) {
+            interval = interval / (1000 * 60 * 60 * 24);
+            retVal = interval + " days";
+        } else {
+            retVal = interval + " milliseconds";
+        }
+        return retVal;
+    }
+}
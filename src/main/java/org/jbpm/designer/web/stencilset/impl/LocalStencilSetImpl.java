@@ -16,11 +16,10 @@
 package org.jbpm.designer.web.stencilset.impl;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.InputStream;
 
 import org.jbpm.designer.web.plugin.impl.LocalResource;
+import org.jbpm.designer.web.plugin.impl.ResourceCache;
 import org.jbpm.designer.web.stencilset.IDiagramStencilSet;
 
 
@@ -39,12 +38,14 @@ public class LocalStencilSetImpl extends LocalResource implements IDiagramStenci
     }
 
     public InputStream getResourceContents(String path) {
-        File file = new File(_basePath + "/" + path);
-        try {
-            return new FileInputStream(file);
-        } catch (FileNotFoundException e) {
-            throw new IllegalArgumentException(e);
-        }
+        return getCachedResourceContents(path).getInputStream();
+    }
+    
+    /**
+     * @return the contents of the resource located under the stencilset
+     */
+    public ResourceCache.CachedResource getCachedResourceContents(String path) {
+        return getCachedContents(new File(_basePath + "/" + path));
     }
     
 }
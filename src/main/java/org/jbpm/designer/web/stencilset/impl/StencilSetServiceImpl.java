@@ -17,11 +17,12 @@ package org.jbpm.designer.web.stencilset.impl;
 
 import java.io.File;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
@@ -49,8 +50,11 @@ public class StencilSetServiceImpl implements IDiagramStencilSetService {
 
     private static Logger _logger = LoggerFactory.getLogger(StencilSetServiceImpl.class);
     
-    private Map<String, IDiagramStencilSet> _registry = new HashMap<String, IDiagramStencilSet>();
-    private Set<IDiagramStencilSetFactory> _factories = new HashSet<IDiagramStencilSetFactory>();
+    /**
+     * The local stencilsets, an immutable snapshot taken at initialization.
+     */
+    private Map<String, IDiagramStencilSet> _registry;
+    private Set<IDiagramStencilSetFactory> _factories = new CopyOnWriteArraySet<IDiagramStencilSetFactory>();
 
     public StencilSetServiceImpl(ServletContext context) {
         initializeLocalStencilSets(context);
@@ -92,15 +96,20 @@ public class StencilSetServiceImpl implements IDiagramStencilSetService {
     }
 
     private void initializeLocalStencilSets(ServletContext context) {
+        Map<String, IDiagramStencilSet> registry = new HashMap<String, IDiagramStencilSet>();
         File ssDir = new File(context.getRealPath("stencilsets"));
         for (File dir : ssDir.listFiles()) {
             if (dir.isDirectory()) {
-                _registry.put(dir.getName(), new LocalStencilSetImpl(dir.getName(), dir.getAbsolutePath()));
+                registry.put(dir.getName(), new LocalStencilSetImpl(dir.getName(), dir.getAbsolutePath()));
             }
         }
+        _registry = Collections.unmodifiableMap(registry);
     }
     
     private Map<String, IDiagramStencilSet> assembleStencilSets(HttpServletRequest request) {
+        if (_factories.isEmpty()) {
+            return _registry;
+        }
         Map<String, IDiagramStencilSet> stencilsets = new HashMap<String, IDiagramStencilSet>(_registry);
         for (IDiagramStencilSetFactory factory : _factories) {
             for (IDiagramStencilSet  p : factory.getStencilSets(request)) {
@@ -24,6 +24,7 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.jbpm.designer.web.plugin.impl.ResourceCache;
 import org.jbpm.designer.web.stencilset.IDiagramStencilSet;
 import org.jbpm.designer.web.stencilset.IDiagramStencilSetService;
 import org.slf4j.Logger;
@@ -70,6 +71,7 @@ private static final Logger _logger = LoggerFactory.getLogger(StencilSetServiceS
             throw new IllegalArgumentException("No stencilset by the name of " + name);
         }
         InputStream input = null;
+        ResourceCache.CachedResource cached = null;
         if (segments.length > 4) { 
             //looking for a resource under the stencilset.
             String path = requestURI.substring(requestURI.indexOf(segments[3]) + segments[3].length() + 1);
@@ -86,7 +88,11 @@ private static final Logger _logger = LoggerFactory.getLogger(StencilSetServiceS
             if(path.indexOf("bpmn2.0jbpm.json/") >= 0) {
                 path = path.substring("bpmn2.0jbpm.json".length(), path.length());
             }
-            input = stencilset.getResourceContents(path);
+            if (stencilset instanceof LocalStencilSetImpl) {
+                cached = ((LocalStencilSetImpl) stencilset).getCachedResourceContents(path);
+            } else {
+                input = stencilset.getResourceContents(path);
+            }
             if(requestURI.endsWith(".svg")) {
                 resp.setContentType("text/xml");
             } else if(requestURI.endsWith(".png")) {
@@ -95,10 +101,19 @@ private static final Logger _logger = LoggerFactory.getLogger(StencilSetServiceS
                 //default to not setting
             }
         } else {
-            input = stencilset.getContents();
+            if (stencilset instanceof LocalStencilSetImpl) {
+                cached = ((LocalStencilSetImpl) stencilset).getCachedContents();
+            } else {
+                input = stencilset.getContents();
+            }
             resp.setContentType("application/json");
         }
         
+        if (cached != null) {
+            cached.write(req, resp);
+            return;
+        }
+        
         try {
             byte[] buffer = new byte[4096];
             int read;
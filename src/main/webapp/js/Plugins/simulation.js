@@ -126,6 +126,9 @@ ORYX.Plugins.Simulation = Clazz.extend({
     	   			if(response.responseText && response.responseText.length > 0) {
     	   				var pathjson = response.responseText.evalJSON();
     	   				var pathobj = pathjson["paths"];
+    	   				if(pathjson["partial"]) {
+    	   					wintitle = wintitle + " (not all paths could be calculated)";
+    	   				}
     	   				var ProcessPathsDef = Ext.data.Record.create([{
     	   		            name: 'display'
     	   		        }, {
@@ -0,0 +1,55 @@
+package org.jbpm.designer.bpmn2.validation;
+
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalSyntaxCheckerTest {
+
+    private static String model(String taskName, String flowTarget, int taskX) {
+        return "{\"resourceId\":\"canvas\",\"properties\":{\"id\":\"p\"},\"childShapes\":["
+                + "{\"resourceId\":\"start\",\"stencil\":{\"id\":\"StartNoneEvent\"},\"properties\":{},"
+                + "\"bounds\":{\"upperLeft\":{\"x\":0,\"y\":0}},\"outgoing\":[{\"resourceId\":\"flow\"}]},"
+                + "{\"resourceId\":\"flow\",\"stencil\":{\"id\":\"SequenceFlow\"},\"properties\":{},"
+                + "\"outgoing\":[{\"resourceId\":\"" + flowTarget + "\"}],\"target\":{\"resourceId\":\"" + flowTarget + "\"}},"
+                + "{\"resourceId\":\"task\",\"stencil\":{\"id\":\"Task\"},\"properties\":{\"name\":\"" + taskName + "\"},"
+                + "\"bounds\":{\"upperLeft\":{\"x\":" + taskX + ",\"y\":0}},\"outgoing\":[]},"
+                + "{\"resourceId\":\"other\",\"stencil\":{\"id\":\"Task\"},\"properties\":{\"name\":\"other\"},\"outgoing\":[]},"
+                + "{\"resourceId\":\"far\",\"stencil\":{\"id\":\"Task\"},\"properties\":{\"name\":\"far\"},\"outgoing\":[]}]}";
+    }
+
+    @Test
+    public void testMovingShapesChangesNothing() throws Exception {
+        IncrementalSyntaxChecker.ModelState before = IncrementalSyntaxChecker.readState(model("a", "task", 10), "");
+        IncrementalSyntaxChecker.ModelState after = IncrementalSyntaxChecker.readState(model("a", "task", 200), "");
+        assertEquals(before.context, after.context);
+        assertEquals(before.hashes, after.hashes);
+    }
+
+    @Test
+    public void testChangedElementAndNeighboursAreDirty() throws Exception {
+        IncrementalSyntaxChecker.ModelState before = IncrementalSyntaxChecker.readState(model("a", "task", 10), "");
+        IncrementalSyntaxChecker.ModelState after = IncrementalSyntaxChecker.readState(model("b", "task", 10), "");
+        Set<String> dirty = IncrementalSyntaxChecker.findDirty(before, after);
+        assertTrue(dirty.contains("task"));
+        assertTrue(dirty.contains("flow"));
+        assertFalse(dirty.contains("start"));
+        assertFalse(dirty.contains("far"));
+    }
+
+    @Test
+    public void testReconnectedEdgeDirtiesOldAndNewEnds() throws Exception {
+        IncrementalSyntaxChecker.ModelState before = IncrementalSyntaxChecker.readState(model("a", "task", 10), "");
+        IncrementalSyntaxChecker.ModelState after = IncrementalSyntaxChecker.readState(model("a", "other", 10), "");
+        Set<String> dirty = IncrementalSyntaxChecker.findDirty(before, after);
+        assertTrue(dirty.contains("flow"));
+        assertTrue(dirty.contains("start"));
+        assertTrue(dirty.contains("task"));
+        assertTrue(dirty.contains("other"));
+        assertFalse(dirty.contains("far"));
+    }
+}
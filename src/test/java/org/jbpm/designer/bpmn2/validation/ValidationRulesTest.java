@@ -0,0 +1,59 @@
+package org.jbpm.designer.bpmn2.validation;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.bpmn2.FlowElement;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ValidationRulesTest {
+
+    private static ValidationRule rule(final String name, final Class<?>... types) {
+        return new ValidationRule() {
+            public String getName() {
+                return name;
+            }
+
+            public Class<?>[] getElementTypes() {
+                return types;
+            }
+
+            public void check(FlowElement element, ValidationContext context, ValidationErrors errors) {
+            }
+        };
+    }
+
+    @Test
+    public void testApplicableRulesKeepDeclarationOrder() {
+        ValidationRules rules = new ValidationRules(Arrays.asList(rule("number", Number.class),
+                rule("string", String.class), rule("integer", Integer.class, Long.class)));
+        assertArrayEquals(new int[] { 0, 2 }, rules.getApplicableRules(Integer.class));
+        assertArrayEquals(new int[] { 0 }, rules.getApplicableRules(Double.class));
+        assertArrayEquals(new int[0], rules.getApplicableRules(Object.class));
+    }
+
+    @Test
+    public void testTimings() {
+        ValidationRules rules = new ValidationRules(Arrays.asList(rule("a", Object.class), rule("b", Object.class)));
+        rules.record(new long[] { 2000000, 0 });
+        rules.record(new long[] { 1000000, 500000 });
+        assertEquals(3d, rules.getTotalMillis().get("a"), 1e-9);
+        assertEquals(0.5d, rules.getTotalMillis().get("b"), 1e-9);
+    }
+
+    @Test
+    public void testBuiltInRulesAreLoaded() {
+        Set<String> names = new HashSet<String>();
+        for (ValidationRule rule : ValidationRules.getAvailableRules()) {
+            names.add(rule.getName());
+        }
+        assertEquals(ValidationRules.getAvailableRules().size(), names.size());
+        assertTrue(names.contains("connections"));
+        assertTrue(names.contains("gatewayprobability"));
+    }
+}
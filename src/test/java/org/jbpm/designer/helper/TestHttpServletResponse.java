@@ -6,7 +6,9 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 
 public class TestHttpServletResponse  implements HttpServletResponse {
 
@@ -14,6 +16,9 @@ public class TestHttpServletResponse  implements HttpServletResponse {
 
     private PrintWriter printWriter;
     private ServletOutputStream servletOutputStream;
+    private Map<String, String> headers = new HashMap<String, String>();
+    private int status = SC_OK;
+    private String contentType;
 
     public TestHttpServletResponse() {
         this.printWriter = new PrintWriter(outputStream);
@@ -35,12 +40,20 @@ public class TestHttpServletResponse  implements HttpServletResponse {
         return this.outputStream.toByteArray();
     }
 
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
     public void addCookie(Cookie cookie) {
         
     }
 
     public boolean containsHeader(String name) {
-        return false;  
+        return headers.containsKey(name);
     }
 
     public String encodeURL(String url) {
@@ -60,11 +73,11 @@ public class TestHttpServletResponse  implements HttpServletResponse {
     }
 
     public void sendError(int sc, String msg) throws IOException {
-        
+        this.status = sc;
     }
 
     public void sendError(int sc) throws IOException {
-        
+        this.status = sc;
     }
 
     public void sendRedirect(String location) throws IOException {
@@ -72,35 +85,35 @@ public class TestHttpServletResponse  implements HttpServletResponse {
     }
 
     public void setDateHeader(String name, long date) {
-        
+        this.headers.put(name, String.valueOf(date));
     }
 
     public void addDateHeader(String name, long date) {
-        
+        this.headers.put(name, String.valueOf(date));
     }
 
     public void setHeader(String name, String value) {
-        
+        this.headers.put(name, value);
     }
 
     public void addHeader(String name, String value) {
-        
+        this.headers.put(name, value);
     }
 
     public void setIntHeader(String name, int value) {
-        
+        this.headers.put(name, String.valueOf(value));
     }
 
     public void addIntHeader(String name, int value) {
-        
+        this.headers.put(name, String.valueOf(value));
     }
 
     public void setStatus(int sc) {
-        
+        this.status = sc;
     }
 
     public void setStatus(int sc, String sm) {
-        
+        this.status = sc;
     }
 
     public String getCharacterEncoding() {
@@ -108,7 +121,7 @@ public class TestHttpServletResponse  implements HttpServletResponse {
     }
 
     public String getContentType() {
-        return null;  
+        return this.contentType;
     }
 
     public ServletOutputStream getOutputStream() throws IOException {
@@ -128,7 +141,7 @@ public class TestHttpServletResponse  implements HttpServletResponse {
     }
 
     public void setContentType(String type) {
-        
+        this.contentType = type;
     }
 
     public void setBufferSize(int size) {
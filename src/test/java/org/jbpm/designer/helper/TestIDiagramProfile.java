@@ -4,6 +4,7 @@ import org.jbpm.designer.repository.Repository;
 import org.jbpm.designer.web.profile.IDiagramProfile;
 
 import java.util.Collection;
+import java.util.Collections;
 
 public class TestIDiagramProfile implements IDiagramProfile {
 
@@ -101,6 +102,10 @@ public class TestIDiagramProfile implements IDiagramProfile {
         return null;
     }
 
+    public Collection<String> getDisabledValidationRules() {
+        return Collections.emptyList();
+    }
+
     public Repository getRepository() {
         return this.repository;
     }
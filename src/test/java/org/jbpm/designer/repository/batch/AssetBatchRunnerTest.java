@@ -0,0 +1,165 @@
+package org.jbpm.designer.repository.batch;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.jbpm.designer.repository.Asset;
+import org.jbpm.designer.repository.AssetBuilderFactory;
+import org.jbpm.designer.repository.Repository;
+import org.jbpm.designer.repository.RepositoryBaseTest;
+import org.jbpm.designer.repository.impl.AssetBuilder;
+import org.jbpm.designer.repository.vfs.VFSRepository;
+import org.jbpm.designer.server.ProcessThumbnails;
+import org.jbpm.designer.web.profile.impl.JbpmProfileImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AssetBatchRunnerTest extends RepositoryBaseTest {
+
+    @Before
+    public void setup() {
+        new File(REPOSITORY_ROOT).mkdir();
+        profile = new JbpmProfileImpl();
+        profile.setRepositoryId("vfs");
+        profile.setRepositoryRoot(VFS_REPOSITORY_ROOT);
+        profile.setRepositoryGlobalDir("/global");
+    }
+
+    @After
+    public void teardown() {
+        File repo = new File(REPOSITORY_ROOT);
+        if(repo.exists()) {
+            deleteFiles(repo);
+        }
+        repo.delete();
+    }
+
+    private void createAsset(Repository repository, String name, String type, String location, String content) {
+        AssetBuilder builder = AssetBuilderFactory.getAssetBuilder(Asset.AssetType.Text);
+        builder.content(content)
+                .type(type)
+                .name(name)
+                .location(location);
+        assertNotNull(repository.createAsset(builder.getAsset()));
+    }
+
+    @Test
+    public void testRunProcessesOnlyProcessAssets() {
+        Repository repository = new VFSRepository(profile);
+        createAsset(repository, "process1", "bpmn", "/pkg", "valid");
+        createAsset(repository, "process2", "bpmn2", "/pkg/sub", "invalid");
+        createAsset(repository, "notes", "txt", "/pkg", "valid");
+
+        AssetBatchRunner runner = new AssetBatchRunner(repository, 2);
+        runner.addProcessor(new AssetProcessor() {
+            public void process(Asset<String> asset, AssetResult result) throws Exception {
+                if (!"valid".equals(asset.getAssetContent())) {
+                    result.addError("invalid content");
+                }
+            }
+        });
+        BatchReport report = runner.run("/", null);
+
+        assertEquals(2, report.getTotal());
+        assertEquals(1, report.getFailures().size());
+        assertEquals("/pkg/sub/process2.bpmn2", report.getFailures().get(0).getPath());
+        assertTrue(report.getPhaseTimings().containsKey("load"));
+    }
+
+    @Test
+    public void testProcessorExceptionIsReported() throws Exception {
+        Repository repository = new VFSRepository(profile);
+        createAsset(repository, "process1", "bpmn2", "/pkg", "content");
+
+        AssetBatchRunner runner = new AssetBatchRunner(repository, 1);
+        runner.addProcessor(new AssetProcessor() {
+            public void process(Asset<String> asset, AssetResult result) throws Exception {
+                throw new IllegalStateException("broken");
+            }
+        });
+        BatchReport report = runner.run("/", null);
+
+        assertEquals(1, report.getFailures().size());
+        assertEquals("IllegalStateException: broken", report.getFailures().get(0).getErrors().get(0));
+        assertNotNull(report.toJSON().getJSONObject("summary"));
+    }
+
+    @Test
+    public void testValidationReportsSyntaxErrors() throws Exception {
+        Repository repository = new VFSRepository(profile);
+        createAsset(repository, "process1", "bpmn2", "/pkg",
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<bpmn2:definitions xmlns:bpmn2=\"http://www.omg.org/spec/BPMN/20100524/MODEL\""
+                + " xmlns:drools=\"http://www.jboss.org/drools\" id=\"Definition\" targetNamespace=\"http://www.omg.org/bpmn20\">"
+                + "<bpmn2:process id=\"process1\" drools:packageName=\"org.test\" name=\"process1\" isExecutable=\"true\">"
+                + "<bpmn2:startEvent id=\"start\"/>"
+                + "<bpmn2:scriptTask id=\"script\" name=\"script\"/>"
+                + "</bpmn2:process></bpmn2:definitions>");
+
+        AssetBatchRunner runner = new AssetBatchRunner(repository, 1);
+        runner.addProcessor(new ProcessValidationProcessor(profile));
+        BatchReport report = runner.run("/", null);
+
+        assertEquals(1, report.getFailures().size());
+        List<String> errors = report.getFailures().get(0).getErrors();
+        assertTrue(errors.contains("start: Start node has no outgoing connections"));
+        assertTrue(errors.contains("script: Script Task has no script."));
+        assertTrue(report.getPhaseTimings().containsKey("validate"));
+    }
+
+    private String createProcess() throws Exception {
+        String json = IOUtils.toString(AssetBatchRunnerTest.class.getResourceAsStream(
+                "/org/jbpm/designer/test/bpmn2/twoTasks.json"), "UTF-8");
+        return profile.createMarshaller().parseModel(json, "");
+    }
+
+    @Test
+    public void testConversion() throws Exception {
+        Repository repository = new VFSRepository(profile);
+        String process = createProcess();
+        createAsset(repository, "process1", "bpmn2", "/pkg", process);
+        createAsset(repository, "process2", "bpmn2", "/pkg", "not a process");
+        createAsset(repository, "process3", "bpmn2", "/pkg", " ");
+
+        AssetBatchRunner runner = new AssetBatchRunner(repository, 2);
+        runner.addProcessor(new ProcessConversionProcessor(profile, true, false));
+        BatchReport report = runner.run("/", null);
+
+        assertEquals(3, report.getTotal());
+        assertEquals(1, report.getFailures().size());
+        assertEquals("/pkg/process2.bpmn2", report.getFailures().get(0).getPath());
+        assertEquals("Unable to convert BPMN2 to JSON", report.getFailures().get(0).getErrors().get(0));
+        for (AssetResult result : report.getResults()) {
+            if ("/pkg/process1.bpmn2".equals(result.getPath())) {
+                assertTrue(result.isSuccessful());
+                assertTrue(result.getTimings().containsKey("bpmn2json"));
+                assertTrue(result.getTimings().containsKey("json2bpmn"));
+                assertTrue(result.getTimings().containsKey("roundtrip"));
+            } else if ("/pkg/process3.bpmn2".equals(result.getPath())) {
+                assertEquals("Asset is empty", result.getWarnings().get(0));
+            }
+        }
+        assertEquals(process, repository.loadAssetFromPath("/pkg/process1.bpmn2").getAssetContent());
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        Repository repository = new VFSRepository(profile);
+        String process = createProcess();
+        createAsset(repository, "process1", "bpmn2", "/pkg", process);
+        assertFalse(ProcessThumbnails.getInstance().isCached(process));
+
+        AssetBatchRunner runner = new AssetBatchRunner(repository, 1);
+        runner.addProcessor(new ProcessConversionProcessor(profile, false, false));
+        runner.addWarmers();
+        BatchReport report = runner.run("/", null);
+
+        assertTrue(report.getFailures().isEmpty());
+        assertTrue(report.getPhaseTimings().containsKey("thumbnail"));
+        assertTrue(ProcessThumbnails.getInstance().isCached(process));
+    }
+}
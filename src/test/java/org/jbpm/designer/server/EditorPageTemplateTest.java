@@ -0,0 +1,30 @@
+package org.jbpm.designer.server;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class EditorPageTemplateTest {
+
+    @Test
+    public void testPlaceholders() throws Exception {
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("title", "Process Designer");
+        values.put("overlaySkin", "");
+        EditorPageTemplate template = EditorPageTemplate.compile(
+                "<title>@title@</title>@overlaySkin@<style>@import url(\"a.css\");</style>" +
+                "ORYX.PREPROCESSING = \"@preprocessing@\"; INTERVAL = @autosaveinterval@; " +
+                "DEFAULT = @autosavedefault@; mail = a@b", values);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        template.write(out, "wid\u00e9", 120000, true);
+
+        assertEquals("<title>Process Designer</title><style>@import url(\"a.css\");</style>" +
+                "ORYX.PREPROCESSING = \"wid\u00e9\"; INTERVAL = 120000; " +
+                "DEFAULT = true; mail = a@b", out.toString("UTF-8"));
+    }
+}
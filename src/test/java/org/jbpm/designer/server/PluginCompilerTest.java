@@ -0,0 +1,99 @@
+package org.jbpm.designer.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.jbpm.designer.web.plugin.IDiagramPlugin;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PluginCompilerTest {
+
+    private File dir;
+    private ForkJoinPool pool;
+
+    @Before
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("plugincompiler").toFile();
+        pool = new ForkJoinPool(2);
+    }
+
+    @After
+    public void teardown() {
+        pool.shutdownNow();
+        deleteFiles(dir);
+    }
+
+    @Test
+    public void testBundleIsCompiledInOrderAndCached() throws Exception {
+        File cacheDir = new File(dir, "cache");
+        File jscDir = new File(dir, "jsc");
+        jscDir.mkdir();
+        List<IDiagramPlugin> plugins = new ArrayList<IDiagramPlugin>();
+        plugins.add(plugin("ORYX.Plugins.First", "var first = function(a) { return a + 1; };"));
+        plugins.add(plugin("ORYX.Plugins.Second", "var second = function(b) { return b * 2; };"));
+
+        String bundle = new PluginCompiler(cacheDir, pool).bundle("plugins_test", plugins, jscDir);
+
+        assertTrue(bundle.matches("plugins_test\\.[0-9a-f]{12}\\.js"));
+        String content = new String(Files.readAllBytes(new File(jscDir, bundle).toPath()), "UTF-8");
+        assertTrue(content.indexOf("/* ORYX.Plugins.First */") < content.indexOf("/* ORYX.Plugins.Second */"));
+        assertEquals(2, cacheDir.list().length);
+        assertEquals(1, jscDir.list().length);
+
+        // a new compiler reuses the cache and produces the same bundle
+        assertEquals(bundle, new PluginCompiler(cacheDir, pool).bundle("plugins_test", plugins, jscDir));
+        assertEquals(2, cacheDir.list().length);
+        assertEquals(1, jscDir.list().length);
+    }
+
+    private static IDiagramPlugin plugin(final String name, final String source) {
+        return new IDiagramPlugin() {
+            public String getName() {
+                return name;
+            }
+
+            public InputStream getContents() {
+                try {
+                    return new ByteArrayInputStream(source.getBytes("UTF-8"));
+                } catch (UnsupportedEncodingException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            public boolean isCore() {
+                return false;
+            }
+
+            public Map<String, Object> getProperties() {
+                return Collections.emptyMap();
+            }
+
+            public boolean isCompressable() {
+                return true;
+            }
+        };
+    }
+
+    private static void deleteFiles(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteFiles(child);
+            }
+        }
+        file.delete();
+    }
+}
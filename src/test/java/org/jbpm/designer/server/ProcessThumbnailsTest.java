@@ -0,0 +1,55 @@
+package org.jbpm.designer.server;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ProcessThumbnailsTest {
+
+    private static final String PROCESS =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+        "<bpmn2:definitions xmlns:bpmn2=\"http://www.omg.org/spec/BPMN/20100524/MODEL\"" +
+        " xmlns:bpmndi=\"http://www.omg.org/spec/BPMN/20100524/DI\"" +
+        " xmlns:dc=\"http://www.omg.org/spec/DD/20100524/DC\"" +
+        " xmlns:di=\"http://www.omg.org/spec/DD/20100524/DI\" id=\"defs\">" +
+        "<bpmn2:process id=\"p\">" +
+        "<bpmn2:startEvent id=\"start\"/>" +
+        "<bpmn2:userTask id=\"task\"/>" +
+        "<bpmn2:exclusiveGateway id=\"gw\"/>" +
+        "<bpmn2:sequenceFlow id=\"f1\" sourceRef=\"start\" targetRef=\"task\"/>" +
+        "</bpmn2:process>" +
+        "<bpmndi:BPMNDiagram><bpmndi:BPMNPlane bpmnElement=\"p\">" +
+        "<bpmndi:BPMNShape bpmnElement=\"start\"><dc:Bounds x=\"100\" y=\"100\" width=\"30\" height=\"30\"/></bpmndi:BPMNShape>" +
+        "<bpmndi:BPMNShape bpmnElement=\"task\"><dc:Bounds x=\"200\" y=\"85\" width=\"100.5\" height=\"60\"/></bpmndi:BPMNShape>" +
+        "<bpmndi:BPMNShape bpmnElement=\"gw\"><dc:Bounds x=\"400\" y=\"95\" width=\"40\" height=\"40\"/></bpmndi:BPMNShape>" +
+        "<bpmndi:BPMNEdge bpmnElement=\"f1\"><di:waypoint x=\"130\" y=\"115\"/><di:waypoint x=\"200\" y=\"115\"/></bpmndi:BPMNEdge>" +
+        "</bpmndi:BPMNPlane></bpmndi:BPMNDiagram>" +
+        "</bpmn2:definitions>";
+
+    @Test
+    public void testRender() throws Exception {
+        String svg = ProcessThumbnails.render(PROCESS);
+        assertNotNull(svg);
+        assertTrue(svg.startsWith("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"240\" height=\"48\" viewBox=\"95 80 350 70\">"));
+        assertTrue(svg.contains("<circle cx=\"115\" cy=\"115\" r=\"15\"/>"));
+        assertTrue(svg.contains("<rect x=\"200\" y=\"85\" width=\"101\" height=\"60\" rx=\"5\"/>"));
+        assertTrue(svg.contains("<polygon points=\"420,95 440,115 420,135 400,115\"/>"));
+        assertTrue(svg.contains("<polyline points=\"130,115 200,115\"/>"));
+    }
+
+    @Test
+    public void testNoDiagram() throws Exception {
+        assertNull(ProcessThumbnails.render("<definitions><process id=\"p\"/></definitions>"));
+        assertEquals("", new ProcessThumbnails(10).getThumbnailBase64("<definitions><process id=\"p\"/></definitions>"));
+    }
+
+    @Test
+    public void testCachedByContent() throws Exception {
+        ProcessThumbnails thumbnails = new ProcessThumbnails(10);
+        assertSame(thumbnails.getThumbnail(PROCESS), thumbnails.getThumbnail(new String(PROCESS)));
+    }
+}
@@ -0,0 +1,97 @@
+package org.jbpm.designer.server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class StencilSetExtensionIndexTest {
+
+    private static final File EXTENSIONS_DIR = new File("src/main/webapp/stencilsets/extensions");
+
+    private File dir;
+
+    @After
+    public void teardown() throws IOException {
+        if (dir != null) {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    /**
+     * The lookup StencilSetJSONPServlet did before the index, reading extensions.json on every request.
+     */
+    private static List<File> scan(File extensionsDir, String namespace) throws Exception {
+        BufferedReader reader = new BufferedReader(new FileReader(new File(extensionsDir, "extensions.json")));
+        String line = null; String jsonString = "";
+        while (( line = reader.readLine()) != null){
+            jsonString += line;
+        }
+        reader.close();
+        List<File> definitions = new ArrayList<File>();
+        JSONArray extArr = new JSONObject(jsonString).getJSONArray("extensions");
+        for(int i=0; i<extArr.length(); i++) {
+            if(extArr.getJSONObject(i).getString("namespace").equals(namespace)) {
+                definitions.add(new File(extensionsDir, extArr.getJSONObject(i).getString("definition")));
+            }
+        }
+        return definitions;
+    }
+
+    private static String extension(String namespace, String definition) {
+        return "{ \"namespace\" : \"" + namespace + "\", \"definition\" : \"" + definition + "\" }";
+    }
+
+    @Test
+    public void testSameExtensionsAsScan() throws Exception {
+        StencilSetExtensionIndex index = new StencilSetExtensionIndex(EXTENSIONS_DIR);
+        JSONArray extensions = new JSONObject(FileUtils.readFileToString(new File(EXTENSIONS_DIR, "extensions.json")))
+                .getJSONArray("extensions");
+        assertFalse(extensions.length() == 0);
+        for (int i = 0; i < extensions.length(); i++) {
+            String namespace = extensions.getJSONObject(i).getString("namespace");
+            List<File> scanned = scan(EXTENSIONS_DIR, namespace);
+            assertEquals(1, scanned.size());
+            assertEquals(scanned.get(0), index.getDefinition(namespace));
+        }
+        assertEquals(0, scan(EXTENSIONS_DIR, "http://b3mn.org/stencilset/unknown#").size());
+        assertNull(index.getDefinition("http://b3mn.org/stencilset/unknown#"));
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"), "designer-extensions-test");
+        File config = new File(dir, "extensions.json");
+        FileUtils.writeStringToFile(config, "{ \"extensions\" : [ " + extension("ns1#", "one/one.json") + ", "
+                + extension("ns1#", "duplicate/one.json") + " ] }");
+        StencilSetExtensionIndex index = new StencilSetExtensionIndex(dir);
+        // the servlet wrote the first of duplicated declarations first
+        assertEquals(scan(dir, "ns1#").get(0), index.getDefinition("ns1#"));
+        assertNull(index.getDefinition("ns2#"));
+
+        FileUtils.writeStringToFile(config, "{ \"extensions\" : [ " + extension("ns1#", "one/one.json") + ", "
+                + extension("ns2#", "two/two.json") + " ] }");
+        config.setLastModified(config.lastModified() + 2000);
+        assertEquals(new File(dir, "two/two.json"), index.getDefinition("ns2#"));
+
+        // a registered extension is seen even when the timestamp did not change
+        long lastModified = config.lastModified();
+        FileUtils.writeStringToFile(config, "{ \"extensions\" : [ " + extension("ns3#", "three/three.json") + " ] }");
+        config.setLastModified(lastModified);
+        StencilSetExtensionIndex.invalidate();
+        assertEquals(scan(dir, "ns3#").get(0), index.getDefinition("ns3#"));
+        assertNull(index.getDefinition("ns1#"));
+    }
+}
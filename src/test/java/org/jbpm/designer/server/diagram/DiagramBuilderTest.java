@@ -0,0 +1,63 @@
+package org.jbpm.designer.server.diagram;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DiagramBuilderTest {
+
+    private static final String PROCESS =
+        "{\"resourceId\":\"canvas\",\"properties\":{\"name\":\"p\"},\"stencil\":{\"id\":\"BPMNDiagram\"}," +
+        "\"childShapes\":[" +
+        "{\"bounds\":{\"lowerRight\":{\"x\":130,\"y\":130},\"upperLeft\":{\"x\":100,\"y\":100}}," +
+        "\"outgoing\":[{\"resourceId\":\"flow\"}],\"resourceId\":\"start\"," +
+        "\"properties\":{\"dataoutput\":{\"totalCount\":0,\"items\":[]},\"documentation\":\"glossary://g1/Start;;\"}," +
+        "\"stencil\":{\"id\":\"StartNoneEvent\"},\"childShapes\":[]}," +
+        "{\"resourceId\":\"flow\",\"stencil\":{\"id\":\"SequenceFlow\"},\"properties\":{}," +
+        "\"outgoing\":[{\"resourceId\":\"task\"}],\"target\":{\"resourceId\":\"task\"},\"childShapes\":[]," +
+        "\"bounds\":{\"lowerRight\":{\"x\":200,\"y\":115},\"upperLeft\":{\"x\":130,\"y\":115}}," +
+        "\"dockers\":[{\"x\":15,\"y\":15},{\"x\":50,\"y\":40}]}," +
+        "{\"resourceId\":\"task\",\"stencil\":{\"id\":\"Task\"},\"properties\":{\"name\":\"Task\"},\"childShapes\":[]," +
+        "\"bounds\":{\"lowerRight\":{\"x\":300,\"y\":155},\"upperLeft\":{\"x\":200,\"y\":75}}}]," +
+        "\"bounds\":{\"lowerRight\":{\"x\":1485,\"y\":1050},\"upperLeft\":{\"x\":0,\"y\":0}}," +
+        "\"stencilset\":{\"url\":\"stencilsets/bpmn2.0/bpmn2.0.json\",\"namespace\":\"http://b3mn.org/stencilset/bpmn2.0#\"}," +
+        "\"ssextensions\":[]}";
+
+    @Test
+    public void testParseJson() throws Exception {
+        Diagram diagram = DiagramBuilder.parseJson(PROCESS);
+        assertEquals("canvas", diagram.getResourceId());
+        assertEquals(3, diagram.getShapes().size());
+        assertEquals("http://b3mn.org/stencilset/bpmn2.0#", diagram.getStencilset().getNamespace());
+
+        Shape start = diagram.getShapes().get(0);
+        Shape flow = diagram.getShapes().get(1);
+        Shape task = diagram.getShapes().get(2);
+        assertEquals("start", start.getResourceId());
+        assertEquals("StartNoneEvent", start.getStencilId());
+        assertEquals("Start", start.getProperty("documentation"));
+        assertEquals("g1", start.getGlossaryIds().get(0));
+        assertTrue(start.getProperty("dataoutput").startsWith("{"));
+        assertSame(diagram, start.getParent());
+
+        // references resolve to the same instance, whatever the order in the json
+        assertSame(flow, start.getOutgoings().get(0));
+        assertSame(task, flow.getTarget());
+        assertSame(flow, task.getIncomings().get(0));
+        assertEquals(2, flow.getDockers().size());
+        assertEquals(40d, flow.getDockers().get(1).getY(), 0.01);
+        assertEquals(100d, task.getWidth(), 0.01);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Diagram diagram = DiagramBuilder.parseJson(PROCESS);
+        Diagram copy = DiagramBuilder.parseJson(JSONBuilder.parseModeltoString(diagram), true);
+        assertEquals(3, copy.getShapes().size());
+        assertEquals("Task", copy.getShapes().get(2).getProperty("name"));
+        assertEquals(copy.getShapes().get(2), copy.getShapes().get(1).getTarget());
+        assertEquals(1485d, copy.getWidth(), 0.01);
+    }
+}
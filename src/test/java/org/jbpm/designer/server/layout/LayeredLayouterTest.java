@@ -0,0 +1,157 @@
+package org.jbpm.designer.server.layout;
+
+import java.util.ArrayList;
+
+import org.jbpm.designer.server.diagram.Bounds;
+import org.jbpm.designer.server.diagram.Diagram;
+import org.jbpm.designer.server.diagram.Point;
+import org.jbpm.designer.server.diagram.Shape;
+import org.jbpm.designer.server.diagram.StencilType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LayeredLayouterTest {
+
+    @Test
+    public void testChainWithLoop() {
+        Diagram diagram = diagram();
+        Shape start = node(diagram, diagram, "start", 30, 30);
+        Shape task = node(diagram, diagram, "task", 100, 80);
+        Shape gateway = node(diagram, diagram, "gateway", 40, 40);
+        Shape end = node(diagram, diagram, "end", 28, 28);
+        edge(diagram, start, task);
+        edge(diagram, task, gateway);
+        edge(diagram, gateway, end);
+        Shape loop = edge(diagram, gateway, task);
+
+        new LayeredLayouter().layout(diagram);
+
+        // one column per node, from left to right despite the loop
+        assertTrue(start.getLowerRight().getX() < task.getUpperLeft().getX());
+        assertTrue(task.getLowerRight().getX() < gateway.getUpperLeft().getX());
+        assertTrue(gateway.getLowerRight().getX() < end.getUpperLeft().getX());
+        // the chain is aligned on the center of the start event
+        assertEquals(centerY(start), centerY(task), 0.01);
+        assertEquals(centerY(start), centerY(end), 0.01);
+        assertEquals(100d, task.getWidth(), 0.01);
+        // the docked ends of the edges are kept
+        assertEquals(2, loop.getDockers().size());
+        assertEquals(20d, loop.getDockers().get(0).getX(), 0.01);
+    }
+
+    @Test
+    public void testLanesShareColumns() {
+        Diagram diagram = diagram();
+        Shape lane1 = node(diagram, diagram, "lane1", 600, 200);
+        lane1.setStencil(new StencilType("Lane"));
+        Shape lane2 = node(diagram, diagram, "lane2", 600, 200);
+        lane2.setStencil(new StencilType("Lane"));
+        Shape a = node(diagram, lane1, "a", 100, 80);
+        Shape b = node(diagram, lane2, "b", 100, 80);
+        Shape c = node(diagram, lane1, "c", 100, 80);
+        edge(diagram, a, b);
+        Shape bc = edge(diagram, b, c);
+
+        new LayeredLayouter().layout(diagram);
+
+        assertEquals(lane1.getLowerRight().getY(), lane2.getUpperLeft().getY(), 0.01);
+        assertEquals(lane1.getWidth(), lane2.getWidth(), 0.01);
+        assertTrue(a.getLowerRight().getX() < b.getUpperLeft().getX());
+        assertTrue(b.getLowerRight().getX() < c.getUpperLeft().getX());
+        // b and c are in different lanes, the edge gets two orthogonal bends
+        assertEquals(4, bc.getDockers().size());
+        Point bend1 = bc.getDockers().get(1);
+        Point bend2 = bc.getDockers().get(2);
+        assertEquals(bend1.getX(), bend2.getX(), 0.01);
+        assertEquals(lane2.getUpperLeft().getY() + centerY(b), bend1.getY(), 0.01);
+        assertEquals(centerY(c), bend2.getY(), 0.01);
+    }
+
+    @Test
+    public void testSubprocessIsSizedToItsContent() {
+        Diagram diagram = diagram();
+        Shape start = node(diagram, diagram, "start", 30, 30);
+        Shape subprocess = node(diagram, diagram, "sub", 50, 50);
+        Shape inner1 = node(diagram, subprocess, "inner1", 100, 80);
+        Shape inner2 = node(diagram, subprocess, "inner2", 100, 80);
+        Shape inner3 = node(diagram, subprocess, "inner3", 100, 80);
+        edge(diagram, start, subprocess);
+        // the flows of a subprocess are children of the subprocess, as the marshaller nests them
+        edge(diagram, subprocess, inner1, inner2);
+        Shape nested = edge(diagram, subprocess, inner1, inner3);
+
+        new LayeredLayouter().layout(diagram);
+
+        assertTrue(subprocess.getWidth() >= 200 + LayeredLayouter.H_GAP);
+        assertTrue(inner1.getLowerRight().getX() < inner2.getUpperLeft().getX());
+        assertTrue(start.getLowerRight().getX() < subprocess.getUpperLeft().getX());
+        // inner2 and inner3 share a column, the nested edge gets two new bends inside the subprocess
+        assertEquals(4, nested.getDockers().size());
+        for (Point bend : nested.getDockers().subList(1, 3)) {
+            assertTrue(bend.getX() > subprocess.getUpperLeft().getX());
+            assertTrue(bend.getX() < subprocess.getLowerRight().getX());
+            assertTrue(bend.getY() > subprocess.getUpperLeft().getY());
+            assertTrue(bend.getY() < subprocess.getLowerRight().getY());
+        }
+        assertEquals(centerY(inner3) + subprocess.getUpperLeft().getY(), nested.getDockers().get(2).getY(), 0.01);
+    }
+
+    @Test
+    public void testLargeDiagram() {
+        Diagram diagram = diagram();
+        Shape previous = node(diagram, diagram, "n0", 100, 80);
+        for (int i = 1; i < 3000; i++) {
+            Shape node = node(diagram, diagram, "n" + i, 100, 80);
+            edge(diagram, previous, node);
+            if (i % 7 == 0) {
+                edge(diagram, diagram.getShapes().get(Math.max(0, diagram.getShapes().size() - 40)), node);
+            }
+            previous = node;
+        }
+        long start = System.currentTimeMillis();
+        new LayeredLayouter().layout(diagram);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    private static double centerY(Shape shape) {
+        return shape.getUpperLeft().getY() + shape.getHeight() / 2;
+    }
+
+    private static Diagram diagram() {
+        Diagram diagram = new Diagram("canvas");
+        diagram.setBounds(new Bounds(new Point(1485d, 1050d), new Point(0d, 0d)));
+        diagram.setShapes(new ArrayList<Shape>());
+        return diagram;
+    }
+
+    private static Shape node(Diagram diagram, Shape parent, String id, double width, double height) {
+        Shape shape = new Shape(id, new StencilType("Task"));
+        shape.setBounds(new Bounds(new Point(width, height), new Point(0d, 0d)));
+        shape.setParent(parent);
+        parent.getChildShapes().add(shape);
+        diagram.addShapes(shape);
+        return shape;
+    }
+
+    private static Shape edge(Diagram diagram, Shape source, Shape target) {
+        return edge(diagram, diagram, source, target);
+    }
+
+    private static Shape edge(Diagram diagram, Shape parent, Shape source, Shape target) {
+        Shape edge = new Shape(source.getResourceId() + "-" + target.getResourceId(), new StencilType("SequenceFlow"));
+        ArrayList<Point> dockers = new ArrayList<Point>();
+        dockers.add(new Point(source.getWidth() / 2, source.getHeight() / 2));
+        dockers.add(new Point(10d, 10d));
+        dockers.add(new Point(target.getWidth() / 2, target.getHeight() / 2));
+        edge.setDockers(dockers);
+        edge.setTarget(target);
+        edge.setParent(parent);
+        parent.getChildShapes().add(edge);
+        source.addOutgoing(edge);
+        target.addIncoming(edge);
+        diagram.addShapes(edge);
+        return edge;
+    }
+}
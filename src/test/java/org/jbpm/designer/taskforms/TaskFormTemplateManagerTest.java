@@ -0,0 +1,102 @@
+package org.jbpm.designer.taskforms;
+
+import org.eclipse.bpmn2.Assignment;
+import org.eclipse.bpmn2.Bpmn2Factory;
+import org.eclipse.bpmn2.DataInput;
+import org.eclipse.bpmn2.DataInputAssociation;
+import org.eclipse.bpmn2.DataOutput;
+import org.eclipse.bpmn2.DataOutputAssociation;
+import org.eclipse.bpmn2.Definitions;
+import org.eclipse.bpmn2.FormalExpression;
+import org.eclipse.bpmn2.InputOutputSpecification;
+import org.eclipse.bpmn2.ItemDefinition;
+import org.eclipse.bpmn2.Process;
+import org.eclipse.bpmn2.Property;
+import org.eclipse.bpmn2.UserTask;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class TaskFormTemplateManagerTest {
+
+    private static final String TEMPLATES_PATH = "src/main/webapp/taskforms";
+
+    private static FormalExpression expression(String body) {
+        FormalExpression expression = Bpmn2Factory.eINSTANCE.createFormalExpression();
+        expression.setBody(body);
+        return expression;
+    }
+
+    private static DataInput addInput(UserTask task, InputOutputSpecification io, String name) {
+        DataInput input = Bpmn2Factory.eINSTANCE.createDataInput();
+        input.setId(task.getId() + "_" + name + "Input");
+        input.setName(name);
+        io.getDataInputs().add(input);
+        return input;
+    }
+
+    private static void addUserTask(Process process, Property amount, String id, String taskName) {
+        UserTask task = Bpmn2Factory.eINSTANCE.createUserTask();
+        task.setId(id);
+        InputOutputSpecification io = Bpmn2Factory.eINSTANCE.createInputOutputSpecification();
+        task.setIoSpecification(io);
+
+        DataInput taskNameInput = addInput(task, io, "TaskName");
+        DataInputAssociation taskNameAssociation = Bpmn2Factory.eINSTANCE.createDataInputAssociation();
+        taskNameAssociation.setTargetRef(taskNameInput);
+        Assignment assignment = Bpmn2Factory.eINSTANCE.createAssignment();
+        assignment.setFrom(expression(taskName));
+        assignment.setTo(expression(taskNameInput.getId()));
+        taskNameAssociation.getAssignment().add(assignment);
+        task.getDataInputAssociations().add(taskNameAssociation);
+
+        DataInput amountInput = addInput(task, io, "amount");
+        DataInputAssociation amountAssociation = Bpmn2Factory.eINSTANCE.createDataInputAssociation();
+        amountAssociation.getSourceRef().add(amount);
+        amountAssociation.setTargetRef(amountInput);
+        task.getDataInputAssociations().add(amountAssociation);
+
+        DataOutput resultOutput = Bpmn2Factory.eINSTANCE.createDataOutput();
+        resultOutput.setId(id + "_resultOutput");
+        resultOutput.setName("result");
+        io.getDataOutputs().add(resultOutput);
+        DataOutputAssociation resultAssociation = Bpmn2Factory.eINSTANCE.createDataOutputAssociation();
+        resultAssociation.getSourceRef().add(resultOutput);
+        resultAssociation.setTargetRef(amount);
+        task.getDataOutputAssociations().add(resultAssociation);
+
+        process.getFlowElements().add(task);
+    }
+
+    @Test
+    public void testUserTaskForms() {
+        Definitions def = Bpmn2Factory.eINSTANCE.createDefinitions();
+        Process process = Bpmn2Factory.eINSTANCE.createProcess();
+        process.setId("approval");
+        ItemDefinition itemDefinition = Bpmn2Factory.eINSTANCE.createItemDefinition();
+        itemDefinition.setStructureRef("Integer");
+        Property amount = Bpmn2Factory.eINSTANCE.createProperty();
+        amount.setId("amount");
+        amount.setItemSubjectRef(itemDefinition);
+        process.getProperties().add(amount);
+        addUserTask(process, amount, "task1", "Approve");
+        addUserTask(process, amount, "task2", "Review");
+        def.getRootElements().add(process);
+
+        TaskFormTemplateManager templateManager = new TaskFormTemplateManager(null, "org.test", "approval", TEMPLATES_PATH, def);
+        templateManager.processTemplates();
+
+        assertEquals(3, templateManager.getTaskFormInformationList().size());
+        TaskFormInfo approve = templateManager.getTaskFormInformationList().get(1);
+        assertEquals("Approve-taskform", approve.getId());
+        assertEquals(1, approve.getTaskInputs().size());
+        assertEquals("Integer", approve.getTaskInputs().get(0).getRefType());
+        assertEquals("${amount}", approve.getTaskInputs().get(0).getValue());
+        assertEquals("Integer", approve.getTaskOutputs().get(0).getRefType());
+        for (TaskFormInfo tfi : templateManager.getTaskFormInformationList()) {
+            assertNotNull(tfi.getOutput());
+        }
+        assertEquals("Review-taskform", templateManager.getTaskFormInformationList().get(2).getId());
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2010 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.designer.test.bpmn2;
+
+import static junit.framework.Assert.assertEquals;
+
+import java.io.File;
+import java.net.URL;
+
+import org.eclipse.bpmn2.Definitions;
+import org.jbpm.designer.bpmn2.impl.Bpmn2JsonMarshaller;
+import org.jbpm.designer.bpmn2.impl.Bpmn2JsonUnmarshaller;
+import org.jbpm.designer.helper.TestIDiagramProfile;
+import org.junit.Test;
+
+/**
+ * Checks that the parallel marshalling mode renders the same json as the sequential one.
+ */
+public class Bpmn2MarshallingTestCase {
+
+    private static File getTestJsonFile(String filename) {
+        URL fileURL = Bpmn2MarshallingTestCase.class.getResource(filename);
+        return new File(fileURL.getFile());
+    }
+
+    private static Definitions getDefinitions(String filename) throws Exception {
+        Bpmn2JsonUnmarshaller unmarshaller = new Bpmn2JsonUnmarshaller();
+        return (Definitions) unmarshaller.unmarshall(getTestJsonFile(filename), "").getContents().get(0);
+    }
+
+    private static String marshall(Definitions definitions, int parallelThreshold) throws Exception {
+        Bpmn2JsonMarshaller marshaller = new Bpmn2JsonMarshaller();
+        marshaller.setProfile(new TestIDiagramProfile(null));
+        marshaller.setParallelThreshold(parallelThreshold);
+        return marshaller.marshall(definitions, "");
+    }
+
+    @Test
+    public void testParallelMarshallingOfTasks() throws Exception {
+        Definitions definitions = getDefinitions("twoTasks.json");
+        assertEquals(marshall(definitions, 0), marshall(definitions, 1));
+    }
+
+    @Test
+    public void testParallelMarshallingOfLanes() throws Exception {
+        Definitions definitions = getDefinitions("doubleLane.json");
+        assertEquals(marshall(definitions, 0), marshall(definitions, 1));
+    }
+
+    @Test
+    public void testParallelMarshallingOfGateways() throws Exception {
+        Definitions definitions = getDefinitions("gateway.json");
+        assertEquals(marshall(definitions, 0), marshall(definitions, 1));
+    }
+}
@@ -0,0 +1,231 @@
+package org.jbpm.designer.web.filter.impl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.jbpm.designer.helper.TestHttpServletRequest;
+import org.jbpm.designer.helper.TestHttpServletResponse;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class HttpCachingFilterTest {
+
+    private static final byte[] BODY = "var a = 1;".getBytes();
+
+    private static HttpCachingFilter createFilter(String rules) throws ServletException {
+        final Map<String, String> params = new HashMap<String, String>();
+        params.put(HttpCachingFilter.RULES, rules);
+        HttpCachingFilter filter = new HttpCachingFilter();
+        filter.init(new FilterConfig() {
+            public String getFilterName() {
+                return "cache";
+            }
+
+            public ServletContext getServletContext() {
+                return null;
+            }
+
+            public String getInitParameter(String name) {
+                return params.get(name);
+            }
+
+            public Enumeration getInitParameterNames() {
+                return null;
+            }
+        });
+        return filter;
+    }
+
+    private static TestHttpServletRequest createRequest(final String method, final String path,
+            final Map<String, String> headers) {
+        return new TestHttpServletRequest(new HashMap<String, String>()) {
+            @Override
+            public String getMethod() {
+                return method;
+            }
+
+            @Override
+            public String getContextPath() {
+                return "/designer";
+            }
+
+            @Override
+            public String getRequestURI() {
+                return "/designer" + path;
+            }
+
+            @Override
+            public String getHeader(String name) {
+                return headers.get(name);
+            }
+
+            @Override
+            public long getDateHeader(String name) {
+                return headers.containsKey(name) ? Long.parseLong(headers.get(name)) : -1;
+            }
+        };
+    }
+
+    private static TestHttpServletResponse get(HttpCachingFilter filter, String path, Map<String, String> headers,
+            FilterChain chain) throws Exception {
+        TestHttpServletResponse response = new TestHttpServletResponse();
+        filter.doFilter(createRequest("GET", path, headers), response, chain);
+        return response;
+    }
+
+    private static class CountingChain implements FilterChain {
+        private final byte[] body;
+        private final int status;
+        private final long lastModified;
+        int count;
+
+        CountingChain(byte[] body, int status, long lastModified) {
+            this.body = body;
+            this.status = status;
+            this.lastModified = lastModified;
+        }
+
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+            count++;
+            HttpServletResponse resp = (HttpServletResponse) response;
+            resp.setStatus(status);
+            resp.setContentType("text/javascript");
+            if (lastModified >= 0) {
+                resp.setDateHeader("Last-Modified", lastModified);
+            }
+            resp.getOutputStream().write(body);
+        }
+    }
+
+    @Test
+    public void testImmutable() throws Exception {
+        HttpCachingFilter filter = createFilter("/jsc/*=immutable");
+        CountingChain chain = new CountingChain(BODY, HttpServletResponse.SC_OK, -1);
+        Map<String, String> headers = new HashMap<String, String>();
+
+        TestHttpServletResponse response = get(filter, "/jsc/plugins.js", headers, chain);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertArrayEquals(BODY, response.getContent());
+        String etag = "\"" + DigestUtils.shaHex(BODY) + "\"";
+        assertEquals(etag, response.getHeader("ETag"));
+        assertEquals("public, max-age=31536000", response.getHeader("Cache-Control"));
+        String lastModified = response.getHeader("Last-Modified");
+        assertEquals(0, Long.parseLong(lastModified) % 1000);
+
+        // served from memory
+        response = get(filter, "/jsc/plugins.js", headers, chain);
+        assertArrayEquals(BODY, response.getContent());
+        assertEquals(1, chain.count);
+
+        headers.put("If-None-Match", etag);
+        response = get(filter, "/jsc/plugins.js", headers, chain);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+        assertEquals(0, response.getContent().length);
+
+        headers.clear();
+        headers.put("If-Modified-Since", lastModified);
+        response = get(filter, "/jsc/plugins.js", headers, chain);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+
+        headers.put("If-Modified-Since", String.valueOf(Long.parseLong(lastModified) - 1000));
+        response = get(filter, "/jsc/plugins.js", headers, chain);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertArrayEquals(BODY, response.getContent());
+
+        // If-None-Match takes precedence over If-Modified-Since
+        headers.put("If-Modified-Since", lastModified);
+        headers.put("If-None-Match", "\"other\"");
+        response = get(filter, "/jsc/plugins.js", headers, chain);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertEquals(1, chain.count);
+    }
+
+    @Test
+    public void testRevalidate() throws Exception {
+        HttpCachingFilter filter = createFilter("/stencilset/*=revalidate, /process/*=max-age=60");
+        CountingChain chain = new CountingChain(BODY, HttpServletResponse.SC_OK, 1234567L);
+        Map<String, String> headers = new HashMap<String, String>();
+
+        TestHttpServletResponse response = get(filter, "/stencilset/bpmn2.0", headers, chain);
+        assertEquals("no-cache", response.getHeader("Cache-Control"));
+        assertEquals("1234000", response.getHeader("Last-Modified"));
+        String etag = response.getHeader("ETag");
+
+        headers.put("If-None-Match", "W/" + etag);
+        response = get(filter, "/stencilset/bpmn2.0", headers, chain);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+
+        headers.clear();
+        headers.put("If-Modified-Since", "1234000");
+        response = get(filter, "/stencilset/bpmn2.0", headers, chain);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+        // the content is generated again for every request
+        assertEquals(3, chain.count);
+
+        response = get(filter, "/process/p1", new HashMap<String, String>(), chain);
+        assertEquals("private, max-age=60", response.getHeader("Cache-Control"));
+    }
+
+    @Test
+    public void testNotCached() throws Exception {
+        HttpCachingFilter filter = createFilter("/jsc/*=immutable");
+        Map<String, String> headers = new HashMap<String, String>();
+
+        // not a GET
+        CountingChain chain = new CountingChain(BODY, HttpServletResponse.SC_OK, -1);
+        TestHttpServletResponse response = new TestHttpServletResponse();
+        filter.doFilter(createRequest("POST", "/jsc/plugins.js", headers), response, chain);
+        assertNull(response.getHeader("ETag"));
+        assertArrayEquals(BODY, response.getContent());
+
+        // no matching rule
+        response = get(filter, "/editor", headers, chain);
+        assertNull(response.getHeader("ETag"));
+        assertNull(response.getHeader("Cache-Control"));
+        assertEquals(2, chain.count);
+
+        // errors are passed on and not kept
+        CountingChain failing = new CountingChain(BODY, HttpServletResponse.SC_NOT_FOUND, -1);
+        response = get(filter, "/jsc/missing.js", headers, failing);
+        assertEquals(HttpServletResponse.SC_NOT_FOUND, response.getStatus());
+        assertNull(response.getHeader("ETag"));
+        assertArrayEquals(BODY, response.getContent());
+        get(filter, "/jsc/missing.js", headers, failing);
+        assertEquals(2, failing.count);
+    }
+
+    @Test
+    public void testGzip() throws Exception {
+        HttpCachingFilter filter = createFilter("/jsc/*=immutable");
+        byte[] body = new byte[4096];
+        Arrays.fill(body, (byte) 'a');
+        CountingChain chain = new CountingChain(body, HttpServletResponse.SC_OK, -1);
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Accept-Encoding", "gzip, deflate");
+
+        TestHttpServletResponse response = get(filter, "/jsc/plugins.js", headers, chain);
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals("\"" + DigestUtils.shaHex(body) + "-gz\"", response.getHeader("ETag"));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+
+        // either variant validates the content
+        headers.put("If-None-Match", "\"" + DigestUtils.shaHex(body) + "\"");
+        response = get(filter, "/jsc/plugins.js", headers, chain);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+    }
+}
@@ -0,0 +1,140 @@
+package org.jbpm.designer.web.plugin.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.jbpm.designer.helper.TestHttpServletRequest;
+import org.jbpm.designer.helper.TestHttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ResourceCacheTest {
+
+    private File dir;
+
+    @Before
+    public void setup() {
+        dir = new File(System.getProperty("java.io.tmpdir"), "designer-resource-cache-test");
+        dir.mkdirs();
+    }
+
+    @After
+    public void teardown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private static String read(ResourceCache.CachedResource resource) throws IOException {
+        return IOUtils.toString(resource.getInputStream(), "UTF-8");
+    }
+
+    @Test
+    public void testHitAndMiss() throws Exception {
+        File first = new File(dir, "first.js");
+        File second = new File(dir, "second.js");
+        FileUtils.writeStringToFile(first, "var first;");
+        FileUtils.writeStringToFile(second, "var second;");
+        ResourceCache cache = new ResourceCache();
+
+        ResourceCache.CachedResource resource = cache.get(first);
+        assertEquals("var first;", read(resource));
+        assertEquals(first.lastModified(), resource.getLastModified());
+        assertSame(resource, cache.get(first));
+
+        ResourceCache.CachedResource other = cache.get(second);
+        assertNotSame(resource, other);
+        assertEquals("var second;", read(other));
+
+        try {
+            cache.get(new File(dir, "missing.js"));
+            fail("missing file");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        File file = new File(dir, "plugin.js");
+        FileUtils.writeStringToFile(file, "var a;");
+        ResourceCache cache = new ResourceCache();
+        ResourceCache.CachedResource resource = cache.get(file);
+
+        // a new length
+        FileUtils.writeStringToFile(file, "var ab;");
+        file.setLastModified(resource.getLastModified());
+        ResourceCache.CachedResource changed = cache.get(file);
+        assertNotSame(resource, changed);
+        assertEquals("var ab;", read(changed));
+
+        // a new timestamp
+        FileUtils.writeStringToFile(file, "var ac;");
+        file.setLastModified(changed.getLastModified() + 2000);
+        ResourceCache.CachedResource touched = cache.get(file);
+        assertNotSame(changed, touched);
+        assertEquals("var ac;", read(touched));
+
+        cache.clear();
+        assertNotSame(touched, cache.get(file));
+
+        file.delete();
+        try {
+            cache.get(file);
+            fail("deleted file");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        File file = new File(dir, "stencilset.json");
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            content.append("{\"id\":").append(i).append("},");
+        }
+        FileUtils.writeStringToFile(file, content.toString());
+        ResourceCache.CachedResource resource = new ResourceCache().get(file);
+
+        final Map<String, String> headers = new HashMap<String, String>();
+        TestHttpServletRequest request = new TestHttpServletRequest(new HashMap<String, String>()) {
+            @Override
+            public String getHeader(String name) {
+                return headers.get(name);
+            }
+        };
+        TestHttpServletResponse response = new TestHttpServletResponse();
+        resource.write(request, response);
+        assertEquals(content.toString(), new String(response.getContent(), "UTF-8"));
+        assertEquals(resource.getETag(), response.getHeader("ETag"));
+
+        headers.put("Accept-Encoding", "gzip");
+        response = new TestHttpServletResponse();
+        resource.write(request, response);
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        IOUtils.copy(new GZIPInputStream(new ByteArrayInputStream(response.getContent())), plain);
+        assertEquals(content.toString(), plain.toString("UTF-8"));
+
+        headers.put("If-None-Match", resource.getETag());
+        response = new TestHttpServletResponse();
+        resource.write(request, response);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+        assertEquals(0, response.getContent().length);
+    }
+}
@@ -0,0 +1,102 @@
+package org.jbpm.designer.web.preprocessing.impl;
+
+import java.io.File;
+import java.util.Map;
+
+import org.jbpm.designer.helper.TestIDiagramProfile;
+import org.jbpm.designer.repository.Asset;
+import org.jbpm.designer.repository.AssetBuilderFactory;
+import org.jbpm.designer.repository.Repository;
+import org.jbpm.designer.repository.RepositoryBaseTest;
+import org.jbpm.designer.repository.filters.FilterByExtension;
+import org.jbpm.designer.repository.impl.AssetBuilder;
+import org.jbpm.designer.repository.vfs.VFSRepository;
+import org.jbpm.designer.web.profile.IDiagramProfile;
+import org.jbpm.designer.web.profile.impl.JbpmProfileImpl;
+import org.jbpm.process.workitem.WorkDefinitionImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WorkDefinitionRegistryTest extends RepositoryBaseTest {
+
+    private Repository repository;
+    private IDiagramProfile diagramProfile;
+
+    @Before
+    public void setup() {
+        new File(REPOSITORY_ROOT).mkdir();
+        profile = new JbpmProfileImpl();
+        profile.setRepositoryId("vfs");
+        profile.setRepositoryRoot(VFS_REPOSITORY_ROOT);
+        profile.setRepositoryGlobalDir("/global");
+        repository = new VFSRepository(profile);
+        repository.createDirectory("/global");
+        diagramProfile = new TestIDiagramProfile(repository);
+
+        createAsset(Asset.AssetType.Byte, "defaultservicenodeicon", "png", new byte[] { 1, 2, 3 });
+        createAsset(Asset.AssetType.Byte, "myicon", "png", new byte[] { 4, 5, 6 });
+        createAsset(Asset.AssetType.Text, "MyTasks", "wid", "[[ \"name\" : \"My Task\", \"displayName\" : \"My Task\", "
+                + "\"icon\" : \"/global/myicon.png\" ], [ \"name\" : \"Other\", \"icon\" : \"/global/missing.png\" ]]");
+    }
+
+    @After
+    public void teardown() {
+        File repo = new File(REPOSITORY_ROOT);
+        if(repo.exists()) {
+            deleteFiles(repo);
+        }
+        repo.delete();
+    }
+
+    private void createAsset(Asset.AssetType assetType, String name, String type, Object content) {
+        AssetBuilder builder = AssetBuilderFactory.getAssetBuilder(assetType);
+        builder.content(content)
+                .type(type)
+                .name(name)
+                .location("/global");
+        repository.createAsset(builder.getAsset());
+    }
+
+    private Map<String, WorkDefinitionImpl> getWorkDefinitions(WorkDefinitionRegistry registry) {
+        return registry.getWorkDefinitions(repository.listAssets("/global", new FilterByExtension("wid")), diagramProfile);
+    }
+
+    @Test
+    public void testDefinitionsAreEvaluatedOnce() {
+        WorkDefinitionRegistry registry = new WorkDefinitionRegistry();
+        Map<String, WorkDefinitionImpl> first = getWorkDefinitions(registry);
+        assertEquals(2, first.size());
+        WorkDefinitionImpl myTask = first.get("MyTask");
+        assertEquals("/global/myicon.png", myTask.getIcon());
+        assertEquals(JbpmPreprocessingUnit.DEFAULT_CATEGORY_NAME, myTask.getCategory());
+        assertTrue(myTask.getIconEncoded().startsWith("data%3Aimage%2Fpng%3Bbase64%2C"));
+        assertEquals("/global/defaultservicenodeicon.png", first.get("Other").getIcon());
+
+        Map<String, WorkDefinitionImpl> second = getWorkDefinitions(registry);
+        assertSame(myTask, second.get("MyTask"));
+        assertSame(first.get("Other"), second.get("Other"));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        WorkDefinitionRegistry registry = new WorkDefinitionRegistry();
+        WorkDefinitionImpl myTask = getWorkDefinitions(registry).get("MyTask");
+
+        repository.deleteAssetFromPath("/global/MyTasks.wid");
+        createAsset(Asset.AssetType.Text, "MyTasks", "wid", "[[ \"name\" : \"My Task\", \"displayName\" : \"Changed\", "
+                + "\"icon\" : \"/global/myicon.png\" ]]");
+        registry.invalidate(diagramProfile);
+
+        Map<String, WorkDefinitionImpl> workDefinitions = getWorkDefinitions(registry);
+        assertEquals(1, workDefinitions.size());
+        assertNotSame(myTask, workDefinitions.get("MyTask"));
+        assertEquals("Changed", workDefinitions.get("MyTask").getDisplayName());
+        assertEquals("data:image/png;base64,BAUG", registry.getIconData("/global/myicon.png", diagramProfile));
+    }
+}
@@ -0,0 +1,157 @@
+package org.jbpm.designer.web.rendering;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.batik.transcoder.TranscoderException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SvgRenderingServiceTest {
+
+    private static final String SVG =
+        "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"20\" height=\"20\">" +
+        "<rect width=\"20\" height=\"20\" fill=\"#ff0000\"/></svg>";
+
+    private static final String BLOCK = "block";
+    private static final byte[] RENDERED = new byte[] { 1, 2, 3 };
+
+    /**
+     * Renders waiting for the latch on the BLOCK document, the others return at once.
+     */
+    private static volatile CountDownLatch release = new CountDownLatch(1);
+
+    private SvgRenderingService service;
+
+    @After
+    public void teardown() {
+        release.countDown();
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    private static class BlockingService extends SvgRenderingService {
+        BlockingService(int threads, int queueCapacity, long timeoutMillis) {
+            super(threads, queueCapacity, timeoutMillis);
+        }
+
+        @Override
+        byte[] transcode(String svg, Format format) throws TranscoderException {
+            if (BLOCK.equals(svg)) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new TranscoderException("interrupted");
+                }
+            }
+            return RENDERED;
+        }
+    }
+
+    private Thread renderInBackground() {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    service.render(BLOCK, SvgRenderingService.Format.PNG);
+                } catch (Exception e) {
+                    // the outcome is checked through the metrics
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void waitFor(String metric, int value) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (service.getMetrics().getInt(metric) != value) {
+            if (System.currentTimeMillis() > deadline) {
+                fail(metric + " did not reach " + value + ": " + service.getMetrics());
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testRender() throws Exception {
+        service = new SvgRenderingService(1, 2, 60000);
+        byte[] png = service.render(SVG, SvgRenderingService.Format.PNG);
+        assertTrue(png.length > 8);
+        assertEquals((byte) 0x89, png[0]);
+        assertEquals('P', png[1]);
+        JSONObject metrics = service.getMetrics();
+        assertEquals(1, metrics.getInt("threads"));
+        assertEquals(2, metrics.getInt("queueCapacity"));
+        assertEquals(1, metrics.getJSONObject("formats").getJSONObject("png").getInt("count"));
+    }
+
+    @Test
+    public void testQueueFullIsRejected() throws Exception {
+        release = new CountDownLatch(1);
+        service = new BlockingService(1, 1, 10000);
+        Thread running = renderInBackground();
+        waitFor("active", 1);
+        Thread queued = renderInBackground();
+        waitFor("queued", 1);
+
+        try {
+            service.render(SVG, SvgRenderingService.Format.PDF);
+            fail("the queue is full");
+        } catch (RenderingRejectedException e) {
+            // expected
+        }
+        assertEquals(1, service.getMetrics().getInt("rejected"));
+
+        release.countDown();
+        running.join(5000);
+        queued.join(5000);
+        assertArrayEquals(RENDERED, service.render(SVG, SvgRenderingService.Format.PDF));
+        assertEquals(2, service.getMetrics().getJSONObject("formats").getJSONObject("png").getInt("count"));
+    }
+
+    @Test
+    public void testTimeoutCancelsRender() throws Exception {
+        release = new CountDownLatch(1);
+        service = new BlockingService(1, 4, 200);
+        long start = System.nanoTime();
+        try {
+            service.render(BLOCK, SvgRenderingService.Format.PNG);
+            fail("the render never completes");
+        } catch (RenderingRejectedException e) {
+            // expected
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        assertEquals(1, service.getMetrics().getInt("timedOut"));
+
+        // the timed out render was interrupted, so the only worker is free again
+        waitFor("active", 0);
+        assertArrayEquals(RENDERED, service.render(SVG, SvgRenderingService.Format.PNG));
+        assertEquals(1, service.getMetrics().getJSONObject("formats").getJSONObject("png").getInt("failures"));
+    }
+
+    @Test
+    public void testShutdownInstance() throws Exception {
+        SvgRenderingService instance = SvgRenderingService.getInstance();
+        SvgRenderingService.shutdownInstance();
+        SvgRenderingService restarted = SvgRenderingService.getInstance();
+        try {
+            assertNotSame(instance, restarted);
+            try {
+                instance.render(SVG, SvgRenderingService.Format.PNG);
+                fail("the service was shut down");
+            } catch (RenderingRejectedException e) {
+                // expected
+            }
+        } finally {
+            SvgRenderingService.shutdownInstance();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package org.jbpm.designer.web.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.jbpm.process.workitem.WorkDefinitionImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ServiceRepositoryMirrorTest {
+
+    private File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = new File(System.getProperty("java.io.tmpdir"), "designer-mirror-test");
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+    }
+
+    @After
+    public void teardown() throws IOException {
+        System.clearProperty(ServiceRepositoryMirror.TTL);
+        System.clearProperty(ServiceRepositoryMirror.ALLOW_FILE);
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private File createServiceRepository() throws IOException {
+        File repository = new File(dir, "repository");
+        FileUtils.writeStringToFile(new File(repository, "index.conf"), "Mail\n");
+        FileUtils.writeStringToFile(new File(repository, "Mail/Mail.wid"),
+                "[[ \"name\" : \"Mail\", \"displayName\" : \"Mail\", \"category\" : \"Notifications\", \"icon\" : \"mail.png\" ]]");
+        FileUtils.writeByteArrayToFile(new File(repository, "Mail/mail.png"), new byte[] { 1, 2, 3 });
+        return repository;
+    }
+
+    @Test
+    public void testFileRepository() throws Exception {
+        System.setProperty(ServiceRepositoryMirror.ALLOW_FILE, "true");
+        String repoURL = createServiceRepository().toURI().toString().replaceAll("/$", "");
+        ServiceRepositoryMirror mirror = new ServiceRepositoryMirror(new File(dir, "mirror"));
+
+        Map<String, WorkDefinitionImpl> definitions = mirror.getWorkDefinitions(repoURL);
+        assertEquals(1, definitions.size());
+        assertEquals("Notifications", definitions.get("Mail").getCategory());
+        // nothing changed, nothing parsed again
+        assertSame(definitions, mirror.getWorkDefinitions(repoURL));
+
+        Map<String, byte[]> contents = mirror.getContents(repoURL, Arrays.asList("Mail/mail.png", "Mail/missing.png"));
+        assertEquals(3, contents.get("Mail/mail.png").length);
+        assertNull(contents.get("Mail/missing.png"));
+    }
+
+    @Test
+    public void testRevalidation() throws Exception {
+        final File repository = createServiceRepository();
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger notModified = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                File file = new File(repository, exchange.getRequestURI().getPath());
+                if (!file.isFile()) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else if ("etag".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModified.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    byte[] content = FileUtils.readFileToByteArray(file);
+                    exchange.getResponseHeaders().add("ETag", "etag");
+                    exchange.sendResponseHeaders(200, content.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(content);
+                    out.close();
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        String repoURL = "http://localhost:" + server.getAddress().getPort();
+        ServiceRepositoryMirror mirror = new ServiceRepositoryMirror(new File(dir, "mirror"));
+        try {
+            Map<String, WorkDefinitionImpl> definitions = mirror.getWorkDefinitions(repoURL);
+            assertNotNull(definitions.get("Mail"));
+            int fetched = requests.get();
+
+            // within the time to live the copies are used as they are
+            assertSame(definitions, mirror.getWorkDefinitions(repoURL));
+            assertEquals(fetched, requests.get());
+
+            // then they are revalidated
+            System.setProperty(ServiceRepositoryMirror.TTL, "0");
+            assertSame(definitions, mirror.getWorkDefinitions(repoURL));
+            assertEquals(2, notModified.get());
+        } finally {
+            server.stop(0);
+        }
+
+        // the service repository is gone, the copies are still there
+        assertSame(mirror.getWorkDefinitions(repoURL), mirror.getWorkDefinitions(repoURL));
+        assertEquals("Mail", mirror.getWorkDefinitions(repoURL).get("Mail").getName());
+    }
+
+    @Test
+    public void testFileRepositoryNotAllowed() throws Exception {
+        String repoURL = createServiceRepository().toURI().toString().replaceAll("/$", "");
+        assertFalse(ServiceRepositoryMirror.isSupported(repoURL));
+        assertTrue(new ServiceRepositoryMirror(new File(dir, "mirror")).getWorkDefinitions(repoURL).isEmpty());
+        assertTrue(ServiceRepositoryMirror.isSupported("https://localhost/repository"));
+        assertFalse(ServiceRepositoryMirror.isSupported("ftp://localhost/repository"));
+    }
+
+    @Test
+    public void testPathsOutsideRepository() throws Exception {
+        System.setProperty(ServiceRepositoryMirror.ALLOW_FILE, "true");
+        File repository = createServiceRepository();
+        FileUtils.writeStringToFile(new File(dir, "secret.png"), "secret");
+        String repoURL = repository.toURI().toString().replaceAll("/$", "");
+        ServiceRepositoryMirror mirror = new ServiceRepositoryMirror(new File(dir, "mirror"));
+
+        assertFalse(ServiceRepositoryMirror.isSafePath("../secret.png"));
+        assertFalse(ServiceRepositoryMirror.isSafePath("/etc/passwd"));
+        assertFalse(ServiceRepositoryMirror.isSafePath("Mail\\..\\secret.png"));
+        assertTrue(ServiceRepositoryMirror.isSafePath("Mail/mail.png"));
+        Map<String, byte[]> contents = mirror.getContents(repoURL, Arrays.asList("Mail/../../secret.png", "Mail/mail.png"));
+        assertNull(contents.get("Mail/../../secret.png"));
+        assertEquals(3, contents.get("Mail/mail.png").length);
+
+        // an index with such an entry is not used at all
+        FileUtils.writeStringToFile(new File(repository, "index.conf"), "Mail\n../other\n");
+        assertTrue(mirror.getWorkDefinitions(repoURL).isEmpty());
+    }
+
+    @Test
+    public void testRemoveStaleDirectories() throws Exception {
+        File root = new File(dir, "mirror");
+        File stale = new File(root, "stale");
+        File used = new File(root, "used");
+        FileUtils.writeStringToFile(new File(stale, "index.conf"), "Mail\n");
+        FileUtils.writeStringToFile(new File(used, "index.conf"), "Mail\n");
+        stale.setLastModified(System.currentTimeMillis() - 31 * 24 * 60 * 60 * 1000L);
+
+        ServiceRepositoryMirror mirror = new ServiceRepositoryMirror(root);
+        mirror.removeStaleDirectories();
+        assertFalse(stale.exists());
+        assertTrue(used.isDirectory());
+
+        // not again within a day
+        used.setLastModified(System.currentTimeMillis() - 31 * 24 * 60 * 60 * 1000L);
+        mirror.removeStaleDirectories();
+        assertTrue(used.isDirectory());
+    }
+}
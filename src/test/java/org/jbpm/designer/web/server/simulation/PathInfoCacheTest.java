@@ -0,0 +1,136 @@
+package org.jbpm.designer.web.server.simulation;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PathInfoCacheTest {
+
+    @Test
+    public void testHashIgnoresOrder() {
+        assertEquals(PathInfoCache.hash(Arrays.asList("p/StartEvent:a", "p/SequenceFlow:f:a->b")),
+                PathInfoCache.hash(Arrays.asList("p/SequenceFlow:f:a->b", "p/StartEvent:a")));
+        assertFalse(PathInfoCache.hash(Arrays.asList("p/SequenceFlow:f:a->b")).equals(
+                PathInfoCache.hash(Arrays.asList("p/SequenceFlow:f:b->a"))));
+    }
+
+    @Test
+    public void testLimit() throws Exception {
+        PathInfoCache cache = new PathInfoCache(10, 1, 1, 1000, 2);
+        JSONObject paths = new JSONObject().put("p1", "a|b").put("p2", "a|c");
+        JSONObject result = new JSONObject().put("paths", paths);
+        assertSame(result, cache.limit(result));
+
+        paths.put("p3", "a|d");
+        JSONObject limited = cache.limit(result);
+        assertEquals(2, limited.getJSONObject("paths").length());
+        assertTrue(limited.getBoolean("partial"));
+    }
+
+    private static Callable<JSONObject> blocking(final CountDownLatch started, final CountDownLatch interrupted) {
+        return new Callable<JSONObject>() {
+            public JSONObject call() throws Exception {
+                started.countDown();
+                try {
+                    Thread.sleep(60000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return new JSONObject().put("paths", new JSONObject());
+            }
+        };
+    }
+
+    @Test
+    public void testTimeoutCancelsEnumeration() throws Exception {
+        PathInfoCache cache = new PathInfoCache(10, 1, 1, 100, 2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        JSONObject result = cache.getPaths(Arrays.asList("p"), blocking(started, interrupted));
+        assertTrue(result.getBoolean("partial"));
+        assertEquals(0, result.getJSONObject("paths").length());
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+
+        // the cancelled enumeration is forgotten, the next call enumerates again
+        final AtomicInteger calls = new AtomicInteger();
+        result = cache.getPaths(Arrays.asList("p"), new Callable<JSONObject>() {
+            public JSONObject call() throws Exception {
+                calls.incrementAndGet();
+                return new JSONObject().put("paths", new JSONObject().put("p1", "a|b"));
+            }
+        });
+        assertEquals(1, calls.get());
+        assertFalse(result.has("partial"));
+        assertEquals(1, result.getJSONObject("paths").length());
+    }
+
+    /**
+     * Like the path finder, does not stop when interrupted.
+     */
+    private static Callable<JSONObject> stuck(final CountDownLatch started, final CountDownLatch release) {
+        return new Callable<JSONObject>() {
+            public JSONObject call() throws Exception {
+                started.countDown();
+                while (true) {
+                    try {
+                        release.await();
+                        return new JSONObject().put("paths", new JSONObject());
+                    } catch (InterruptedException e) {
+                        // carries on
+                    }
+                }
+            }
+        };
+    }
+
+    private static Thread getPathsInBackground(final PathInfoCache cache, final String model,
+            final Callable<JSONObject> finder) {
+        Thread thread = new Thread() {
+            public void run() {
+                cache.getPaths(Arrays.asList(model), finder);
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void testQueueFull() throws Exception {
+        PathInfoCache cache = new PathInfoCache(10, 1, 1, 5000, 2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            // occupies the worker, then the queue
+            getPathsInBackground(cache, "p1", stuck(started, release));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            getPathsInBackground(cache, "p2", stuck(new CountDownLatch(1), release));
+            Thread.sleep(200);
+
+            final AtomicInteger calls = new AtomicInteger();
+            long start = System.currentTimeMillis();
+            JSONObject result = cache.getPaths(Arrays.asList("p3"), new Callable<JSONObject>() {
+                public JSONObject call() throws Exception {
+                    calls.incrementAndGet();
+                    return new JSONObject().put("paths", new JSONObject());
+                }
+            });
+            // refused at once rather than after the timeout
+            assertTrue(System.currentTimeMillis() - start < 5000);
+            assertTrue(result.getBoolean("partial"));
+            assertEquals(0, calls.get());
+        } finally {
+            release.countDown();
+        }
+    }
+}
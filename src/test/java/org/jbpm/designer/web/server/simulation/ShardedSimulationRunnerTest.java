@@ -0,0 +1,89 @@
+package org.jbpm.designer.web.server.simulation;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.bpmn2.Definitions;
+import org.jboss.drools.impl.DroolsFactoryImpl;
+import org.jbpm.designer.bpmn2.impl.Bpmn2JsonMarshaller;
+import org.jbpm.designer.web.profile.impl.JbpmProfileImpl;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedSimulationRunnerTest {
+
+    @Test
+    public void testSplit() {
+        assertArrayEquals(new int[] { 4, 3, 3 }, ShardedSimulationRunner.split(10, 3));
+        assertArrayEquals(new int[] { 1, 1 }, ShardedSimulationRunner.split(2, 8));
+        assertArrayEquals(new int[] { 5 }, ShardedSimulationRunner.split(5, 0));
+    }
+
+    @Test
+    public void testMergeStatistics() {
+        // the minimum, maximum and instance weighted average of the shard measures
+        SimulationAggregate.Statistic statistic = new SimulationAggregate.Statistic();
+        statistic.merge(3, 2, 4, 6);
+        statistic.merge(0, 0, 0, 0);
+        statistic.merge(1, 1, 1, 1);
+        assertEquals(1d, statistic.getMin(), 0);
+        assertEquals(6d, statistic.getMax(), 0);
+        assertEquals(13d / 4, statistic.getAvg(), 1e-9);
+    }
+
+    @Test
+    public void testMergePaths() {
+        SimulationAggregate aggregate = new SimulationAggregate(SimulationAggregate.Type.PROCESS, "p", "p");
+        Map<String, Integer> paths = new HashMap<String, Integer>();
+        paths.put("a", 2);
+        paths.put("b", 1);
+        aggregate.mergePaths(paths);
+        aggregate.mergePaths(paths);
+        assertEquals(Integer.valueOf(4), aggregate.getPathNumberOfInstances().get("a"));
+        assertEquals(Integer.valueOf(2), aggregate.getPathNumberOfInstances().get("b"));
+    }
+
+    private static Map<String, Long> getCounts(ShardedSimulationRunner.Result result) {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (SimulationAggregate aggregate : result.getAggregates()) {
+            counts.put(aggregate.getType() + ":" + aggregate.getId(), aggregate.getNumberOfInstances());
+        }
+        return counts;
+    }
+
+    @Test
+    public void testShardedCountsMatchSingleRun() throws Exception {
+        DroolsFactoryImpl.init();
+        JbpmProfileImpl profile = new JbpmProfileImpl();
+        System.setProperty(ShardedSimulationRunner.MAX_SHARDS, "2");
+        try {
+            // models without gateways take the same path in every instance
+            for (SimulationBenchmarkModels.Model model : new SimulationBenchmarkModels.Model[] {
+                    SimulationBenchmarkModels.Model.LINEAR, SimulationBenchmarkModels.Model.HUMANTASK }) {
+                Definitions def = SimulationBenchmarkModels.create(model, 3);
+                Bpmn2JsonMarshaller marshaller = new Bpmn2JsonMarshaller();
+                marshaller.setProfile(profile);
+                String processXML = profile.createMarshaller().parseModel(marshaller.marshall(def, ""), "");
+                String processId = "benchmark." + model.name().toLowerCase();
+
+                ShardedSimulationRunner.Result single = new ShardedSimulationRunner().run(processId, processXML, 10, 1000, 1);
+                ShardedSimulationRunner.Result sharded = new ShardedSimulationRunner().run(processId, processXML, 10, 1000, 2);
+
+                assertEquals(1, single.getShards());
+                assertEquals(2, sharded.getShards());
+                Map<String, Long> counts = getCounts(single);
+                assertEquals(Long.valueOf(10), counts.get(SimulationAggregate.Type.PROCESS + ":" + processId));
+                // the process and its tasks
+                assertTrue(counts.size() > 3);
+                assertEquals(counts, getCounts(sharded));
+                assertEquals(single.getEvents().size(), sharded.getEvents().size());
+            }
+        } finally {
+            System.clearProperty(ShardedSimulationRunner.MAX_SHARDS);
+            ShardedSimulationRunner.shutdown();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package org.jbpm.designer.web.server.simulation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.bpmn2.Definitions;
+import org.eclipse.bpmn2.Process;
+import org.eclipse.bpmn2.RootElement;
+import org.jboss.drools.impl.DroolsFactoryImpl;
+import org.jbpm.designer.bpmn2.impl.Bpmn2JsonMarshaller;
+import org.jbpm.designer.bpmn2.impl.Bpmn2JsonUnmarshaller;
+import org.jbpm.designer.web.profile.impl.JbpmProfileImpl;
+import org.joda.time.DateTime;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Runs the simulation pipeline of the simulation servlet without a servlet container, over generated
+ * models and instance counts, and reports the instances simulated per second and the time and memory
+ * allocated by each phase.
+ * It is part of the test sources, run it with
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.jbpm.designer.web.server.simulation.SimulationBenchmark \
+ *     -Dexec.args="[--models linear,xor,and,humantask] [--size n] [--instances 100,1000] [--warmup n]
+ *     [--iterations n] [--shards n] [--baseline report.json] [--tolerance 0.1]"
+ * </pre>
+ * Prints the JSON report, exits with status 1 when a run failed or when the instances per second of a run
+ * dropped below the baseline report by more than the tolerance.
+ */
+public class SimulationBenchmark {
+
+    static final String[] PHASES = { "unmarshal", "marshal", "simulate", "render" };
+
+    private final JbpmProfileImpl profile = new JbpmProfileImpl();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final int warmup;
+    private final int iterations;
+    private final int shards;
+
+    public SimulationBenchmark(int warmup, int iterations, int shards) {
+        this.warmup = warmup;
+        this.iterations = iterations;
+        this.shards = shards;
+        DroolsFactoryImpl.init();
+    }
+
+    /**
+     * @return the result of the runs of the model with the number of instances
+     */
+    public JSONObject run(SimulationBenchmarkModels.Model model, int size, int numInstances) throws Exception {
+        Definitions def = SimulationBenchmarkModels.create(model, size);
+        Bpmn2JsonMarshaller marshaller = new Bpmn2JsonMarshaller();
+        marshaller.setProfile(profile);
+        String json = marshaller.marshall(def, "");
+
+        for (int i = 0; i < warmup; i++) {
+            runOnce(json, numInstances, new long[PHASES.length], new long[PHASES.length]);
+        }
+        long[] time = new long[PHASES.length];
+        long[] allocated = new long[PHASES.length];
+        for (int i = 0; i < iterations; i++) {
+            runOnce(json, numInstances, time, allocated);
+        }
+
+        long total = 0;
+        JSONObject phases = new JSONObject();
+        for (int i = 0; i < PHASES.length; i++) {
+            total += time[i];
+            JSONObject phase = new JSONObject();
+            phase.put("ms", time[i] / 1000000d / iterations);
+            phase.put("bytes", allocated[i] < 0 ? -1 : allocated[i] / iterations);
+            phases.put(PHASES[i], phase);
+        }
+        JSONObject result = new JSONObject();
+        result.put("model", model.name().toLowerCase());
+        result.put("instances", numInstances);
+        result.put("instancesPerSecond", (double) numInstances * iterations * 1000000000d / Math.max(total, 1));
+        result.put("phases", phases);
+        return result;
+    }
+
+    /**
+     * Runs the phases once, as the servlet does, adding their time and allocated bytes.
+     */
+    private void runOnce(String json, int numInstances, long[] time, long[] allocated) throws Exception {
+        long start = System.nanoTime();
+        long bytes = allocatedBytes();
+        Definitions def = (Definitions) new Bpmn2JsonUnmarshaller().unmarshall(json, "").getContents().get(0);
+        start = record(0, start, bytes, time, allocated);
+        bytes = allocatedBytes();
+
+        String processXML = profile.createMarshaller().parseModel(json, "");
+        start = record(1, start, bytes, time, allocated);
+        bytes = allocatedBytes();
+
+        // find the process id
+        String processId = "";
+        for (RootElement root : def.getRootElements()) {
+            if (root instanceof Process) {
+                processId = ((Process) root).getId();
+            }
+        }
+        ShardedSimulationRunner.Result result = new ShardedSimulationRunner().run(processId, processXML,
+                numInstances, 1000, shards);
+        start = record(2, start, bytes, time, allocated);
+        bytes = allocatedBytes();
+
+        new SimulationResultWriter(result, new DateTime(), "seconds", numInstances,
+                SimulationResultWriter.getDefaultMaxPoints()).write(new Writer() {
+            public void write(char[] cbuf, int off, int len) {
+            }
+
+            public void flush() {
+            }
+
+            public void close() {
+            }
+        });
+        record(3, start, bytes, time, allocated);
+    }
+
+    private long record(int phase, long start, long bytes, long[] time, long[] allocated) {
+        long end = System.nanoTime();
+        time[phase] += end - start;
+        long after = allocatedBytes();
+        allocated[phase] = bytes < 0 || after < 0 || allocated[phase] < 0 ? -1 : allocated[phase] + after - bytes;
+        return System.nanoTime();
+    }
+
+    /**
+     * @return the bytes allocated by the current thread, or -1 when the JVM does not tell; simulation
+     *         shards running on the pool are not counted
+     */
+    private long allocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+            if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+                return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the descriptions of the results whose instances per second dropped below the baseline by more
+     *         than the tolerance
+     */
+    static List<String> findRegressions(JSONArray results, JSONArray baseline, double tolerance) throws JSONException {
+        List<String> regressions = new ArrayList<String>();
+        for (int i = 0; i < results.length(); i++) {
+            JSONObject result = results.getJSONObject(i);
+            if (!result.has("instancesPerSecond")) {
+                continue;
+            }
+            for (int j = 0; j < baseline.length(); j++) {
+                JSONObject base = baseline.getJSONObject(j);
+                if (base.has("instancesPerSecond") && base.getString("model").equals(result.getString("model"))
+                        && base.getInt("instances") == result.getInt("instances")) {
+                    double expected = base.getDouble("instancesPerSecond");
+                    double actual = result.getDouble("instancesPerSecond");
+                    if (actual < expected * (1 - tolerance)) {
+                        regressions.add(result.getString("model") + "/" + result.getInt("instances") + ": "
+                                + Math.round(actual) + " instances/s, baseline " + Math.round(expected));
+                    }
+                }
+            }
+        }
+        return regressions;
+    }
+
+    private static JSONArray readResults(String file) throws IOException, JSONException {
+        InputStream in = new FileInputStream(new File(file));
+        try {
+            return new JSONObject(IOUtils.toString(in, "UTF-8")).getJSONArray("results");
+        } finally {
+            in.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<SimulationBenchmarkModels.Model> models = new ArrayList<SimulationBenchmarkModels.Model>();
+        List<Integer> instances = new ArrayList<Integer>();
+        int size = 10;
+        int warmup = 3;
+        int iterations = 5;
+        int shards = 1;
+        String baseline = null;
+        double tolerance = 0.1;
+        for (int i = 0; i < args.length; i++) {
+            if ("--models".equals(args[i]) && i + 1 < args.length) {
+                for (String model : args[++i].split(",")) {
+                    models.add(SimulationBenchmarkModels.Model.valueOf(model.trim().toUpperCase()));
+                }
+            } else if ("--instances".equals(args[i]) && i + 1 < args.length) {
+                for (String count : args[++i].split(",")) {
+                    instances.add(Integer.valueOf(count.trim()));
+                }
+            } else if ("--size".equals(args[i]) && i + 1 < args.length) {
+                size = Integer.parseInt(args[++i]);
+            } else if ("--warmup".equals(args[i]) && i + 1 < args.length) {
+                warmup = Integer.parseInt(args[++i]);
+            } else if ("--iterations".equals(args[i]) && i + 1 < args.length) {
+                iterations = Math.max(1, Integer.parseInt(args[++i]));
+            } else if ("--shards".equals(args[i]) && i + 1 < args.length) {
+                shards = Integer.parseInt(args[++i]);
+            } else if ("--baseline".equals(args[i]) && i + 1 < args.length) {
+                baseline = args[++i];
+            } else if ("--tolerance".equals(args[i]) && i + 1 < args.length) {
+                tolerance = Double.parseDouble(args[++i]);
+            } else {
+                System.err.println("Usage: SimulationBenchmark [--models linear,xor,and,humantask] [--size n] [--instances 100,1000]"
+                        + " [--warmup n] [--iterations n] [--shards n] [--baseline report.json] [--tolerance 0.1]");
+                System.exit(2);
+            }
+        }
+        if (models.isEmpty()) {
+            for (SimulationBenchmarkModels.Model model : SimulationBenchmarkModels.Model.values()) {
+                models.add(model);
+            }
+        }
+        if (instances.isEmpty()) {
+            instances.add(100);
+            instances.add(1000);
+        }
+
+        SimulationBenchmark benchmark = new SimulationBenchmark(warmup, iterations, shards);
+        JSONArray results = new JSONArray();
+        boolean failed = false;
+        for (SimulationBenchmarkModels.Model model : models) {
+            for (Integer numInstances : instances) {
+                try {
+                    JSONObject result = benchmark.run(model, size, numInstances);
+                    System.out.println(result.getString("model") + "/" + numInstances + ": "
+                            + Math.round(result.getDouble("instancesPerSecond")) + " instances/s");
+                    results.put(result);
+                } catch (Exception e) {
+                    System.out.println(model.name().toLowerCase() + "/" + numInstances + ": FAILED " + e);
+                    results.put(new JSONObject().put("model", model.name().toLowerCase())
+                            .put("instances", numInstances.intValue()).put("error", String.valueOf(e)));
+                    failed = true;
+                }
+            }
+        }
+
+        JSONObject report = new JSONObject();
+        report.put("size", size);
+        report.put("warmup", warmup);
+        report.put("iterations", iterations);
+        report.put("shards", shards);
+        report.put("results", results);
+        if (baseline != null) {
+            List<String> regressions = findRegressions(results, readResults(baseline), tolerance);
+            report.put("regressions", new JSONArray(regressions));
+            failed |= !regressions.isEmpty();
+        }
+        System.out.println(report.toString(2));
+        System.exit(failed ? 1 : 0);
+    }
+}
@@ -0,0 +1,289 @@
+package org.jbpm.designer.web.server.simulation;
+
+import java.math.BigDecimal;
+
+import org.eclipse.bpmn2.Bpmn2Factory;
+import org.eclipse.bpmn2.Definitions;
+import org.eclipse.bpmn2.EndEvent;
+import org.eclipse.bpmn2.ExclusiveGateway;
+import org.eclipse.bpmn2.ExtensionAttributeValue;
+import org.eclipse.bpmn2.FlowNode;
+import org.eclipse.bpmn2.FormalExpression;
+import org.eclipse.bpmn2.Gateway;
+import org.eclipse.bpmn2.GatewayDirection;
+import org.eclipse.bpmn2.Process;
+import org.eclipse.bpmn2.Relationship;
+import org.eclipse.bpmn2.SequenceFlow;
+import org.eclipse.bpmn2.Task;
+import org.eclipse.bpmn2.UserTask;
+import org.eclipse.bpmn2.di.BPMNDiagram;
+import org.eclipse.bpmn2.di.BPMNEdge;
+import org.eclipse.bpmn2.di.BPMNPlane;
+import org.eclipse.bpmn2.di.BPMNShape;
+import org.eclipse.bpmn2.di.BpmnDiFactory;
+import org.eclipse.dd.dc.Bounds;
+import org.eclipse.dd.dc.DcFactory;
+import org.eclipse.dd.dc.Point;
+import org.eclipse.emf.ecore.EStructuralFeature.Internal;
+import org.eclipse.emf.ecore.impl.EStructuralFeatureImpl.SimpleFeatureMapEntry;
+import org.eclipse.emf.ecore.util.FeatureMap;
+import org.jboss.drools.ControlParameters;
+import org.jboss.drools.CostParameters;
+import org.jboss.drools.DecimalParameterType;
+import org.jboss.drools.DroolsFactory;
+import org.jboss.drools.DroolsPackage;
+import org.jboss.drools.ElementParametersType;
+import org.jboss.drools.FloatingParameterType;
+import org.jboss.drools.Parameter;
+import org.jboss.drools.ProcessAnalysisDataType;
+import org.jboss.drools.ResourceParameters;
+import org.jboss.drools.Scenario;
+import org.jboss.drools.ScenarioParametersType;
+import org.jboss.drools.TimeParameters;
+import org.jboss.drools.TimeUnit;
+import org.jboss.drools.UniformDistributionType;
+import org.jbpm.designer.bpmn2.impl.Bpmn2JsonUnmarshaller;
+
+/**
+ * Builds the processes {@link SimulationBenchmark} simulates, with diagram and
+ * simulation parameters, the way they would be stored by the editor.
+ */
+public class SimulationBenchmarkModels {
+
+    public enum Model {
+        /** a chain of tasks */
+        LINEAR,
+        /** exclusive splits with two weighted branches each */
+        XOR,
+        /** parallel splits with three branches each */
+        AND,
+        /** a chain of user tasks sharing a limited staff */
+        HUMANTASK
+    }
+
+    private final Definitions def;
+    private final Process process;
+    private final BPMNPlane plane;
+    private final Scenario scenario;
+    private int ids;
+    private float x = 50;
+
+    private SimulationBenchmarkModels(String processId) {
+        def = Bpmn2Factory.eINSTANCE.createDefinitions();
+        def.setId("Definition");
+        def.setTargetNamespace("http://www.omg.org/bpmn20");
+        def.setExpressionLanguage("http://www.mvel.org/2.0");
+        def.setTypeLanguage("http://www.java.com/javaTypes");
+
+        process = Bpmn2Factory.eINSTANCE.createProcess();
+        process.setId(processId);
+        process.setName(processId);
+        process.setIsExecutable(true);
+        def.getRootElements().add(process);
+
+        BPMNDiagram diagram = BpmnDiFactory.eINSTANCE.createBPMNDiagram();
+        plane = BpmnDiFactory.eINSTANCE.createBPMNPlane();
+        plane.setBpmnElement(process);
+        diagram.setPlane(plane);
+        def.getDiagrams().add(diagram);
+
+        scenario = DroolsFactory.eINSTANCE.createScenario();
+        scenario.setId("default");
+        scenario.setName("Simulationscenario");
+        ScenarioParametersType scenarioParameters = DroolsFactory.eINSTANCE.createScenarioParametersType();
+        scenarioParameters.setBaseTimeUnit(TimeUnit.getByName("min"));
+        scenario.setScenarioParameters(scenarioParameters);
+        ProcessAnalysisDataType processAnalysisData = DroolsFactory.eINSTANCE.createProcessAnalysisDataType();
+        processAnalysisData.getScenario().add(scenario);
+        Relationship relationship = Bpmn2Factory.eINSTANCE.createRelationship();
+        relationship.getSources().add(def);
+        relationship.getTargets().add(def);
+        relationship.setType(Bpmn2JsonUnmarshaller.defaultRelationshipType);
+        ExtensionAttributeValue extensionElement = Bpmn2Factory.eINSTANCE.createExtensionAttributeValue();
+        relationship.getExtensionValues().add(extensionElement);
+        FeatureMap.Entry extensionElementEntry = new SimpleFeatureMapEntry(
+                (Internal) DroolsPackage.Literals.DOCUMENT_ROOT__PROCESS_ANALYSIS_DATA, processAnalysisData);
+        extensionElement.getValue().add(extensionElementEntry);
+        def.getRelationships().add(relationship);
+    }
+
+    /**
+     * @param model
+     *            the shape of the process
+     * @param size
+     *            the number of tasks, or of splits for the gateway models
+     * @return the definitions of the process
+     */
+    public static Definitions create(Model model, int size) {
+        SimulationBenchmarkModels builder = new SimulationBenchmarkModels("benchmark." + model.name().toLowerCase());
+        FlowNode last = builder.add(Bpmn2Factory.eINSTANCE.createStartEvent(), "Start", 30, 30);
+        for (int i = 0; i < size; i++) {
+            switch (model) {
+            case LINEAR:
+                last = builder.connect(last, builder.task("Task " + i), null);
+                break;
+            case HUMANTASK:
+                last = builder.connect(last, builder.userTask("User Task " + i), null);
+                break;
+            case XOR:
+                last = builder.split(last, Bpmn2Factory.eINSTANCE.createExclusiveGateway(),
+                        Bpmn2Factory.eINSTANCE.createExclusiveGateway(), new double[] { 70, 30 }, i);
+                break;
+            case AND:
+                last = builder.split(last, Bpmn2Factory.eINSTANCE.createParallelGateway(),
+                        Bpmn2Factory.eINSTANCE.createParallelGateway(), new double[3], i);
+                break;
+            }
+        }
+        EndEvent end = Bpmn2Factory.eINSTANCE.createEndEvent();
+        builder.connect(last, builder.add(end, "End", 28, 28), null);
+        return builder.def;
+    }
+
+    private FlowNode split(FlowNode last, Gateway split, Gateway join, double[] probabilities, int index) {
+        split.setGatewayDirection(GatewayDirection.DIVERGING);
+        join.setGatewayDirection(GatewayDirection.CONVERGING);
+        add(split, "Split " + index, 40, 40);
+        connect(last, split, null);
+        float branchX = x;
+        float nextX = x;
+        for (int i = 0; i < probabilities.length; i++) {
+            x = branchX;
+            FlowNode task = task("Task " + index + "." + i);
+            shape(task).getBounds().setY(50 + i * 120);
+            connect(split, task, split instanceof ExclusiveGateway ? probabilities[i] : null);
+            nextX = Math.max(nextX, x);
+        }
+        x = nextX;
+        add(join, "Join " + index, 40, 40);
+        for (int i = 0; i < probabilities.length; i++) {
+            connect(split.getOutgoing().get(i).getTargetRef(), join, null);
+        }
+        return join;
+    }
+
+    private FlowNode task(String name) {
+        Task task = Bpmn2Factory.eINSTANCE.createTask();
+        add(task, name, 100, 80);
+        TimeParameters timeParams = DroolsFactory.eINSTANCE.createTimeParameters();
+        Parameter processingTime = DroolsFactory.eINSTANCE.createParameter();
+        UniformDistributionType distribution = DroolsFactory.eINSTANCE.createUniformDistributionType();
+        distribution.setMin(1);
+        distribution.setMax(5);
+        processingTime.getParameterValue().add(distribution);
+        timeParams.setProcessingTime(processingTime);
+        timeParams.setTimeUnit(TimeUnit.getByName("min"));
+        elementParameters(task.getId()).setTimeParameters(timeParams);
+        return task;
+    }
+
+    private FlowNode userTask(String name) {
+        UserTask task = Bpmn2Factory.eINSTANCE.createUserTask();
+        add(task, name, 100, 80);
+        ElementParametersType parameters = elementParameters(task.getId());
+
+        TimeParameters timeParams = DroolsFactory.eINSTANCE.createTimeParameters();
+        Parameter processingTime = DroolsFactory.eINSTANCE.createParameter();
+        UniformDistributionType distribution = DroolsFactory.eINSTANCE.createUniformDistributionType();
+        distribution.setMin(5);
+        distribution.setMax(30);
+        processingTime.getParameterValue().add(distribution);
+        timeParams.setProcessingTime(processingTime);
+        timeParams.setTimeUnit(TimeUnit.getByName("min"));
+        parameters.setTimeParameters(timeParams);
+
+        ResourceParameters resourceParameters = DroolsFactory.eINSTANCE.createResourceParameters();
+        resourceParameters.setQuantity(floating(3));
+        resourceParameters.setWorkinghours(floating(8));
+        parameters.setResourceParameters(resourceParameters);
+
+        CostParameters costParameters = DroolsFactory.eINSTANCE.createCostParameters();
+        Parameter unitCost = DroolsFactory.eINSTANCE.createParameter();
+        DecimalParameterType unitCostValue = DroolsFactory.eINSTANCE.createDecimalParameterType();
+        unitCostValue.setValue(new BigDecimal(10));
+        unitCost.getParameterValue().add(unitCostValue);
+        costParameters.setUnitCost(unitCost);
+        parameters.setCostParameters(costParameters);
+        return task;
+    }
+
+    private FlowNode add(FlowNode node, String name, float width, float height) {
+        node.setId("_" + (++ids));
+        node.setName(name);
+        process.getFlowElements().add(node);
+        BPMNShape shape = BpmnDiFactory.eINSTANCE.createBPMNShape();
+        shape.setBpmnElement(node);
+        Bounds bounds = DcFactory.eINSTANCE.createBounds();
+        bounds.setX(x);
+        bounds.setY(50);
+        bounds.setWidth(width);
+        bounds.setHeight(height);
+        shape.setBounds(bounds);
+        plane.getPlaneElement().add(shape);
+        x += width + 50;
+        return node;
+    }
+
+    private FlowNode connect(FlowNode source, FlowNode target, Double probability) {
+        SequenceFlow flow = Bpmn2Factory.eINSTANCE.createSequenceFlow();
+        flow.setId("_" + (++ids));
+        flow.setSourceRef(source);
+        flow.setTargetRef(target);
+        process.getFlowElements().add(flow);
+        if (probability != null) {
+            FormalExpression condition = Bpmn2Factory.eINSTANCE.createFormalExpression();
+            condition.setLanguage("http://www.java.com/java");
+            condition.setBody("return true;");
+            flow.setConditionExpression(condition);
+            ControlParameters controlParams = DroolsFactory.eINSTANCE.createControlParameters();
+            controlParams.setProbability(floating(probability));
+            elementParameters(flow.getId()).setControlParameters(controlParams);
+        }
+
+        BPMNEdge edge = BpmnDiFactory.eINSTANCE.createBPMNEdge();
+        edge.setBpmnElement(flow);
+        Bounds sourceBounds = shape(source).getBounds();
+        Bounds targetBounds = shape(target).getBounds();
+        Point point = DcFactory.eINSTANCE.createPoint();
+        point.setX(sourceBounds.getX() + sourceBounds.getWidth() / 2);
+        point.setY(sourceBounds.getY() + sourceBounds.getHeight() / 2);
+        edge.getWaypoint().add(point);
+        point = DcFactory.eINSTANCE.createPoint();
+        point.setX(targetBounds.getX() + targetBounds.getWidth() / 2);
+        point.setY(targetBounds.getY() + targetBounds.getHeight() / 2);
+        edge.getWaypoint().add(point);
+        plane.getPlaneElement().add(edge);
+        return target;
+    }
+
+    private BPMNShape shape(FlowNode node) {
+        // the shape of a node is added right after the node, look from the end
+        for (int i = plane.getPlaneElement().size() - 1; i >= 0; i--) {
+            if (plane.getPlaneElement().get(i) instanceof BPMNShape
+                    && ((BPMNShape) plane.getPlaneElement().get(i)).getBpmnElement() == node) {
+                return (BPMNShape) plane.getPlaneElement().get(i);
+            }
+        }
+        throw new IllegalStateException("No shape for " + node.getId());
+    }
+
+    private ElementParametersType elementParameters(String elementId) {
+        for (ElementParametersType parameters : scenario.getElementParameters()) {
+            if (elementId.equals(parameters.getElementId())) {
+                return parameters;
+            }
+        }
+        ElementParametersType parameters = DroolsFactory.eINSTANCE.createElementParametersType();
+        parameters.setElementId(elementId);
+        scenario.getElementParameters().add(parameters);
+        return parameters;
+    }
+
+    private static Parameter floating(double value) {
+        Parameter parameter = DroolsFactory.eINSTANCE.createParameter();
+        FloatingParameterType parameterValue = DroolsFactory.eINSTANCE.createFloatingParameterType();
+        parameterValue.setValue(value);
+        parameter.getParameterValue().add(parameterValue);
+        return parameter;
+    }
+}
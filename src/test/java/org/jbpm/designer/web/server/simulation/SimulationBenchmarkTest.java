@@ -0,0 +1,28 @@
+package org.jbpm.designer.web.server.simulation;
+
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SimulationBenchmarkTest {
+
+    @Test
+    public void testFindRegressions() throws Exception {
+        JSONArray baseline = new JSONArray()
+                .put(new JSONObject().put("model", "linear").put("instances", 100).put("instancesPerSecond", 1000d))
+                .put(new JSONObject().put("model", "xor").put("instances", 100).put("instancesPerSecond", 1000d));
+        JSONArray results = new JSONArray()
+                .put(new JSONObject().put("model", "linear").put("instances", 100).put("instancesPerSecond", 950d))
+                .put(new JSONObject().put("model", "xor").put("instances", 100).put("instancesPerSecond", 800d))
+                .put(new JSONObject().put("model", "and").put("instances", 100).put("error", "failed"));
+
+        List<String> regressions = SimulationBenchmark.findRegressions(results, baseline, 0.1);
+        assertEquals(1, regressions.size());
+        assertTrue(regressions.get(0).startsWith("xor/100"));
+    }
+}
@@ -0,0 +1,344 @@
+package org.jbpm.designer.web.server.simulation;
+
+import java.io.StringWriter;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.bpmn2.Definitions;
+import org.jboss.drools.impl.DroolsFactoryImpl;
+import org.jbpm.designer.bpmn2.impl.Bpmn2JsonMarshaller;
+import org.jbpm.designer.web.profile.impl.JbpmProfileImpl;
+import org.jbpm.simulation.SimulationEvent;
+import org.jbpm.simulation.impl.events.ActivitySimulationEvent;
+import org.jbpm.simulation.impl.events.AggregatedProcessSimulationEvent;
+import org.jbpm.simulation.impl.events.EndSimulationEvent;
+import org.jbpm.simulation.impl.events.GenericSimulationEvent;
+import org.jbpm.simulation.impl.events.HumanTaskActivitySimulationEvent;
+import org.joda.time.DateTime;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class SimulationResultWriterTest {
+
+    private static final int INSTANCES = 5;
+
+    private static DateTime simTime;
+    private static ShardedSimulationRunner.Result result;
+
+    @BeforeClass
+    public static void simulate() throws Exception {
+        DroolsFactoryImpl.init();
+        JbpmProfileImpl profile = new JbpmProfileImpl();
+        Definitions def = SimulationBenchmarkModels.create(SimulationBenchmarkModels.Model.HUMANTASK, 2);
+        Bpmn2JsonMarshaller marshaller = new Bpmn2JsonMarshaller();
+        marshaller.setProfile(profile);
+        String processXML = profile.createMarshaller().parseModel(marshaller.marshall(def, ""), "");
+        simTime = new DateTime();
+        result = new ShardedSimulationRunner().run("benchmark.humantask", processXML, INSTANCES, 1000, 1);
+    }
+
+    @AfterClass
+    public static void shutdown() {
+        ShardedSimulationRunner.shutdown();
+    }
+
+    private static JSONObject write(int maxPoints) throws Exception {
+        StringWriter writer = new StringWriter();
+        new SimulationResultWriter(result, simTime, "seconds", INSTANCES, maxPoints).write(writer);
+        return new JSONObject(writer.toString());
+    }
+
+    private static int countTimelineEvents() {
+        int count = 0;
+        for (SimulationEvent se : result.getEvents()) {
+            if (SimulationResultWriter.isTimelineEvent(se)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testSameAsJSONObject() throws Exception {
+        int total = countTimelineEvents();
+        assertTrue(total > 0);
+        JSONObject streamed = write(total);
+        JSONObject expected = new JSONObject(buildJSONObject("seconds").toString());
+
+        // the count of each timeline entry and the total are the only additions
+        assertEquals(total, streamed.getJSONObject("timeline").getInt("total"));
+        JSONArray dates = streamed.getJSONObject("timeline").getJSONArray("date");
+        for (int i = 0; i < dates.length(); i++) {
+            assertEquals(1, dates.getJSONObject(i).getInt("count"));
+            dates.getJSONObject(i).remove("count");
+        }
+        streamed.getJSONObject("timeline").remove("total");
+        assertJsonEquals("", expected, streamed);
+    }
+
+    @Test
+    public void testTimelineIsSampled() throws Exception {
+        int total = countTimelineEvents();
+        assertTrue(total > 3);
+        JSONObject streamed = write(3);
+        JSONArray dates = streamed.getJSONObject("timeline").getJSONArray("date");
+        assertTrue(dates.length() <= 3);
+        assertTrue(streamed.getJSONArray("eventaggregations").length() <= dates.length());
+        int count = 0;
+        for (int i = 0; i < dates.length(); i++) {
+            count += dates.getJSONObject(i).getInt("count");
+        }
+        assertEquals(total, count);
+        assertEquals(total, streamed.getJSONObject("timeline").getInt("total"));
+    }
+
+    @Test
+    public void testSample() {
+        List<SimulationEvent> events = result.getEvents();
+        int total = countTimelineEvents();
+
+        List<SimulationResultWriter.Sample> all = SimulationResultWriter.sample(events, total);
+        assertEquals(total, all.size());
+        for (SimulationResultWriter.Sample sample : all) {
+            assertEquals(1, sample.count);
+        }
+
+        for (int maxPoints = 1; maxPoints < total; maxPoints++) {
+            List<SimulationResultWriter.Sample> samples = SimulationResultWriter.sample(events, maxPoints);
+            assertFalse(samples.isEmpty());
+            assertTrue(samples.size() <= maxPoints);
+            int count = 0;
+            long previousEnd = Long.MIN_VALUE;
+            for (SimulationResultWriter.Sample sample : samples) {
+                assertTrue(SimulationResultWriter.isTimelineEvent(sample.event));
+                assertTrue(sample.event.getEndTime() >= previousEnd);
+                previousEnd = sample.event.getEndTime();
+                count += sample.count;
+            }
+            assertEquals(total, count);
+        }
+
+        // a single bucket stands for all events and ends with the last of them
+        SimulationResultWriter.Sample last = SimulationResultWriter.sample(events, 1).get(0);
+        for (SimulationEvent se : events) {
+            if (SimulationResultWriter.isTimelineEvent(se)) {
+                assertTrue(se.getEndTime() <= last.event.getEndTime());
+            }
+        }
+        assertTrue(SimulationResultWriter.sample(Collections.<SimulationEvent> emptyList(), 10).isEmpty());
+    }
+
+    private static void assertJsonEquals(String path, Object expected, Object actual) throws Exception {
+        if (expected instanceof JSONObject) {
+            assertTrue(path, actual instanceof JSONObject);
+            JSONObject expectedObject = (JSONObject) expected;
+            JSONObject actualObject = (JSONObject) actual;
+            assertEquals(path, expectedObject.length(), actualObject.length());
+            Iterator<?> keys = expectedObject.keys();
+            while (keys.hasNext()) {
+                String key = (String) keys.next();
+                assertTrue(path + "/" + key, actualObject.has(key));
+                assertJsonEquals(path + "/" + key, expectedObject.get(key), actualObject.get(key));
+            }
+        } else if (expected instanceof JSONArray) {
+            assertTrue(path, actual instanceof JSONArray);
+            JSONArray expectedArray = (JSONArray) expected;
+            JSONArray actualArray = (JSONArray) actual;
+            assertEquals(path, expectedArray.length(), actualArray.length());
+            for (int i = 0; i < expectedArray.length(); i++) {
+                assertJsonEquals(path + "[" + i + "]", expectedArray.get(i), actualArray.get(i));
+            }
+        } else if (expected instanceof Number) {
+            assertTrue(path, actual instanceof Number);
+            assertEquals(path, ((Number) expected).doubleValue(), ((Number) actual).doubleValue(), 0);
+        } else {
+            assertEquals(path, expected, actual);
+        }
+    }
+
+    /**
+     * The response as SimulationServlet built it before the writer, with the
+     * activity instances in the order of the aggregates rather than in hash
+     * order.
+     */
+    private static JSONObject buildJSONObject(String intervalUnit) throws Exception {
+        JSONObject parentJSON = new JSONObject();
+        JSONObject simInfoKeys = new JSONObject();
+        simInfoKeys.put("id", result.getInfo().getProcessId() == null ? "" : result.getInfo().getProcessId());
+        simInfoKeys.put("name", result.getInfo().getProcessName() == null ? "" : result.getInfo().getProcessName());
+        simInfoKeys.put("executions", result.getNumberOfExecutions());
+        SimpleDateFormat infoDateFormat = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss");
+        simInfoKeys.put("starttime", infoDateFormat.format(new Date(result.getStartTime())));
+        simInfoKeys.put("endtime", infoDateFormat.format(new Date(result.getEndTime())));
+        simInfoKeys.put("version", result.getInfo().getProcessVersion() == null ? "" : result.getInfo().getProcessVersion());
+        simInfoKeys.put("interval", (int) result.getInfo().getInterval() / 1000 + " seconds");
+        simInfoKeys.put("shards", result.getShards());
+        parentJSON.put("siminfo", new JSONArray().put(simInfoKeys));
+
+        JSONArray processSim = new JSONArray();
+        JSONArray htSim = new JSONArray();
+        JSONArray taskSim = new JSONArray();
+        Map<String, Integer> pathInfoMap = null;
+        JSONArray numInstancesValues = new JSONArray();
+        for (SimulationAggregate event : result.getAggregates()) {
+            if (event.getType() == SimulationAggregate.Type.PROCESS) {
+                processSim.put(aggregate("Process Avarages", event).put("values", minutes(event.getExecutionTime(),
+                        "Max Execution Time", "Min Execution Time", "Avg. Execution Time")));
+                pathInfoMap = event.getPathNumberOfInstances();
+                continue;
+            }
+            numInstancesValues.put(value(event.getName(), event.getNumberOfInstances()));
+            if (event.getType() == SimulationAggregate.Type.HUMAN_TASK) {
+                JSONArray timeValues = new JSONArray();
+                timeValues.put(new JSONObject().put("key", "Execution Times").put("color", "#1f77b4")
+                        .put("values", minutes(event.getExecutionTime(), "Max", "Min", "Average")));
+                timeValues.put(new JSONObject().put("key", "Wait Times").put("color", "#d62728")
+                        .put("values", minutes(event.getWaitTime(), "Max", "Min", "Average")));
+                JSONObject allValues = aggregate("Human Task Avarages", event).put("timevalues", timeValues);
+                allValues.put("resourcevalues", aggregate("Resource Allocations", event)
+                        .put("values", values(event.getResourceUtilization())));
+                allValues.put("costvalues", aggregate("Resource Cost", event)
+                        .put("values", values(event.getResourceCost())));
+                htSim.put(allValues);
+            } else if (event.getType() == SimulationAggregate.Type.ACTIVITY) {
+                taskSim.put(aggregate("Task Avarages", event).put("values", minutes(event.getExecutionTime(),
+                        "Max. Execution Time", "Min. Execution Time", "Avg. Execution Time")));
+            }
+        }
+        JSONObject numInstancesSimKeys = new JSONObject();
+        numInstancesSimKeys.put("key", "Activity Instances");
+        numInstancesSimKeys.put("id", "Activity Instances");
+        numInstancesSimKeys.put("name", "Activity Instances");
+        numInstancesSimKeys.put("values", numInstancesValues);
+        parentJSON.put("processsim", processSim);
+        parentJSON.put("activityinstances", new JSONArray().put(numInstancesSimKeys));
+        parentJSON.put("htsim", htSim);
+        parentJSON.put("tasksim", taskSim);
+
+        JSONObject timeline = new JSONObject();
+        timeline.put("headline", "Simulation Events");
+        timeline.put("type", "default");
+        timeline.put("text", "Simulation Events");
+        JSONArray dates = new JSONArray();
+        List<SimulationEvent> eventAggregations = new ArrayList<SimulationEvent>();
+        List<Long> eventAggregationsTimes = new ArrayList<Long>();
+        for (SimulationEvent se : result.getEvents()) {
+            if ((se instanceof EndSimulationEvent) || (se instanceof ActivitySimulationEvent)
+                    || (se instanceof HumanTaskActivitySimulationEvent)) {
+                dates.put(timelineEvent(se));
+                eventAggregations.add(se);
+                eventAggregationsTimes.add((se.getEndTime() - simTime.getMillis()) / 1000);
+            }
+        }
+        timeline.put("date", dates);
+        Collections.sort(eventAggregationsTimes);
+        parentJSON.put("timeline", timeline);
+
+        JSONArray aggregations = new JSONArray();
+        int c = 0;
+        for (SimulationEvent simEve : eventAggregations) {
+            AggregatedProcessSimulationEvent aggProcessEve = (AggregatedProcessSimulationEvent) ((GenericSimulationEvent) simEve)
+                    .getAggregatedEvent();
+            if (aggProcessEve != null) {
+                JSONObject eventProcessSimKeys = new JSONObject();
+                eventProcessSimKeys.put("key", "Process Avarages");
+                eventProcessSimKeys.put("id", aggProcessEve.getProcessId());
+                eventProcessSimKeys.put("name", aggProcessEve.getProcessName());
+                eventProcessSimKeys.put("timesincestart", eventAggregationsTimes.get(c));
+                eventProcessSimKeys.put("timeunit", intervalUnit);
+                JSONArray eventProcessSimValues = new JSONArray();
+                eventProcessSimValues.put(value("Max Execution Time", adjustToMins(aggProcessEve.getMaxExecutionTime())));
+                eventProcessSimValues.put(value("Min Execution Time", adjustToMins(aggProcessEve.getMinExecutionTime())));
+                eventProcessSimValues.put(value("Avg. Execution Time", adjustToMins(aggProcessEve.getAvgExecutionTime())));
+                eventProcessSimKeys.put("values", eventProcessSimValues);
+                aggregations.put(eventProcessSimKeys);
+                c++;
+            }
+        }
+        parentJSON.put("eventaggregations", aggregations);
+
+        assertNotNull(pathInfoMap);
+        JSONArray processPaths = new JSONArray();
+        for (Map.Entry<String, Integer> path : new LinkedHashMap<String, Integer>(pathInfoMap).entrySet()) {
+            processPaths.put(new JSONObject().put("id", path.getKey()).put("numinstances", path.getValue())
+                    .put("totalinstances", INSTANCES));
+        }
+        parentJSON.put("pathsim", processPaths);
+        return parentJSON;
+    }
+
+    private static JSONObject aggregate(String key, SimulationAggregate event) throws Exception {
+        return new JSONObject().put("key", key).put("id", event.getId()).put("name", event.getName());
+    }
+
+    private static JSONObject value(String label, double value) throws Exception {
+        return new JSONObject().put("label", label).put("value", value);
+    }
+
+    private static JSONArray minutes(SimulationAggregate.Statistic statistic, String maxLabel, String minLabel,
+            String avgLabel) throws Exception {
+        return new JSONArray().put(value(maxLabel, adjustToMins(statistic.getMax())))
+                .put(value(minLabel, adjustToMins(statistic.getMin())))
+                .put(value(avgLabel, adjustToMins(statistic.getAvg())));
+    }
+
+    private static JSONArray values(SimulationAggregate.Statistic statistic) throws Exception {
+        DecimalFormat twoDForm = new DecimalFormat("#.##");
+        return new JSONArray().put(value("Max", Double.valueOf(twoDForm.format(statistic.getMax()))))
+                .put(value("Min", Double.valueOf(twoDForm.format(statistic.getMin()))))
+                .put(value("Average", Double.valueOf(twoDForm.format(statistic.getAvg()))));
+    }
+
+    private static double adjustToMins(double in) {
+        if (in > 0) {
+            in = in / (1000 * 60);
+        }
+        return Double.valueOf(new DecimalFormat("#.##").format(in));
+    }
+
+    private static JSONObject timelineEvent(SimulationEvent se) throws Exception {
+        JSONObject seObject = new JSONObject();
+        seObject.put("id", se.getUUID().toString());
+        seObject.put("startDate", dateString(se.getStartTime()));
+        seObject.put("endDate", dateString(se.getEndTime()));
+        if (se instanceof EndSimulationEvent) {
+            seObject.put("headline", ((EndSimulationEvent) se).getActivityName());
+            seObject.put("activityid", ((EndSimulationEvent) se).getActivityId());
+        } else if (se instanceof ActivitySimulationEvent) {
+            seObject.put("headline", ((ActivitySimulationEvent) se).getActivityName());
+            seObject.put("activityid", ((ActivitySimulationEvent) se).getActivityId());
+        } else {
+            seObject.put("headline", ((HumanTaskActivitySimulationEvent) se).getActivityName());
+            seObject.put("activityid", ((HumanTaskActivitySimulationEvent) se).getActivityId());
+        }
+        seObject.put("text", "");
+        seObject.put("tag", "");
+        String thumbnail = se instanceof ActivitySimulationEvent ? "activity.png"
+                : se instanceof EndSimulationEvent ? "endevent.png" : "humantask.png";
+        seObject.put("asset", new JSONObject().put("media", "")
+                .put("thumbnail", "/designer/images/simulation/timeline/" + thumbnail)
+                .put("credit", "").put("caption", ""));
+        return seObject;
+    }
+
+    private static String dateString(long seDate) {
+        DateTime dt = new DateTime(seDate);
+        return dt.getYear() + "," + dt.getMonthOfYear() + "," + dt.getDayOfMonth() + "," + dt.getHourOfDay() + ","
+                + dt.getMinuteOfHour() + "," + dt.getSecondOfMinute() + "," + dt.getMillisOfSecond();
+    }
+}